@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2017-2021 DarkCompet. All rights reserved.
+ */
+
+package tool.compet.core;
+
+import androidx.annotation.Nullable;
+
+import java.util.Locale;
+
+import tool.compet.core4j.DkLogger;
+
+/**
+ * Shared by `DkLogcats` and `DkFileLogger` for level gating and lazy formatting.
+ * <p>
+ * Primitive-specialized log methods keep their args as `long` (double is stored as raw bits)
+ * or `Object` with a kind mask, so nothing is boxed or allocated until the message is really
+ * formatted (at logging thread for Logcat, or at writer thread for async file log).
+ * Narrower primitives (int, char, byte, short, float) pass their boxed class as the object of
+ * the arg, so they are formatted as their own type.
+ */
+public class DkLogFormats implements DkLogger.LogType {
+	// Kind of each arg, packed into 2 bits per arg (first arg at lowest bits)
+	public static final int ARG_NONE = 0;
+	public static final int ARG_LONG = 1;
+	public static final int ARG_DOUBLE = 2;
+	public static final int ARG_OBJECT = 3;
+
+	public static final int ARG_LONG_LONG = ARG_LONG | (ARG_LONG << 2);
+	public static final int ARG_OBJECT_OBJECT = ARG_OBJECT | (ARG_OBJECT << 2);
+
+	/**
+	 * @return Severity of log type, higher is more important. We don't rely on value of
+	 * log type constants since they are not ordered by meaning.
+	 */
+	public static int severity(int logType) {
+		switch (logType) {
+			case TYPE_DEBUG: return 0;
+			case TYPE_INFO: return 1;
+			case TYPE_NOTICE: return 2;
+			case TYPE_WARNING: return 3;
+			case TYPE_ERROR: return 4;
+			case TYPE_CRITICAL: return 5;
+			case TYPE_EMERGENCY: return 6;
+			default: return 0;
+		}
+	}
+
+	/**
+	 * Format message from packed args. Falls back to format + args when the format does not
+	 * match the args, so a bad log line never throws.
+	 */
+	public static String format(@Nullable Object where, @Nullable String format, int argKinds,
+		@Nullable Object obj1, long prim1, @Nullable Object obj2, long prim2) {
+
+		StringBuilder sb = new StringBuilder(64);
+
+		if (where != null) {
+			sb.append('[').append(whereName(where)).append("] ");
+		}
+		if (format == null) {
+			return sb.toString();
+		}
+		if (argKinds == ARG_NONE) {
+			return sb.append(format).toString();
+		}
+
+		int kind1 = argKinds & 3;
+		int kind2 = (argKinds >> 2) & 3;
+		Object arg1 = unpack(kind1, obj1, prim1);
+		Object arg2 = unpack(kind2, obj2, prim2);
+		Object[] args = kind2 == ARG_NONE ? new Object[] {arg1} : new Object[] {arg1, arg2};
+
+		try {
+			sb.append(String.format(Locale.US, format, args));
+		}
+		catch (Exception e) {
+			sb.append(format);
+			for (Object arg : args) {
+				sb.append(", ").append(arg);
+			}
+		}
+
+		return sb.toString();
+	}
+
+	// Object of a primitive arg is null or type tag of narrower primitive (for eg,. `Character.class`)
+	private static Object unpack(int kind, Object obj, long prim) {
+		switch (kind) {
+			case ARG_LONG: {
+				if (obj == Integer.class) return (int) prim;
+				if (obj == Character.class) return (char) prim;
+				if (obj == Byte.class) return (byte) prim;
+				if (obj == Short.class) return (short) prim;
+				return prim;
+			}
+			case ARG_DOUBLE: {
+				double value = Double.longBitsToDouble(prim);
+				return obj == Float.class ? (Object) (float) value : (Object) value;
+			}
+			case ARG_OBJECT: return obj;
+			default: return null;
+		}
+	}
+
+	/**
+	 * @return Name of where (caller) which is shown in log.
+	 */
+	public static String whereName(Object where) {
+		if (where instanceof String) {
+			return (String) where;
+		}
+		if (where instanceof Class) {
+			return ((Class<?>) where).getSimpleName();
+		}
+		return where.getClass().getSimpleName();
+	}
+}
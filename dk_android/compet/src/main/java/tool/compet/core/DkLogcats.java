@@ -8,7 +8,6 @@ import android.util.Log;
 
 import androidx.annotation.Nullable;
 
-import java.util.ArrayDeque;
 import java.util.ArrayList;
 
 import tool.compet.core4j.DkLogger;
@@ -27,44 +26,300 @@ public class DkLogcats implements DkLogger.LogType {
 	public static boolean logBackTrace;
 	public static DkRunner2<Integer, String> logCallback; // logType vs logMessage
 
-	// For benchmark
-	private static long benchmarkStartTime;
-	private static ArrayDeque<String> benchmarkTaskNames;
+	// Minimum severity (see `DkLogFormats.severity()`) to be logged
+	private static volatile int minSeverity = DkLogFormats.severity(TYPE_DEBUG);
+
+	/**
+	 * Logs which are less important than given log type are ignored before formatting.
+	 */
+	public static void setMinLogType(int logType) {
+		minSeverity = DkLogFormats.severity(logType);
+	}
+
+	/**
+	 * @return True if log of given type will be written. Check this first when logging with
+	 * many args, to avoid allocating varargs array for filtered logs.
+	 */
+	public static boolean isLoggable(int logType) {
+		int severity = DkLogFormats.severity(logType);
+		// debug, info, notice are ignored at production env
+		return severity >= minSeverity && (DEBUG || severity >= DkLogFormats.severity(TYPE_WARNING));
+	}
 
 	/**
 	 * Debug log. Only run at debug env (ignored at production env).
 	 * Notice: should remove all debug code when release.
 	 */
 	public static void debug(@Nullable Object where, @Nullable String format, Object... args) {
-		logger.debug(where, format, args);
+		if (isLoggable(TYPE_DEBUG)) {
+			logger.debug(where, format, args);
+		}
+	}
+
+	// Overloads without varargs and boxing
+	public static void debug(@Nullable Object where, @Nullable String format, long arg) {
+		log(TYPE_DEBUG, where, format, DkLogFormats.ARG_LONG, null, arg, null, 0);
+	}
+
+	public static void debug(@Nullable Object where, @Nullable String format, double arg) {
+		log(TYPE_DEBUG, where, format, DkLogFormats.ARG_DOUBLE, null, Double.doubleToRawLongBits(arg), null, 0);
+	}
+
+	// Narrower primitives are tagged with own type, so they are formatted as before (for eg,. `%c` of char)
+	public static void debug(@Nullable Object where, @Nullable String format, int arg) {
+		log(TYPE_DEBUG, where, format, DkLogFormats.ARG_LONG, Integer.class, arg, null, 0);
+	}
+
+	public static void debug(@Nullable Object where, @Nullable String format, char arg) {
+		log(TYPE_DEBUG, where, format, DkLogFormats.ARG_LONG, Character.class, arg, null, 0);
+	}
+
+	public static void debug(@Nullable Object where, @Nullable String format, byte arg) {
+		log(TYPE_DEBUG, where, format, DkLogFormats.ARG_LONG, Byte.class, arg, null, 0);
+	}
+
+	public static void debug(@Nullable Object where, @Nullable String format, short arg) {
+		log(TYPE_DEBUG, where, format, DkLogFormats.ARG_LONG, Short.class, arg, null, 0);
+	}
+
+	public static void debug(@Nullable Object where, @Nullable String format, float arg) {
+		log(TYPE_DEBUG, where, format, DkLogFormats.ARG_DOUBLE, Float.class, Double.doubleToRawLongBits(arg), null, 0);
+	}
+
+	public static void debug(@Nullable Object where, @Nullable String format, @Nullable Object arg) {
+		log(TYPE_DEBUG, where, format, DkLogFormats.ARG_OBJECT, arg, 0, null, 0);
+	}
+
+	public static void debug(@Nullable Object where, @Nullable String format, long arg1, long arg2) {
+		log(TYPE_DEBUG, where, format, DkLogFormats.ARG_LONG_LONG, null, arg1, null, arg2);
+	}
+
+	public static void debug(@Nullable Object where, @Nullable String format, int arg1, int arg2) {
+		log(TYPE_DEBUG, where, format, DkLogFormats.ARG_LONG_LONG, Integer.class, arg1, Integer.class, arg2);
+	}
+
+	public static void debug(@Nullable Object where, @Nullable String format, @Nullable Object arg1, @Nullable Object arg2) {
+		log(TYPE_DEBUG, where, format, DkLogFormats.ARG_OBJECT_OBJECT, arg1, 0, arg2, 0);
 	}
 
 	/**
 	 * Log info. Only run at debug env (ignored at production env).
 	 */
 	public static void info(@Nullable Object where, @Nullable String format, Object... args) {
-		logger.info(where, format, args);
+		if (isLoggable(TYPE_INFO)) {
+			logger.info(where, format, args);
+		}
+	}
+
+	// Overloads without varargs and boxing
+	public static void info(@Nullable Object where, @Nullable String format, long arg) {
+		log(TYPE_INFO, where, format, DkLogFormats.ARG_LONG, null, arg, null, 0);
+	}
+
+	public static void info(@Nullable Object where, @Nullable String format, double arg) {
+		log(TYPE_INFO, where, format, DkLogFormats.ARG_DOUBLE, null, Double.doubleToRawLongBits(arg), null, 0);
+	}
+
+	// Narrower primitives are tagged with own type, so they are formatted as before (for eg,. `%c` of char)
+	public static void info(@Nullable Object where, @Nullable String format, int arg) {
+		log(TYPE_INFO, where, format, DkLogFormats.ARG_LONG, Integer.class, arg, null, 0);
+	}
+
+	public static void info(@Nullable Object where, @Nullable String format, char arg) {
+		log(TYPE_INFO, where, format, DkLogFormats.ARG_LONG, Character.class, arg, null, 0);
+	}
+
+	public static void info(@Nullable Object where, @Nullable String format, byte arg) {
+		log(TYPE_INFO, where, format, DkLogFormats.ARG_LONG, Byte.class, arg, null, 0);
+	}
+
+	public static void info(@Nullable Object where, @Nullable String format, short arg) {
+		log(TYPE_INFO, where, format, DkLogFormats.ARG_LONG, Short.class, arg, null, 0);
+	}
+
+	public static void info(@Nullable Object where, @Nullable String format, float arg) {
+		log(TYPE_INFO, where, format, DkLogFormats.ARG_DOUBLE, Float.class, Double.doubleToRawLongBits(arg), null, 0);
+	}
+
+	public static void info(@Nullable Object where, @Nullable String format, @Nullable Object arg) {
+		log(TYPE_INFO, where, format, DkLogFormats.ARG_OBJECT, arg, 0, null, 0);
+	}
+
+	public static void info(@Nullable Object where, @Nullable String format, long arg1, long arg2) {
+		log(TYPE_INFO, where, format, DkLogFormats.ARG_LONG_LONG, null, arg1, null, arg2);
+	}
+
+	public static void info(@Nullable Object where, @Nullable String format, int arg1, int arg2) {
+		log(TYPE_INFO, where, format, DkLogFormats.ARG_LONG_LONG, Integer.class, arg1, Integer.class, arg2);
+	}
+
+	public static void info(@Nullable Object where, @Nullable String format, @Nullable Object arg1, @Nullable Object arg2) {
+		log(TYPE_INFO, where, format, DkLogFormats.ARG_OBJECT_OBJECT, arg1, 0, arg2, 0);
 	}
 
 	/**
 	 * Log notice. Only run at debug env (ignored at production env).
 	 */
 	public static void notice(@Nullable Object where, @Nullable String format, Object... args) {
-		logger.notice(where, format, args);
+		if (isLoggable(TYPE_NOTICE)) {
+			logger.notice(where, format, args);
+		}
+	}
+
+	// Overloads without varargs and boxing
+	public static void notice(@Nullable Object where, @Nullable String format, long arg) {
+		log(TYPE_NOTICE, where, format, DkLogFormats.ARG_LONG, null, arg, null, 0);
+	}
+
+	public static void notice(@Nullable Object where, @Nullable String format, double arg) {
+		log(TYPE_NOTICE, where, format, DkLogFormats.ARG_DOUBLE, null, Double.doubleToRawLongBits(arg), null, 0);
+	}
+
+	// Narrower primitives are tagged with own type, so they are formatted as before (for eg,. `%c` of char)
+	public static void notice(@Nullable Object where, @Nullable String format, int arg) {
+		log(TYPE_NOTICE, where, format, DkLogFormats.ARG_LONG, Integer.class, arg, null, 0);
+	}
+
+	public static void notice(@Nullable Object where, @Nullable String format, char arg) {
+		log(TYPE_NOTICE, where, format, DkLogFormats.ARG_LONG, Character.class, arg, null, 0);
+	}
+
+	public static void notice(@Nullable Object where, @Nullable String format, byte arg) {
+		log(TYPE_NOTICE, where, format, DkLogFormats.ARG_LONG, Byte.class, arg, null, 0);
+	}
+
+	public static void notice(@Nullable Object where, @Nullable String format, short arg) {
+		log(TYPE_NOTICE, where, format, DkLogFormats.ARG_LONG, Short.class, arg, null, 0);
+	}
+
+	public static void notice(@Nullable Object where, @Nullable String format, float arg) {
+		log(TYPE_NOTICE, where, format, DkLogFormats.ARG_DOUBLE, Float.class, Double.doubleToRawLongBits(arg), null, 0);
+	}
+
+	public static void notice(@Nullable Object where, @Nullable String format, @Nullable Object arg) {
+		log(TYPE_NOTICE, where, format, DkLogFormats.ARG_OBJECT, arg, 0, null, 0);
+	}
+
+	public static void notice(@Nullable Object where, @Nullable String format, long arg1, long arg2) {
+		log(TYPE_NOTICE, where, format, DkLogFormats.ARG_LONG_LONG, null, arg1, null, arg2);
+	}
+
+	public static void notice(@Nullable Object where, @Nullable String format, int arg1, int arg2) {
+		log(TYPE_NOTICE, where, format, DkLogFormats.ARG_LONG_LONG, Integer.class, arg1, Integer.class, arg2);
+	}
+
+	public static void notice(@Nullable Object where, @Nullable String format, @Nullable Object arg1, @Nullable Object arg2) {
+		log(TYPE_NOTICE, where, format, DkLogFormats.ARG_OBJECT_OBJECT, arg1, 0, arg2, 0);
 	}
 
 	/**
 	 * Warning log. Run at both debug and production env.
 	 */
 	public static void warning(@Nullable Object where, @Nullable String format, Object... args) {
-		logger.warning(where, format, args);
+		if (isLoggable(TYPE_WARNING)) {
+			logger.warning(where, format, args);
+		}
+	}
+
+	// Overloads without varargs and boxing
+	public static void warning(@Nullable Object where, @Nullable String format, long arg) {
+		log(TYPE_WARNING, where, format, DkLogFormats.ARG_LONG, null, arg, null, 0);
+	}
+
+	public static void warning(@Nullable Object where, @Nullable String format, double arg) {
+		log(TYPE_WARNING, where, format, DkLogFormats.ARG_DOUBLE, null, Double.doubleToRawLongBits(arg), null, 0);
+	}
+
+	// Narrower primitives are tagged with own type, so they are formatted as before (for eg,. `%c` of char)
+	public static void warning(@Nullable Object where, @Nullable String format, int arg) {
+		log(TYPE_WARNING, where, format, DkLogFormats.ARG_LONG, Integer.class, arg, null, 0);
+	}
+
+	public static void warning(@Nullable Object where, @Nullable String format, char arg) {
+		log(TYPE_WARNING, where, format, DkLogFormats.ARG_LONG, Character.class, arg, null, 0);
+	}
+
+	public static void warning(@Nullable Object where, @Nullable String format, byte arg) {
+		log(TYPE_WARNING, where, format, DkLogFormats.ARG_LONG, Byte.class, arg, null, 0);
+	}
+
+	public static void warning(@Nullable Object where, @Nullable String format, short arg) {
+		log(TYPE_WARNING, where, format, DkLogFormats.ARG_LONG, Short.class, arg, null, 0);
+	}
+
+	public static void warning(@Nullable Object where, @Nullable String format, float arg) {
+		log(TYPE_WARNING, where, format, DkLogFormats.ARG_DOUBLE, Float.class, Double.doubleToRawLongBits(arg), null, 0);
+	}
+
+	public static void warning(@Nullable Object where, @Nullable String format, @Nullable Object arg) {
+		log(TYPE_WARNING, where, format, DkLogFormats.ARG_OBJECT, arg, 0, null, 0);
+	}
+
+	public static void warning(@Nullable Object where, @Nullable String format, long arg1, long arg2) {
+		log(TYPE_WARNING, where, format, DkLogFormats.ARG_LONG_LONG, null, arg1, null, arg2);
+	}
+
+	public static void warning(@Nullable Object where, @Nullable String format, int arg1, int arg2) {
+		log(TYPE_WARNING, where, format, DkLogFormats.ARG_LONG_LONG, Integer.class, arg1, Integer.class, arg2);
+	}
+
+	public static void warning(@Nullable Object where, @Nullable String format, @Nullable Object arg1, @Nullable Object arg2) {
+		log(TYPE_WARNING, where, format, DkLogFormats.ARG_OBJECT_OBJECT, arg1, 0, arg2, 0);
 	}
 
 	/**
 	 * Error log. Run at both debug and production env.
 	 */
 	public static void error(@Nullable Object where, @Nullable String format, Object... args) {
-		logger.error(where, format, args);
+		if (isLoggable(TYPE_ERROR)) {
+			logger.error(where, format, args);
+		}
+	}
+
+	// Overloads without varargs and boxing
+	public static void error(@Nullable Object where, @Nullable String format, long arg) {
+		log(TYPE_ERROR, where, format, DkLogFormats.ARG_LONG, null, arg, null, 0);
+	}
+
+	public static void error(@Nullable Object where, @Nullable String format, double arg) {
+		log(TYPE_ERROR, where, format, DkLogFormats.ARG_DOUBLE, null, Double.doubleToRawLongBits(arg), null, 0);
+	}
+
+	// Narrower primitives are tagged with own type, so they are formatted as before (for eg,. `%c` of char)
+	public static void error(@Nullable Object where, @Nullable String format, int arg) {
+		log(TYPE_ERROR, where, format, DkLogFormats.ARG_LONG, Integer.class, arg, null, 0);
+	}
+
+	public static void error(@Nullable Object where, @Nullable String format, char arg) {
+		log(TYPE_ERROR, where, format, DkLogFormats.ARG_LONG, Character.class, arg, null, 0);
+	}
+
+	public static void error(@Nullable Object where, @Nullable String format, byte arg) {
+		log(TYPE_ERROR, where, format, DkLogFormats.ARG_LONG, Byte.class, arg, null, 0);
+	}
+
+	public static void error(@Nullable Object where, @Nullable String format, short arg) {
+		log(TYPE_ERROR, where, format, DkLogFormats.ARG_LONG, Short.class, arg, null, 0);
+	}
+
+	public static void error(@Nullable Object where, @Nullable String format, float arg) {
+		log(TYPE_ERROR, where, format, DkLogFormats.ARG_DOUBLE, Float.class, Double.doubleToRawLongBits(arg), null, 0);
+	}
+
+	public static void error(@Nullable Object where, @Nullable String format, @Nullable Object arg) {
+		log(TYPE_ERROR, where, format, DkLogFormats.ARG_OBJECT, arg, 0, null, 0);
+	}
+
+	public static void error(@Nullable Object where, @Nullable String format, long arg1, long arg2) {
+		log(TYPE_ERROR, where, format, DkLogFormats.ARG_LONG_LONG, null, arg1, null, arg2);
+	}
+
+	public static void error(@Nullable Object where, @Nullable String format, int arg1, int arg2) {
+		log(TYPE_ERROR, where, format, DkLogFormats.ARG_LONG_LONG, Integer.class, arg1, Integer.class, arg2);
+	}
+
+	public static void error(@Nullable Object where, @Nullable String format, @Nullable Object arg1, @Nullable Object arg2) {
+		log(TYPE_ERROR, where, format, DkLogFormats.ARG_OBJECT_OBJECT, arg1, 0, arg2, 0);
 	}
 
 	/**
@@ -78,49 +333,158 @@ public class DkLogcats implements DkLogger.LogType {
 	 * Exception log. Run at both debug and production env.
 	 */
 	public static void error(@Nullable Object where, Throwable e, @Nullable String format, Object... args) {
-		logger.error(where, e, format, args);
+		if (isLoggable(TYPE_ERROR)) {
+			logger.error(where, e, format, args);
+		}
 	}
 
 	/**
 	 * Critical log. Run at both debug and production env.
 	 */
 	public static void critical(@Nullable Object where, @Nullable String format, Object... args) {
-		logger.critical(where, format, args);
+		if (isLoggable(TYPE_CRITICAL)) {
+			logger.critical(where, format, args);
+		}
+	}
+
+	// Overloads without varargs and boxing
+	public static void critical(@Nullable Object where, @Nullable String format, long arg) {
+		log(TYPE_CRITICAL, where, format, DkLogFormats.ARG_LONG, null, arg, null, 0);
+	}
+
+	public static void critical(@Nullable Object where, @Nullable String format, double arg) {
+		log(TYPE_CRITICAL, where, format, DkLogFormats.ARG_DOUBLE, null, Double.doubleToRawLongBits(arg), null, 0);
+	}
+
+	// Narrower primitives are tagged with own type, so they are formatted as before (for eg,. `%c` of char)
+	public static void critical(@Nullable Object where, @Nullable String format, int arg) {
+		log(TYPE_CRITICAL, where, format, DkLogFormats.ARG_LONG, Integer.class, arg, null, 0);
+	}
+
+	public static void critical(@Nullable Object where, @Nullable String format, char arg) {
+		log(TYPE_CRITICAL, where, format, DkLogFormats.ARG_LONG, Character.class, arg, null, 0);
+	}
+
+	public static void critical(@Nullable Object where, @Nullable String format, byte arg) {
+		log(TYPE_CRITICAL, where, format, DkLogFormats.ARG_LONG, Byte.class, arg, null, 0);
+	}
+
+	public static void critical(@Nullable Object where, @Nullable String format, short arg) {
+		log(TYPE_CRITICAL, where, format, DkLogFormats.ARG_LONG, Short.class, arg, null, 0);
+	}
+
+	public static void critical(@Nullable Object where, @Nullable String format, float arg) {
+		log(TYPE_CRITICAL, where, format, DkLogFormats.ARG_DOUBLE, Float.class, Double.doubleToRawLongBits(arg), null, 0);
+	}
+
+	public static void critical(@Nullable Object where, @Nullable String format, @Nullable Object arg) {
+		log(TYPE_CRITICAL, where, format, DkLogFormats.ARG_OBJECT, arg, 0, null, 0);
+	}
+
+	public static void critical(@Nullable Object where, @Nullable String format, long arg1, long arg2) {
+		log(TYPE_CRITICAL, where, format, DkLogFormats.ARG_LONG_LONG, null, arg1, null, arg2);
+	}
+
+	public static void critical(@Nullable Object where, @Nullable String format, int arg1, int arg2) {
+		log(TYPE_CRITICAL, where, format, DkLogFormats.ARG_LONG_LONG, Integer.class, arg1, Integer.class, arg2);
+	}
+
+	public static void critical(@Nullable Object where, @Nullable String format, @Nullable Object arg1, @Nullable Object arg2) {
+		log(TYPE_CRITICAL, where, format, DkLogFormats.ARG_OBJECT_OBJECT, arg1, 0, arg2, 0);
 	}
 
 	/**
 	 * Emergency log. Run at both debug and production env.
 	 */
 	public static void emergency(@Nullable Object where, @Nullable String format, Object... args) {
-		logger.emergency(where, format, args);
+		if (isLoggable(TYPE_EMERGENCY)) {
+			logger.emergency(where, format, args);
+		}
+	}
+
+	// Overloads without varargs and boxing
+	public static void emergency(@Nullable Object where, @Nullable String format, long arg) {
+		log(TYPE_EMERGENCY, where, format, DkLogFormats.ARG_LONG, null, arg, null, 0);
+	}
+
+	public static void emergency(@Nullable Object where, @Nullable String format, double arg) {
+		log(TYPE_EMERGENCY, where, format, DkLogFormats.ARG_DOUBLE, null, Double.doubleToRawLongBits(arg), null, 0);
+	}
+
+	// Narrower primitives are tagged with own type, so they are formatted as before (for eg,. `%c` of char)
+	public static void emergency(@Nullable Object where, @Nullable String format, int arg) {
+		log(TYPE_EMERGENCY, where, format, DkLogFormats.ARG_LONG, Integer.class, arg, null, 0);
+	}
+
+	public static void emergency(@Nullable Object where, @Nullable String format, char arg) {
+		log(TYPE_EMERGENCY, where, format, DkLogFormats.ARG_LONG, Character.class, arg, null, 0);
+	}
+
+	public static void emergency(@Nullable Object where, @Nullable String format, byte arg) {
+		log(TYPE_EMERGENCY, where, format, DkLogFormats.ARG_LONG, Byte.class, arg, null, 0);
+	}
+
+	public static void emergency(@Nullable Object where, @Nullable String format, short arg) {
+		log(TYPE_EMERGENCY, where, format, DkLogFormats.ARG_LONG, Short.class, arg, null, 0);
+	}
+
+	public static void emergency(@Nullable Object where, @Nullable String format, float arg) {
+		log(TYPE_EMERGENCY, where, format, DkLogFormats.ARG_DOUBLE, Float.class, Double.doubleToRawLongBits(arg), null, 0);
+	}
+
+	public static void emergency(@Nullable Object where, @Nullable String format, @Nullable Object arg) {
+		log(TYPE_EMERGENCY, where, format, DkLogFormats.ARG_OBJECT, arg, 0, null, 0);
+	}
+
+	public static void emergency(@Nullable Object where, @Nullable String format, long arg1, long arg2) {
+		log(TYPE_EMERGENCY, where, format, DkLogFormats.ARG_LONG_LONG, null, arg1, null, arg2);
+	}
+
+	public static void emergency(@Nullable Object where, @Nullable String format, int arg1, int arg2) {
+		log(TYPE_EMERGENCY, where, format, DkLogFormats.ARG_LONG_LONG, Integer.class, arg1, Integer.class, arg2);
+	}
+
+	public static void emergency(@Nullable Object where, @Nullable String format, @Nullable Object arg1, @Nullable Object arg2) {
+		log(TYPE_EMERGENCY, where, format, DkLogFormats.ARG_OBJECT_OBJECT, arg1, 0, arg2, 0);
 	}
 
 	/**
-	 * Start benchmark. Only run at debug env (ignored at production env).
+	 * Start benchmark as a span of `DkTracer` at current thread, so it can be nested.
+	 * Only run at debug env (ignored at production env), use `DkTracer` directly for release build.
 	 */
 	public static void tick(@Nullable Object where, String task) {
 		if (DEBUG) {
-			if (benchmarkTaskNames == null) {
-				benchmarkTaskNames = new ArrayDeque<>();
-			}
-
-			benchmarkTaskNames.push(task);
 			logger.debug(where, "Task [%s] was started", task);
-			benchmarkStartTime = System.currentTimeMillis();
+			DkTracer.begin(task);
 		}
 	}
 
 	/**
-	 * End benchmark. Only run at debug env (ignored at production env).
+	 * End latest benchmark of current thread. Only run at debug env (ignored at production env).
 	 */
 	public static void tock(@Nullable Object where) {
 		if (DEBUG) {
-			long elapsed = System.currentTimeMillis() - benchmarkStartTime;
-			logger.debug(where,
-				"Task [%s] end in: %d s %d ms",
-				benchmarkTaskNames.pop(),
-				elapsed / 1000,
-				(elapsed - 1000 * (elapsed / 1000)));
+			String task = DkTracer.currentSpan();
+			long elapsed = DkTracer.end();
+
+			if (task == null) {
+				logger.warning(where, "No task was started at this thread");
+			}
+			else if (elapsed < 0) {
+				logger.debug(where, "Task [%s] end, elapsed time was not traced since DkTracer is disabled", task);
+			}
+			else {
+				logger.debug(where, "Task [%s] end in: %.3f ms", task, elapsed / 1_000_000.0);
+			}
+		}
+	}
+
+	// Format only when passed level gate
+	private static void log(int logType, @Nullable Object where, @Nullable String format, int argKinds,
+		@Nullable Object obj1, long prim1, @Nullable Object obj2, long prim2) {
+
+		if (isLoggable(logType)) {
+			logActual(logType, DkLogFormats.format(where, format, argKinds, obj1, prim1, obj2, prim2));
 		}
 	}
 
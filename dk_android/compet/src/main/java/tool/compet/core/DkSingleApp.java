@@ -12,6 +12,8 @@ import androidx.lifecycle.ViewModelStore;
 
 import java.util.Locale;
 
+import tool.compet.storage.DkMemoryCache;
+import tool.compet.storage.DkPreferencePreloader;
 import tool.compet.topic.DkTopicOwner;
 import tool.compet.core4j.BuildConfig;
 import tool.compet.core4j.DkExecutorService;
@@ -39,6 +41,24 @@ public class DkSingleApp extends Application implements DkApp {
 			tool.compet.BuildConfig.class.getPackage().getName(),
 			this.getClass().getPackage().getName()
 		);
+
+		// Let memory cache shrink when the system is running low on memory
+		registerComponentCallbacks(DkMemoryCache.getIns());
+
+		// Load preference files at background, so first access at main thread does not block
+		String[] preloadPrefNames = preloadPreferences();
+		if (preloadPrefNames != null) {
+			DkPreferencePreloader.getIns().declare(preloadPrefNames);
+		}
+		DkPreferencePreloader.getIns().start(this);
+	}
+
+	/**
+	 * Override to declare preference files which should be loaded at background when app starts.
+	 * Use `DkPreferencePreloader.getIns().whenWarm()` to wait until a file was loaded.
+	 */
+	protected String[] preloadPreferences() {
+		return null;
 	}
 
 	// This makes the app become view model store owner
@@ -0,0 +1,245 @@
+/*
+ * Copyright (c) 2017-2021 DarkCompet. All rights reserved.
+ */
+
+package tool.compet.core;
+
+import android.os.Build;
+import android.os.Trace;
+
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Tracing with nested spans. Each thread has own span stack, so nested and concurrent spans
+ * don't affect each other. Duration is measured with `System.nanoTime()`, and each span is
+ * also emitted as `android.os.Trace` section (API 18+) to be seen in systrace/Perfetto.
+ * <p>
+ * Durations are aggregated per span name into histograms (count, p50, p95, p99, max),
+ * which can be dumped on demand. It is cheap (no allocation per span), so can be kept in
+ * release build to profile hot paths.
+ *
+ * Usage:
+ * <pre>
+ *    DkTracer.begin("load_feed");
+ *    ...
+ *    DkTracer.begin("parse");
+ *    ...
+ *    DkTracer.end(); // parse
+ *    DkTracer.end(); // load_feed
+ *
+ *    // Or
+ *    try (DkTracer.Span ignored = DkTracer.span("load_feed")) {
+ *       ...
+ *    }
+ *
+ *    DkLogcats.info(this, DkTracer.dump());
+ * </pre>
+ */
+public class DkTracer {
+	// Max length of section name which android.os.Trace accepts
+	private static final int MAX_SECTION_NAME_LENGTH = 127;
+
+	private static volatile boolean enabled = true;
+	private static volatile boolean systemTraceEnabled = true;
+
+	// Span name vs its histogram
+	private static final ConcurrentHashMap<String, MyTraceHistogram> histograms = new ConcurrentHashMap<>();
+
+	private static final ThreadLocal<SpanStack> spanStacks = new ThreadLocal<SpanStack>() {
+		@Override
+		protected SpanStack initialValue() {
+			return new SpanStack();
+		}
+	};
+
+	/**
+	 * Enable or disable tracing. When disabled, `begin()` and `end()` do nothing except keeping
+	 * the stack balanced.
+	 */
+	public static void setEnabled(boolean enabled) {
+		DkTracer.enabled = enabled;
+	}
+
+	/**
+	 * Enable or disable emission of `android.os.Trace` sections.
+	 */
+	public static void setSystemTraceEnabled(boolean systemTraceEnabled) {
+		DkTracer.systemTraceEnabled = systemTraceEnabled;
+	}
+
+	/**
+	 * Start a span at current thread. Must be ended by `end()` at same thread.
+	 */
+	public static void begin(String name) {
+		SpanStack stack = spanStacks.get();
+
+		boolean recorded = enabled;
+		boolean traced = recorded && systemTraceEnabled && Build.VERSION.SDK_INT >= 18;
+
+		if (traced) {
+			Trace.beginSection(name.length() > MAX_SECTION_NAME_LENGTH ? name.substring(0, MAX_SECTION_NAME_LENGTH) : name);
+		}
+
+		stack.push(name, recorded, traced, recorded ? System.nanoTime() : 0);
+	}
+
+	/**
+	 * End latest span of current thread.
+	 *
+	 * @return Elapsed nanos of the span, or -1 if no span was started or tracing was disabled.
+	 */
+	public static long end() {
+		long endTime = System.nanoTime();
+		SpanStack stack = spanStacks.get();
+
+		if (stack.depth == 0) {
+			return -1;
+		}
+
+		int top = --stack.depth;
+		String name = stack.names[top];
+		stack.names[top] = null;
+
+		if (stack.traced[top] && Build.VERSION.SDK_INT >= 18) {
+			Trace.endSection();
+		}
+		if (! stack.recorded[top]) {
+			return -1;
+		}
+
+		long elapsed = endTime - stack.startTimes[top];
+		obtainHistogram(name).record(elapsed);
+
+		return elapsed;
+	}
+
+	/**
+	 * Start a span which is ended when closed, for use with try-with-resources.
+	 * Returned object is reused per thread, so don't keep it.
+	 */
+	public static Span span(String name) {
+		begin(name);
+		return spanStacks.get().span;
+	}
+
+	/**
+	 * @return Name of latest span of current thread, or null if no span.
+	 */
+	@Nullable
+	public static String currentSpan() {
+		SpanStack stack = spanStacks.get();
+		return stack.depth == 0 ? null : stack.names[stack.depth - 1];
+	}
+
+	/**
+	 * @return Number of ended spans with given name.
+	 */
+	public static long getCount(String name) {
+		MyTraceHistogram histogram = histograms.get(name);
+		return histogram == null ? 0 : histogram.count();
+	}
+
+	/**
+	 * @param percentile In range [0, 1], for eg,. 0.95 for p95.
+	 * @return Duration (nanos) at given percentile of spans with given name, or 0 if none.
+	 */
+	public static long getPercentileNanos(String name, double percentile) {
+		MyTraceHistogram histogram = histograms.get(name);
+		return histogram == null ? 0 : histogram.percentile(percentile);
+	}
+
+	/**
+	 * @return Table of all spans (sorted by total time, desc) with count, total, p50, p95, p99, max.
+	 * Durations are in millis.
+	 */
+	public static String dump() {
+		List<Map.Entry<String, MyTraceHistogram>> entries = new ArrayList<>(histograms.entrySet());
+		Collections.sort(entries, (lhs, rhs) -> Long.compare(rhs.getValue().sum(), lhs.getValue().sum()));
+
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format(Locale.US, "%-32s %8s %10s %9s %9s %9s %9s",
+			"span", "count", "total", "p50", "p95", "p99", "max"));
+
+		for (Map.Entry<String, MyTraceHistogram> entry : entries) {
+			MyTraceHistogram histogram = entry.getValue();
+			sb.append('\n').append(String.format(Locale.US, "%-32s %8d %10.3f %9.3f %9.3f %9.3f %9.3f",
+				entry.getKey(),
+				histogram.count(),
+				millis(histogram.sum()),
+				millis(histogram.percentile(0.50)),
+				millis(histogram.percentile(0.95)),
+				millis(histogram.percentile(0.99)),
+				millis(histogram.max())));
+		}
+
+		return sb.toString();
+	}
+
+	/**
+	 * Clear all histograms. Opening spans are not affected.
+	 */
+	public static void reset() {
+		for (MyTraceHistogram histogram : histograms.values()) {
+			histogram.reset();
+		}
+	}
+
+	private static MyTraceHistogram obtainHistogram(String name) {
+		MyTraceHistogram histogram = histograms.get(name);
+		if (histogram == null) {
+			MyTraceHistogram newHistogram = new MyTraceHistogram();
+			histogram = histograms.putIfAbsent(name, newHistogram);
+			if (histogram == null) {
+				histogram = newHistogram;
+			}
+		}
+		return histogram;
+	}
+
+	private static double millis(long nanos) {
+		return nanos / 1_000_000.0;
+	}
+
+	/**
+	 * Closeable span, call `close()` to end it.
+	 */
+	public static class Span implements AutoCloseable {
+		@Override
+		public void close() {
+			end();
+		}
+	}
+
+	// Span stack of a thread, grows when needed
+	private static class SpanStack {
+		final Span span = new Span();
+		String[] names = new String[8];
+		long[] startTimes = new long[8];
+		boolean[] recorded = new boolean[8];
+		boolean[] traced = new boolean[8];
+		int depth;
+
+		void push(String name, boolean recorded, boolean traced, long startTime) {
+			if (depth == names.length) {
+				int newLength = depth << 1;
+				names = Arrays.copyOf(names, newLength);
+				startTimes = Arrays.copyOf(startTimes, newLength);
+				this.recorded = Arrays.copyOf(this.recorded, newLength);
+				this.traced = Arrays.copyOf(this.traced, newLength);
+			}
+			names[depth] = name;
+			startTimes[depth] = startTime;
+			this.recorded[depth] = recorded;
+			this.traced[depth] = traced;
+			++depth;
+		}
+	}
+}
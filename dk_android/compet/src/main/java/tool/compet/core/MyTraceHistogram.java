@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2017-2021 DarkCompet. All rights reserved.
+ */
+
+package tool.compet.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free log-linear histogram of durations (nanos). Each power of 2 is split into
+ * 16 sub-buckets, so recorded percentile has relative error under 1/16 (~6%),
+ * and memory is fixed (960 counters) regardless of number of samples.
+ */
+class MyTraceHistogram {
+	private static final int SUB_BITS = 4;
+	private static final int SUB_COUNT = 1 << SUB_BITS;
+	private static final int BUCKET_COUNT = (64 - SUB_BITS) * SUB_COUNT;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	void record(long nanos) {
+		if (nanos < 0) {
+			nanos = 0;
+		}
+
+		buckets.incrementAndGet(indexOf(nanos));
+		count.incrementAndGet();
+		sum.addAndGet(nanos);
+
+		long curMax;
+		while (nanos > (curMax = max.get())) {
+			if (max.compareAndSet(curMax, nanos)) {
+				break;
+			}
+		}
+	}
+
+	long count() {
+		return count.get();
+	}
+
+	long sum() {
+		return sum.get();
+	}
+
+	long max() {
+		return max.get();
+	}
+
+	/**
+	 * @param percentile In range [0, 1], for eg,. 0.99 for p99.
+	 * @return Upper bound (nanos) of bucket which contains the percentile, or 0 if empty.
+	 */
+	long percentile(double percentile) {
+		long total = count.get();
+		if (total <= 0) {
+			return 0;
+		}
+
+		long target = Math.max(1, (long) Math.ceil(percentile * total));
+		long seen = 0;
+
+		for (int index = 0; index < BUCKET_COUNT; ++index) {
+			seen += buckets.get(index);
+			if (seen >= target) {
+				return Math.min(upperBoundOf(index), max.get());
+			}
+		}
+
+		return max.get();
+	}
+
+	void reset() {
+		for (int index = 0; index < BUCKET_COUNT; ++index) {
+			buckets.set(index, 0);
+		}
+		count.set(0);
+		sum.set(0);
+		max.set(0);
+	}
+
+	private static int indexOf(long value) {
+		if (value < SUB_COUNT) {
+			return (int) value;
+		}
+		int shift = (63 - Long.numberOfLeadingZeros(value)) - SUB_BITS;
+		return ((shift + 1) << SUB_BITS) + (int) ((value >>> shift) - SUB_COUNT);
+	}
+
+	private static long upperBoundOf(int index) {
+		if (index < SUB_COUNT) {
+			return index;
+		}
+		int shift = (index >> SUB_BITS) - 1;
+		long sub = index & (SUB_COUNT - 1);
+		return ((SUB_COUNT + sub + 1) << shift) - 1;
+	}
+}
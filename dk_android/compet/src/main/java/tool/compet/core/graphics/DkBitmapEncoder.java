@@ -0,0 +1,403 @@
+/*
+ * Copyright (c) 2017-2021 DarkCompet. All rights reserved.
+ */
+
+package tool.compet.core.graphics;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import tool.compet.storage.DkAtomicOutputStream;
+import tool.compet.stream.DkSchedulers;
+
+/**
+ * Bitmap encoding pipeline with selectable format (JPEG, PNG, WEBP lossy/lossless),
+ * quality search to fit a target size, and encoding at bounded background executor.
+ * Files are written via `DkAtomicOutputStream`, so readers never see a half-written image.
+ * <p>
+ * Each encode reports format, quality, output size and encode time (see `Result`), and the
+ * encoder aggregates them per format (see `dumpStats()`) to help choosing settings per content.
+ *
+ * Usage:
+ * <pre>
+ *    // Photo: lossy webp, largest quality which fits in 200KB
+ *    Future&lt;DkBitmapEncoder.Result&gt; future = DkBitmapEncoder.getIns().encodeToFileAsync(bitmap,
+ *       DkBitmapEncoder.Options.webpLossy(85).setTargetSize(200 << 10), file);
+ *
+ *    // Icon, screenshot: lossless
+ *    DkBitmapEncoder.getIns().encodeToFile(bitmap, DkBitmapEncoder.Options.lossless(), file);
+ * </pre>
+ */
+public class DkBitmapEncoder {
+	public static final int FORMAT_JPEG = 0;
+	public static final int FORMAT_PNG = 1;
+	public static final int FORMAT_WEBP_LOSSY = 2;
+	public static final int FORMAT_WEBP_LOSSLESS = 3;
+	private static final int FORMAT_COUNT = 4;
+	private static final String[] FORMAT_NAMES = {"jpeg", "png", "webp_lossy", "webp_lossless"};
+
+	// Bound of pending tasks, caller encodes itself when the queue is full (back pressure)
+	private static final int MAX_QUEUE_SIZE = 32;
+
+	private static DkBitmapEncoder INS;
+
+	private final Executor executor;
+
+	// Stats per format: count, total bytes, total millis
+	private final AtomicLongArray encodeCounts = new AtomicLongArray(FORMAT_COUNT);
+	private final AtomicLongArray encodedBytes = new AtomicLongArray(FORMAT_COUNT);
+	private final AtomicLongArray encodeMillis = new AtomicLongArray(FORMAT_COUNT);
+
+	private DkBitmapEncoder() {
+		// Encoding is CPU and memory heavy, so keep parallelism small.
+		// Run on shared io pool since encoding to file also blocks at write (and fsync)
+		int concurrency = Math.max(1, Math.min(2, Runtime.getRuntime().availableProcessors() - 1));
+		executor = DkSchedulers.newLimitedIoExecutor(concurrency, MAX_QUEUE_SIZE);
+	}
+
+	public static DkBitmapEncoder getIns() {
+		if (INS == null) {
+			synchronized (DkBitmapEncoder.class) {
+				if (INS == null) {
+					INS = new DkBitmapEncoder();
+				}
+			}
+		}
+		return INS;
+	}
+
+	/**
+	 * Encode at current thread into given stream (not closed).
+	 */
+	public Result encode(@NonNull Bitmap bitmap, @NonNull Options options, @NonNull OutputStream os) throws IOException {
+		long startTime = SystemClock.uptimeMillis();
+		Result result = new Result(options.format);
+
+		if (options.targetSize > 0 && isLossy(options.format)) {
+			byte[] data = searchQuality(bitmap, options, result);
+			os.write(data);
+			result.size = data.length;
+		}
+		else {
+			CountingOutputStream cos = new CountingOutputStream(os);
+			result.quality = options.quality;
+			compress(bitmap, options.format, options.quality, cos);
+			result.attempts = 1;
+			result.size = cos.count;
+		}
+
+		result.encodeMillis = SystemClock.uptimeMillis() - startTime;
+		record(result);
+
+		return result;
+	}
+
+	/**
+	 * Encode at current thread into byte array.
+	 */
+	public byte[] encodeToBytes(@NonNull Bitmap bitmap, @NonNull Options options) throws IOException {
+		ByteArrayOutputStream os = new ByteArrayOutputStream(estimateSize(bitmap, options));
+		encode(bitmap, options, os);
+		return os.toByteArray();
+	}
+
+	/**
+	 * Encode at current thread into given file, the file is replaced atomically.
+	 */
+	public Result encodeToFile(@NonNull Bitmap bitmap, @NonNull Options options, @NonNull File file) throws IOException {
+		try (DkAtomicOutputStream os = new DkAtomicOutputStream(file, options.fsync)) {
+			Result result = encode(bitmap, options, os);
+			os.commit();
+			return result;
+		}
+	}
+
+	/**
+	 * Encode at background executor into given file. When many tasks are pending,
+	 * the task is run at calling thread to bound memory of queued bitmaps.
+	 * Note: the bitmap must not be recycled or modified until the future is done.
+	 */
+	public Future<Result> encodeToFileAsync(@NonNull Bitmap bitmap, @NonNull Options options, @NonNull File file) {
+		FutureTask<Result> task = new FutureTask<>(() -> encodeToFile(bitmap, options, file));
+		executor.execute(task);
+		return task;
+	}
+
+	/**
+	 * Encode at background executor into byte array, see `encodeToFileAsync()`.
+	 */
+	public Future<byte[]> encodeToBytesAsync(@NonNull Bitmap bitmap, @NonNull Options options) {
+		FutureTask<byte[]> task = new FutureTask<>(() -> encodeToBytes(bitmap, options));
+		executor.execute(task);
+		return task;
+	}
+
+	/**
+	 * @return Table of encode count, average size and average time per format.
+	 */
+	public String dumpStats() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format(Locale.US, "%-14s %8s %12s %10s", "format", "count", "avg_bytes", "avg_ms"));
+
+		for (int format = 0; format < FORMAT_COUNT; ++format) {
+			long count = encodeCounts.get(format);
+			if (count > 0) {
+				sb.append('\n').append(String.format(Locale.US, "%-14s %8d %12d %10.1f",
+					FORMAT_NAMES[format], count, encodedBytes.get(format) / count, encodeMillis.get(format) / (double) count));
+			}
+		}
+
+		return sb.toString();
+	}
+
+	public void resetStats() {
+		for (int format = 0; format < FORMAT_COUNT; ++format) {
+			encodeCounts.set(format, 0);
+			encodedBytes.set(format, 0);
+			encodeMillis.set(format, 0);
+		}
+	}
+
+	// Binary search largest quality in [minQuality, quality] which output fits target size.
+	// If even min quality does not fit, output of min quality is used.
+	private byte[] searchQuality(Bitmap bitmap, Options options, Result result) {
+		ByteArrayOutputStream os = new ByteArrayOutputStream(estimateSize(bitmap, options));
+		int low = options.minQuality;
+		int high = options.quality;
+		byte[] best = null;
+		int bestQuality = low;
+
+		// Try max quality first since small images often fit at once
+		compress(bitmap, options.format, high, os);
+		++result.attempts;
+
+		if (os.size() <= options.targetSize) {
+			result.quality = high;
+			return os.toByteArray();
+		}
+		high -= 1;
+
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+
+			os.reset();
+			compress(bitmap, options.format, mid, os);
+			++result.attempts;
+
+			if (os.size() <= options.targetSize) {
+				best = os.toByteArray();
+				bestQuality = mid;
+				low = mid + 1;
+			}
+			else {
+				high = mid - 1;
+			}
+		}
+
+		if (best == null) {
+			os.reset();
+			compress(bitmap, options.format, options.minQuality, os);
+			++result.attempts;
+			best = os.toByteArray();
+			bestQuality = options.minQuality;
+		}
+
+		result.quality = bestQuality;
+		return best;
+	}
+
+	@SuppressWarnings("deprecation")
+	private static void compress(Bitmap bitmap, int format, int quality, OutputStream os) {
+		Bitmap.CompressFormat compressFormat;
+		switch (format) {
+			case FORMAT_PNG: {
+				compressFormat = Bitmap.CompressFormat.PNG;
+				break;
+			}
+			case FORMAT_WEBP_LOSSY: {
+				compressFormat = Build.VERSION.SDK_INT >= Build.VERSION_CODES.R ? Bitmap.CompressFormat.WEBP_LOSSY : Bitmap.CompressFormat.WEBP;
+				// At Q, quality 100 of WEBP means lossless (before Q, WEBP is always lossy)
+				if (Build.VERSION.SDK_INT < Build.VERSION_CODES.R) {
+					quality = Math.min(quality, 99);
+				}
+				break;
+			}
+			case FORMAT_WEBP_LOSSLESS: {
+				compressFormat = Build.VERSION.SDK_INT >= Build.VERSION_CODES.R ? Bitmap.CompressFormat.WEBP_LOSSLESS : Bitmap.CompressFormat.WEBP;
+				// At Q, quality 100 of WEBP means lossless. Before Q this format was already
+				// replaced with PNG by `Options.setFormat()`. For lossless, quality is compression effort
+				if (Build.VERSION.SDK_INT < Build.VERSION_CODES.R) {
+					quality = 100;
+				}
+				break;
+			}
+			default: {
+				compressFormat = Bitmap.CompressFormat.JPEG;
+			}
+		}
+
+		if (! bitmap.compress(compressFormat, quality, os)) {
+			throw new RuntimeException("Could not compress bitmap as " + FORMAT_NAMES[format]);
+		}
+	}
+
+	private static boolean isLossy(int format) {
+		return format == FORMAT_JPEG || format == FORMAT_WEBP_LOSSY;
+	}
+
+	private static int estimateSize(Bitmap bitmap, Options options) {
+		int pixelCount = bitmap.getWidth() * bitmap.getHeight();
+		int estimate = isLossy(options.format) ? pixelCount / 4 : pixelCount;
+		if (options.targetSize > 0) {
+			estimate = (int) Math.min(estimate, options.targetSize + (options.targetSize >> 2));
+		}
+		return Math.max(1024, estimate);
+	}
+
+	private void record(Result result) {
+		encodeCounts.incrementAndGet(result.format);
+		encodedBytes.addAndGet(result.format, result.size);
+		encodeMillis.addAndGet(result.format, result.encodeMillis);
+	}
+
+	/**
+	 * Encode settings.
+	 */
+	public static class Options {
+		int format = FORMAT_JPEG;
+		int quality = 90;
+		int minQuality = 40;
+		long targetSize;
+		boolean fsync;
+
+		public static Options jpeg(int quality) {
+			return new Options().setFormat(FORMAT_JPEG).setQuality(quality);
+		}
+
+		public static Options png() {
+			return new Options().setFormat(FORMAT_PNG).setQuality(100);
+		}
+
+		public static Options webpLossy(int quality) {
+			return new Options().setFormat(FORMAT_WEBP_LOSSY).setQuality(quality);
+		}
+
+		public static Options webpLossless() {
+			return new Options().setFormat(FORMAT_WEBP_LOSSLESS).setQuality(100);
+		}
+
+		/**
+		 * Lossless WEBP when the device can encode it (API 29+), otherwise PNG.
+		 */
+		public static Options lossless() {
+			return Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q ? webpLossless() : png();
+		}
+
+		/**
+		 * @param format One of `FORMAT_*`. Before Q, WEBP is lossy at any quality,
+		 * so `FORMAT_WEBP_LOSSLESS` is replaced with `FORMAT_PNG`.
+		 */
+		public Options setFormat(int format) {
+			if (format == FORMAT_WEBP_LOSSLESS && Build.VERSION.SDK_INT < Build.VERSION_CODES.Q) {
+				format = FORMAT_PNG;
+			}
+			this.format = format;
+			return this;
+		}
+
+		/**
+		 * @param quality In range [0, 100], max quality when target size was set.
+		 */
+		public Options setQuality(int quality) {
+			this.quality = Math.max(0, Math.min(100, quality));
+			return this;
+		}
+
+		/**
+		 * @param minQuality Lowest quality which quality search may choose.
+		 */
+		public Options setMinQuality(int minQuality) {
+			this.minQuality = Math.max(0, Math.min(100, minQuality));
+			return this;
+		}
+
+		/**
+		 * @param targetSize Max output size (bytes) for lossy formats, quality is searched between
+		 * min quality and quality to get largest quality which fits. 0 to disable.
+		 */
+		public Options setTargetSize(long targetSize) {
+			this.targetSize = targetSize;
+			return this;
+		}
+
+		/**
+		 * @param fsync True to sync output file to disk before replacing.
+		 */
+		public Options setFsync(boolean fsync) {
+			this.fsync = fsync;
+			return this;
+		}
+	}
+
+	/**
+	 * Report of an encode.
+	 */
+	public static class Result {
+		public final int format;
+		public int quality;
+		public long size; // bytes
+		public long encodeMillis;
+		public int attempts; // number of compress calls (> 1 when quality was searched)
+
+		Result(int format) {
+			this.format = format;
+		}
+
+		@NonNull
+		@Override
+		public String toString() {
+			return String.format(Locale.US, "%s q=%d size=%d time=%dms attempts=%d",
+				FORMAT_NAMES[format], quality, size, encodeMillis, attempts);
+		}
+	}
+
+	// Count written bytes without buffering
+	private static class CountingOutputStream extends OutputStream {
+		final OutputStream out;
+		long count;
+
+		CountingOutputStream(OutputStream out) {
+			this.out = out;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			++count;
+		}
+
+		@Override
+		public void write(@NonNull byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			count += len;
+		}
+
+		@Override
+		public void flush() throws IOException {
+			out.flush();
+		}
+	}
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright (c) 2017-2021 DarkCompet. All rights reserved.
+ */
+
+package tool.compet.core.graphics;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+
+import androidx.annotation.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Pool of unused mutable bitmaps, to be reused as `BitmapFactory.Options.inBitmap` when decode.
+ * This reduces allocation and GC churn when load many bitmaps (scroll image list,...).
+ * <p>
+ * Bitmaps are grouped by config, then bucketed by byte size. From Kitkat, a bitmap can be reused
+ * for decoding if its allocation size is large enough, before Kitkat, its dimension must be same.
+ * When exceed byte budget, oldest pooled bitmaps are recycled.
+ * <p>
+ * Note that, only put a bitmap which is no longer used (drawn) by anyone.
+ */
+public class DkBitmapPool {
+	// Don't reuse bitmap which is much larger than required since it wastes memory
+	private static final int MAX_SIZE_MULTIPLE = 4;
+
+	private static DkBitmapPool INS;
+
+	private long size;
+	private long maxSize;
+
+	// Config vs (byte size vs bitmaps)
+	private final EnumMap<Bitmap.Config, TreeMap<Integer, ArrayDeque<Bitmap>>> buckets = new EnumMap<>(Bitmap.Config.class);
+
+	// All pooled bitmaps from oldest to newest
+	private final ArrayDeque<Bitmap> order = new ArrayDeque<>();
+
+	// Stats
+	private long hitCount;
+	private long missCount;
+	private long putCount;
+	private long evictionCount;
+
+	private DkBitmapPool() {
+		maxSize = Runtime.getRuntime().maxMemory() >> 4;
+	}
+
+	public static DkBitmapPool getIns() {
+		if (INS == null) {
+			synchronized (DkBitmapPool.class) {
+				if (INS == null) {
+					INS = new DkBitmapPool();
+				}
+			}
+		}
+		return INS;
+	}
+
+	/**
+	 * Set byte budget of this pool, pass 0 to disable the pool.
+	 */
+	public synchronized DkBitmapPool setMaxSize(long maxSize) {
+		this.maxSize = maxSize < 0 ? 0 : maxSize;
+		trimToSize(this.maxSize);
+		return this;
+	}
+
+	/**
+	 * Put an unused bitmap into the pool. Bitmap which can't be pooled (immutable, oversize...)
+	 * is left untouched since it maybe still in use (for eg,. on screen).
+	 *
+	 * @return True if the bitmap was pooled.
+	 */
+	public synchronized boolean put(Bitmap bitmap) {
+		if (bitmap == null || bitmap.isRecycled()) {
+			return false;
+		}
+		if (order.contains(bitmap)) {
+			return true;
+		}
+
+		int byteCount = byteCountOf(bitmap);
+		Bitmap.Config config = bitmap.getConfig();
+
+		if (! bitmap.isMutable() || config == null || ! isReusableConfig(config) || byteCount > maxSize) {
+			return false;
+		}
+
+		TreeMap<Integer, ArrayDeque<Bitmap>> sizeBuckets = buckets.get(config);
+		if (sizeBuckets == null) {
+			sizeBuckets = new TreeMap<>();
+			buckets.put(config, sizeBuckets);
+		}
+		ArrayDeque<Bitmap> bucket = sizeBuckets.get(byteCount);
+		if (bucket == null) {
+			bucket = new ArrayDeque<>();
+			sizeBuckets.put(byteCount, bucket);
+		}
+
+		bucket.push(bitmap);
+		order.addLast(bitmap);
+		size += byteCount;
+		++putCount;
+
+		trimToSize(maxSize);
+
+		return true;
+	}
+
+	/**
+	 * Take a pooled bitmap which can be used as `inBitmap` to decode a bitmap with given dimension and config.
+	 *
+	 * @return Null if not found.
+	 */
+	@Nullable
+	public synchronized Bitmap getReusable(int width, int height, Bitmap.Config config) {
+		Bitmap bitmap = null;
+		TreeMap<Integer, ArrayDeque<Bitmap>> sizeBuckets = config == null ? null : buckets.get(config);
+
+		if (sizeBuckets != null && width > 0 && height > 0) {
+			int requiredByteCount = width * height * bytesPerPixel(config);
+
+			if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+				// Smallest bitmap which is large enough
+				Map.Entry<Integer, ArrayDeque<Bitmap>> entry = sizeBuckets.ceilingEntry(requiredByteCount);
+				if (entry != null && entry.getKey() <= requiredByteCount * MAX_SIZE_MULTIPLE) {
+					bitmap = entry.getValue().pop();
+					if (entry.getValue().isEmpty()) {
+						sizeBuckets.remove(entry.getKey());
+					}
+				}
+			}
+			else {
+				// Must be same dimension
+				ArrayDeque<Bitmap> bucket = sizeBuckets.get(requiredByteCount);
+				if (bucket != null) {
+					for (Iterator<Bitmap> it = bucket.iterator(); it.hasNext(); ) {
+						Bitmap candidate = it.next();
+						if (candidate.getWidth() == width && candidate.getHeight() == height) {
+							it.remove();
+							bitmap = candidate;
+							break;
+						}
+					}
+					if (bucket.isEmpty()) {
+						sizeBuckets.remove(requiredByteCount);
+					}
+				}
+			}
+		}
+
+		if (bitmap == null) {
+			++missCount;
+			return null;
+		}
+
+		order.remove(bitmap);
+		size -= byteCountOf(bitmap);
+		++hitCount;
+
+		return bitmap;
+	}
+
+	/**
+	 * Recycle all pooled bitmaps.
+	 */
+	public synchronized void clear() {
+		trimToSize(0);
+	}
+
+	public synchronized int count() {
+		return order.size();
+	}
+
+	public synchronized long size() {
+		return size;
+	}
+
+	public synchronized long getHitCount() {
+		return hitCount;
+	}
+
+	public synchronized long getMissCount() {
+		return missCount;
+	}
+
+	public synchronized long getPutCount() {
+		return putCount;
+	}
+
+	public synchronized long getEvictionCount() {
+		return evictionCount;
+	}
+
+	/**
+	 * @return Rate (0~1) of reused decodes over all decodes which asked this pool.
+	 */
+	public synchronized float getHitRate() {
+		long requestCount = hitCount + missCount;
+		return requestCount == 0 ? 0f : (float) hitCount / requestCount;
+	}
+
+	// Recycle oldest bitmaps until size is not over given size
+	private void trimToSize(long newSize) {
+		while (size > newSize && ! order.isEmpty()) {
+			Bitmap bitmap = order.pollFirst();
+			int byteCount = byteCountOf(bitmap);
+
+			TreeMap<Integer, ArrayDeque<Bitmap>> sizeBuckets = buckets.get(bitmap.getConfig());
+			if (sizeBuckets != null) {
+				ArrayDeque<Bitmap> bucket = sizeBuckets.get(byteCount);
+				if (bucket != null) {
+					bucket.remove(bitmap);
+					if (bucket.isEmpty()) {
+						sizeBuckets.remove(byteCount);
+					}
+				}
+			}
+
+			size -= byteCount;
+			++evictionCount;
+			bitmap.recycle();
+		}
+	}
+
+	private static int byteCountOf(Bitmap bitmap) {
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+			return bitmap.getAllocationByteCount();
+		}
+		return bitmap.getByteCount();
+	}
+
+	// Hardware bitmap can't be used as `inBitmap`
+	private static boolean isReusableConfig(Bitmap.Config config) {
+		return Build.VERSION.SDK_INT < Build.VERSION_CODES.O || config != Bitmap.Config.HARDWARE;
+	}
+
+	static int bytesPerPixel(Bitmap.Config config) {
+		if (config == Bitmap.Config.ALPHA_8) {
+			return 1;
+		}
+		if (config == Bitmap.Config.RGB_565 || config == Bitmap.Config.ARGB_4444) {
+			return 2;
+		}
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O && config == Bitmap.Config.RGBA_F16) {
+			return 8;
+		}
+		return 4;
+	}
+}
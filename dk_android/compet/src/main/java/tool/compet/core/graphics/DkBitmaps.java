@@ -16,20 +16,18 @@ import android.os.Build;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
 
 import tool.compet.BuildConfig;
-import tool.compet.core4j.DkFiles;
 import tool.compet.core.DkLogcats;
 
 /**
  * Utility class for Bitmap.
  * Ref: https://developer.android.com/codelabs/advanced-android-kotlin-training-shaders#6
+ * <p>
+ * Load methods (from file, resource) decode into a reusable bitmap of `DkBitmapPool` if the pool has a suitable one.
  */
 public final class DkBitmaps {
 	public static long size(@Nullable Bitmap input) {
@@ -57,14 +55,16 @@ public final class DkBitmaps {
 		return store(input, new File(filePath));
 	}
 
+	/**
+	 * Store as JPEG (quality 90) at current thread, the file is replaced atomically.
+	 * Use `DkBitmapEncoder` to choose format, target size, or to encode at background.
+	 */
 	public static boolean store(@NonNull Bitmap bitmap, File file) throws IOException {
-		if (! file.exists()) {
-			DkFiles.createFile(file);
-		}
-		OutputStream os = new FileOutputStream(file);
-		bitmap.compress(Bitmap.CompressFormat.JPEG, 100, os);
-		os.close();
+		return store(bitmap, file, DkBitmapEncoder.Options.jpeg(90));
+	}
 
+	public static boolean store(@NonNull Bitmap bitmap, File file, DkBitmapEncoder.Options options) throws IOException {
+		DkBitmapEncoder.getIns().encodeToFile(bitmap, options, file);
 		return true;
 	}
 
@@ -83,7 +83,7 @@ public final class DkBitmaps {
 	}
 
 	public static Bitmap load(Context context, int imgRes, BitmapFactory.Options opts) {
-		Bitmap res = BitmapFactory.decodeResource(context.getResources(), imgRes, opts);
+		Bitmap res = decodeWithPool(opts, o -> BitmapFactory.decodeResource(context.getResources(), imgRes, o));
 		if (BuildConfig.DEBUG) {
 			DkLogcats.info(DkBitmaps.class, "Loaded bitmap size: %d", size(res));
 		}
@@ -98,7 +98,7 @@ public final class DkBitmaps {
 	}
 
 	public static Bitmap load(String filePath, BitmapFactory.Options opts) {
-		Bitmap res = BitmapFactory.decodeFile(filePath, opts);
+		Bitmap res = decodeWithPool(opts, o -> BitmapFactory.decodeFile(filePath, o));
 		if (BuildConfig.DEBUG) {
 			DkLogcats.info(DkBitmaps.class, "Loaded bitmap size: %d", size(res));
 		}
@@ -116,6 +116,8 @@ public final class DkBitmaps {
 		return load(is, opts);
 	}
 
+	// Stream is decoded without pool, since decoding bounds requires re-readable stream,
+	// and reset may fail for large header (for eg,. big EXIF block)
 	public static Bitmap load(InputStream is, BitmapFactory.Options opts) {
 		Bitmap res = BitmapFactory.decodeStream(is, null, opts);
 		if (BuildConfig.DEBUG) {
@@ -134,11 +136,90 @@ public final class DkBitmaps {
 		return decoder.decodeRegion(new Rect(left, top, right, bottom), opts);
 	}
 
+	// Decode pixels into a pooled bitmap if found
+	private static Bitmap decodeWithPool(BitmapFactory.Options opts, MyDecoder decoder) {
+		DkBitmapPool pool = DkBitmapPool.getIns();
+
+		if (opts == null || opts.inJustDecodeBounds || opts.inBitmap != null || pool.count() == 0) {
+			return decoder.decode(opts);
+		}
+
+		// Decode bounds to know required size
+		opts.inJustDecodeBounds = true;
+		decoder.decode(opts);
+		opts.inJustDecodeBounds = false;
+
+		// Decoder scales by density (for eg,. resource at other dpi folder), we don't know
+		// exact scaled size, so don't reuse
+		boolean densityScaled = opts.inScaled && opts.inDensity != 0 && opts.inTargetDensity != 0 && opts.inDensity != opts.inTargetDensity;
+
+		// Decoder rounds sample size down to power of 2
+		int sampleSize = opts.inSampleSize <= 1 ? 1 : Integer.highestOneBit(opts.inSampleSize);
+
+		// Before KitKat, reused bitmap must have same size and sample size must be 1
+		boolean sampledBeforeKitKat = sampleSize > 1 && Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT;
+
+		if (opts.outWidth <= 0 || opts.outHeight <= 0 || densityScaled || sampledBeforeKitKat) {
+			return decoder.decode(opts);
+		}
+
+		// Some decoders round up sampled size, take larger one
+		int width = (opts.outWidth + sampleSize - 1) / sampleSize;
+		int height = (opts.outHeight + sampleSize - 1) / sampleSize;
+		Bitmap.Config config = opts.inPreferredConfig == null ? Bitmap.Config.ARGB_8888 : opts.inPreferredConfig;
+		Bitmap reusable = pool.getReusable(width, height, config);
+
+		if (reusable == null) {
+			return decoder.decode(opts);
+		}
+
+		// Caller maybe reuses the options, so restore them after decoding,
+		// otherwise next decode goes into the bitmap which we return now
+		boolean inMutable = opts.inMutable;
+		opts.inBitmap = reusable;
+		opts.inMutable = true;
+
+		Bitmap result;
+		try {
+			// Decoding file or resource returns null instead of throwing when not compatible
+			result = decoder.decode(opts);
+		}
+		catch (IllegalArgumentException e) {
+			result = null;
+		}
+		finally {
+			opts.inBitmap = null;
+			opts.inMutable = inMutable;
+		}
+
+		if (result == null) {
+			// Not compatible (for eg,. the image has other config), decode without reuse
+			pool.put(reusable);
+			result = decoder.decode(opts);
+		}
+
+		return result;
+	}
+
+	private interface MyDecoder {
+		Bitmap decode(BitmapFactory.Options opts);
+	}
+
+	/**
+	 * Encode as lossless image (WEBP lossless if supported, otherwise PNG) at current thread.
+	 */
 	public static byte[] toByteArray(Bitmap bitmap) {
-		ByteArrayOutputStream stream = new ByteArrayOutputStream();
-		bitmap.compress(Bitmap.CompressFormat.PNG, 100, stream);
+		return toByteArray(bitmap, DkBitmapEncoder.Options.lossless());
+	}
 
-		return stream.toByteArray();
+	public static byte[] toByteArray(Bitmap bitmap, DkBitmapEncoder.Options options) {
+		try {
+			return DkBitmapEncoder.getIns().encodeToBytes(bitmap, options);
+		}
+		catch (IOException e) {
+			// Not happen since writing to memory
+			throw new RuntimeException(e);
+		}
 	}
 
 	public static Bitmap rotate(Bitmap bitmap, int degrees) {
@@ -13,25 +13,14 @@ import androidx.annotation.Nullable;
 
 import java.lang.reflect.InvocationTargetException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ThreadFactory;
-import java.util.concurrent.atomic.AtomicInteger;
+
+import tool.compet.stream.DkSchedulers;
 
 class MyDefaultTaskExecutor extends MyTaskExecutor {
 	private final Object mLock = new Object();
 
-	private final ExecutorService mDiskIO = Executors.newFixedThreadPool(4, new ThreadFactory() {
-		private static final String THREAD_NAME_STEM = "arch_disk_io_";
-
-		private final AtomicInteger mThreadId = new AtomicInteger(0);
-
-		@Override
-		public Thread newThread(Runnable r) {
-			Thread t = new Thread(r);
-			t.setName(THREAD_NAME_STEM + mThreadId.getAndIncrement());
-			return t;
-		}
-	});
+	// Share io pool with other modules instead of own threads
+	private final ExecutorService mDiskIO = DkSchedulers.ioExecutor();
 
 	@Nullable
 	private volatile Handler mMainHandler;
@@ -0,0 +1,535 @@
+/*
+ * Copyright (c) 2017-2021 DarkCompet. All rights reserved.
+ */
+
+package tool.compet.storage;
+
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import tool.compet.core.DkLogFormats;
+import tool.compet.core4j.DkLogger;
+
+/**
+ * Asynchronous file sink of `DkFileLogger`. Logging threads only put records into a bounded
+ * lock-free ring buffer, and a single writer thread formats and writes them to file in batches.
+ * <p>
+ * Written data is flushed to file after each flush interval (or when the batch is large).
+ * Log file is rotated when exceed max file size or rotate interval, rotated files are named
+ * with index suffix (`app.1.log` is newest), and oldest files are deleted when exceed max file count.
+ * <p>
+ * When producers outpace the disk and the buffer is full, the drop policy decides:
+ * drop new record, block producer, or drop only low level (debug, info, notice) records.
+ * <p>
+ * With binary format, records are written in compact binary (interned format strings, varint args,
+ * delta time) without formatting at device, and are decoded later by `DkBinaryLogDecoder`.
+ *
+ * Usage:
+ * <pre>
+ *    DkAsyncLogWriter writer = new DkAsyncLogWriter(new File(context.getFilesDir(), "logs/app.log"), 4096)
+ *       .setFlushInterval(500)
+ *       .setMaxFileSize(1 << 20)
+ *       .setDropPolicy(DkAsyncLogWriter.DROP_LOW_PRIORITY)
+ *       .start();
+ *    DkFileLogger logger = new DkFileLogger(writer);
+ * </pre>
+ */
+public class DkAsyncLogWriter implements DkLogger.LogType {
+	// Drop new record when buffer is full
+	public static final int DROP_NEWEST = 1;
+	// Block producer until buffer has space (or timeout)
+	public static final int BLOCK = 2;
+	// Drop debug, info, notice records and block for others when buffer is full
+	public static final int DROP_LOW_PRIORITY = 3;
+
+	private static final int MAX_BATCH_SIZE = 1024;
+	private static final long BLOCK_PARK_NANOS = 100_000L;
+
+	private final File logFile;
+	private final MyLogRingBuffer buffer;
+
+	private volatile long flushIntervalMillis = 1000;
+	private volatile long maxFileSize = 4 << 20;
+	private volatile long rotateIntervalMillis; // 0 means no time-based rotation
+	private volatile int maxFileCount = 5;
+	private volatile int dropPolicy = DROP_NEWEST;
+	private volatile long maxBlockMillis = 100;
+	private volatile boolean binaryFormat;
+
+	private volatile Thread writerThread;
+	private volatile boolean stopped;
+
+	// Stats
+	private final AtomicLong droppedCount = new AtomicLong();
+	private final AtomicLong blockedCount = new AtomicLong();
+	private final AtomicLong writtenCount = new AtomicLong();
+	private final AtomicLong flushCount = new AtomicLong();
+	private final AtomicLong rotationCount = new AtomicLong();
+
+	// Below are accessed only by writer thread
+	private Writer writer;
+	private CountingOutputStream textStream; // Under `writer`, counts encoded bytes
+	private MyBinaryLogEncoder encoder;
+	private long fileSize;
+	private long fileOpenTime;
+	private SimpleDateFormat dateFormat;
+
+	/**
+	 * @param logFile Current log file, rotated files are put at same directory.
+	 * @param capacity Number of records which the buffer can hold, rounded up to power of 2.
+	 */
+	public DkAsyncLogWriter(File logFile, int capacity) {
+		this.logFile = logFile;
+		this.buffer = new MyLogRingBuffer(capacity);
+	}
+
+	/**
+	 * @param flushIntervalMillis Written records are flushed to file after this duration.
+	 */
+	public DkAsyncLogWriter setFlushInterval(long flushIntervalMillis) {
+		this.flushIntervalMillis = Math.max(1, flushIntervalMillis);
+		return this;
+	}
+
+	/**
+	 * @param maxFileSize Rotate log file when its size exceeds this.
+	 */
+	public DkAsyncLogWriter setMaxFileSize(long maxFileSize) {
+		this.maxFileSize = maxFileSize;
+		return this;
+	}
+
+	/**
+	 * @param rotateIntervalMillis Rotate log file after this duration since opened, 0 to disable.
+	 */
+	public DkAsyncLogWriter setRotateInterval(long rotateIntervalMillis) {
+		this.rotateIntervalMillis = rotateIntervalMillis;
+		return this;
+	}
+
+	/**
+	 * @param maxFileCount Number of files (include current file) to keep.
+	 */
+	public DkAsyncLogWriter setMaxFileCount(int maxFileCount) {
+		this.maxFileCount = Math.max(1, maxFileCount);
+		return this;
+	}
+
+	/**
+	 * @param dropPolicy One of `DROP_NEWEST`, `BLOCK`, `DROP_LOW_PRIORITY`.
+	 */
+	public DkAsyncLogWriter setDropPolicy(int dropPolicy) {
+		this.dropPolicy = dropPolicy;
+		return this;
+	}
+
+	/**
+	 * @param maxBlockMillis When producer is blocked longer than this, the record is dropped.
+	 */
+	public DkAsyncLogWriter setMaxBlockMillis(long maxBlockMillis) {
+		this.maxBlockMillis = maxBlockMillis;
+		return this;
+	}
+
+	/**
+	 * @param binaryFormat True to write binary format instead of text lines, take effect from
+	 * next opened file (so should be set before `start()`). Binary and text should not be
+	 * mixed into same file, so use different file name for each format.
+	 */
+	public DkAsyncLogWriter setBinaryFormat(boolean binaryFormat) {
+		this.binaryFormat = binaryFormat;
+		return this;
+	}
+
+	/**
+	 * Start writer thread.
+	 */
+	public synchronized DkAsyncLogWriter start() {
+		if (writerThread == null) {
+			stopped = false;
+			Thread thread = new Thread(this::writeLoop, "dk_async_log_writer");
+			thread.setDaemon(true);
+			thread.setPriority(Thread.MIN_PRIORITY);
+			writerThread = thread;
+			thread.start();
+		}
+		return this;
+	}
+
+	/**
+	 * Write remaining records, then stop writer thread.
+	 */
+	public void stop() {
+		Thread thread;
+		synchronized (this) {
+			thread = writerThread;
+			writerThread = null;
+			stopped = true;
+		}
+		if (thread != null) {
+			LockSupport.unpark(thread);
+			try {
+				thread.join(5000);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Put a record into buffer, called at logging thread. Time is taken now, but the record
+	 * is formatted and written at writer thread.
+	 *
+	 * @return False if the record was dropped.
+	 */
+	public boolean enqueue(int logType, String message) {
+		return enqueue(logType, null, message, DkLogFormats.ARG_NONE, null, 0, null, 0);
+	}
+
+	/**
+	 * Put a not-yet-formatted record into buffer, args are packed as `DkLogFormats.ARG_*`.
+	 * Primitives, Strings and boxed values are formatted at writer thread. Other objects (list,
+	 * StringBuilder, model...) are converted to String here, so they are logged as their state
+	 * at this call, and their `toString()` does not race with owner thread.
+	 *
+	 * @return False if the record was dropped.
+	 */
+	public boolean enqueue(int logType, @Nullable Object where, @Nullable String format, int argKinds,
+		@Nullable Object obj1, long prim1, @Nullable Object obj2, long prim2) {
+
+		long time = System.currentTimeMillis();
+
+		if ((argKinds & 3) == DkLogFormats.ARG_OBJECT && ! isImmutable(obj1)) {
+			obj1 = String.valueOf(obj1);
+		}
+		if (((argKinds >> 2) & 3) == DkLogFormats.ARG_OBJECT && ! isImmutable(obj2)) {
+			obj2 = String.valueOf(obj2);
+		}
+
+		if (buffer.offer(logType, time, where, format, argKinds, obj1, prim1, obj2, prim2)) {
+			wakeWriterIfBusy();
+			return true;
+		}
+
+		int dropPolicy = this.dropPolicy;
+		boolean lowPriority = logType == TYPE_DEBUG || logType == TYPE_INFO || logType == TYPE_NOTICE;
+
+		if (dropPolicy == BLOCK || (dropPolicy == DROP_LOW_PRIORITY && ! lowPriority)) {
+			blockedCount.incrementAndGet();
+			wakeWriter();
+
+			long deadline = System.nanoTime() + maxBlockMillis * 1_000_000L;
+			while (System.nanoTime() < deadline && ! stopped) {
+				LockSupport.parkNanos(BLOCK_PARK_NANOS);
+				if (buffer.offer(logType, time, where, format, argKinds, obj1, prim1, obj2, prim2)) {
+					return true;
+				}
+			}
+		}
+
+		droppedCount.incrementAndGet();
+		return false;
+	}
+
+	// Null is kept as is, so `%b` of null is still false
+	private static boolean isImmutable(@Nullable Object arg) {
+		return arg == null
+			|| arg instanceof String
+			|| arg instanceof Boolean
+			|| arg instanceof Character
+			|| arg instanceof Integer
+			|| arg instanceof Long
+			|| arg instanceof Double
+			|| arg instanceof Float
+			|| arg instanceof Short
+			|| arg instanceof Byte
+			|| arg instanceof BigInteger
+			|| arg instanceof BigDecimal;
+	}
+
+	/**
+	 * @return Number of records which were dropped since buffer is full.
+	 */
+	public long getDroppedCount() {
+		return droppedCount.get();
+	}
+
+	/**
+	 * @return Number of times producers had to wait since buffer is full.
+	 */
+	public long getBlockedCount() {
+		return blockedCount.get();
+	}
+
+	public long getWrittenCount() {
+		return writtenCount.get();
+	}
+
+	public long getFlushCount() {
+		return flushCount.get();
+	}
+
+	public long getRotationCount() {
+		return rotationCount.get();
+	}
+
+	/**
+	 * @return Number of records which are waiting to be written.
+	 */
+	public int getPendingCount() {
+		return buffer.size();
+	}
+
+	// Wake writer early when buffer becomes half full, otherwise it wakes up by flush interval
+	private void wakeWriterIfBusy() {
+		if (buffer.size() > (buffer.capacity() >> 1)) {
+			wakeWriter();
+		}
+	}
+
+	private void wakeWriter() {
+		Thread thread = writerThread;
+		if (thread != null) {
+			LockSupport.unpark(thread);
+		}
+	}
+
+	private void writeLoop() {
+		MyLogRingBuffer.Record record = new MyLogRingBuffer.Record();
+		StringBuilder line = new StringBuilder(256);
+		long lastFlushTime = System.currentTimeMillis();
+		boolean dirty = false;
+
+		while (true) {
+			int batchSize = 0;
+
+			while (batchSize < MAX_BATCH_SIZE && buffer.poll(record)) {
+				write(record, line);
+				record.clear();
+				dirty = true;
+				++batchSize;
+			}
+
+			long now = System.currentTimeMillis();
+			boolean stopping = stopped && buffer.size() == 0;
+
+			if (dirty && (now - lastFlushTime >= flushIntervalMillis || batchSize >= MAX_BATCH_SIZE || stopping)) {
+				flush();
+				lastFlushTime = now;
+				dirty = false;
+			}
+
+			if (stopping) {
+				closeWriter();
+				return;
+			}
+
+			if (batchSize < MAX_BATCH_SIZE) {
+				long waitMillis = Math.max(1, flushIntervalMillis - (now - lastFlushTime));
+				LockSupport.parkNanos(waitMillis * 1_000_000L);
+			}
+		}
+	}
+
+	private void write(MyLogRingBuffer.Record record, StringBuilder line) {
+		try {
+			if (! obtainSink(record.time)) {
+				droppedCount.incrementAndGet();
+				return;
+			}
+
+			if (encoder != null) {
+				long lastWrittenBytes = encoder.getWrittenBytes();
+				encoder.write(record);
+				fileSize += encoder.getWrittenBytes() - lastWrittenBytes;
+				writtenCount.incrementAndGet();
+				return;
+			}
+
+			line.setLength(0);
+			line.append('[').append(DkLogger.LogType.name(record.logType).toUpperCase()).append("] ");
+			line.append(dateFormat.format(new Date(record.time))).append(": ");
+			if (record.where != null || record.argKinds != DkLogFormats.ARG_NONE) {
+				line.append(DkLogFormats.format(record.where, record.message, record.argKinds, record.obj1, record.prim1, record.obj2, record.prim2));
+			}
+			else {
+				line.append(record.message);
+			}
+			line.append('\n');
+
+			writer.write(line.toString());
+			// Lags behind by bytes which are buffered in the writer, ok for rotation
+			fileSize = textStream.count;
+			writtenCount.incrementAndGet();
+		}
+		catch (Exception e) {
+			droppedCount.incrementAndGet();
+			e.printStackTrace();
+		}
+	}
+
+	// Open log file, rotate it if exceeded size or interval.
+	// @return False if could not open the file.
+	private boolean obtainSink(long now) throws IOException {
+		if (writer != null || encoder != null) {
+			boolean oversize = fileSize >= maxFileSize;
+			boolean overtime = rotateIntervalMillis > 0 && now - fileOpenTime >= rotateIntervalMillis;
+
+			if (! oversize && ! overtime) {
+				return true;
+			}
+
+			closeWriter();
+			rotate();
+		}
+
+		File dir = logFile.getParentFile();
+		if (dir != null && ! dir.exists() && ! dir.mkdirs()) {
+			return false;
+		}
+		if (dateFormat == null) {
+			dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS", Locale.US);
+		}
+
+		fileSize = logFile.length();
+		fileOpenTime = now;
+
+		if (binaryFormat) {
+			// Cut torn record at tail (app was killed at middle of writing it),
+			// otherwise decoder would read new session as part of that record
+			if (fileSize > 0) {
+				long validLength = DkBinaryLogDecoder.findValidLength(logFile);
+				if (validLength == 0) {
+					// Not a binary log (for eg,. text log before switching format), keep it as rotated file
+					rotate();
+					fileSize = 0;
+				}
+				else if (validLength < fileSize) {
+					truncate(logFile, validLength);
+					fileSize = validLength;
+				}
+			}
+			encoder = new MyBinaryLogEncoder(new FileOutputStream(logFile, true), fileSize == 0, now);
+		}
+		else {
+			textStream = new CountingOutputStream(new FileOutputStream(logFile, true), fileSize);
+			writer = new OutputStreamWriter(textStream, "UTF-8");
+		}
+
+		return true;
+	}
+
+	private static void truncate(File file, long length) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.setLength(length);
+		}
+		finally {
+			raf.close();
+		}
+	}
+
+	// Shift `app.log` -> `app.1.log` -> `app.2.log`..., delete the oldest
+	private void rotate() {
+		int maxRotatedIndex = maxFileCount - 1;
+
+		if (maxRotatedIndex <= 0) {
+			logFile.delete();
+		}
+		else {
+			rotatedFile(maxRotatedIndex).delete();
+
+			for (int index = maxRotatedIndex - 1; index >= 1; --index) {
+				File file = rotatedFile(index);
+				if (file.exists()) {
+					file.renameTo(rotatedFile(index + 1));
+				}
+			}
+			logFile.renameTo(rotatedFile(1));
+		}
+
+		rotationCount.incrementAndGet();
+	}
+
+	private File rotatedFile(int index) {
+		String name = logFile.getName();
+		int dotIndex = name.lastIndexOf('.');
+		String rotatedName = dotIndex > 0
+			? name.substring(0, dotIndex) + "." + index + name.substring(dotIndex)
+			: name + "." + index;
+
+		return new File(logFile.getParentFile(), rotatedName);
+	}
+
+	private void flush() {
+		try {
+			if (writer != null) {
+				writer.flush();
+				flushCount.incrementAndGet();
+			}
+			else if (encoder != null) {
+				encoder.flush();
+				flushCount.incrementAndGet();
+			}
+		}
+		catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private void closeWriter() {
+		try {
+			if (writer != null) {
+				writer.close();
+			}
+			if (encoder != null) {
+				encoder.close();
+			}
+		}
+		catch (IOException e) {
+			e.printStackTrace();
+		}
+		finally {
+			writer = null;
+			textStream = null;
+			encoder = null;
+		}
+	}
+
+	private static class CountingOutputStream extends FilterOutputStream {
+		long count;
+
+		CountingOutputStream(OutputStream out, long initialCount) {
+			super(out);
+			this.count = initialCount;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			++count;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			count += len;
+		}
+	}
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2017-2021 DarkCompet. All rights reserved.
+ */
+
+package tool.compet.storage;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+
+/**
+ * Output stream which writes to a temporary file next to target file, and replaces target file
+ * by rename at `commit()`. So readers always see either old content or new content, never
+ * a truncated file even if app was killed while writing.
+ * <p>
+ * Closing without `commit()` discards written data (keeps old content), so use as:
+ * <pre>
+ *    try (DkAtomicOutputStream out = new DkAtomicOutputStream(file, true)) {
+ *       out.write(data);
+ *       out.commit();
+ *    }
+ * </pre>
+ * Each stream writes to its own uniquely named temporary file, so multiple streams can write
+ * same target file at same time, the last committed one wins.
+ */
+public class DkAtomicOutputStream extends FilterOutputStream {
+	private final File targetFile;
+	private final File tmpFile;
+	private final FileOutputStream fileOutputStream;
+	private final boolean fsync;
+	private boolean finished;
+
+	/**
+	 * @param targetFile File to be replaced, parent directories are created if not exist.
+	 * @param fsync True to sync written data to disk before rename, so the new content survives
+	 * power loss (slower, use for important data).
+	 */
+	public DkAtomicOutputStream(File targetFile, boolean fsync) throws IOException {
+		this(targetFile, tmpFileOf(targetFile), fsync);
+	}
+
+	private DkAtomicOutputStream(File targetFile, File tmpFile, boolean fsync) throws IOException {
+		this(targetFile, tmpFile, new FileOutputStream(tmpFile, false), fsync);
+	}
+
+	private DkAtomicOutputStream(File targetFile, File tmpFile, FileOutputStream fileOutputStream, boolean fsync) {
+		super(new BufferedOutputStream(fileOutputStream, 64 << 10));
+
+		this.targetFile = targetFile;
+		this.tmpFile = tmpFile;
+		this.fileOutputStream = fileOutputStream;
+		this.fsync = fsync;
+	}
+
+	public File getTargetFile() {
+		return targetFile;
+	}
+
+	@Override
+	public void write(byte[] buffer, int offset, int length) throws IOException {
+		// FilterOutputStream writes byte by byte, so forward to buffered stream directly
+		out.write(buffer, offset, length);
+	}
+
+	/**
+	 * Flush (and sync if requested) written data, then replace target file with it.
+	 */
+	public void commit() throws IOException {
+		if (finished) {
+			return;
+		}
+		finished = true;
+
+		try {
+			out.flush();
+			if (fsync) {
+				fileOutputStream.getFD().sync();
+			}
+			out.close();
+		}
+		catch (IOException e) {
+			closeQuietly();
+			tmpFile.delete();
+			throw e;
+		}
+
+		// Rename replaces existing file atomically on Android file systems (ext4, f2fs),
+		// don't delete the target and retry since the file would be missing meanwhile
+		if (! tmpFile.renameTo(targetFile)) {
+			tmpFile.delete();
+			throw new IOException("Could not rename " + tmpFile + " to " + targetFile);
+		}
+	}
+
+	/**
+	 * Discard written data, target file is kept as before.
+	 */
+	public void abort() {
+		if (finished) {
+			return;
+		}
+		finished = true;
+
+		closeQuietly();
+		tmpFile.delete();
+	}
+
+	/**
+	 * Same as `abort()` if not yet committed.
+	 */
+	@Override
+	public void close() {
+		abort();
+	}
+
+	private void closeQuietly() {
+		try {
+			out.close();
+		}
+		catch (IOException ignore) {
+		}
+	}
+
+	private static File tmpFileOf(File targetFile) throws IOException {
+		File dir = targetFile.getParentFile();
+		if (dir != null && ! dir.exists() && ! dir.mkdirs()) {
+			throw new IOException("Could not create directory: " + dir);
+		}
+		// Hidden sibling with random part, for eg,. `.data.json.4123591.tmp`, so it never collides
+		// with temporary file of other writers, or with user file like `data.json.tmp`
+		return File.createTempFile("." + targetFile.getName() + ".", null, dir);
+	}
+}
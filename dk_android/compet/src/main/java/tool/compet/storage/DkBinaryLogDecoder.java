@@ -0,0 +1,445 @@
+/*
+ * Copyright (c) 2017-2021 DarkCompet. All rights reserved.
+ */
+
+package tool.compet.storage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * Decodes binary log files which were written by `DkAsyncLogWriter` with binary format.
+ * It only depends on Java, so can be run offline on collected log files:
+ * <pre>
+ *    java -cp compet.jar tool.compet.storage.DkBinaryLogDecoder [--json] app.dklog [app.1.dklog...]
+ * </pre>
+ *
+ * File layout (all varints are unsigned LEB128, signed values are zigzag encoded):
+ * <pre>
+ *    header:  "DKLG" [version: 1 byte]
+ *    session: 0x01 [time millis: 8 bytes], string table is reset and time base is set
+ *    string:  0x02 [id: varint][length: varint][utf8]
+ *    log:     0x03 [levelId: varint][timeDelta: zigzag varint][whereId + 1 or 0: varint]
+ *                  [formatId: varint][argKinds: 1 byte][args...]
+ *    text:    0x04 [levelId: varint][timeDelta: zigzag varint][length: varint][utf8]
+ * </pre>
+ * Each arg kind takes 2 bits of argKinds (first arg at lowest bits): 1 is long (zigzag varint),
+ * 2 is double (8 bytes raw bits), 3 is String (utf8). Records which have other object args are
+ * formatted at device and written as text.
+ */
+public class DkBinaryLogDecoder {
+	static final byte[] MAGIC = {'D', 'K', 'L', 'G'};
+	static final int VERSION = 1;
+
+	// Record tags
+	static final int TAG_SESSION = 1;
+	static final int TAG_STRING = 2;
+	static final int TAG_LOG = 3;
+	static final int TAG_TEXT = 4;
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private final CountingInputStream counter;
+	private final DataInputStream in;
+	private final ArrayList<String> strings = new ArrayList<>();
+	private long lastTime;
+	private boolean truncated;
+	// Position after last complete record
+	private long validLength;
+
+	public DkBinaryLogDecoder(InputStream in) throws IOException {
+		this.counter = new CountingInputStream(in instanceof BufferedInputStream ? in : new BufferedInputStream(in));
+		this.in = new DataInputStream(counter);
+
+		byte[] magic = new byte[MAGIC.length];
+		this.in.readFully(magic);
+		if (! Arrays.equals(magic, MAGIC)) {
+			throw new IOException("Not a binary log file");
+		}
+
+		int version = this.in.readUnsignedByte();
+		if (version > VERSION) {
+			throw new IOException("Unsupported version: " + version);
+		}
+		validLength = counter.count;
+	}
+
+	/**
+	 * Find length of the file which only contains complete records, so a writer can cut torn record
+	 * at tail before appending new session.
+	 *
+	 * @return 0 if the file is not a binary log file.
+	 */
+	static long findValidLength(File file) {
+		InputStream is = null;
+		try {
+			is = new FileInputStream(file);
+			DkBinaryLogDecoder decoder;
+			try {
+				decoder = new DkBinaryLogDecoder(is);
+			}
+			catch (IOException e) {
+				return 0;
+			}
+
+			Entry entry = new Entry();
+			try {
+				while (decoder.next(entry)) {
+					// Just read to end
+				}
+			}
+			catch (IOException ignore) {
+				// Broken record, keep records before it
+			}
+			return decoder.validLength;
+		}
+		catch (IOException e) {
+			return 0;
+		}
+		finally {
+			if (is != null) {
+				try {
+					is.close();
+				}
+				catch (IOException ignore) {
+				}
+			}
+		}
+	}
+
+	/**
+	 * Read next log entry into given holder.
+	 *
+	 * @return False if reached end of file (or a torn record at tail, see `isTruncated()`).
+	 */
+	public boolean next(Entry entry) throws IOException {
+		try {
+			while (true) {
+				int tag = in.read();
+
+				switch (tag) {
+					case -1: {
+						return false;
+					}
+					case TAG_SESSION: {
+						lastTime = in.readLong();
+						strings.clear();
+						validLength = counter.count;
+						break;
+					}
+					case TAG_STRING: {
+						int id = (int) readVarint();
+						String value = readString();
+						while (strings.size() <= id) {
+							strings.add(null);
+						}
+						strings.set(id, value);
+						validLength = counter.count;
+						break;
+					}
+					case TAG_LOG: {
+						entry.level = stringAt(readVarint());
+						entry.time = readTime();
+
+						long whereId = readVarint();
+						entry.where = whereId == 0 ? null : stringAt(whereId - 1);
+						entry.format = stringAt(readVarint());
+
+						int argKinds = in.readUnsignedByte();
+						int kind1 = argKinds & 3;
+						int kind2 = (argKinds >> 2) & 3;
+						Object arg1 = readArg(kind1);
+						Object arg2 = readArg(kind2);
+
+						entry.args = kind1 == 0 ? new Object[0] : kind2 == 0 ? new Object[] {arg1} : new Object[] {arg1, arg2};
+						entry.message = format(entry.where, entry.format, entry.args);
+						validLength = counter.count;
+						return true;
+					}
+					case TAG_TEXT: {
+						entry.level = stringAt(readVarint());
+						entry.time = readTime();
+						entry.where = null;
+						entry.format = null;
+						entry.args = null;
+						entry.message = readString();
+						validLength = counter.count;
+						return true;
+					}
+					default: {
+						throw new IOException("Unknown record tag: " + tag);
+					}
+				}
+			}
+		}
+		catch (EOFException e) {
+			truncated = true;
+			return false;
+		}
+	}
+
+	/**
+	 * @return True if the file ended at middle of a record (for eg,. app was killed while writing).
+	 */
+	public boolean isTruncated() {
+		return truncated;
+	}
+
+	/**
+	 * Decode to text lines as same as text format of `DkAsyncLogWriter`.
+	 */
+	public void decodeToText(Appendable out) throws IOException {
+		SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS", Locale.US);
+		Entry entry = new Entry();
+
+		while (next(entry)) {
+			out.append('[').append(entry.level).append("] ")
+				.append(dateFormat.format(new Date(entry.time))).append(": ")
+				.append(entry.message).append('\n');
+		}
+	}
+
+	/**
+	 * Decode to JSON lines, each line is an object of: time, level, where, format, args, message.
+	 */
+	public void decodeToJson(Appendable out) throws IOException {
+		Entry entry = new Entry();
+
+		while (next(entry)) {
+			out.append("{\"time\":").append(String.valueOf(entry.time));
+			out.append(",\"level\":");
+			appendJsonString(out, entry.level);
+			out.append(",\"where\":");
+			appendJsonString(out, entry.where);
+			out.append(",\"format\":");
+			appendJsonString(out, entry.format);
+			out.append(",\"args\":");
+
+			if (entry.args == null) {
+				out.append("null");
+			}
+			else {
+				out.append('[');
+				for (int index = 0; index < entry.args.length; ++index) {
+					if (index > 0) {
+						out.append(',');
+					}
+					Object arg = entry.args[index];
+					if (arg instanceof Long || (arg instanceof Double && ! ((Double) arg).isNaN() && ! ((Double) arg).isInfinite())) {
+						out.append(String.valueOf(arg));
+					}
+					else {
+						appendJsonString(out, String.valueOf(arg));
+					}
+				}
+				out.append(']');
+			}
+
+			out.append(",\"message\":");
+			appendJsonString(out, entry.message);
+			out.append("}\n");
+		}
+	}
+
+	/**
+	 * Usage: `DkBinaryLogDecoder [--json] file...`, decoded logs are printed to stdout.
+	 */
+	public static void main(String[] args) throws IOException {
+		boolean json = false;
+		ArrayList<String> filePaths = new ArrayList<>();
+
+		for (String arg : args) {
+			if ("--json".equals(arg)) {
+				json = true;
+			}
+			else {
+				filePaths.add(arg);
+			}
+		}
+
+		if (filePaths.size() == 0) {
+			System.err.println("Usage: DkBinaryLogDecoder [--json] file...");
+			System.exit(1);
+		}
+
+		Writer out = new BufferedWriter(new OutputStreamWriter(System.out, UTF_8));
+		try {
+			for (String filePath : filePaths) {
+				try (InputStream is = new FileInputStream(filePath)) {
+					DkBinaryLogDecoder decoder = new DkBinaryLogDecoder(is);
+
+					if (json) {
+						decoder.decodeToJson(out);
+					}
+					else {
+						decoder.decodeToText(out);
+					}
+					if (decoder.isTruncated()) {
+						System.err.println("Warning: " + filePath + " was truncated at tail");
+					}
+				}
+			}
+		}
+		finally {
+			out.flush();
+		}
+	}
+
+	private String stringAt(long id) throws IOException {
+		if (id < 0 || id >= strings.size() || strings.get((int) id) == null) {
+			throw new IOException("Unknown string id: " + id);
+		}
+		return strings.get((int) id);
+	}
+
+	private long readTime() throws IOException {
+		long zigzag = readVarint();
+		lastTime += (zigzag >>> 1) ^ -(zigzag & 1);
+		return lastTime;
+	}
+
+	private Object readArg(int kind) throws IOException {
+		switch (kind) {
+			case 1: {
+				long zigzag = readVarint();
+				return (zigzag >>> 1) ^ -(zigzag & 1);
+			}
+			case 2: {
+				return Double.longBitsToDouble(in.readLong());
+			}
+			case 3: {
+				return readString();
+			}
+			default: {
+				return null;
+			}
+		}
+	}
+
+	private String readString() throws IOException {
+		int length = (int) readVarint();
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, UTF_8);
+	}
+
+	private long readVarint() throws IOException {
+		long result = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = in.readUnsignedByte();
+			result |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return result;
+			}
+		}
+		throw new IOException("Malformed varint");
+	}
+
+	// Same output as `DkLogFormats.format()`
+	private static String format(String where, String format, Object[] args) {
+		StringBuilder sb = new StringBuilder();
+		if (where != null) {
+			sb.append('[').append(where).append("] ");
+		}
+		if (args.length == 0) {
+			return sb.append(format).toString();
+		}
+		try {
+			sb.append(String.format(Locale.US, format, args));
+		}
+		catch (Exception e) {
+			sb.append(format);
+			for (Object arg : args) {
+				sb.append(", ").append(arg);
+			}
+		}
+		return sb.toString();
+	}
+
+	private static void appendJsonString(Appendable out, String value) throws IOException {
+		if (value == null) {
+			out.append("null");
+			return;
+		}
+		out.append('"');
+		for (int index = 0, length = value.length(); index < length; ++index) {
+			char ch = value.charAt(index);
+			switch (ch) {
+				case '"': out.append("\\\""); break;
+				case '\\': out.append("\\\\"); break;
+				case '\n': out.append("\\n"); break;
+				case '\r': out.append("\\r"); break;
+				case '\t': out.append("\\t"); break;
+				default: {
+					if (ch < 0x20) {
+						out.append(String.format(Locale.US, "\\u%04x", (int) ch));
+					}
+					else {
+						out.append(ch);
+					}
+				}
+			}
+		}
+		out.append('"');
+	}
+
+	/**
+	 * Decoded log entry.
+	 */
+	public static class Entry {
+		public long time;
+		public String level;
+		public String where; // null if not provided
+		public String format; // null if the message was formatted at device
+		public Object[] args; // null if the message was formatted at device
+		public String message;
+	}
+
+	private static class CountingInputStream extends FilterInputStream {
+		long count;
+
+		CountingInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b >= 0) {
+				++count;
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = super.read(b, off, len);
+			if (n > 0) {
+				count += n;
+			}
+			return n;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = super.skip(n);
+			count += skipped;
+			return skipped;
+		}
+	}
+}
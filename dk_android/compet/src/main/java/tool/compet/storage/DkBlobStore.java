@@ -0,0 +1,527 @@
+/*
+ * Copyright (c) 2017-2021 DarkCompet. All rights reserved.
+ */
+
+package tool.compet.storage;
+
+import android.content.Context;
+
+import androidx.annotation.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import tool.compet.core.DkLogcats;
+import tool.compet.core4j.DkStrings;
+import tool.compet.stream.DkSchedulers;
+
+/**
+ * Content-addressed blob store. Content is hashed (SHA-256, streaming) and each unique content
+ * is stored only once at `blobs/ab/cd/abcd...` (fan-out to keep directories small).
+ * A relative path (same style as `DkInternalStorage`) is stored as lightweight reference file at
+ * `refs/path.ref` which contains only the hash, so saving same attachment under many paths
+ * costs only one copy of the data.
+ * <p>
+ * Reference count of each blob is rebuilt from reference files at first access, and maintained
+ * when saving or deleting references. Blobs which are no longer referenced are deleted at
+ * background thread.
+ *
+ * Usage:
+ * <pre>
+ *    DkBlobStore store = DkBlobStore.open(context, DkInternalStorage.filesDirScope(), "blobs");
+ *    store.save("chat/123/photo.jpg", inputStream);
+ *    InputStream in = store.openInputStream("chat/123/photo.jpg");
+ *    store.delete("chat/123/photo.jpg");
+ * </pre>
+ */
+public class DkBlobStore {
+	private static final String BLOB_DIR = "blobs";
+	private static final String REF_DIR = "refs";
+	private static final String TMP_DIR = "tmp";
+	// Suffix of reference files, so user paths (for eg,. `part.tmp`) never collide with
+	// temporary files of `DkAtomicOutputStream` when counting references
+	private static final String REF_SUFFIX = ".ref";
+	private static final long STALE_TMP_MILLIS = 60 * 60 * 1000L;
+	private static final char[] HEX_CHARS = "0123456789abcdef".toCharArray();
+
+	private final File blobDir;
+	private final File refDir;
+	private final File tmpDir;
+	private boolean fsync;
+
+	// Hash vs reference count, loaded at first access
+	private HashMap<String, Integer> refCounts;
+
+	// Blobs which reference count became 0, will be deleted at next gc
+	private final HashSet<String> gcCandidates = new HashSet<>();
+	private final AtomicBoolean gcScheduled = new AtomicBoolean();
+
+	// Stats
+	private final AtomicLong dedupedCount = new AtomicLong();
+	private final AtomicLong dedupedBytes = new AtomicLong();
+	private final AtomicLong collectedCount = new AtomicLong();
+
+	/**
+	 * @param rootDir Directory of the store, created if not exist.
+	 */
+	public DkBlobStore(File rootDir) {
+		this.blobDir = new File(rootDir, BLOB_DIR);
+		this.refDir = new File(rootDir, REF_DIR);
+		this.tmpDir = new File(rootDir, TMP_DIR);
+	}
+
+	/**
+	 * Open store at given relative directory under scope of given storage.
+	 *
+	 * @param relativeDirPath For eg,. `attachments`
+	 */
+	public static DkBlobStore open(Context context, DkInternalStorage storage, String relativeDirPath) {
+		return new DkBlobStore(storage.getFile(context, relativeDirPath));
+	}
+
+	/**
+	 * @param fsync True to sync blob and reference files to disk before they are visible.
+	 */
+	public DkBlobStore setFsync(boolean fsync) {
+		this.fsync = fsync;
+		return this;
+	}
+
+	/**
+	 * Save content of given stream (not closed) under given relative path. The stream is hashed
+	 * while written to temporary file, and the file is dropped if same content already exists.
+	 *
+	 * @return Hash of the content.
+	 */
+	public String save(String relativeFilePath, InputStream source) throws IOException {
+		ensureDir(tmpDir);
+		File tmpFile = new File(tmpDir, UUID.randomUUID().toString());
+		MessageDigest digest = newDigest();
+
+		try {
+			long size;
+			FileOutputStream fos = new FileOutputStream(tmpFile);
+
+			try (OutputStream out = new DigestOutputStream(fos, digest)) {
+				size = DkInternalStorage.copy(source, out, -1, null);
+				if (fsync) {
+					out.flush();
+					fos.getFD().sync();
+				}
+			}
+
+			String hash = toHex(digest.digest());
+			commitBlob(hash, tmpFile, size);
+			putRef(relativeFilePath, hash);
+
+			return hash;
+		}
+		finally {
+			tmpFile.delete();
+		}
+	}
+
+	/**
+	 * Save given data under given relative path. Data is hashed first, so nothing is written
+	 * (except small reference file) if same content already exists.
+	 *
+	 * @return Hash of the data.
+	 */
+	public String save(String relativeFilePath, byte[] data) throws IOException {
+		MessageDigest digest = newDigest();
+		String hash = toHex(digest.digest(data));
+
+		if (! acquireIfExists(hash, data.length)) {
+			ensureDir(tmpDir);
+			File tmpFile = new File(tmpDir, UUID.randomUUID().toString());
+
+			try {
+				try (FileOutputStream fos = new FileOutputStream(tmpFile)) {
+					fos.write(data);
+					if (fsync) {
+						fos.getFD().sync();
+					}
+				}
+				commitBlob(hash, tmpFile, data.length);
+			}
+			finally {
+				tmpFile.delete();
+			}
+		}
+
+		putRef(relativeFilePath, hash);
+		return hash;
+	}
+
+	/**
+	 * Save content of given file under given relative path. The file is hashed first (read only),
+	 * so it is copied only when content does not exist yet.
+	 *
+	 * @return Hash of the content.
+	 */
+	public String save(String relativeFilePath, File file) throws IOException {
+		MessageDigest digest = newDigest();
+
+		try (InputStream in = new FileInputStream(file)) {
+			byte[] buffer = new byte[64 << 10];
+			int readCount;
+			while ((readCount = in.read(buffer)) != -1) {
+				digest.update(buffer, 0, readCount);
+			}
+		}
+
+		String hash = toHex(digest.digest());
+
+		if (acquireIfExists(hash, file.length())) {
+			putRef(relativeFilePath, hash);
+			return hash;
+		}
+
+		try (InputStream in = new FileInputStream(file)) {
+			return save(relativeFilePath, in);
+		}
+	}
+
+	/**
+	 * Make given path refer same content as other path without copying data.
+	 *
+	 * @return False if source path does not exist.
+	 */
+	public synchronized boolean link(String fromRelativeFilePath, String toRelativeFilePath) throws IOException {
+		String hash = getHash(fromRelativeFilePath);
+		if (hash == null) {
+			return false;
+		}
+		increaseRef(hash);
+		putRef(toRelativeFilePath, hash);
+		return true;
+	}
+
+	/**
+	 * @return Hash of content at given path, or null if not exist.
+	 */
+	@Nullable
+	public String getHash(String relativeFilePath) throws IOException {
+		File refFile = refFileOf(relativeFilePath);
+		if (! refFile.exists()) {
+			return null;
+		}
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(refFile), "US-ASCII"))) {
+			String hash = reader.readLine();
+			return hash == null ? null : hash.trim();
+		}
+	}
+
+	public boolean exists(String relativeFilePath) {
+		return refFileOf(relativeFilePath).exists();
+	}
+
+	/**
+	 * @return Blob file of given path for read only (must not be modified since it is shared),
+	 * or null if not exist.
+	 */
+	@Nullable
+	public File getBlobFile(String relativeFilePath) throws IOException {
+		String hash = getHash(relativeFilePath);
+		return hash == null ? null : blobFileOf(hash);
+	}
+
+	/**
+	 * Open buffered stream to read content at given path.
+	 */
+	public InputStream openInputStream(String relativeFilePath) throws IOException {
+		File blobFile = getBlobFile(relativeFilePath);
+		if (blobFile == null) {
+			throw new IOException("Not found: " + relativeFilePath);
+		}
+		return new BufferedInputStream(new FileInputStream(blobFile), 64 << 10);
+	}
+
+	/**
+	 * Delete reference at given path. Content is deleted at background when no path refers it.
+	 *
+	 * @return False if the path does not exist.
+	 */
+	public synchronized boolean delete(String relativeFilePath) throws IOException {
+		String hash = getHash(relativeFilePath);
+		if (hash == null) {
+			return false;
+		}
+		if (! refFileOf(relativeFilePath).delete()) {
+			throw new IOException("Could not delete reference: " + relativeFilePath);
+		}
+		decreaseRef(hash);
+		return true;
+	}
+
+	/**
+	 * @return Number of paths which refer given content.
+	 */
+	public synchronized int getRefCount(String hash) throws IOException {
+		Integer refCount = obtainRefCounts().get(hash);
+		return refCount == null ? 0 : refCount;
+	}
+
+	/**
+	 * @return Number of unique contents which are referred.
+	 */
+	public synchronized int getBlobCount() throws IOException {
+		return obtainRefCounts().size();
+	}
+
+	/**
+	 * @return Number of saves which reused existing content.
+	 */
+	public long getDedupedCount() {
+		return dedupedCount.get();
+	}
+
+	/**
+	 * @return Total bytes which were not stored thanks to dedup.
+	 */
+	public long getDedupedBytes() {
+		return dedupedBytes.get();
+	}
+
+	/**
+	 * @return Number of blobs deleted by gc.
+	 */
+	public long getCollectedCount() {
+		return collectedCount.get();
+	}
+
+	/**
+	 * Delete unreferenced blobs at background thread.
+	 */
+	public void scheduleGc() {
+		if (gcScheduled.compareAndSet(false, true)) {
+			DkSchedulers.ioExecutor().execute(() -> {
+				gcScheduled.set(false);
+				try {
+					gc(false);
+				}
+				catch (Exception e) {
+					DkLogcats.error(this, e);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Delete unreferenced blobs at current thread.
+	 *
+	 * @param fullScan True to scan all blobs (also finds blobs which were left when app was
+	 * killed between writing blob and reference), false to check only blobs whose reference
+	 * count became 0.
+	 * @return Number of deleted blobs.
+	 */
+	public int gc(boolean fullScan) throws IOException {
+		ArrayList<String> candidates = new ArrayList<>();
+
+		synchronized (this) {
+			obtainRefCounts();
+			candidates.addAll(gcCandidates);
+			gcCandidates.clear();
+		}
+
+		if (fullScan) {
+			File[] level1Dirs = blobDir.listFiles();
+			if (level1Dirs != null) {
+				for (File level1Dir : level1Dirs) {
+					File[] level2Dirs = level1Dir.listFiles();
+					if (level2Dirs != null) {
+						for (File level2Dir : level2Dirs) {
+							String[] hashes = level2Dir.list();
+							if (hashes != null) {
+								for (String hash : hashes) {
+									candidates.add(hash);
+								}
+							}
+						}
+					}
+				}
+			}
+			deleteStaleTmpFiles();
+		}
+
+		int deletedCount = 0;
+
+		for (String hash : candidates) {
+			// Check again inside lock since it might be referred again after collected
+			synchronized (this) {
+				if (! refCounts.containsKey(hash)) {
+					File blobFile = blobFileOf(hash);
+					if (blobFile.exists() && blobFile.delete()) {
+						++deletedCount;
+					}
+				}
+			}
+		}
+
+		collectedCount.addAndGet(deletedCount);
+		return deletedCount;
+	}
+
+	// Move written temporary file to blob, or drop it if the blob already exists
+	private synchronized void commitBlob(String hash, File tmpFile, long size) throws IOException {
+		if (acquireIfExists(hash, size)) {
+			return;
+		}
+
+		File blobFile = blobFileOf(hash);
+		ensureDir(blobFile.getParentFile());
+
+		if (! tmpFile.renameTo(blobFile)) {
+			throw new IOException("Could not move blob to " + blobFile);
+		}
+		increaseRef(hash);
+	}
+
+	// Increase reference count if the blob exists
+	private synchronized boolean acquireIfExists(String hash, long size) throws IOException {
+		if (blobFileOf(hash).exists()) {
+			increaseRef(hash);
+			dedupedCount.incrementAndGet();
+			dedupedBytes.addAndGet(size);
+			return true;
+		}
+		return false;
+	}
+
+	// Write reference file, release old content if the path referred other content.
+	// Reference count of given hash must be already increased.
+	private synchronized void putRef(String relativeFilePath, String hash) throws IOException {
+		String oldHash = getHash(relativeFilePath);
+
+		try (DkAtomicOutputStream out = new DkAtomicOutputStream(refFileOf(relativeFilePath), fsync)) {
+			out.write(hash.getBytes("US-ASCII"));
+			out.commit();
+		}
+		catch (IOException e) {
+			decreaseRef(hash);
+			throw e;
+		}
+
+		if (oldHash != null) {
+			decreaseRef(oldHash);
+		}
+	}
+
+	private synchronized void increaseRef(String hash) throws IOException {
+		HashMap<String, Integer> refCounts = obtainRefCounts();
+		Integer refCount = refCounts.get(hash);
+		refCounts.put(hash, refCount == null ? 1 : refCount + 1);
+		gcCandidates.remove(hash);
+	}
+
+	private synchronized void decreaseRef(String hash) throws IOException {
+		HashMap<String, Integer> refCounts = obtainRefCounts();
+		Integer refCount = refCounts.get(hash);
+
+		if (refCount == null || refCount <= 1) {
+			refCounts.remove(hash);
+			gcCandidates.add(hash);
+			scheduleGc();
+		}
+		else {
+			refCounts.put(hash, refCount - 1);
+		}
+	}
+
+	// Rebuild reference counts from reference files
+	private synchronized HashMap<String, Integer> obtainRefCounts() throws IOException {
+		if (refCounts == null) {
+			HashMap<String, Integer> counts = new HashMap<>();
+			countRefs(refDir, counts);
+			refCounts = counts;
+		}
+		return refCounts;
+	}
+
+	private void countRefs(File dir, HashMap<String, Integer> counts) throws IOException {
+		File[] files = dir.listFiles();
+		if (files == null) {
+			return;
+		}
+		for (File file : files) {
+			if (file.isDirectory()) {
+				countRefs(file, counts);
+			}
+			else if (file.getName().endsWith(REF_SUFFIX)) {
+				try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "US-ASCII"))) {
+					String hash = reader.readLine();
+					if (hash != null) {
+						hash = hash.trim();
+						Integer refCount = counts.get(hash);
+						counts.put(hash, refCount == null ? 1 : refCount + 1);
+					}
+				}
+			}
+		}
+	}
+
+	private File refFileOf(String relativeFilePath) {
+		return new File(refDir, DkStrings.trimMore(relativeFilePath, File.separatorChar) + REF_SUFFIX);
+	}
+
+	// Fan-out by first 2 bytes of hash: blobs/ab/cd/abcd...
+	private File blobFileOf(String hash) {
+		return new File(blobDir, hash.substring(0, 2) + File.separator + hash.substring(2, 4) + File.separator + hash);
+	}
+
+
+	private static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static String toHex(byte[] bytes) {
+		char[] chars = new char[bytes.length << 1];
+		for (int index = 0; index < bytes.length; ++index) {
+			int value = bytes[index] & 0xFF;
+			chars[index << 1] = HEX_CHARS[value >>> 4];
+			chars[(index << 1) + 1] = HEX_CHARS[value & 0x0F];
+		}
+		return new String(chars);
+	}
+
+	private static void ensureDir(File dir) throws IOException {
+		if (dir != null && ! dir.exists() && ! dir.mkdirs() && ! dir.exists()) {
+			throw new IOException("Could not create directory: " + dir);
+		}
+	}
+
+	// Temporary files which were left when app was killed while saving.
+	// Recent files are kept since they may be being written.
+	private void deleteStaleTmpFiles() {
+		File[] files = tmpDir.listFiles();
+		if (files != null) {
+			long staleTime = System.currentTimeMillis() - STALE_TMP_MILLIS;
+			for (File file : files) {
+				if (file.lastModified() < staleTime) {
+					file.delete();
+				}
+			}
+		}
+	}
+}
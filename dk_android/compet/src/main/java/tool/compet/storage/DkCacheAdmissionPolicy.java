@@ -0,0 +1,30 @@
+/*
+ * Copyright (c) 2017-2021 DarkCompet. All rights reserved.
+ */
+
+package tool.compet.storage;
+
+/**
+ * Admission policy of `DkMemoryCache`. When a policy is set, new entries are put into a small
+ * window (LRU) first. When the window is full, its least-recently-used entry becomes a candidate
+ * to enter main space, and the policy decides whether the candidate or the eviction victim of
+ * main space (same priority) should be kept.
+ * <p>
+ * Implementation must be thread-safe since accesses are recorded from many threads without lock.
+ */
+public interface DkCacheAdmissionPolicy {
+	/**
+	 * Record a request (hit or miss) of given key, it is called only by get, not by put.
+	 */
+	void record(String key);
+
+	/**
+	 * @return True to admit the candidate and evict the victim, false to reject the candidate.
+	 */
+	boolean admit(String candidateKey, String victimKey);
+
+	/**
+	 * @return Ratio (0~1) of budget which is used for window space.
+	 */
+	float windowRatio();
+}
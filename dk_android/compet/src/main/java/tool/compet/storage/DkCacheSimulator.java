@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2017-2021 DarkCompet. All rights reserved.
+ */
+
+package tool.compet.storage;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import tool.compet.core4j.DkStrings;
+
+/**
+ * Trace-driven hit rate simulator of `DkMemoryCache`, to choose admission policy and budget
+ * by replaying recorded access traces (for eg,. keys which were logged at `get()` in production).
+ * <p>
+ * Each access is replayed as get-then-put-if-miss with size 1, so capacity is number of entries.
+ *
+ * Usage:
+ * <pre>
+ *    List<String> trace = DkCacheSimulator.loadTrace(file);
+ *    DkLogcats.debug(this, DkCacheSimulator.compare(trace, 1000));
+ * </pre>
+ */
+public class DkCacheSimulator {
+	public static class Result {
+		public final String policyName;
+		public final long hitCount;
+		public final long missCount;
+
+		Result(String policyName, long hitCount, long missCount) {
+			this.policyName = policyName;
+			this.hitCount = hitCount;
+			this.missCount = missCount;
+		}
+
+		/**
+		 * @return Rate (0~1) of hits over all accesses.
+		 */
+		public float getHitRate() {
+			long accessCount = hitCount + missCount;
+			return accessCount == 0 ? 0f : (float) hitCount / accessCount;
+		}
+
+		@Override
+		public String toString() {
+			return DkStrings.format("%s: hit rate %.2f%% (%d hits, %d misses)", policyName, getHitRate() * 100, hitCount, missCount);
+		}
+	}
+
+	/**
+	 * Load trace from given file, each line is a key, empty lines are ignored.
+	 */
+	@WorkerThread
+	public static List<String> loadTrace(File file) throws IOException {
+		List<String> trace = new ArrayList<>();
+
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				line = line.trim();
+				if (line.length() > 0) {
+					trace.add(line);
+				}
+			}
+		}
+
+		return trace;
+	}
+
+	/**
+	 * Replay given trace against a fresh cache which has given capacity and policy.
+	 *
+	 * @param policy Admission policy, null for plain LRU.
+	 */
+	public static Result simulate(Iterable<String> trace, long capacity, @Nullable DkCacheAdmissionPolicy policy) {
+		DkMemoryCache cache = new DkMemoryCache(capacity);
+		cache.setAdmissionPolicy(policy);
+
+		long hitCount = 0;
+		long missCount = 0;
+
+		for (String key : trace) {
+			if (cache.get(key) != null) {
+				++hitCount;
+			}
+			else {
+				++missCount;
+				cache.put(key, new DkMemoryCache.Snapshot(key, 1));
+			}
+		}
+
+		String policyName = policy == null ? "LRU" : policy.getClass().getSimpleName();
+
+		return new Result(policyName, hitCount, missCount);
+	}
+
+	/**
+	 * Replay given trace with LRU and W-TinyLFU.
+	 *
+	 * @return Report, each line is result of a policy.
+	 */
+	public static String compare(List<String> trace, long capacity) {
+		Result lru = simulate(trace, capacity, null);
+		Result tinyLfu = simulate(trace, capacity, new DkTinyLfuPolicy((int) Math.min(Integer.MAX_VALUE, capacity)));
+
+		return DkStrings.format("trace: %d accesses, capacity: %d\n%s\n%s", trace.size(), capacity, lru, tinyLfu);
+	}
+}
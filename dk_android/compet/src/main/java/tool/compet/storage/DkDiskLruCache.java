@@ -1,9 +1,1057 @@
 /*
- * Copyright (c) 2017-2020 DarkCompet. All rights reserved.
+ * Copyright (c) 2017-2021 DarkCompet. All rights reserved.
  */
 
 package tool.compet.storage;
 
-// https://github.com/JakeWharton/DiskLruCache/tree/master/src/main/java/com/jakewharton/disklrucache
-public class DkDiskLruCache {
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.regex.Pattern;
+
+import tool.compet.core.DkLogcats;
+import tool.compet.stream.DkSchedulers;
+
+/**
+ * Bounded (in bytes) LRU cache which stores entries on file system.
+ * This is re-written from Jake Wharton's DiskLruCache.
+ * Ref: https://github.com/JakeWharton/DiskLruCache/tree/master/src/main/java/com/jakewharton/disklrucache
+ * <p>
+ * Each entry has a key (matches `[a-z0-9_-]{1,120}`) and a fixed number of values (files).
+ * Value is read via `Snapshot` and written via `Editor`. Editing is atomic: readers see
+ * the old value until the editor was committed, and an aborted edit keeps the old value.
+ * <p>
+ * All operations are recorded into a journal file which is replayed when open the cache,
+ * so the cache can recover its state even though the app was crashed at middle of a write.
+ * When the journal grows too big, it is compacted (rebuilt) in a background thread.
+ * <p>
+ * Usage:
+ * <pre>
+ *    DkDiskLruCache cache = DkDiskLruCache.open(context, "api", appVersion, 1, 10 << 20);
+ *
+ *    DkDiskLruCache.Editor editor = cache.edit("user_123");
+ *    editor.set(0, json);
+ *    editor.commit();
+ *
+ *    DkDiskLruCache.Snapshot snapshot = cache.get("user_123");
+ *    String json = snapshot.getString(0);
+ *    snapshot.close();
+ * </pre>
+ */
+public final class DkDiskLruCache implements Closeable {
+	static final String JOURNAL_FILE = "journal";
+	static final String JOURNAL_FILE_TEMP = "journal.tmp";
+	static final String JOURNAL_FILE_BACKUP = "journal.bkp";
+	static final String MAGIC = "tool.compet.storage.DkDiskLruCache";
+	static final String VERSION_1 = "1";
+	static final long ANY_SEQUENCE_NUMBER = -1;
+	static final Pattern LEGAL_KEY_PATTERN = Pattern.compile("[a-z0-9_-]{1,120}");
+
+	private static final String CLEAN = "CLEAN";
+	private static final String DIRTY = "DIRTY";
+	private static final String REMOVE = "REMOVE";
+	private static final String READ = "READ";
+
+	// Rebuild journal when number of redundant operations exceed this and entry count
+	private static final int REDUNDANT_OP_COMPACT_THRESHOLD = 2000;
+
+	private static final Charset US_ASCII = Charset.forName("US-ASCII");
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/*
+	 * Journal format (each line is terminated by `\n`):
+	 *
+	 *     tool.compet.storage.DkDiskLruCache
+	 *     1
+	 *     100
+	 *     2
+	 *
+	 *     CLEAN 3400330d1dfc7f3f7f4b8d4d803dfcf6 832 21054
+	 *     DIRTY 335c4c6028171cfddfbaae1a9c313c52
+	 *     CLEAN 335c4c6028171cfddfbaae1a9c313c52 3934 2342
+	 *     REMOVE 335c4c6028171cfddfbaae1a9c313c52
+	 *     DIRTY 1ab96a171faeeee38496d8b330771a7a
+	 *     CLEAN 1ab96a171faeeee38496d8b330771a7a 1600 234
+	 *     READ 335c4c6028171cfddfbaae1a9c313c52
+	 *
+	 * First 5 lines are header: magic string, journal version, app version, value count, blank line.
+	 * Each next line is a state record of an entry:
+	 * - DIRTY: entry is being created or updated. It must be followed by CLEAN or REMOVE,
+	 *   otherwise temporary files of the entry must be deleted.
+	 * - CLEAN: entry was published successfully, the line is followed by length of each value.
+	 * - READ: entry was accessed (for LRU order).
+	 * - REMOVE: entry was deleted.
+	 */
+
+	private final File directory;
+	private final File journalFile;
+	private final File journalFileTmp;
+	private final File journalFileBackup;
+	private final int appVersion;
+	private final int valueCount;
+	private long maxSize;
+	private long size;
+	private Writer journalWriter;
+	private int redundantOpCount;
+	// Last line of journal was torn (app was killed at middle of writing the line)
+	private boolean hasUnterminatedLine;
+
+	// Access-ordered, so head is least-recently-used entry
+	private final LinkedHashMap<String, Entry> lruEntries = new LinkedHashMap<>(0, 0.75f, true);
+
+	// To distinguish old and current snapshots, each entry is given a sequence number
+	// each time an edit is committed. A snapshot is stale if its sequence number
+	// is not equal to its entry's sequence number.
+	private long nextSequenceNumber;
+
+	// Trim size and compact the journal at background, one task at a time on shared io pool
+	private final Executor executor = DkSchedulers.newLimitedIoExecutor(1, 0);
+
+	private final Runnable cleanupTask = () -> {
+		synchronized (DkDiskLruCache.this) {
+			if (journalWriter == null) {
+				return; // Closed
+			}
+			try {
+				trimToSize();
+				if (journalRebuildRequired()) {
+					rebuildJournal();
+					redundantOpCount = 0;
+				}
+			}
+			catch (IOException e) {
+				DkLogcats.error(DkDiskLruCache.class, e);
+			}
+		}
+	};
+
+	private DkDiskLruCache(File directory, int appVersion, int valueCount, long maxSize) {
+		this.directory = directory;
+		this.appVersion = appVersion;
+		this.journalFile = new File(directory, JOURNAL_FILE);
+		this.journalFileTmp = new File(directory, JOURNAL_FILE_TEMP);
+		this.journalFileBackup = new File(directory, JOURNAL_FILE_BACKUP);
+		this.valueCount = valueCount;
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Open the cache under `cache` directory in internal storage, create new one if not exist.
+	 *
+	 * @param dirName Relative directory path from app cache dir, for eg,. `http/thumbnails`
+	 * @param appVersion When app version changed, all cached data will be cleared.
+	 * @param valueCount Number of values (files) per entry, must be positive.
+	 * @param maxSize Maximum number of bytes this cache should use to store.
+	 */
+	public static DkDiskLruCache open(Context context, String dirName, int appVersion, int valueCount, long maxSize) throws IOException {
+		return open(DkInternalStorage.cacheDirScope().getFile(context, dirName), appVersion, valueCount, maxSize);
+	}
+
+	/**
+	 * Open the cache in given directory, create new one if not exist.
+	 *
+	 * @param directory Writable directory, should be used exclusively by this cache.
+	 * @param appVersion When app version changed, all cached data will be cleared.
+	 * @param valueCount Number of values (files) per entry, must be positive.
+	 * @param maxSize Maximum number of bytes this cache should use to store.
+	 */
+	public static DkDiskLruCache open(File directory, int appVersion, int valueCount, long maxSize) throws IOException {
+		if (maxSize <= 0) {
+			throw new IllegalArgumentException("maxSize <= 0");
+		}
+		if (valueCount <= 0) {
+			throw new IllegalArgumentException("valueCount <= 0");
+		}
+
+		// If a backup file exists, use it instead (app was killed while rebuilding journal)
+		File backupFile = new File(directory, JOURNAL_FILE_BACKUP);
+		if (backupFile.exists()) {
+			File journalFile = new File(directory, JOURNAL_FILE);
+			// If journal file also exists, just delete backup file
+			if (journalFile.exists()) {
+				backupFile.delete();
+			}
+			else {
+				renameTo(backupFile, journalFile, false);
+			}
+		}
+
+		// Prefer to pick up where we left off
+		DkDiskLruCache cache = new DkDiskLruCache(directory, appVersion, valueCount, maxSize);
+		if (cache.journalFile.exists()) {
+			try {
+				cache.readJournal();
+				cache.processJournal();
+
+				// Appending after partial bytes would glue next record to them, so rewrite the journal
+				if (cache.hasUnterminatedLine) {
+					cache.rebuildJournal();
+				}
+				else {
+					cache.journalWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(cache.journalFile, true), US_ASCII));
+				}
+				return cache;
+			}
+			catch (IOException e) {
+				DkLogcats.warning(DkDiskLruCache.class, "Journal %s is corrupt: %s, removing", directory, e.getMessage());
+				cache.delete();
+			}
+		}
+
+		// Create new empty cache
+		directory.mkdirs();
+		cache = new DkDiskLruCache(directory, appVersion, valueCount, maxSize);
+		cache.rebuildJournal();
+
+		return cache;
+	}
+
+	private void readJournal() throws IOException {
+		InputStream is = new BufferedInputStream(new FileInputStream(journalFile));
+		try {
+			String magic = readAsciiLine(is);
+			String version = readAsciiLine(is);
+			String appVersionString = readAsciiLine(is);
+			String valueCountString = readAsciiLine(is);
+			String blank = readAsciiLine(is);
+
+			if (! MAGIC.equals(magic)
+				|| ! VERSION_1.equals(version)
+				|| ! Integer.toString(appVersion).equals(appVersionString)
+				|| ! Integer.toString(valueCount).equals(valueCountString)
+				|| ! "".equals(blank)) {
+				throw new IOException("Unexpected journal header: [" + magic + ", " + version + ", " + valueCountString + ", " + blank + "]");
+			}
+
+			int lineCount = 0;
+			try {
+				String line;
+				while ((line = readAsciiLine(is)) != null) {
+					readJournalLine(line);
+					lineCount++;
+				}
+			}
+			catch (EOFException e) {
+				// Ignore torn last line, it was not committed
+				hasUnterminatedLine = true;
+			}
+			redundantOpCount = lineCount - lruEntries.size();
+		}
+		finally {
+			closeQuietly(is);
+		}
+	}
+
+	private void readJournalLine(String line) throws IOException {
+		int firstSpace = line.indexOf(' ');
+		if (firstSpace == -1) {
+			throw new IOException("Unexpected journal line: " + line);
+		}
+
+		int keyBegin = firstSpace + 1;
+		int secondSpace = line.indexOf(' ', keyBegin);
+		final String key;
+		if (secondSpace == -1) {
+			key = line.substring(keyBegin);
+			if (firstSpace == REMOVE.length() && line.startsWith(REMOVE)) {
+				lruEntries.remove(key);
+				return;
+			}
+		}
+		else {
+			key = line.substring(keyBegin, secondSpace);
+		}
+
+		Entry entry = lruEntries.get(key);
+		if (entry == null) {
+			entry = new Entry(key);
+			lruEntries.put(key, entry);
+		}
+
+		if (secondSpace != -1 && firstSpace == CLEAN.length() && line.startsWith(CLEAN)) {
+			String[] parts = line.substring(secondSpace + 1).split(" ");
+			entry.readable = true;
+			entry.currentEditor = null;
+			entry.setLengths(parts);
+		}
+		else if (secondSpace == -1 && firstSpace == DIRTY.length() && line.startsWith(DIRTY)) {
+			entry.currentEditor = new Editor(entry);
+		}
+		else if (secondSpace == -1 && firstSpace == READ.length() && line.startsWith(READ)) {
+			// This work was already done by calling lruEntries.get()
+		}
+		else {
+			throw new IOException("Unexpected journal line: " + line);
+		}
+	}
+
+	/**
+	 * Computes the initial size and collects garbage as a part of opening the
+	 * cache. Dirty entries are assumed to be inconsistent and will be deleted.
+	 */
+	private void processJournal() throws IOException {
+		deleteIfExists(journalFileTmp);
+
+		for (Iterator<Entry> it = lruEntries.values().iterator(); it.hasNext(); ) {
+			Entry entry = it.next();
+			if (entry.currentEditor == null) {
+				for (int index = 0; index < valueCount; ++index) {
+					size += entry.lengths[index];
+				}
+			}
+			else {
+				entry.currentEditor = null;
+				for (int index = 0; index < valueCount; ++index) {
+					deleteIfExists(entry.getCleanFile(index));
+					deleteIfExists(entry.getDirtyFile(index));
+				}
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * Creates a new journal that omits redundant information.
+	 * This replaces the current journal if it exists.
+	 */
+	private synchronized void rebuildJournal() throws IOException {
+		if (journalWriter != null) {
+			journalWriter.close();
+		}
+
+		Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(journalFileTmp), US_ASCII));
+		try {
+			writer.write(MAGIC);
+			writer.write("\n");
+			writer.write(VERSION_1);
+			writer.write("\n");
+			writer.write(Integer.toString(appVersion));
+			writer.write("\n");
+			writer.write(Integer.toString(valueCount));
+			writer.write("\n");
+			writer.write("\n");
+
+			for (Entry entry : lruEntries.values()) {
+				if (entry.currentEditor != null) {
+					writer.write(DIRTY + ' ' + entry.key + '\n');
+				}
+				else {
+					writer.write(CLEAN + ' ' + entry.key + entry.getLengths() + '\n');
+				}
+			}
+		}
+		finally {
+			writer.close();
+		}
+
+		// Keep old journal as backup until new one was placed
+		if (journalFile.exists()) {
+			renameTo(journalFile, journalFileBackup, true);
+		}
+		renameTo(journalFileTmp, journalFile, false);
+		journalFileBackup.delete();
+
+		journalWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(journalFile, true), US_ASCII));
+	}
+
+	/**
+	 * Obtain snapshot of the entry at given key.
+	 *
+	 * @return Null if the entry does not exist or is not currently readable.
+	 * If a value is returned, it is moved to the head of the LRU queue.
+	 */
+	@Nullable
+	public synchronized Snapshot get(String key) throws IOException {
+		checkNotClosed();
+		validateKey(key);
+
+		Entry entry = lruEntries.get(key);
+		if (entry == null || ! entry.readable) {
+			return null;
+		}
+
+		// Open all streams eagerly to guarantee that we see a single published
+		// snapshot. If we opened streams lazily then the streams could come
+		// from different edits.
+		InputStream[] ins = new InputStream[valueCount];
+		try {
+			for (int index = 0; index < valueCount; ++index) {
+				ins[index] = new FileInputStream(entry.getCleanFile(index));
+			}
+		}
+		catch (FileNotFoundException e) {
+			// A file must have been deleted manually!
+			for (int index = 0; index < valueCount; ++index) {
+				if (ins[index] != null) {
+					closeQuietly(ins[index]);
+				}
+				else {
+					break;
+				}
+			}
+			return null;
+		}
+
+		redundantOpCount++;
+		journalWriter.append(READ + ' ').append(key).append('\n');
+		if (journalRebuildRequired()) {
+			executor.execute(cleanupTask);
+		}
+
+		return new Snapshot(key, entry.sequenceNumber, ins, entry.lengths);
+	}
+
+	/**
+	 * Obtain an editor for the entry at given key.
+	 *
+	 * @return Null if another edit is in progress.
+	 */
+	@Nullable
+	public Editor edit(String key) throws IOException {
+		return edit(key, ANY_SEQUENCE_NUMBER);
+	}
+
+	private synchronized Editor edit(String key, long expectedSequenceNumber) throws IOException {
+		checkNotClosed();
+		validateKey(key);
+
+		Entry entry = lruEntries.get(key);
+		if (expectedSequenceNumber != ANY_SEQUENCE_NUMBER && (entry == null || entry.sequenceNumber != expectedSequenceNumber)) {
+			return null; // Snapshot is stale
+		}
+		if (entry == null) {
+			entry = new Entry(key);
+			lruEntries.put(key, entry);
+		}
+		else if (entry.currentEditor != null) {
+			return null; // Another edit is in progress
+		}
+
+		Editor editor = new Editor(entry);
+		entry.currentEditor = editor;
+
+		// Flush the journal before creating files to prevent file leaks
+		journalWriter.write(DIRTY + ' ' + key + '\n');
+		journalWriter.flush();
+
+		return editor;
+	}
+
+	/**
+	 * @return Directory where this cache stores its data.
+	 */
+	public File getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * @return Maximum number of bytes that this cache should use to store its data.
+	 */
+	public synchronized long getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * Changes the maximum number of bytes the cache can store and queues a job
+	 * to trim the existing store, if necessary.
+	 */
+	public synchronized void setMaxSize(long maxSize) {
+		this.maxSize = maxSize;
+		executor.execute(cleanupTask);
+	}
+
+	/**
+	 * @return Number of bytes currently being used to store the values in this cache.
+	 * This may be greater than the max size if a background deletion is pending.
+	 */
+	public synchronized long size() {
+		return size;
+	}
+
+	private synchronized void completeEdit(Editor editor, boolean success) throws IOException {
+		Entry entry = editor.entry;
+		if (entry.currentEditor != editor) {
+			throw new IllegalStateException();
+		}
+
+		// If this edit is creating the entry for the first time, every index must have a value
+		if (success && ! entry.readable) {
+			for (int index = 0; index < valueCount; ++index) {
+				if (! editor.written[index]) {
+					editor.abort();
+					throw new IllegalStateException("Newly created entry didn't create value for index " + index);
+				}
+				if (! entry.getDirtyFile(index).exists()) {
+					editor.abort();
+					return;
+				}
+			}
+		}
+
+		for (int index = 0; index < valueCount; ++index) {
+			File dirty = entry.getDirtyFile(index);
+			if (success) {
+				if (dirty.exists()) {
+					File clean = entry.getCleanFile(index);
+					dirty.renameTo(clean);
+					long oldLength = entry.lengths[index];
+					long newLength = clean.length();
+					entry.lengths[index] = newLength;
+					size = size - oldLength + newLength;
+				}
+			}
+			else {
+				deleteIfExists(dirty);
+			}
+		}
+
+		redundantOpCount++;
+		entry.currentEditor = null;
+
+		if (entry.readable | success) {
+			entry.readable = true;
+			journalWriter.write(CLEAN + ' ' + entry.key + entry.getLengths() + '\n');
+			if (success) {
+				entry.sequenceNumber = nextSequenceNumber++;
+			}
+		}
+		else {
+			lruEntries.remove(entry.key);
+			journalWriter.write(REMOVE + ' ' + entry.key + '\n');
+		}
+		journalWriter.flush();
+
+		if (size > maxSize || journalRebuildRequired()) {
+			executor.execute(cleanupTask);
+		}
+	}
+
+	/**
+	 * We only rebuild the journal when it will halve the size of the journal
+	 * and eliminate at least 2000 ops.
+	 */
+	private boolean journalRebuildRequired() {
+		return redundantOpCount >= REDUNDANT_OP_COMPACT_THRESHOLD && redundantOpCount >= lruEntries.size();
+	}
+
+	/**
+	 * Drops the entry for given key if it exists and can be removed.
+	 * Entries actively being edited cannot be removed.
+	 *
+	 * @return True if an entry was removed.
+	 */
+	public synchronized boolean remove(String key) throws IOException {
+		checkNotClosed();
+		validateKey(key);
+
+		Entry entry = lruEntries.get(key);
+		if (entry == null || entry.currentEditor != null) {
+			return false;
+		}
+
+		for (int index = 0; index < valueCount; ++index) {
+			File file = entry.getCleanFile(index);
+			if (file.exists() && ! file.delete()) {
+				throw new IOException("Failed to delete " + file);
+			}
+			size -= entry.lengths[index];
+			entry.lengths[index] = 0;
+		}
+
+		redundantOpCount++;
+		journalWriter.append(REMOVE + ' ').append(key).append('\n');
+		lruEntries.remove(key);
+
+		if (journalRebuildRequired()) {
+			executor.execute(cleanupTask);
+		}
+
+		return true;
+	}
+
+	/**
+	 * @return True if this cache has been closed.
+	 */
+	public synchronized boolean isClosed() {
+		return journalWriter == null;
+	}
+
+	private void checkNotClosed() {
+		if (journalWriter == null) {
+			throw new IllegalStateException("Cache is closed");
+		}
+	}
+
+	/**
+	 * Force buffered operations to the filesystem.
+	 */
+	public synchronized void flush() throws IOException {
+		checkNotClosed();
+		trimToSize();
+		journalWriter.flush();
+	}
+
+	/**
+	 * Closes this cache. Stored values will remain on the filesystem.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if (journalWriter == null) {
+			return; // Already closed
+		}
+		for (Entry entry : new ArrayList<>(lruEntries.values())) {
+			if (entry.currentEditor != null) {
+				entry.currentEditor.abort();
+			}
+		}
+		trimToSize();
+		journalWriter.close();
+		journalWriter = null;
+	}
+
+	private void trimToSize() throws IOException {
+		while (size > maxSize) {
+			Map.Entry<String, Entry> toEvict = lruEntries.entrySet().iterator().next();
+			remove(toEvict.getKey());
+		}
+	}
+
+	/**
+	 * Closes the cache and deletes all of its stored values.
+	 * This will delete all files in the cache directory including files that weren't created by the cache.
+	 */
+	public void delete() throws IOException {
+		close();
+		deleteContents(directory);
+	}
+
+	private void validateKey(String key) {
+		if (! LEGAL_KEY_PATTERN.matcher(key).matches()) {
+			throw new IllegalArgumentException("Keys must match regex [a-z0-9_-]{1,120}: \"" + key + "\"");
+		}
+	}
+
+	/**
+	 * Reads a line which is terminated by `\n`.
+	 *
+	 * @return Null if end of stream was reached at start of the line.
+	 * @throws EOFException When end of stream was reached before `\n`,
+	 * this happens when the app was killed at middle of writing the line.
+	 */
+	private static String readAsciiLine(InputStream is) throws IOException {
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream(80);
+
+		while (true) {
+			int b = is.read();
+			if (b == -1) {
+				if (buffer.size() == 0) {
+					return null;
+				}
+				throw new EOFException();
+			}
+			if (b == '\n') {
+				break;
+			}
+			buffer.write(b);
+		}
+
+		return buffer.toString("US-ASCII");
+	}
+
+	private static String inputStreamToString(InputStream in) throws IOException {
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		byte[] chunk = new byte[1024];
+		int count;
+
+		try {
+			while ((count = in.read(chunk)) != -1) {
+				buffer.write(chunk, 0, count);
+			}
+		}
+		finally {
+			closeQuietly(in);
+		}
+
+		return new String(buffer.toByteArray(), UTF_8);
+	}
+
+	private static void deleteIfExists(File file) throws IOException {
+		if (file.exists() && ! file.delete()) {
+			throw new IOException();
+		}
+	}
+
+	private static void renameTo(File from, File to, boolean deleteDestination) throws IOException {
+		if (deleteDestination) {
+			deleteIfExists(to);
+		}
+		if (! from.renameTo(to)) {
+			throw new IOException();
+		}
+	}
+
+	private static void deleteContents(File dir) throws IOException {
+		File[] files = dir.listFiles();
+		if (files == null) {
+			throw new IOException("Not a readable directory: " + dir);
+		}
+		for (File file : files) {
+			if (file.isDirectory()) {
+				deleteContents(file);
+			}
+			if (! file.delete()) {
+				throw new IOException("Failed to delete file: " + file);
+			}
+		}
+	}
+
+	private static void closeQuietly(@Nullable Closeable closeable) {
+		if (closeable != null) {
+			try {
+				closeable.close();
+			}
+			catch (RuntimeException rethrown) {
+				throw rethrown;
+			}
+			catch (Exception ignored) {
+			}
+		}
+	}
+
+	/**
+	 * A snapshot of the values for an entry.
+	 * Caller must close the snapshot after use.
+	 */
+	public final class Snapshot implements Closeable {
+		private final String key;
+		private final long sequenceNumber;
+		private final InputStream[] ins;
+		private final long[] lengths;
+
+		private Snapshot(String key, long sequenceNumber, InputStream[] ins, long[] lengths) {
+			this.key = key;
+			this.sequenceNumber = sequenceNumber;
+			this.ins = ins;
+			this.lengths = lengths;
+		}
+
+		/**
+		 * @return An editor for this snapshot's entry, or null if either the
+		 * entry has changed since this snapshot was created or if another edit is in progress.
+		 */
+		@Nullable
+		public Editor edit() throws IOException {
+			return DkDiskLruCache.this.edit(key, sequenceNumber);
+		}
+
+		/**
+		 * @return Unbuffered stream with the value for `index`.
+		 */
+		public InputStream getInputStream(int index) {
+			return ins[index];
+		}
+
+		/**
+		 * @return String value for `index`.
+		 */
+		public String getString(int index) throws IOException {
+			return inputStreamToString(getInputStream(index));
+		}
+
+		/**
+		 * @return Byte length of the value for `index`.
+		 */
+		public long getLength(int index) {
+			return lengths[index];
+		}
+
+		@Override
+		public void close() {
+			for (InputStream in : ins) {
+				closeQuietly(in);
+			}
+		}
+	}
+
+	private static final OutputStream NULL_OUTPUT_STREAM = new OutputStream() {
+		@Override
+		public void write(int b) {
+			// Eat all writes silently
+		}
+	};
+
+	/**
+	 * Edits the values for an entry.
+	 * Caller must call `commit()` or `abort()` after edit.
+	 */
+	public final class Editor {
+		private final Entry entry;
+		private final boolean[] written;
+		private boolean hasErrors;
+		private boolean committed;
+
+		private Editor(Entry entry) {
+			this.entry = entry;
+			this.written = (entry.readable) ? null : new boolean[valueCount];
+		}
+
+		/**
+		 * @return Unbuffered input stream to read the last committed value, or null if no value has been committed.
+		 */
+		@Nullable
+		public InputStream newInputStream(int index) throws IOException {
+			synchronized (DkDiskLruCache.this) {
+				if (entry.currentEditor != this) {
+					throw new IllegalStateException();
+				}
+				if (! entry.readable) {
+					return null;
+				}
+				try {
+					return new FileInputStream(entry.getCleanFile(index));
+				}
+				catch (FileNotFoundException e) {
+					return null;
+				}
+			}
+		}
+
+		/**
+		 * @return Last committed value as a string, or null if no value has been committed.
+		 */
+		@Nullable
+		public String getString(int index) throws IOException {
+			InputStream in = newInputStream(index);
+			return in != null ? inputStreamToString(in) : null;
+		}
+
+		/**
+		 * @return New unbuffered output stream to write the value at `index`.
+		 * If the underlying output stream encounters errors when writing to the filesystem,
+		 * this edit will be aborted when `commit()` is called.
+		 * The returned output stream does not throw IOExceptions.
+		 */
+		@NonNull
+		public OutputStream newOutputStream(int index) throws IOException {
+			if (index < 0 || index >= valueCount) {
+				throw new IllegalArgumentException("Expected index " + index + " to be greater than 0 and less than the maximum value count of " + valueCount);
+			}
+			synchronized (DkDiskLruCache.this) {
+				if (entry.currentEditor != this) {
+					throw new IllegalStateException();
+				}
+				if (! entry.readable) {
+					written[index] = true;
+				}
+
+				File dirtyFile = entry.getDirtyFile(index);
+				FileOutputStream outputStream;
+				try {
+					outputStream = new FileOutputStream(dirtyFile);
+				}
+				catch (FileNotFoundException e) {
+					// Attempt to recreate the cache directory
+					directory.mkdirs();
+					try {
+						outputStream = new FileOutputStream(dirtyFile);
+					}
+					catch (FileNotFoundException e2) {
+						// We are unable to recover. Silently eat the writes.
+						return NULL_OUTPUT_STREAM;
+					}
+				}
+				return new FaultHidingOutputStream(outputStream);
+			}
+		}
+
+		/**
+		 * Sets the value at `index` to `value`.
+		 */
+		public void set(int index, String value) throws IOException {
+			Writer writer = null;
+			try {
+				writer = new OutputStreamWriter(newOutputStream(index), UTF_8);
+				writer.write(value);
+			}
+			finally {
+				closeQuietly(writer);
+			}
+		}
+
+		/**
+		 * Sets the value at `index` to `value`.
+		 */
+		public void set(int index, byte[] value) throws IOException {
+			OutputStream os = null;
+			try {
+				os = newOutputStream(index);
+				os.write(value);
+			}
+			finally {
+				closeQuietly(os);
+			}
+		}
+
+		/**
+		 * Commits this edit so it is visible to readers.
+		 * This releases the edit lock so another edit may be started on the same key.
+		 */
+		public void commit() throws IOException {
+			if (hasErrors) {
+				completeEdit(this, false);
+				remove(entry.key); // The previous entry is stale
+			}
+			else {
+				completeEdit(this, true);
+			}
+			committed = true;
+		}
+
+		/**
+		 * Aborts this edit.
+		 * This releases the edit lock so another edit may be started on the same key.
+		 */
+		public void abort() throws IOException {
+			completeEdit(this, false);
+		}
+
+		public void abortUnlessCommitted() {
+			if (! committed) {
+				try {
+					abort();
+				}
+				catch (IOException ignored) {
+				}
+			}
+		}
+
+		private class FaultHidingOutputStream extends FilterOutputStream {
+			private FaultHidingOutputStream(OutputStream out) {
+				super(out);
+			}
+
+			@Override
+			public void write(int oneByte) {
+				try {
+					out.write(oneByte);
+				}
+				catch (IOException e) {
+					hasErrors = true;
+				}
+			}
+
+			@Override
+			public void write(@NonNull byte[] buffer, int offset, int length) {
+				try {
+					out.write(buffer, offset, length);
+				}
+				catch (IOException e) {
+					hasErrors = true;
+				}
+			}
+
+			@Override
+			public void close() {
+				try {
+					out.close();
+				}
+				catch (IOException e) {
+					hasErrors = true;
+				}
+			}
+
+			@Override
+			public void flush() {
+				try {
+					out.flush();
+				}
+				catch (IOException e) {
+					hasErrors = true;
+				}
+			}
+		}
+	}
+
+	private final class Entry {
+		private final String key;
+
+		// Lengths of this entry's files
+		private final long[] lengths;
+
+		// True if this entry has ever been published
+		private boolean readable;
+
+		// The ongoing edit or null if this entry is not being edited
+		private Editor currentEditor;
+
+		// The sequence number of the most recently committed edit to this entry
+		private long sequenceNumber;
+
+		private Entry(String key) {
+			this.key = key;
+			this.lengths = new long[valueCount];
+		}
+
+		String getLengths() {
+			StringBuilder result = new StringBuilder();
+			for (long size : lengths) {
+				result.append(' ').append(size);
+			}
+			return result.toString();
+		}
+
+		// Set lengths using decimal numbers like "10123"
+		private void setLengths(String[] strings) throws IOException {
+			if (strings.length != valueCount) {
+				throw invalidLengths(strings);
+			}
+			try {
+				for (int index = 0; index < strings.length; ++index) {
+					lengths[index] = Long.parseLong(strings[index]);
+				}
+			}
+			catch (NumberFormatException e) {
+				throw invalidLengths(strings);
+			}
+		}
+
+		private IOException invalidLengths(String[] strings) {
+			StringBuilder sb = new StringBuilder();
+			for (String s : strings) {
+				sb.append(s).append(' ');
+			}
+			return new IOException("Unexpected journal line: " + sb);
+		}
+
+		File getCleanFile(int index) {
+			return new File(directory, key + "." + index);
+		}
+
+		File getDirtyFile(int index) {
+			return new File(directory, key + "." + index + ".tmp");
+		}
+	}
 }
@@ -1,9 +1,29 @@
 /*
- * Copyright (c) 2017-2020 DarkCompet. All rights reserved.
+ * Copyright (c) 2017-2021 DarkCompet. All rights reserved.
  */
 
 package tool.compet.storage;
 
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.SystemClock;
+
+import androidx.annotation.Nullable;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+import tool.compet.core.DkLogcats;
+import tool.compet.core.graphics.DkBitmaps;
+import tool.compet.json4j.DkJsonConverter;
+import tool.compet.stream.DkSchedulers;
+
 /**
  * This is singleton class, is combination of LruCache and DiskLruCache.
  * <p>
@@ -13,6 +33,352 @@ package tool.compet.storage;
  * <p>
  * Note that, each data (inside snapshot) will have own priority to be kept in memory. Lower
  * priority will be popped and stored into disk when MLU happen.
+ * <p>
+ * Supported targets to be stored into disk: `byte[]`, `String`, `Bitmap` and json-convertible objects.
+ * Other targets are just dropped when be evicted from memory.
  */
 public class DkDualCache {
+	private static final String DISK_DIR_NAME = "dk_dual_cache";
+	private static final int DISK_VERSION = 1;
+
+	// Type of target which be stored into disk
+	private static final byte TYPE_BYTES = 1;
+	private static final byte TYPE_STRING = 2;
+	private static final byte TYPE_BITMAP = 3;
+	private static final byte TYPE_JSON = 4;
+
+	private static DkDualCache INS;
+
+	private final DkMemoryCache memoryCache;
+	private final DkDiskLruCache diskCache;
+
+	// Serialize evicted snapshots into disk at background, tasks must run in order (remove vs spill)
+	private final Executor spillExecutor = DkSchedulers.newLimitedIoExecutor(1, 0);
+
+	// Snapshots which were evicted from memory but not yet be written to disk
+	private final ConcurrentHashMap<String, DkMemoryCache.Snapshot> pendingSpills = new ConcurrentHashMap<>();
+
+	// Stats for tier sizing
+	private final AtomicLong memoryHitCount = new AtomicLong();
+	private final AtomicLong diskHitCount = new AtomicLong();
+	private final AtomicLong missCount = new AtomicLong();
+	private final AtomicLong spillCount = new AtomicLong();
+	private final AtomicLong spillDropCount = new AtomicLong();
+
+	private DkDualCache(DkMemoryCache memoryCache, DkDiskLruCache diskCache) {
+		this.memoryCache = memoryCache;
+		this.diskCache = diskCache;
+
+		memoryCache.addEvictionListener(this::onMemoryEvicted);
+	}
+
+	/**
+	 * Install the cache with disk cache under `cache` directory in internal storage.
+	 * Should call this at app startup, before use `getIns()`.
+	 *
+	 * @param diskMaxSize Maximum number of bytes for disk tier.
+	 */
+	public static DkDualCache install(Context context, long diskMaxSize) throws IOException {
+		if (INS == null) {
+			synchronized (DkDualCache.class) {
+				if (INS == null) {
+					DkDiskLruCache diskCache = DkDiskLruCache.open(context, DISK_DIR_NAME, DISK_VERSION, 1, diskMaxSize);
+					INS = new DkDualCache(DkMemoryCache.getIns(), diskCache);
+				}
+			}
+		}
+		return INS;
+	}
+
+	public static DkDualCache getIns() {
+		if (INS == null) {
+			throw new RuntimeException("Must call `install()` first");
+		}
+		return INS;
+	}
+
+	public void put(String key, Bitmap value) {
+		put(key, new DkMemoryCache.Snapshot(value, DkBitmaps.size(value)));
+	}
+
+	/**
+	 * Put to memory tier. Old value in disk tier is removed since it becomes stale.
+	 */
+	public void put(String key, DkMemoryCache.Snapshot snapshot) {
+		pendingSpills.remove(key);
+		memoryCache.put(key, snapshot);
+
+		spillExecutor.execute(() -> {
+			// Don't remove if this key was evicted again after above put
+			if (! pendingSpills.containsKey(key)) {
+				removeFromDisk(key);
+			}
+		});
+	}
+
+	/**
+	 * Get from memory tier, if not found, get from disk tier and promote it back to memory tier.
+	 * Note that, this method reads disk at calling thread when miss at memory tier.
+	 */
+	@Nullable
+	public <T> T get(String key) {
+		T target = memoryCache.get(key);
+		if (target != null) {
+			memoryHitCount.incrementAndGet();
+			return target;
+		}
+
+		// Evicted but not yet written to disk
+		DkMemoryCache.Snapshot snapshot = pendingSpills.remove(key);
+
+		if (snapshot == null) {
+			snapshot = readFromDisk(key);
+		}
+		if (snapshot == null || snapshot.isExpired(SystemClock.uptimeMillis())) {
+			missCount.incrementAndGet();
+			return null;
+		}
+
+		diskHitCount.incrementAndGet();
+		memoryCache.put(key, snapshot);
+
+		return getTarget(snapshot);
+	}
+
+	/**
+	 * Remove from both memory and disk tiers.
+	 */
+	public void remove(String key) {
+		pendingSpills.remove(key);
+		memoryCache.remove(key);
+
+		spillExecutor.execute(() -> removeFromDisk(key));
+	}
+
+	public long getMemoryHitCount() {
+		return memoryHitCount.get();
+	}
+
+	public long getDiskHitCount() {
+		return diskHitCount.get();
+	}
+
+	public long getMissCount() {
+		return missCount.get();
+	}
+
+	/**
+	 * @return Number of evicted snapshots which were written to disk.
+	 */
+	public long getSpillCount() {
+		return spillCount.get();
+	}
+
+	/**
+	 * @return Number of evicted snapshots which could not be written to disk (unsupported target, io error...).
+	 */
+	public long getSpillDropCount() {
+		return spillDropCount.get();
+	}
+
+	public void resetStats() {
+		memoryHitCount.set(0);
+		diskHitCount.set(0);
+		missCount.set(0);
+		spillCount.set(0);
+		spillDropCount.set(0);
+	}
+
+	/**
+	 * @return Number of bytes are being used by disk tier.
+	 */
+	public long getDiskSize() {
+		return diskCache.size();
+	}
+
+	// Called inside lock of memory cache, so just enqueue the snapshot
+	private void onMemoryEvicted(String key, DkMemoryCache.Snapshot snapshot) {
+		if (snapshot.isExpired(SystemClock.uptimeMillis())) {
+			return;
+		}
+		pendingSpills.put(key, snapshot);
+
+		spillExecutor.execute(() -> {
+			DkMemoryCache.Snapshot target = pendingSpills.get(key);
+			// Was promoted, updated or removed meanwhile
+			if (target != snapshot) {
+				return;
+			}
+			if (writeToDisk(key, snapshot)) {
+				spillCount.incrementAndGet();
+			}
+			else {
+				spillDropCount.incrementAndGet();
+			}
+			pendingSpills.remove(key, snapshot);
+		});
+	}
+
+	private boolean writeToDisk(String key, DkMemoryCache.Snapshot snapshot) {
+		DkDiskLruCache.Editor editor = null;
+
+		try {
+			Object target = snapshot.target;
+			byte type;
+			byte[] data;
+
+			if (target instanceof byte[]) {
+				type = TYPE_BYTES;
+				data = (byte[]) target;
+			}
+			else if (target instanceof String) {
+				type = TYPE_STRING;
+				data = ((String) target).getBytes("UTF-8");
+			}
+			else if (target instanceof Bitmap) {
+				type = TYPE_BITMAP;
+				data = DkBitmaps.toByteArray((Bitmap) target);
+			}
+			else if (target != null) {
+				type = TYPE_JSON;
+				data = DkJsonConverter.getIns().obj2json(target).getBytes("UTF-8");
+			}
+			else {
+				return false;
+			}
+
+			editor = diskCache.edit(diskKey(key));
+			if (editor == null) {
+				return false; // Being edited by other
+			}
+
+			DataOutputStream os = new DataOutputStream(editor.newOutputStream(0));
+			try {
+				// Header
+				os.writeUTF(key);
+				os.writeByte(type);
+				if (type == TYPE_JSON) {
+					os.writeUTF(target.getClass().getName());
+				}
+				os.writeInt(snapshot.priority);
+				os.writeLong(snapshot.size);
+				// Convert uptime to wall time since uptime is reset after reboot
+				os.writeLong(snapshot.expiredTime <= 0 ? 0 : snapshot.expiredTime - SystemClock.uptimeMillis() + System.currentTimeMillis());
+
+				// Body
+				os.writeInt(data.length);
+				os.write(data);
+			}
+			finally {
+				os.close();
+			}
+			editor.commit();
+
+			return true;
+		}
+		catch (Exception e) {
+			DkLogcats.error(this, e);
+
+			if (editor != null) {
+				editor.abortUnlessCommitted();
+			}
+			return false;
+		}
+	}
+
+	@Nullable
+	private DkMemoryCache.Snapshot readFromDisk(String key) {
+		DkDiskLruCache.Snapshot diskSnapshot = null;
+
+		try {
+			diskSnapshot = diskCache.get(diskKey(key));
+			if (diskSnapshot == null) {
+				return null;
+			}
+
+			DataInputStream is = new DataInputStream(diskSnapshot.getInputStream(0));
+
+			// Header
+			String storedKey = is.readUTF();
+			if (! key.equals(storedKey)) {
+				return null; // Hash collision
+			}
+			byte type = is.readByte();
+			String className = type == TYPE_JSON ? is.readUTF() : null;
+			int priority = is.readInt();
+			long size = is.readLong();
+			long expiredWallTime = is.readLong();
+
+			// Body
+			byte[] data = new byte[is.readInt()];
+			is.readFully(data);
+
+			Object target;
+			switch (type) {
+				case TYPE_BYTES: {
+					target = data;
+					break;
+				}
+				case TYPE_STRING: {
+					target = new String(data, "UTF-8");
+					break;
+				}
+				case TYPE_BITMAP: {
+					target = BitmapFactory.decodeByteArray(data, 0, data.length);
+					break;
+				}
+				case TYPE_JSON: {
+					target = DkJsonConverter.getIns().json2obj(new String(data, "UTF-8"), Class.forName(className));
+					break;
+				}
+				default: {
+					return null;
+				}
+			}
+
+			DkMemoryCache.Snapshot snapshot = new DkMemoryCache.Snapshot(target, size).setPriority(priority);
+			if (expiredWallTime > 0) {
+				snapshot.setExpiredTime(expiredWallTime - System.currentTimeMillis() + SystemClock.uptimeMillis());
+			}
+
+			return snapshot;
+		}
+		catch (Exception e) {
+			DkLogcats.error(this, e);
+			return null;
+		}
+		finally {
+			if (diskSnapshot != null) {
+				diskSnapshot.close();
+			}
+		}
+	}
+
+	private void removeFromDisk(String key) {
+		try {
+			diskCache.remove(diskKey(key));
+		}
+		catch (Exception e) {
+			DkLogcats.error(this, e);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> T getTarget(DkMemoryCache.Snapshot snapshot) {
+		return (T) snapshot.target;
+	}
+
+	// Disk cache only accepts key which matches `[a-z0-9_-]{1,120}`, so we hash given key
+	private static String diskKey(String key) throws Exception {
+		MessageDigest digest = MessageDigest.getInstance("SHA-1");
+		byte[] hash = digest.digest(key.getBytes("UTF-8"));
+
+		StringBuilder sb = new StringBuilder(hash.length << 1);
+		for (byte b : hash) {
+			sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+			sb.append(Character.forDigit(b & 0xf, 16));
+		}
+
+		return sb.toString();
+	}
 }
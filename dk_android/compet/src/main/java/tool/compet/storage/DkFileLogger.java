@@ -6,11 +6,12 @@ package tool.compet.storage;
 
 import androidx.annotation.Nullable;
 
-import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.List;
 
 import tool.compet.BuildConfig;
+import tool.compet.core.DkLogFormats;
+import tool.compet.core.DkTracer;
 import tool.compet.core4j.DkDateTimes;
 import tool.compet.core4j.DkLogger;
 import tool.compet.core4j.DkRunner2;
@@ -27,21 +28,50 @@ public class DkFileLogger implements DkLogger.LogType {
 	public static boolean logBackTrace;
 	public static DkRunner2<Integer, String> logCallback; // params: (logType, message)
 
-	// For benchmark
-	private static long benchmarkStartTime;
-	private static ArrayDeque<String> benchmarkTaskNames;
-
 	// To persist log to file
 	private DkRunner2<Integer, String> storage; // logType vs logMessage
 
+	// To persist log to file at writer thread, instead of calling thread
+	@Nullable private DkAsyncLogWriter asyncWriter;
+
+	// Minimum severity (see `DkLogFormats.severity()`) to be logged
+	private volatile int minSeverity = DkLogFormats.severity(TYPE_DEBUG);
+
 	public DkFileLogger(DkRunner2<Integer, String> storage) {
 		this.storage = storage;
 	}
 
+	public DkFileLogger(DkAsyncLogWriter asyncWriter) {
+		this.asyncWriter = asyncWriter;
+	}
+
 	public void setStorage(DkRunner2<Integer, String> storage) {
 		this.storage = storage;
 	}
 
+	/**
+	 * Set async writer, when set, log is formatted and written at writer thread,
+	 * and storage is not used.
+	 */
+	public void setAsyncWriter(@Nullable DkAsyncLogWriter asyncWriter) {
+		this.asyncWriter = asyncWriter;
+	}
+
+	/**
+	 * Logs which are less important than given log type are ignored before formatting.
+	 */
+	public void setMinLogType(int logType) {
+		this.minSeverity = DkLogFormats.severity(logType);
+	}
+
+	/**
+	 * @return True if log of given type will be written. Check this first when logging with
+	 * many args, to avoid allocating varargs array for filtered logs.
+	 */
+	public boolean isLoggable(int logType) {
+		return DkLogFormats.severity(logType) >= minSeverity;
+	}
+
 	/**
 	 * Debug log. Can't be invoked in production.
 	 * Note that, we should remove all debug code when release.
@@ -51,35 +81,275 @@ public class DkFileLogger implements DkLogger.LogType {
 		if (! BuildConfig.DEBUG) {
 			DkUtils.complainAt(DkFileLogger.class, "Can not use debug-log at product version");
 		}
-		logger.debug(where, format, args);
+		if (isLoggable(TYPE_DEBUG)) {
+			logger.debug(where, format, args);
+		}
+	}
+
+	// Overloads without varargs and boxing
+	public void debug(@Nullable Object where, @Nullable String format, long arg) {
+		log(TYPE_DEBUG, where, format, DkLogFormats.ARG_LONG, null, arg, null, 0);
+	}
+
+	public void debug(@Nullable Object where, @Nullable String format, double arg) {
+		log(TYPE_DEBUG, where, format, DkLogFormats.ARG_DOUBLE, null, Double.doubleToRawLongBits(arg), null, 0);
+	}
+
+	// Narrower primitives are tagged with own type, so they are formatted as before (for eg,. `%c` of char)
+	public void debug(@Nullable Object where, @Nullable String format, int arg) {
+		log(TYPE_DEBUG, where, format, DkLogFormats.ARG_LONG, Integer.class, arg, null, 0);
+	}
+
+	public void debug(@Nullable Object where, @Nullable String format, char arg) {
+		log(TYPE_DEBUG, where, format, DkLogFormats.ARG_LONG, Character.class, arg, null, 0);
+	}
+
+	public void debug(@Nullable Object where, @Nullable String format, byte arg) {
+		log(TYPE_DEBUG, where, format, DkLogFormats.ARG_LONG, Byte.class, arg, null, 0);
+	}
+
+	public void debug(@Nullable Object where, @Nullable String format, short arg) {
+		log(TYPE_DEBUG, where, format, DkLogFormats.ARG_LONG, Short.class, arg, null, 0);
+	}
+
+	public void debug(@Nullable Object where, @Nullable String format, float arg) {
+		log(TYPE_DEBUG, where, format, DkLogFormats.ARG_DOUBLE, Float.class, Double.doubleToRawLongBits(arg), null, 0);
+	}
+
+	public void debug(@Nullable Object where, @Nullable String format, @Nullable Object arg) {
+		log(TYPE_DEBUG, where, format, DkLogFormats.ARG_OBJECT, arg, 0, null, 0);
+	}
+
+	public void debug(@Nullable Object where, @Nullable String format, long arg1, long arg2) {
+		log(TYPE_DEBUG, where, format, DkLogFormats.ARG_LONG_LONG, null, arg1, null, arg2);
+	}
+
+	public void debug(@Nullable Object where, @Nullable String format, int arg1, int arg2) {
+		log(TYPE_DEBUG, where, format, DkLogFormats.ARG_LONG_LONG, Integer.class, arg1, Integer.class, arg2);
+	}
+
+	public void debug(@Nullable Object where, @Nullable String format, @Nullable Object arg1, @Nullable Object arg2) {
+		log(TYPE_DEBUG, where, format, DkLogFormats.ARG_OBJECT_OBJECT, arg1, 0, arg2, 0);
 	}
 
 	/**
 	 * Log info. Can be invoked in production.
 	 */
 	public void info(@Nullable Object where, @Nullable String format, Object... args) {
-		logger.info(where, format, args);
+		if (isLoggable(TYPE_INFO)) {
+			logger.info(where, format, args);
+		}
+	}
+
+	// Overloads without varargs and boxing
+	public void info(@Nullable Object where, @Nullable String format, long arg) {
+		log(TYPE_INFO, where, format, DkLogFormats.ARG_LONG, null, arg, null, 0);
+	}
+
+	public void info(@Nullable Object where, @Nullable String format, double arg) {
+		log(TYPE_INFO, where, format, DkLogFormats.ARG_DOUBLE, null, Double.doubleToRawLongBits(arg), null, 0);
+	}
+
+	// Narrower primitives are tagged with own type, so they are formatted as before (for eg,. `%c` of char)
+	public void info(@Nullable Object where, @Nullable String format, int arg) {
+		log(TYPE_INFO, where, format, DkLogFormats.ARG_LONG, Integer.class, arg, null, 0);
+	}
+
+	public void info(@Nullable Object where, @Nullable String format, char arg) {
+		log(TYPE_INFO, where, format, DkLogFormats.ARG_LONG, Character.class, arg, null, 0);
+	}
+
+	public void info(@Nullable Object where, @Nullable String format, byte arg) {
+		log(TYPE_INFO, where, format, DkLogFormats.ARG_LONG, Byte.class, arg, null, 0);
+	}
+
+	public void info(@Nullable Object where, @Nullable String format, short arg) {
+		log(TYPE_INFO, where, format, DkLogFormats.ARG_LONG, Short.class, arg, null, 0);
+	}
+
+	public void info(@Nullable Object where, @Nullable String format, float arg) {
+		log(TYPE_INFO, where, format, DkLogFormats.ARG_DOUBLE, Float.class, Double.doubleToRawLongBits(arg), null, 0);
+	}
+
+	public void info(@Nullable Object where, @Nullable String format, @Nullable Object arg) {
+		log(TYPE_INFO, where, format, DkLogFormats.ARG_OBJECT, arg, 0, null, 0);
+	}
+
+	public void info(@Nullable Object where, @Nullable String format, long arg1, long arg2) {
+		log(TYPE_INFO, where, format, DkLogFormats.ARG_LONG_LONG, null, arg1, null, arg2);
+	}
+
+	public void info(@Nullable Object where, @Nullable String format, int arg1, int arg2) {
+		log(TYPE_INFO, where, format, DkLogFormats.ARG_LONG_LONG, Integer.class, arg1, Integer.class, arg2);
+	}
+
+	public void info(@Nullable Object where, @Nullable String format, @Nullable Object arg1, @Nullable Object arg2) {
+		log(TYPE_INFO, where, format, DkLogFormats.ARG_OBJECT_OBJECT, arg1, 0, arg2, 0);
 	}
 
 	/**
 	 * Log notice. Can be invoked in production.
 	 */
 	public void notice(@Nullable Object where, @Nullable String format, Object... args) {
-		logger.notice(where, format, args);
+		if (isLoggable(TYPE_NOTICE)) {
+			logger.notice(where, format, args);
+		}
+	}
+
+	// Overloads without varargs and boxing
+	public void notice(@Nullable Object where, @Nullable String format, long arg) {
+		log(TYPE_NOTICE, where, format, DkLogFormats.ARG_LONG, null, arg, null, 0);
+	}
+
+	public void notice(@Nullable Object where, @Nullable String format, double arg) {
+		log(TYPE_NOTICE, where, format, DkLogFormats.ARG_DOUBLE, null, Double.doubleToRawLongBits(arg), null, 0);
+	}
+
+	// Narrower primitives are tagged with own type, so they are formatted as before (for eg,. `%c` of char)
+	public void notice(@Nullable Object where, @Nullable String format, int arg) {
+		log(TYPE_NOTICE, where, format, DkLogFormats.ARG_LONG, Integer.class, arg, null, 0);
+	}
+
+	public void notice(@Nullable Object where, @Nullable String format, char arg) {
+		log(TYPE_NOTICE, where, format, DkLogFormats.ARG_LONG, Character.class, arg, null, 0);
+	}
+
+	public void notice(@Nullable Object where, @Nullable String format, byte arg) {
+		log(TYPE_NOTICE, where, format, DkLogFormats.ARG_LONG, Byte.class, arg, null, 0);
+	}
+
+	public void notice(@Nullable Object where, @Nullable String format, short arg) {
+		log(TYPE_NOTICE, where, format, DkLogFormats.ARG_LONG, Short.class, arg, null, 0);
+	}
+
+	public void notice(@Nullable Object where, @Nullable String format, float arg) {
+		log(TYPE_NOTICE, where, format, DkLogFormats.ARG_DOUBLE, Float.class, Double.doubleToRawLongBits(arg), null, 0);
+	}
+
+	public void notice(@Nullable Object where, @Nullable String format, @Nullable Object arg) {
+		log(TYPE_NOTICE, where, format, DkLogFormats.ARG_OBJECT, arg, 0, null, 0);
+	}
+
+	public void notice(@Nullable Object where, @Nullable String format, long arg1, long arg2) {
+		log(TYPE_NOTICE, where, format, DkLogFormats.ARG_LONG_LONG, null, arg1, null, arg2);
+	}
+
+	public void notice(@Nullable Object where, @Nullable String format, int arg1, int arg2) {
+		log(TYPE_NOTICE, where, format, DkLogFormats.ARG_LONG_LONG, Integer.class, arg1, Integer.class, arg2);
+	}
+
+	public void notice(@Nullable Object where, @Nullable String format, @Nullable Object arg1, @Nullable Object arg2) {
+		log(TYPE_NOTICE, where, format, DkLogFormats.ARG_OBJECT_OBJECT, arg1, 0, arg2, 0);
 	}
 
 	/**
 	 * Warning log. Can be invoked in production.
 	 */
 	public void warning(@Nullable Object where, @Nullable String format, Object... args) {
-		logger.warning(where, format, args);
+		if (isLoggable(TYPE_WARNING)) {
+			logger.warning(where, format, args);
+		}
+	}
+
+	// Overloads without varargs and boxing
+	public void warning(@Nullable Object where, @Nullable String format, long arg) {
+		log(TYPE_WARNING, where, format, DkLogFormats.ARG_LONG, null, arg, null, 0);
+	}
+
+	public void warning(@Nullable Object where, @Nullable String format, double arg) {
+		log(TYPE_WARNING, where, format, DkLogFormats.ARG_DOUBLE, null, Double.doubleToRawLongBits(arg), null, 0);
+	}
+
+	// Narrower primitives are tagged with own type, so they are formatted as before (for eg,. `%c` of char)
+	public void warning(@Nullable Object where, @Nullable String format, int arg) {
+		log(TYPE_WARNING, where, format, DkLogFormats.ARG_LONG, Integer.class, arg, null, 0);
+	}
+
+	public void warning(@Nullable Object where, @Nullable String format, char arg) {
+		log(TYPE_WARNING, where, format, DkLogFormats.ARG_LONG, Character.class, arg, null, 0);
+	}
+
+	public void warning(@Nullable Object where, @Nullable String format, byte arg) {
+		log(TYPE_WARNING, where, format, DkLogFormats.ARG_LONG, Byte.class, arg, null, 0);
+	}
+
+	public void warning(@Nullable Object where, @Nullable String format, short arg) {
+		log(TYPE_WARNING, where, format, DkLogFormats.ARG_LONG, Short.class, arg, null, 0);
+	}
+
+	public void warning(@Nullable Object where, @Nullable String format, float arg) {
+		log(TYPE_WARNING, where, format, DkLogFormats.ARG_DOUBLE, Float.class, Double.doubleToRawLongBits(arg), null, 0);
+	}
+
+	public void warning(@Nullable Object where, @Nullable String format, @Nullable Object arg) {
+		log(TYPE_WARNING, where, format, DkLogFormats.ARG_OBJECT, arg, 0, null, 0);
+	}
+
+	public void warning(@Nullable Object where, @Nullable String format, long arg1, long arg2) {
+		log(TYPE_WARNING, where, format, DkLogFormats.ARG_LONG_LONG, null, arg1, null, arg2);
+	}
+
+	public void warning(@Nullable Object where, @Nullable String format, int arg1, int arg2) {
+		log(TYPE_WARNING, where, format, DkLogFormats.ARG_LONG_LONG, Integer.class, arg1, Integer.class, arg2);
+	}
+
+	public void warning(@Nullable Object where, @Nullable String format, @Nullable Object arg1, @Nullable Object arg2) {
+		log(TYPE_WARNING, where, format, DkLogFormats.ARG_OBJECT_OBJECT, arg1, 0, arg2, 0);
 	}
 
 	/**
 	 * Error log. Can be invoked in production.
 	 */
 	public void error(@Nullable Object where, @Nullable String format, Object... args) {
-		logger.error(where, format, args);
+		if (isLoggable(TYPE_ERROR)) {
+			logger.error(where, format, args);
+		}
+	}
+
+	// Overloads without varargs and boxing
+	public void error(@Nullable Object where, @Nullable String format, long arg) {
+		log(TYPE_ERROR, where, format, DkLogFormats.ARG_LONG, null, arg, null, 0);
+	}
+
+	public void error(@Nullable Object where, @Nullable String format, double arg) {
+		log(TYPE_ERROR, where, format, DkLogFormats.ARG_DOUBLE, null, Double.doubleToRawLongBits(arg), null, 0);
+	}
+
+	// Narrower primitives are tagged with own type, so they are formatted as before (for eg,. `%c` of char)
+	public void error(@Nullable Object where, @Nullable String format, int arg) {
+		log(TYPE_ERROR, where, format, DkLogFormats.ARG_LONG, Integer.class, arg, null, 0);
+	}
+
+	public void error(@Nullable Object where, @Nullable String format, char arg) {
+		log(TYPE_ERROR, where, format, DkLogFormats.ARG_LONG, Character.class, arg, null, 0);
+	}
+
+	public void error(@Nullable Object where, @Nullable String format, byte arg) {
+		log(TYPE_ERROR, where, format, DkLogFormats.ARG_LONG, Byte.class, arg, null, 0);
+	}
+
+	public void error(@Nullable Object where, @Nullable String format, short arg) {
+		log(TYPE_ERROR, where, format, DkLogFormats.ARG_LONG, Short.class, arg, null, 0);
+	}
+
+	public void error(@Nullable Object where, @Nullable String format, float arg) {
+		log(TYPE_ERROR, where, format, DkLogFormats.ARG_DOUBLE, Float.class, Double.doubleToRawLongBits(arg), null, 0);
+	}
+
+	public void error(@Nullable Object where, @Nullable String format, @Nullable Object arg) {
+		log(TYPE_ERROR, where, format, DkLogFormats.ARG_OBJECT, arg, 0, null, 0);
+	}
+
+	public void error(@Nullable Object where, @Nullable String format, long arg1, long arg2) {
+		log(TYPE_ERROR, where, format, DkLogFormats.ARG_LONG_LONG, null, arg1, null, arg2);
+	}
+
+	public void error(@Nullable Object where, @Nullable String format, int arg1, int arg2) {
+		log(TYPE_ERROR, where, format, DkLogFormats.ARG_LONG_LONG, Integer.class, arg1, Integer.class, arg2);
+	}
+
+	public void error(@Nullable Object where, @Nullable String format, @Nullable Object arg1, @Nullable Object arg2) {
+		log(TYPE_ERROR, where, format, DkLogFormats.ARG_OBJECT_OBJECT, arg1, 0, arg2, 0);
 	}
 
 	/**
@@ -93,46 +363,168 @@ public class DkFileLogger implements DkLogger.LogType {
 	 * Exception log. Can be invoked in production.
 	 */
 	public void error(@Nullable Object where, Throwable e, @Nullable String format, Object... args) {
-		logger.error(where, e, format, args);
+		if (isLoggable(TYPE_ERROR)) {
+			logger.error(where, e, format, args);
+		}
 	}
 
 	/**
 	 * Critical log. Run at both debug and production env.
 	 */
 	public void critical(@Nullable Object where, @Nullable String format, Object... args) {
-		logger.critical(where, format, args);
+		if (isLoggable(TYPE_CRITICAL)) {
+			logger.critical(where, format, args);
+		}
+	}
+
+	// Overloads without varargs and boxing
+	public void critical(@Nullable Object where, @Nullable String format, long arg) {
+		log(TYPE_CRITICAL, where, format, DkLogFormats.ARG_LONG, null, arg, null, 0);
+	}
+
+	public void critical(@Nullable Object where, @Nullable String format, double arg) {
+		log(TYPE_CRITICAL, where, format, DkLogFormats.ARG_DOUBLE, null, Double.doubleToRawLongBits(arg), null, 0);
+	}
+
+	// Narrower primitives are tagged with own type, so they are formatted as before (for eg,. `%c` of char)
+	public void critical(@Nullable Object where, @Nullable String format, int arg) {
+		log(TYPE_CRITICAL, where, format, DkLogFormats.ARG_LONG, Integer.class, arg, null, 0);
+	}
+
+	public void critical(@Nullable Object where, @Nullable String format, char arg) {
+		log(TYPE_CRITICAL, where, format, DkLogFormats.ARG_LONG, Character.class, arg, null, 0);
+	}
+
+	public void critical(@Nullable Object where, @Nullable String format, byte arg) {
+		log(TYPE_CRITICAL, where, format, DkLogFormats.ARG_LONG, Byte.class, arg, null, 0);
+	}
+
+	public void critical(@Nullable Object where, @Nullable String format, short arg) {
+		log(TYPE_CRITICAL, where, format, DkLogFormats.ARG_LONG, Short.class, arg, null, 0);
+	}
+
+	public void critical(@Nullable Object where, @Nullable String format, float arg) {
+		log(TYPE_CRITICAL, where, format, DkLogFormats.ARG_DOUBLE, Float.class, Double.doubleToRawLongBits(arg), null, 0);
+	}
+
+	public void critical(@Nullable Object where, @Nullable String format, @Nullable Object arg) {
+		log(TYPE_CRITICAL, where, format, DkLogFormats.ARG_OBJECT, arg, 0, null, 0);
+	}
+
+	public void critical(@Nullable Object where, @Nullable String format, long arg1, long arg2) {
+		log(TYPE_CRITICAL, where, format, DkLogFormats.ARG_LONG_LONG, null, arg1, null, arg2);
+	}
+
+	public void critical(@Nullable Object where, @Nullable String format, int arg1, int arg2) {
+		log(TYPE_CRITICAL, where, format, DkLogFormats.ARG_LONG_LONG, Integer.class, arg1, Integer.class, arg2);
+	}
+
+	public void critical(@Nullable Object where, @Nullable String format, @Nullable Object arg1, @Nullable Object arg2) {
+		log(TYPE_CRITICAL, where, format, DkLogFormats.ARG_OBJECT_OBJECT, arg1, 0, arg2, 0);
 	}
 
 	/**
 	 * Emergency log. Run at both debug and production env.
 	 */
 	public void emergency(@Nullable Object where, @Nullable String format, Object... args) {
-		logger.emergency(where, format, args);
+		if (isLoggable(TYPE_EMERGENCY)) {
+			logger.emergency(where, format, args);
+		}
+	}
+
+	// Overloads without varargs and boxing
+	public void emergency(@Nullable Object where, @Nullable String format, long arg) {
+		log(TYPE_EMERGENCY, where, format, DkLogFormats.ARG_LONG, null, arg, null, 0);
+	}
+
+	public void emergency(@Nullable Object where, @Nullable String format, double arg) {
+		log(TYPE_EMERGENCY, where, format, DkLogFormats.ARG_DOUBLE, null, Double.doubleToRawLongBits(arg), null, 0);
+	}
+
+	// Narrower primitives are tagged with own type, so they are formatted as before (for eg,. `%c` of char)
+	public void emergency(@Nullable Object where, @Nullable String format, int arg) {
+		log(TYPE_EMERGENCY, where, format, DkLogFormats.ARG_LONG, Integer.class, arg, null, 0);
+	}
+
+	public void emergency(@Nullable Object where, @Nullable String format, char arg) {
+		log(TYPE_EMERGENCY, where, format, DkLogFormats.ARG_LONG, Character.class, arg, null, 0);
+	}
+
+	public void emergency(@Nullable Object where, @Nullable String format, byte arg) {
+		log(TYPE_EMERGENCY, where, format, DkLogFormats.ARG_LONG, Byte.class, arg, null, 0);
+	}
+
+	public void emergency(@Nullable Object where, @Nullable String format, short arg) {
+		log(TYPE_EMERGENCY, where, format, DkLogFormats.ARG_LONG, Short.class, arg, null, 0);
+	}
+
+	public void emergency(@Nullable Object where, @Nullable String format, float arg) {
+		log(TYPE_EMERGENCY, where, format, DkLogFormats.ARG_DOUBLE, Float.class, Double.doubleToRawLongBits(arg), null, 0);
+	}
+
+	public void emergency(@Nullable Object where, @Nullable String format, @Nullable Object arg) {
+		log(TYPE_EMERGENCY, where, format, DkLogFormats.ARG_OBJECT, arg, 0, null, 0);
+	}
+
+	public void emergency(@Nullable Object where, @Nullable String format, long arg1, long arg2) {
+		log(TYPE_EMERGENCY, where, format, DkLogFormats.ARG_LONG_LONG, null, arg1, null, arg2);
+	}
+
+	public void emergency(@Nullable Object where, @Nullable String format, int arg1, int arg2) {
+		log(TYPE_EMERGENCY, where, format, DkLogFormats.ARG_LONG_LONG, Integer.class, arg1, Integer.class, arg2);
+	}
+
+	public void emergency(@Nullable Object where, @Nullable String format, @Nullable Object arg1, @Nullable Object arg2) {
+		log(TYPE_EMERGENCY, where, format, DkLogFormats.ARG_OBJECT_OBJECT, arg1, 0, arg2, 0);
 	}
 
 	/**
-	 * Start benchmark. Can't be invoked in production.
+	 * Start benchmark as a span of `DkTracer` at current thread, so it can be nested.
+	 * Can't be invoked in production, use `DkTracer` directly for release build.
 	 */
 	public void tick(@Nullable Object where, String task) {
-		if (benchmarkTaskNames == null) {
-			benchmarkTaskNames = new ArrayDeque<>();
-		}
-
-		benchmarkTaskNames.push(task);
 		logger.debug(where, "Task [%s] was started", task);
-		benchmarkStartTime = System.currentTimeMillis();
+		DkTracer.begin(task);
 	}
 
 	/**
-	 * End benchmark. Can't be invoked in production.
+	 * End latest benchmark of current thread. Can't be invoked in production.
 	 */
 	public void tock(@Nullable Object where) {
-		long elapsed = System.currentTimeMillis() - benchmarkStartTime;
-		logger.debug(where,
-			"Task [%s] end in: %d s %d ms",
-			benchmarkTaskNames.pop(),
-			elapsed / 1000,
-			(elapsed - 1000 * (elapsed / 1000)));
+		String task = DkTracer.currentSpan();
+		long elapsed = DkTracer.end();
+
+		if (task == null) {
+			logger.warning(where, "No task was started at this thread");
+		}
+		else if (elapsed < 0) {
+			logger.debug(where, "Task [%s] end, elapsed time was not traced since DkTracer is disabled", task);
+		}
+		else {
+			logger.debug(where, "Task [%s] end in: %.3f ms", task, elapsed / 1_000_000.0);
+		}
+	}
+
+	// Format only when passed level gate. With async writer, args are passed to writer thread
+	// as is and formatted there, so nothing is allocated at logging thread.
+	private void log(int logType, @Nullable Object where, @Nullable String format, int argKinds,
+		@Nullable Object obj1, long prim1, @Nullable Object obj2, long prim2) {
+
+		if (logType == TYPE_DEBUG && ! BuildConfig.DEBUG) {
+			DkUtils.complainAt(DkFileLogger.class, "Can not use debug-log at product version");
+		}
+		if (! isLoggable(logType)) {
+			return;
+		}
+
+		DkAsyncLogWriter asyncWriter = this.asyncWriter;
+
+		if (asyncWriter != null && ! logBackTrace && logCallback == null) {
+			asyncWriter.enqueue(logType, where, format, argKinds, obj1, prim1, obj2, prim2);
+		}
+		else {
+			logActual(logType, DkLogFormats.format(where, format, argKinds, obj1, prim1, obj2, prim2));
+		}
 	}
 
 	private void logActual(int logType, String message) {
@@ -146,10 +538,16 @@ public class DkFileLogger implements DkLogger.LogType {
 			message += "\nStack Trace:\n" + trace;
 		}
 
-		String logMessage = "[" + DkLogger.LogType.name(logType).toUpperCase() + "] " + DkDateTimes.formatNow() + ": " + message;
-
 		try {
-			storage.run(logType, logMessage);
+			DkAsyncLogWriter asyncWriter = this.asyncWriter;
+
+			if (asyncWriter != null) {
+				asyncWriter.enqueue(logType, message);
+			}
+			else {
+				String logMessage = "[" + DkLogger.LogType.name(logType).toUpperCase() + "] " + DkDateTimes.formatNow() + ": " + message;
+				storage.run(logType, logMessage);
+			}
 
 			if (logCallback != null) {
 				logCallback.run(logType, message);
@@ -8,15 +8,36 @@ import android.content.Context;
 import android.graphics.Bitmap;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 
 import tool.compet.core4j.DkFiles;
+import tool.compet.core4j.DkRunner2;
 import tool.compet.core4j.DkStrings;
+import tool.compet.core.graphics.DkBitmapEncoder;
 import tool.compet.core.graphics.DkBitmaps;
 
+/**
+ * Handle files in internal storage. Besides whole-file save/load, it provides stream, channel and
+ * memory-mapped access, atomic (replace by rename) writes, and chunked copy with progress,
+ * so large files (for eg,. offline packages) can be handled without loading into memory.
+ */
 public class DkInternalStorage {
+	// Chunk size for copy, large enough for sequential IO but small enough to report progress often
+	private static final int COPY_CHUNK_SIZE = 256 << 10;
+
 	private static final int SCOPE_FILES = 1;
 	private static final int SCOPE_CACHE = 2;
 	private static final int SCOPE_CUSTOM = 3;
@@ -58,28 +79,182 @@ public class DkInternalStorage {
 
 	/**
 	 * Save (write) data under given `dirName`.
+	 * When not append, the file is replaced atomically (see `saveAtomically()`).
 	 *
 	 * @param relativeFilePath Relative file path from given `dirName`, for eg,. `app/debug/avatar.png`
 	 * @param append True to append (write more) given data to current file content.
 	 */
 	public void save(Context context, String data, String relativeFilePath, boolean append) throws Exception {
-		DkFiles.save(data, calcFilePath(context, relativeFilePath), append);
+		if (append) {
+			DkFiles.save(data, calcFilePath(context, relativeFilePath), true);
+		}
+		else {
+			saveAtomically(context, data.getBytes("UTF-8"), relativeFilePath, false);
+		}
 	}
 
 	/**
 	 * Save (write) data under given `dirName`.
+	 * When not append, the file is replaced atomically (see `saveAtomically()`).
 	 *
 	 * @param relativeFilePath Relative file path from given `dirName`, for eg,. `app/debug/avatar.png`
 	 * @param append True to append (write more) given data to current file content.
 	 */
 	public void save(Context context, byte[] data, String relativeFilePath, boolean append) throws IOException {
-		DkFiles.save(data, calcFilePath(context, relativeFilePath), append);
+		if (append) {
+			DkFiles.save(data, calcFilePath(context, relativeFilePath), true);
+		}
+		else {
+			saveAtomically(context, data, relativeFilePath, false);
+		}
+	}
+
+	/**
+	 * Replace content of the file by writing to temporary file then renaming it, so the file
+	 * is never truncated even if app was killed while writing.
+	 *
+	 * @param fsync True to sync data to disk before rename (survives power loss, but slower).
+	 */
+	public void saveAtomically(Context context, byte[] data, String relativeFilePath, boolean fsync) throws IOException {
+		try (DkAtomicOutputStream out = openAtomicOutputStream(context, relativeFilePath, fsync)) {
+			out.write(data, 0, data.length);
+			out.commit();
+		}
+	}
+
+	/**
+	 * Write all data from given stream (not closed) into the file atomically, chunk by chunk,
+	 * so large data is not loaded into memory.
+	 *
+	 * @param totalBytes Expected size for progress, or -1 if unknown.
+	 * @param progress Optional, called after each chunk with (copiedBytes, totalBytes).
+	 * @return Number of copied bytes.
+	 */
+	public long saveAtomically(Context context, InputStream source, String relativeFilePath, boolean fsync,
+		long totalBytes, @Nullable DkRunner2<Long, Long> progress) throws IOException {
+
+		try (DkAtomicOutputStream out = openAtomicOutputStream(context, relativeFilePath, fsync)) {
+			long copiedBytes = copy(source, out, totalBytes, progress);
+			out.commit();
+			return copiedBytes;
+		}
+	}
+
+	/**
+	 * Open buffered stream to read the file.
+	 */
+	public InputStream openInputStream(Context context, String relativeFilePath) throws IOException {
+		return new BufferedInputStream(new FileInputStream(calcFilePath(context, relativeFilePath)), COPY_CHUNK_SIZE);
+	}
+
+	/**
+	 * Open buffered stream to write the file, parent directories are created if not exist.
+	 * Note that, the file is truncated immediately when not append, use `openAtomicOutputStream()`
+	 * to keep old content until new content was completely written.
+	 */
+	public OutputStream openOutputStream(Context context, String relativeFilePath, boolean append) throws IOException {
+		File file = obtainWritableFile(context, relativeFilePath);
+		return new BufferedOutputStream(new FileOutputStream(file, append), COPY_CHUNK_SIZE);
+	}
+
+	/**
+	 * Open stream which replaces the file at `commit()`, see `DkAtomicOutputStream`.
+	 *
+	 * @param fsync True to sync data to disk before rename (survives power loss, but slower).
+	 */
+	public DkAtomicOutputStream openAtomicOutputStream(Context context, String relativeFilePath, boolean fsync) throws IOException {
+		return new DkAtomicOutputStream(getFile(context, relativeFilePath), fsync);
+	}
+
+	/**
+	 * Open channel to read the file, for eg,. to read at random positions or transfer to other channel.
+	 */
+	public FileChannel openReadChannel(Context context, String relativeFilePath) throws IOException {
+		return new FileInputStream(calcFilePath(context, relativeFilePath)).getChannel();
+	}
+
+	/**
+	 * Open channel to read and write the file at random positions, the file is created if not exist.
+	 */
+	public FileChannel openWriteChannel(Context context, String relativeFilePath) throws IOException {
+		File file = obtainWritableFile(context, relativeFilePath);
+		return new RandomAccessFile(file, "rw").getChannel();
+	}
+
+	/**
+	 * Map whole file into memory as read-only. Content is paged in by OS on access (not loaded into
+	 * java heap), so it is suitable for large assets. The mapping is valid after this returns,
+	 * and is released when the buffer is garbage collected.
+	 */
+	public MappedByteBuffer mapReadOnly(Context context, String relativeFilePath) throws IOException {
+		try (FileInputStream fis = new FileInputStream(calcFilePath(context, relativeFilePath))) {
+			FileChannel channel = fis.getChannel();
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+	}
+
+	/**
+	 * Copy a file to other file under this scope, chunk by chunk without loading into java heap.
+	 * The destination file is replaced atomically.
+	 *
+	 * @param progress Optional, called after each chunk with (copiedBytes, totalBytes).
+	 * @return Number of copied bytes.
+	 */
+	public long copy(Context context, String fromRelativeFilePath, String toRelativeFilePath, boolean fsync,
+		@Nullable DkRunner2<Long, Long> progress) throws IOException {
+
+		File fromFile = getFile(context, fromRelativeFilePath);
+
+		try (FileInputStream fis = new FileInputStream(fromFile);
+			 DkAtomicOutputStream out = openAtomicOutputStream(context, toRelativeFilePath, fsync)) {
+
+			long copiedBytes = copy(fis, out, fromFile.length(), progress);
+			out.commit();
+			return copiedBytes;
+		}
+	}
+
+	/**
+	 * Copy all data from given input stream to given output stream chunk by chunk (both streams
+	 * are not closed). Throws `InterruptedIOException` if current thread was interrupted,
+	 * so long copy can be cancelled.
+	 *
+	 * @param totalBytes Expected size for progress, or -1 if unknown.
+	 * @param progress Optional, called after each chunk with (copiedBytes, totalBytes).
+	 * @return Number of copied bytes.
+	 */
+	public static long copy(InputStream in, OutputStream out, long totalBytes, @Nullable DkRunner2<Long, Long> progress) throws IOException {
+		byte[] buffer = new byte[COPY_CHUNK_SIZE];
+		long copiedBytes = 0;
+		int readCount;
+
+		while ((readCount = in.read(buffer)) != -1) {
+			if (Thread.interrupted()) {
+				throw new InterruptedIOException("Copy was interrupted at " + copiedBytes + " bytes");
+			}
+
+			out.write(buffer, 0, readCount);
+			copiedBytes += readCount;
+
+			if (progress != null) {
+				progress.run(copiedBytes, totalBytes);
+			}
+		}
+
+		return copiedBytes;
 	}
 
 	public void save(Context context, Bitmap bitmap, String relativeFilePath) throws IOException {
 		DkBitmaps.store(bitmap, calcFilePath(context, relativeFilePath));
 	}
 
+	/**
+	 * Encode bitmap with given options (format, quality, target size) and replace the file atomically.
+	 */
+	public DkBitmapEncoder.Result save(Context context, Bitmap bitmap, String relativeFilePath, DkBitmapEncoder.Options options) throws IOException {
+		return DkBitmapEncoder.getIns().encodeToFile(bitmap, options, getFile(context, relativeFilePath));
+	}
+
 	public boolean delete(Context context, String relativeFilePath) {
 		return DkFiles.delete(calcFilePath(context, relativeFilePath));
 	}
@@ -92,6 +267,26 @@ public class DkInternalStorage {
 		return DkBitmaps.load(calcFilePath(context, relativeFilePath));
 	}
 
+	/**
+	 * Obtain file (maybe not exist) at given relative path under this scope.
+	 *
+	 * @param relativeFilePath Relative file path from given `dirName`, for eg,. `app/debug/avatar.png`
+	 */
+	public File getFile(Context context, String relativeFilePath) {
+		return new File(calcFilePath(context, relativeFilePath));
+	}
+
+	private File obtainWritableFile(Context context, String relativeFilePath) throws IOException {
+		File file = getFile(context, relativeFilePath);
+		File dir = file.getParentFile();
+
+		if (dir != null && ! dir.exists() && ! dir.mkdirs()) {
+			throw new IOException("Could not create directory: " + dir);
+		}
+
+		return file;
+	}
+
 	private String calcFilePath(Context context, String relativeFilePath) {
 		relativeFilePath = DkStrings.trimMore(relativeFilePath, File.separatorChar);
 
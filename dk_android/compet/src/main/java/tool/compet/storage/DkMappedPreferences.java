@@ -0,0 +1,816 @@
+/*
+ * Copyright (c) 2017-2021 DarkCompet. All rights reserved.
+ */
+
+package tool.compet.storage;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+import tool.compet.core.DkLogcats;
+import tool.compet.core4j.DkMaths;
+import tool.compet.json4j.DkJsonConverter;
+import tool.compet.preferenceview.DkPreferenceStorage;
+
+/**
+ * Key-value store which is backed by a memory-mapped, append-only binary log.
+ * <p>
+ * Values are encoded with own type (int, long, float,...), so read does not parse anything:
+ * the log is scanned once at open to build an in-memory index, after that, get is O(1) lookup.
+ * Each put appends a record (checksum protected) into the mapped file, no XML is rewritten.
+ * Since the file is mapped, written records survive process crash; call `flush()` to force
+ * them into storage device (survive power loss).
+ * <p>
+ * When the log becomes much larger than live records (many overwrites), it is compacted into
+ * new file which replaces the log atomically.
+ * <p>
+ * To move data from xml `SharedPreferences`, use `migrateFrom()`.
+ *
+ * Usage:
+ * <pre>
+ *    DkMappedPreferences prefs = DkMappedPreferences.open(context, "settings");
+ *    prefs.migrateFrom(new DkSharedPreferences(context, "settings"), true);
+ *    prefs.putInt("font_size", 14);
+ * </pre>
+ */
+public class DkMappedPreferences implements DkPreferenceStorage {
+	private static final String DIR_NAME = "dk_mapped_prefs";
+	private static final int MAGIC = 0x444b4d50; // DKMP
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 8;
+
+	// Record: body length (int), crc of body (int), body (type, key, value)
+	private static final int RECORD_HEADER_SIZE = 8;
+
+	private static final int INITIAL_CAPACITY = 4 << 10;
+
+	// Compact when log is larger than this and larger than double of live records
+	private static final int COMPACT_MIN_SIZE = 16 << 10;
+
+	private static final byte TYPE_DELETE = 0;
+	private static final byte TYPE_BOOLEAN = 1;
+	private static final byte TYPE_INT = 2;
+	private static final byte TYPE_LONG = 3;
+	private static final byte TYPE_FLOAT = 4;
+	private static final byte TYPE_DOUBLE = 5;
+	private static final byte TYPE_STRING = 6;
+	private static final byte TYPE_STRING_SET = 7;
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	// Canonical path vs opened store, so a file is mapped by only one instance in the process
+	private static final HashMap<String, DkMappedPreferences> instances = new HashMap<>();
+
+	private final File file;
+	private final String canonicalPath;
+	private RandomAccessFile raf;
+	private FileChannel channel;
+	private MappedByteBuffer buffer;
+
+	// End of valid records
+	private int writeOffset;
+
+	// Total bytes of records which are not overwritten yet
+	private long liveSize;
+
+	// Key vs decoded value and size of its record
+	private final HashMap<String, Entry> index = new HashMap<>();
+
+	private final CRC32 crc = new CRC32();
+	private long compactCount;
+
+	private DkMappedPreferences(File file, String canonicalPath) {
+		this.file = file;
+		this.canonicalPath = canonicalPath;
+	}
+
+	/**
+	 * Open (create if not exist) the store under `files` directory of internal storage.
+	 */
+	public static DkMappedPreferences open(Context context, String name) throws IOException {
+		File file = DkInternalStorage.filesDirScope().getFile(context, DIR_NAME + File.separator + name + ".kv");
+		return open(file);
+	}
+
+	/**
+	 * Open (create if not exist) the store at given file. Same instance is returned for same file
+	 * until it is closed, since writes of other instances would not be seen by its index.
+	 */
+	public static DkMappedPreferences open(File file) throws IOException {
+		String canonicalPath = file.getCanonicalPath();
+
+		synchronized (DkMappedPreferences.class) {
+			DkMappedPreferences prefs = instances.get(canonicalPath);
+
+			if (prefs == null) {
+				File dir = file.getParentFile();
+				if (dir != null && ! dir.exists() && ! dir.mkdirs()) {
+					throw new IOException("Could not create dir: " + dir.getPath());
+				}
+
+				prefs = new DkMappedPreferences(file, canonicalPath);
+				prefs.load();
+				instances.put(canonicalPath, prefs);
+			}
+
+			return prefs;
+		}
+	}
+
+	/**
+	 * Copy all entries of given xml preferences into this store.
+	 * Note that, `DkSharedPreferences` stores numbers as String, they are copied as String and
+	 * are converted to typed record at first read via typed getter.
+	 *
+	 * @param deleteSource True to clear the source after copied, so next call does nothing.
+	 * @return Number of copied entries.
+	 */
+	public int migrateFrom(DkSharedPreferences source, boolean deleteSource) {
+		return migrateFrom(source.preferences, deleteSource);
+	}
+
+	public synchronized int migrateFrom(SharedPreferences source, boolean deleteSource) {
+		int count = 0;
+
+		for (Map.Entry<String, ?> entry : source.getAll().entrySet()) {
+			String key = entry.getKey();
+			Object value = entry.getValue();
+
+			if (value instanceof Boolean) {
+				append(key, TYPE_BOOLEAN, value);
+			}
+			else if (value instanceof Integer) {
+				append(key, TYPE_INT, value);
+			}
+			else if (value instanceof Long) {
+				append(key, TYPE_LONG, value);
+			}
+			else if (value instanceof Float) {
+				append(key, TYPE_FLOAT, value);
+			}
+			else if (value instanceof String) {
+				append(key, TYPE_STRING, value);
+			}
+			else if (value instanceof Set) {
+				append(key, TYPE_STRING_SET, value);
+			}
+			else {
+				continue;
+			}
+			++count;
+		}
+
+		flush();
+
+		if (deleteSource) {
+			source.edit().clear().commit();
+		}
+
+		return count;
+	}
+
+	@Override
+	public synchronized boolean exists(String key) {
+		return index.containsKey(key);
+	}
+
+	@Override
+	public boolean getBoolean(String key) {
+		Object value = typedValueOf(key, TYPE_BOOLEAN);
+		if (value instanceof Boolean) {
+			return (Boolean) value;
+		}
+		return value instanceof String && DkMaths.parseBoolean((String) value);
+	}
+
+	@Override
+	public synchronized void putBoolean(String key, boolean value) {
+		append(key, TYPE_BOOLEAN, value);
+	}
+
+	@Override
+	public int getInt(String key) {
+		Object value = typedValueOf(key, TYPE_INT);
+		if (value instanceof Number) {
+			return ((Number) value).intValue();
+		}
+		return value instanceof String ? DkMaths.parseInt((String) value) : 0;
+	}
+
+	@Override
+	public synchronized void putInt(String key, int value) {
+		append(key, TYPE_INT, value);
+	}
+
+	@Override
+	public long getLong(String key) {
+		Object value = typedValueOf(key, TYPE_LONG);
+		if (value instanceof Number) {
+			return ((Number) value).longValue();
+		}
+		return value instanceof String ? DkMaths.parseLong((String) value) : 0L;
+	}
+
+	@Override
+	public synchronized void putLong(String key, long value) {
+		append(key, TYPE_LONG, value);
+	}
+
+	@Override
+	public float getFloat(String key) {
+		Object value = typedValueOf(key, TYPE_FLOAT);
+		if (value instanceof Number) {
+			return ((Number) value).floatValue();
+		}
+		return value instanceof String ? DkMaths.parseFloat((String) value) : 0f;
+	}
+
+	@Override
+	public synchronized void putFloat(String key, float value) {
+		append(key, TYPE_FLOAT, value);
+	}
+
+	@Override
+	public double getDouble(String key) {
+		Object value = typedValueOf(key, TYPE_DOUBLE);
+		if (value instanceof Number) {
+			return ((Number) value).doubleValue();
+		}
+		return value instanceof String ? DkMaths.parseDouble((String) value) : 0d;
+	}
+
+	@Override
+	public synchronized void putDouble(String key, double value) {
+		append(key, TYPE_DOUBLE, value);
+	}
+
+	@Override
+	public String getString(String key) {
+		Object value = valueOf(key);
+		return value == null || value instanceof Set ? null : String.valueOf(value);
+	}
+
+	@Override
+	public synchronized void putString(String key, String value) {
+		if (value == null) {
+			delete(key);
+		}
+		else {
+			append(key, TYPE_STRING, value);
+		}
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public Set<String> getStringSet(String key) {
+		Object value = valueOf(key);
+		return value instanceof Set ? (Set<String>) value : null;
+	}
+
+	@Override
+	public synchronized void putStringSet(String key, Set<String> values) {
+		if (values == null) {
+			delete(key);
+		}
+		else {
+			append(key, TYPE_STRING_SET, Collections.unmodifiableSet(new HashSet<>(values)));
+		}
+	}
+
+	/**
+	 * Decoded object is cached until the key is written, so caller should not modify returned object.
+	 */
+	@Override
+	public <T> T getJsonObject(String key, Class<T> resClass) {
+		Entry entry;
+		synchronized (this) {
+			entry = index.get(key);
+		}
+		if (entry == null || ! (entry.value instanceof String)) {
+			return null;
+		}
+
+		Object decoded = entry.decoded;
+		if (resClass.isInstance(decoded)) {
+			return resClass.cast(decoded);
+		}
+
+		// Entry is replaced (not modified) at each write, so cache in the entry is never stale
+		T result = DkJsonConverter.getIns().json2obj((String) entry.value, resClass);
+		entry.decoded = result;
+
+		return result;
+	}
+
+	@Override
+	public void putJsonObject(String key, Object value) {
+		putString(key, DkJsonConverter.getIns().obj2json(value));
+	}
+
+	@Override
+	public synchronized void delete(String key) {
+		if (index.containsKey(key)) {
+			append(key, TYPE_DELETE, null);
+		}
+	}
+
+	@Override
+	public synchronized void clear() {
+		index.clear();
+		liveSize = 0;
+		writeOffset = HEADER_SIZE;
+
+		// Mark end of log right after header
+		buffer.putInt(HEADER_SIZE, 0);
+		flush();
+	}
+
+	/**
+	 * Force written records into storage device.
+	 */
+	public synchronized void flush() {
+		buffer.force();
+	}
+
+	/**
+	 * Rewrite the log with only live records.
+	 */
+	public synchronized void compact() {
+		try {
+			compactInternal();
+		}
+		catch (IOException e) {
+			DkLogcats.error(this, e);
+		}
+	}
+
+	/**
+	 * Close the store, next `open()` of same file maps it again.
+	 */
+	public void close() {
+		synchronized (DkMappedPreferences.class) {
+			if (instances.get(canonicalPath) == this) {
+				instances.remove(canonicalPath);
+			}
+		}
+
+		synchronized (this) {
+			try {
+				buffer.force();
+				channel.close();
+				raf.close();
+			}
+			catch (IOException e) {
+				DkLogcats.error(this, e);
+			}
+		}
+	}
+
+	/**
+	 * @return Number of entries in this store.
+	 */
+	public synchronized int count() {
+		return index.size();
+	}
+
+	/**
+	 * @return Number of bytes of the log (include overwritten records).
+	 */
+	public synchronized long getLogSize() {
+		return writeOffset;
+	}
+
+	public synchronized long getCompactCount() {
+		return compactCount;
+	}
+
+	private synchronized Object valueOf(String key) {
+		Entry entry = index.get(key);
+		return entry == null ? null : entry.value;
+	}
+
+	// String value (for eg,. migrated from DkSharedPreferences) is re-appended with given typed tag
+	// when it converts back to the same text, so next reads don't parse it again
+	private synchronized Object typedValueOf(String key, byte type) {
+		Entry entry = index.get(key);
+		if (entry == null) {
+			return null;
+		}
+		if (entry.value instanceof String) {
+			String text = (String) entry.value;
+			Object typed = parseExactly(text, type);
+			if (typed != null) {
+				append(key, type, typed);
+				return typed;
+			}
+		}
+		return entry.value;
+	}
+
+	@Nullable
+	private static Object parseExactly(String text, byte type) {
+		Object typed;
+		try {
+			switch (type) {
+				case TYPE_BOOLEAN: {
+					typed = Boolean.valueOf(text);
+					break;
+				}
+				case TYPE_INT: {
+					typed = Integer.valueOf(text);
+					break;
+				}
+				case TYPE_LONG: {
+					typed = Long.valueOf(text);
+					break;
+				}
+				case TYPE_FLOAT: {
+					typed = Float.valueOf(text);
+					break;
+				}
+				case TYPE_DOUBLE: {
+					typed = Double.valueOf(text);
+					break;
+				}
+				default: {
+					return null;
+				}
+			}
+		}
+		catch (NumberFormatException e) {
+			return null;
+		}
+		// Keep text like "007" or " 1" as String, so getString() still returns it as before
+		return typed.toString().equals(text) ? typed : null;
+	}
+
+	// Map the file and build index from valid records, a torn (crashed) tail is discarded
+	private void load() throws IOException {
+		raf = new RandomAccessFile(file, "rw");
+		channel = raf.getChannel();
+
+		long fileSize = channel.size();
+		boolean valid = fileSize >= HEADER_SIZE;
+
+		buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(fileSize, INITIAL_CAPACITY));
+
+		if (valid && (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION)) {
+			DkLogcats.warning(this, "Unknown format, reset the store: %s", file.getPath());
+			valid = false;
+		}
+		if (! valid) {
+			buffer.putInt(0, MAGIC);
+			buffer.putInt(4, VERSION);
+			buffer.putInt(HEADER_SIZE, 0);
+			writeOffset = HEADER_SIZE;
+			return;
+		}
+
+		int offset = HEADER_SIZE;
+		int capacity = buffer.capacity();
+
+		while (offset + RECORD_HEADER_SIZE <= capacity) {
+			int bodyLength = buffer.getInt(offset);
+			if (bodyLength <= 0 || offset + RECORD_HEADER_SIZE + bodyLength > capacity) {
+				break;
+			}
+
+			int checksum = buffer.getInt(offset + 4);
+			ByteBuffer body = slice(offset + RECORD_HEADER_SIZE, bodyLength);
+			crc.reset();
+			crc.update(toArray(body.duplicate()));
+			if ((int) crc.getValue() != checksum) {
+				break;
+			}
+
+			int recordSize = RECORD_HEADER_SIZE + bodyLength;
+			byte type = body.get();
+			String key = readString(body);
+
+			Entry oldEntry = index.remove(key);
+			if (oldEntry != null) {
+				liveSize -= oldEntry.recordSize;
+			}
+			if (type != TYPE_DELETE) {
+				index.put(key, new Entry(readValue(type, body), recordSize));
+				liveSize += recordSize;
+			}
+
+			offset += recordSize;
+		}
+
+		writeOffset = offset;
+
+		// Clear torn tail so next append is not mixed with garbage
+		if (offset + 4 <= capacity) {
+			buffer.putInt(offset, 0);
+		}
+	}
+
+	// Append a record and update index, compact or grow the log if needed
+	private void append(String key, byte type, @Nullable Object value) {
+		byte[] body = encode(key, type, value);
+		int recordSize = RECORD_HEADER_SIZE + body.length;
+
+		try {
+			ensureCapacity(recordSize);
+		}
+		catch (IOException e) {
+			DkLogcats.error(this, e);
+			return;
+		}
+
+		crc.reset();
+		crc.update(body);
+
+		// Write body first, then length, so a torn record is never treated as valid
+		ByteBuffer destination = buffer.duplicate();
+		destination.position(writeOffset + RECORD_HEADER_SIZE);
+		destination.put(body);
+		if (writeOffset + recordSize + 4 <= buffer.capacity()) {
+			buffer.putInt(writeOffset + recordSize, 0);
+		}
+		buffer.putInt(writeOffset + 4, (int) crc.getValue());
+		buffer.putInt(writeOffset, body.length);
+
+		writeOffset += recordSize;
+
+		Entry oldEntry = index.remove(key);
+		if (oldEntry != null) {
+			liveSize -= oldEntry.recordSize;
+		}
+		if (type != TYPE_DELETE) {
+			index.put(key, new Entry(value, recordSize));
+			liveSize += recordSize;
+		}
+	}
+
+	private void ensureCapacity(int recordSize) throws IOException {
+		// Keep 4 bytes for end mark
+		int required = writeOffset + recordSize + 4;
+		if (required <= buffer.capacity()) {
+			return;
+		}
+
+		if (writeOffset > COMPACT_MIN_SIZE && writeOffset > (liveSize << 1)) {
+			compactInternal();
+			required = writeOffset + recordSize + 4;
+			if (required <= buffer.capacity()) {
+				return;
+			}
+		}
+
+		int newCapacity = buffer.capacity();
+		while (newCapacity < required) {
+			newCapacity <<= 1;
+		}
+		buffer.force();
+		buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, newCapacity);
+	}
+
+	// Write live records into temp file, then replace the log by renaming
+	private void compactInternal() throws IOException {
+		File tmpFile = new File(file.getPath() + ".tmp");
+		int capacity = INITIAL_CAPACITY;
+		while (capacity < HEADER_SIZE + liveSize + 4) {
+			capacity <<= 1;
+		}
+
+		RandomAccessFile tmpRaf = new RandomAccessFile(tmpFile, "rw");
+		FileChannel tmpChannel = tmpRaf.getChannel();
+		MappedByteBuffer tmpBuffer;
+		int offset = HEADER_SIZE;
+
+		try {
+			tmpRaf.setLength(0);
+			tmpBuffer = tmpChannel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+			tmpBuffer.putInt(0, MAGIC);
+			tmpBuffer.putInt(4, VERSION);
+
+			for (Map.Entry<String, Entry> item : index.entrySet()) {
+				Entry entry = item.getValue();
+				byte[] body = encode(item.getKey(), typeOf(entry.value), entry.value);
+
+				crc.reset();
+				crc.update(body);
+
+				tmpBuffer.putInt(offset, body.length);
+				tmpBuffer.putInt(offset + 4, (int) crc.getValue());
+				ByteBuffer destination = tmpBuffer.duplicate();
+				destination.position(offset + RECORD_HEADER_SIZE);
+				destination.put(body);
+
+				entry.recordSize = RECORD_HEADER_SIZE + body.length;
+				offset += entry.recordSize;
+			}
+			tmpBuffer.putInt(offset, 0);
+			tmpBuffer.force();
+		}
+		finally {
+			tmpChannel.close();
+			tmpRaf.close();
+		}
+
+		channel.close();
+		raf.close();
+
+		if (! tmpFile.renameTo(file)) {
+			throw new IOException("Could not replace log by compacted file: " + file.getPath());
+		}
+
+		raf = new RandomAccessFile(file, "rw");
+		channel = raf.getChannel();
+		buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+		writeOffset = offset;
+		liveSize = offset - HEADER_SIZE;
+		++compactCount;
+	}
+
+	private static byte typeOf(Object value) {
+		if (value instanceof Boolean) {
+			return TYPE_BOOLEAN;
+		}
+		if (value instanceof Integer) {
+			return TYPE_INT;
+		}
+		if (value instanceof Long) {
+			return TYPE_LONG;
+		}
+		if (value instanceof Float) {
+			return TYPE_FLOAT;
+		}
+		if (value instanceof Double) {
+			return TYPE_DOUBLE;
+		}
+		if (value instanceof Set) {
+			return TYPE_STRING_SET;
+		}
+		return TYPE_STRING;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static byte[] encode(String key, byte type, @Nullable Object value) {
+		byte[] keyBytes = key.getBytes(UTF_8);
+		int size = 1 + 4 + keyBytes.length;
+		byte[][] valueBytes = null;
+
+		switch (type) {
+			case TYPE_BOOLEAN: {
+				size += 1;
+				break;
+			}
+			case TYPE_INT:
+			case TYPE_FLOAT: {
+				size += 4;
+				break;
+			}
+			case TYPE_LONG:
+			case TYPE_DOUBLE: {
+				size += 8;
+				break;
+			}
+			case TYPE_STRING: {
+				valueBytes = new byte[][] {((String) value).getBytes(UTF_8)};
+				size += 4 + valueBytes[0].length;
+				break;
+			}
+			case TYPE_STRING_SET: {
+				Set<String> values = (Set<String>) value;
+				valueBytes = new byte[values.size()][];
+				size += 4;
+				int index = 0;
+				for (String item : values) {
+					valueBytes[index] = item.getBytes(UTF_8);
+					size += 4 + valueBytes[index++].length;
+				}
+				break;
+			}
+		}
+
+		ByteBuffer body = ByteBuffer.allocate(size);
+		body.put(type);
+		body.putInt(keyBytes.length);
+		body.put(keyBytes);
+
+		switch (type) {
+			case TYPE_BOOLEAN: {
+				body.put((byte) ((Boolean) value ? 1 : 0));
+				break;
+			}
+			case TYPE_INT: {
+				body.putInt((Integer) value);
+				break;
+			}
+			case TYPE_FLOAT: {
+				body.putFloat((Float) value);
+				break;
+			}
+			case TYPE_LONG: {
+				body.putLong((Long) value);
+				break;
+			}
+			case TYPE_DOUBLE: {
+				body.putDouble((Double) value);
+				break;
+			}
+			case TYPE_STRING: {
+				body.putInt(valueBytes[0].length);
+				body.put(valueBytes[0]);
+				break;
+			}
+			case TYPE_STRING_SET: {
+				body.putInt(valueBytes.length);
+				for (byte[] item : valueBytes) {
+					body.putInt(item.length);
+					body.put(item);
+				}
+				break;
+			}
+		}
+
+		return body.array();
+	}
+
+	private static Object readValue(byte type, ByteBuffer body) {
+		switch (type) {
+			case TYPE_BOOLEAN: {
+				return body.get() != 0;
+			}
+			case TYPE_INT: {
+				return body.getInt();
+			}
+			case TYPE_FLOAT: {
+				return body.getFloat();
+			}
+			case TYPE_LONG: {
+				return body.getLong();
+			}
+			case TYPE_DOUBLE: {
+				return body.getDouble();
+			}
+			case TYPE_STRING: {
+				return readString(body);
+			}
+			case TYPE_STRING_SET: {
+				int count = body.getInt();
+				Set<String> values = new HashSet<>();
+				for (int index = 0; index < count; ++index) {
+					values.add(readString(body));
+				}
+				return Collections.unmodifiableSet(values);
+			}
+			default: {
+				return null;
+			}
+		}
+	}
+
+	private static String readString(ByteBuffer body) {
+		byte[] bytes = new byte[body.getInt()];
+		body.get(bytes);
+		return new String(bytes, UTF_8);
+	}
+
+	private ByteBuffer slice(int offset, int length) {
+		ByteBuffer view = buffer.duplicate();
+		view.limit(offset + length);
+		view.position(offset);
+		return view.slice();
+	}
+
+	private static byte[] toArray(ByteBuffer buffer) {
+		byte[] bytes = new byte[buffer.remaining()];
+		buffer.get(bytes);
+		return bytes;
+	}
+
+	// Decoded value and size of its record in the log
+	private static class Entry {
+		final Object value;
+		int recordSize;
+
+		// Json object which was decoded from the value
+		volatile Object decoded;
+
+		Entry(Object value, int recordSize) {
+			this.value = value;
+			this.recordSize = recordSize;
+		}
+	}
+}
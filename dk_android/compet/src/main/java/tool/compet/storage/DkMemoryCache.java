@@ -4,38 +4,143 @@
 
 package tool.compet.storage;
 
+import android.content.ComponentCallbacks2;
+import android.content.res.Configuration;
 import android.graphics.Bitmap;
 import android.os.SystemClock;
 
+import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.Map;
-import java.util.TreeMap;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
+import tool.compet.core.graphics.DkBitmapPool;
 import tool.compet.core.graphics.DkBitmaps;
+import tool.compet.core4j.DkCallable;
+import tool.compet.stream.DkObservable;
+import tool.compet.stream.DkSchedulers;
 
 /**
  * Thread-safe memory cache (LruCache).
  * Each cache-entry has own priority, expired time.
+ * <p>
+ * When memory-limit-up, entries are evicted from lowest priority, and from least-recently-used
+ * inside same priority. Get, put and evict are O(1) (number of distinct priorities is small).
+ * <p>
+ * By default, all entries are stored in one segment. For heavy concurrent access (decoder pool,...),
+ * call `setConcurrencyLevel()` to split the cache into lock-striped segments, each segment
+ * owns a part (maxSize / segmentCount) of the global budget and evicts by its own priority-LRU order.
+ * Get does not block: it looks up via a concurrent map and only updates recency if the segment
+ * lock is free at that time.
+ * <p>
+ * Expired entries are never returned. They are tracked by a hashed timing wheel per segment
+ * (O(1) to schedule), and are reclaimed lazily when be accessed, when the wheel is advanced at put,
+ * and by a periodic background sweep which only runs while some entries have expired time.
+ * <p>
+ * This also reacts to memory pressure of the system (registered at `DkSingleApp`): budget is
+ * shrunk by trim level (low priority entries are evicted first), and is restored step by step
+ * when no more trim request comes.
+ * <p>
+ * To avoid loading same thing many times, use `getOrLoad()` instead of get-load-put:
+ * concurrent loads of same key are coalesced into one computation.
+ * <p>
+ * To protect hot entries from one-off scans, set an admission policy (for eg,. `DkTinyLfuPolicy`)
+ * via `setAdmissionPolicy()`. New entries then stay at a small window first, and only enter main
+ * space if the policy prefers them over the eviction victim of same priority.
  */
-public class DkMemoryCache {
+public class DkMemoryCache implements ComponentCallbacks2 {
 	public interface Listener {
 		void onRemoved(String key, @Nullable Snapshot snapshot);
 	}
 
+	/**
+	 * Called (inside lock of this cache) when a snapshot was evicted since memory-limit-up,
+	 * listener should NOT block or access this cache at the callback.
+	 */
+	public interface EvictionListener {
+		void onEvicted(String key, Snapshot snapshot);
+	}
+
+	private static final int MAX_CONCURRENCY_LEVEL = 64;
+
+	// Timing wheel: each slot covers 1 tick, wheel goes around after WHEEL_SIZE ticks
+	private static final long WHEEL_TICK_MILLIS = 1000;
+	private static final int WHEEL_SIZE = 256;
+	private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+	private static final long SWEEP_INTERVAL_MILLIS = 5000;
+
+	// Budget is doubled (until reach base size) after each this duration without trim request
+	private static final long PRESSURE_RECOVER_INTERVAL_MILLIS = 30_000;
+
+	// Trim levels which be counted, last index is for `onLowMemory()`
+	private static final int[] TRIM_LEVELS = {
+		TRIM_MEMORY_RUNNING_MODERATE,
+		TRIM_MEMORY_RUNNING_LOW,
+		TRIM_MEMORY_RUNNING_CRITICAL,
+		TRIM_MEMORY_UI_HIDDEN,
+		TRIM_MEMORY_BACKGROUND,
+		TRIM_MEMORY_MODERATE,
+		TRIM_MEMORY_COMPLETE,
+	};
+
 	private static DkMemoryCache INS;
 
-	private long size;
-	private long maxSize;
-	private final TreeMap<String, Snapshot> cache;
-	private final ArrayList<Listener> listeners = new ArrayList<>();
+	// Budget which was set by user, and current budget (maybe shrunk since memory pressure)
+	private volatile long baseMaxSize;
+	private volatile long maxSize;
+
+	// Uptime of last trim request, 0 means no pressure
+	private volatile long lastPressureTime;
+	private final long[] trimCounts = new long[TRIM_LEVELS.length + 1];
+
+	// Key vs node, node is also element of LRU list inside its priority-bucket of owner segment
+	private final ConcurrentHashMap<String, Node> cache;
+
+	// Segment of a key is decided by hash of the key, length is power of 2
+	private volatile Segment[] segments;
+
+	private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<>();
+	private final CopyOnWriteArrayList<EvictionListener> evictionListeners = new CopyOnWriteArrayList<>();
+
+	// Background sweep of expired entries
+	private final AtomicInteger timedNodeCount = new AtomicInteger();
+	private final AtomicBoolean sweepScheduled = new AtomicBoolean();
+
+	// Key vs in-flight load
+	private final ConcurrentHashMap<String, MyLoadingFlight> loadingFlights = new ConcurrentHashMap<>();
+	private final AtomicLong loadCount = new AtomicLong();
+	private final AtomicLong coalescedLoadCount = new AtomicLong();
+	private final AtomicLong cancelledLoadCount = new AtomicLong();
+
+	// Decides which one of window candidate and main victim is kept, null means plain priority-LRU
+	private volatile DkCacheAdmissionPolicy admissionPolicy;
+
+	// Receives evicted bitmaps to reuse them at decoding
+	private volatile DkBitmapPool bitmapPool;
+	private final EvictionListener bitmapRecycler = (key, snapshot) -> {
+		DkBitmapPool pool = bitmapPool;
+		if (pool != null && snapshot.target instanceof Bitmap) {
+			pool.put((Bitmap) snapshot.target);
+		}
+	};
 
 	private DkMemoryCache() {
-		maxSize = Runtime.getRuntime().maxMemory() >> 2;
-		cache = new TreeMap<>();
+		this(Runtime.getRuntime().maxMemory() >> 2);
+	}
+
+	// Standalone cache, for eg,. to simulate hit rate of policies
+	DkMemoryCache(long maxSize) {
+		baseMaxSize = this.maxSize = maxSize;
+		cache = new ConcurrentHashMap<>();
+		segments = new Segment[] {new Segment()};
 	}
 
 	public static DkMemoryCache getIns() {
@@ -53,7 +158,134 @@ public class DkMemoryCache {
 		if (maxSize <= 0) {
 			maxSize = 1;
 		}
-		this.maxSize = maxSize;
+		this.baseMaxSize = this.maxSize = maxSize;
+		this.lastPressureTime = 0;
+		return this;
+	}
+
+	/**
+	 * Pass evicted mutable bitmaps to given pool, so `DkBitmaps.load()` can decode into them
+	 * instead of allocating new bitmaps. Pass null to stop.
+	 * <p>
+	 * Only use this when evicted bitmaps are not displayed anymore, and don't use together with
+	 * `DkDualCache` since it encodes evicted bitmaps into disk after eviction.
+	 */
+	public DkMemoryCache setBitmapPool(@Nullable DkBitmapPool pool) {
+		this.bitmapPool = pool;
+
+		if (pool != null) {
+			addEvictionListener(bitmapRecycler);
+		}
+		else {
+			removeEvictionListener(bitmapRecycler);
+		}
+		return this;
+	}
+
+	/**
+	 * Set admission policy to decide which entries are kept when memory-limit-up, pass null to
+	 * back to plain priority-LRU. Entries which are waiting at window are moved into main space
+	 * when the policy is removed.
+	 * <p>
+	 * Priority is still respected: a candidate is compared by the policy only with victim of same
+	 * priority, lower priority candidate is rejected, and higher one is admitted.
+	 */
+	public synchronized DkMemoryCache setAdmissionPolicy(@Nullable DkCacheAdmissionPolicy policy) {
+		this.admissionPolicy = policy;
+
+		if (policy == null) {
+			for (Segment segment : segments) {
+				segment.lock.lock();
+				try {
+					segment.flushWindow();
+				}
+				finally {
+					segment.lock.unlock();
+				}
+			}
+		}
+		return this;
+	}
+
+	@Nullable
+	public DkCacheAdmissionPolicy getAdmissionPolicy() {
+		return admissionPolicy;
+	}
+
+	/**
+	 * @return Current budget, maybe smaller than the size which was set since memory pressure.
+	 */
+	public long getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * Split this cache into lock-striped segments to reduce contention between threads.
+	 * Current entries are moved into new segments.
+	 *
+	 * @param concurrencyLevel Estimated number of threads which access this cache at same time,
+	 * it will be rounded up to power of 2 (max 64). Pass 1 to back to single segment mode.
+	 */
+	public synchronized DkMemoryCache setConcurrencyLevel(int concurrencyLevel) {
+		int segmentCount = 1;
+		while (segmentCount < concurrencyLevel && segmentCount < MAX_CONCURRENCY_LEVEL) {
+			segmentCount <<= 1;
+		}
+
+		Segment[] oldSegments = segments;
+		if (oldSegments.length == segmentCount) {
+			return this;
+		}
+
+		Segment[] newSegments = new Segment[segmentCount];
+		for (int index = 0; index < segmentCount; ++index) {
+			newSegments[index] = new Segment();
+		}
+
+		for (Segment segment : oldSegments) {
+			segment.lock.lock();
+		}
+		try {
+			// Move nodes from low to high priority, from least to most recently used
+			for (Segment segment : oldSegments) {
+				Bucket bucket = segment.lowestBucket;
+				while (bucket != null) {
+					Node node = bucket.head;
+					while (node != null) {
+						Node next = node.next;
+						Segment target = newSegments[indexOf(node.key, segmentCount)];
+						segment.unschedule(node);
+						target.linkLast(target.obtainBucket(bucket.priority), node);
+						target.schedule(node);
+						target.size += node.snapshot.size;
+						node = next;
+					}
+					bucket = bucket.higher;
+				}
+				// Window nodes are newest, keep them at window
+				Node node = segment.window == null ? null : segment.window.head;
+				while (node != null) {
+					Node next = node.next;
+					Segment target = newSegments[indexOf(node.key, segmentCount)];
+					segment.unschedule(node);
+					target.linkLast(target.obtainWindow(), node);
+					target.schedule(node);
+					target.size += node.snapshot.size;
+					node = next;
+				}
+				segment.retired = true;
+			}
+			segments = newSegments;
+		}
+		finally {
+			for (Segment segment : oldSegments) {
+				segment.lock.unlock();
+			}
+		}
+
+		// Each segment now owns smaller budget
+		trimToSize(maxSize);
+
 		return this;
 	}
 
@@ -65,103 +297,796 @@ public class DkMemoryCache {
 		put(key, new Snapshot(value, DkBitmaps.size(value)));
 	}
 
-	public synchronized void put(String key, Snapshot snapshot) {
+	public void put(String key, Snapshot snapshot) {
 		if (key == null || snapshot == null) {
 			throw new RuntimeException("Cannot put null-key or null-snapshot");
 		}
 		long more = snapshot.size;
-		removeExpiredObjects();
+		if (lastPressureTime > 0) {
+			recoverFromPressure();
+		}
+		// Access was already recorded by get() (miss) before the load, so don't record again
+		DkCacheAdmissionPolicy policy = admissionPolicy;
+		Segment segment = lockSegmentFor(key);
+
+		try {
+			// Reclaim entries of elapsed ticks, amortized O(1)
+			segment.advanceWheel(SystemClock.uptimeMillis());
 
-		if (size + more >= maxSize) {
-			trimToSize(maxSize - more);
+			// Replace old snapshot, entry which was admitted into main space is kept there
+			Node node = cache.get(key);
+			boolean admitted = false;
+			if (node != null) {
+				admitted = node.bucket != null && node.bucket != segment.window;
+				segment.unlink(node);
+				segment.unschedule(node);
+				segment.size -= node.snapshot.size;
+			}
+			else {
+				node = new Node(key);
+			}
+
+			long budget = segmentBudget();
+			node.snapshot = snapshot;
+
+			if (policy == null || admitted) {
+				if (segment.size + more >= budget) {
+					segment.trimToSize(budget - more);
+				}
+				segment.linkLast(segment.obtainBucket(snapshot.priority), node);
+				segment.schedule(node);
+				segment.size += more;
+				cache.put(key, node);
+			}
+			else {
+				// New entry waits at window, overflow of the window competes with main victim
+				segment.linkLast(segment.obtainWindow(), node);
+				segment.schedule(node);
+				segment.size += more;
+				cache.put(key, node);
+				segment.admitFromWindow(policy, budget);
+			}
+		}
+		finally {
+			segment.lock.unlock();
 		}
 
-		size += more;
-		cache.put(key, snapshot);
+		if (snapshot.expiredTime > 0) {
+			scheduleSweep();
+		}
 	}
 
-	public synchronized void remove(String key) {
-		Snapshot snapshot = cache.get(key);
+	public void remove(String key) {
+		Segment segment = lockSegmentFor(key);
+		Snapshot snapshot = null;
 
-		if (snapshot != null) {
-			size -= snapshot.size;
+		try {
+			Node node = cache.remove(key);
+
+			if (node != null) {
+				snapshot = node.snapshot;
+				segment.size -= snapshot.size;
+				segment.unlink(node);
+				segment.unschedule(node);
+			}
+
+			for (Listener listener : listeners) {
+				listener.onRemoved(key, snapshot);
+			}
+		}
+		finally {
+			segment.lock.unlock();
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	public <T> T get(String key) {
+		// Miss is also counted, so frequently requested key can be admitted after loaded
+		DkCacheAdmissionPolicy policy = admissionPolicy;
+		if (policy != null) {
+			policy.record(key);
 		}
 
-		cache.remove(key);
+		Node node = cache.get(key);
 
-		for (Listener listener : listeners) {
-			listener.onRemoved(key, snapshot);
+		if (node == null) {
+			return null;
+		}
+
+		Snapshot snapshot = node.snapshot;
+		boolean expired = snapshot.isExpired(SystemClock.uptimeMillis());
+
+		// Mark as most-recently-used inside its bucket (or reclaim if expired),
+		// skip if other thread is holding the lock
+		Segment[] segments = this.segments;
+		Segment segment = segments[indexOf(key, segments.length)];
+		if (segment.lock.tryLock()) {
+			try {
+				Bucket bucket = node.bucket;
+				if (! segment.retired && bucket != null && bucket.segment == segment) {
+					if (expired) {
+						segment.expire(node);
+					}
+					else if (bucket.tail != node) {
+						segment.unlink(node);
+						segment.linkLast(bucket, node);
+					}
+				}
+			}
+			finally {
+				segment.lock.unlock();
+			}
 		}
+
+		return expired ? null : (T) snapshot.target;
 	}
 
+	/**
+	 * Get cached target, or load it if not found. While a key is being loaded, other callers of
+	 * same key will wait for result of that load instead of loading again.
+	 * The load runs at background thread, if all waiters leave (interrupted) before it is done,
+	 * the load is cancelled.
+	 *
+	 * @param loader Load snapshot of the key, result will be put into this cache if not null.
+	 * @return Cached or loaded target, null if loader returned null.
+	 * @throws Exception Exception which was thrown by loader, or InterruptedException when caller was interrupted.
+	 */
 	@SuppressWarnings("unchecked")
-	public synchronized <T> T get(String key) {
-		Snapshot snapshot = cache.get(key);
+	public <T> T getOrLoad(String key, DkCallable<Snapshot> loader) throws Exception {
+		T target = get(key);
+		if (target != null) {
+			return target;
+		}
+
+		MyLoadingFlight flight = joinOrStartFlight(key, loader);
 
-		if (snapshot != null) {
-			return (T) snapshot.target;
+		try {
+			Snapshot snapshot = flight.get();
+			return snapshot == null ? null : (T) snapshot.target;
 		}
+		catch (InterruptedException e) {
+			if (flight.leave()) {
+				cancelledLoadCount.incrementAndGet();
+			}
+			throw e;
+		}
+		catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			throw cause instanceof Exception ? (Exception) cause : e;
+		}
+	}
+
+	/**
+	 * Same with `getOrLoad()`, but result is emitted via stream. When the stream is cancelled
+	 * (thread is interrupted), its waiter leaves the load.
+	 */
+	public <T> DkObservable<T> getOrLoadAsync(String key, DkCallable<Snapshot> loader) {
+		return DkObservable.fromCallable(() -> getOrLoad(key, loader));
+	}
+
+	/**
+	 * @return Number of loads which were actually run by `getOrLoad()`.
+	 */
+	public long getLoadCount() {
+		return loadCount.get();
+	}
+
+	/**
+	 * @return Number of `getOrLoad()` requests which waited for other's load instead of loading again.
+	 */
+	public long getCoalescedLoadCount() {
+		return coalescedLoadCount.get();
+	}
+
+	/**
+	 * @return Number of loads which were cancelled since all waiters left.
+	 */
+	public long getCancelledLoadCount() {
+		return cancelledLoadCount.get();
+	}
+
+	private MyLoadingFlight joinOrStartFlight(String key, DkCallable<Snapshot> loader) {
+		while (true) {
+			MyLoadingFlight flight = loadingFlights.get(key);
+
+			if (flight != null) {
+				if (flight.join()) {
+					coalescedLoadCount.incrementAndGet();
+					return flight;
+				}
+				// Abandoned flight, replace it
+				loadingFlights.remove(key, flight);
+				continue;
+			}
+
+			MyLoadingFlight[] holder = new MyLoadingFlight[1];
+			holder[0] = new MyLoadingFlight(() -> {
+				try {
+					Snapshot snapshot = loader.call();
+					if (snapshot != null) {
+						put(key, snapshot);
+					}
+					return snapshot;
+				}
+				finally {
+					loadingFlights.remove(key, holder[0]);
+				}
+			});
+			flight = holder[0];
 
-		return null;
+			if (loadingFlights.putIfAbsent(key, flight) == null) {
+				loadCount.incrementAndGet();
+				DkSchedulers.ioExecutor().execute(flight);
+				return flight;
+			}
+		}
 	}
 
 	/**
 	 * 優先度の昇順でnewSizeに下がるまでオブジェクトを削除していきます。
+	 * 同じ優先度の中では、最も長く参照されていないものから削除します。
+	 * 複数セグメントの場合、各セグメントが newSize / セグメント数 に下がるまで削除します。
 	 */
-	public synchronized void trimToSize(long newSize) {
-		if (newSize < 0) {
-			newSize = 0;
+	public void trimToSize(long newSize) {
+		Segment[] segments = this.segments;
+		long segmentSize = newSize / segments.length;
+
+		for (Segment segment : segments) {
+			segment.lock.lock();
+			try {
+				segment.trimToSize(segmentSize);
+			}
+			finally {
+				segment.lock.unlock();
+			}
 		}
+	}
 
-		long curSize = size;
+	/**
+	 * 期限切れたオブジェクトを全て削除します。
+	 * 注意：現在の tick (1秒) の中で期限切れたものは、次回の呼び出しで削除されます。
+	 */
+	public void removeExpiredObjects() {
+		long now = SystemClock.uptimeMillis();
+
+		for (Segment segment : segments) {
+			segment.lock.lock();
+			try {
+				segment.advanceWheel(now);
+			}
+			finally {
+				segment.lock.unlock();
+			}
+		}
+	}
 
-		// Remove low priority and older objects from start to end
-		while (curSize > newSize) {
-			Map.Entry<String, Snapshot> entry = cache.pollFirstEntry();
-			Snapshot snapshot = entry.getValue();
-			curSize -= snapshot.size;
+	/**
+	 * @return Number of objects in this cache.
+	 */
+	public int count() {
+		return cache.size();
+	}
 
-			for (Listener listener : listeners) {
-				listener.onRemoved(entry.getKey(), snapshot);
+	/**
+	 * @return Total size of objects in this cache.
+	 */
+	public long size() {
+		long size = 0;
+		for (Segment segment : segments) {
+			size += segment.size;
+		}
+		return size;
+	}
+
+	public void register(Listener listener) {
+		listeners.addIfAbsent(listener);
+	}
+
+	public void unregister(Listener listener) {
+		listeners.remove(listener);
+	}
+
+	public void addEvictionListener(EvictionListener listener) {
+		evictionListeners.addIfAbsent(listener);
+	}
+
+	public void removeEvictionListener(EvictionListener listener) {
+		evictionListeners.remove(listener);
+	}
+
+	// Lock and return the segment which owns given key
+	private Segment lockSegmentFor(String key) {
+		while (true) {
+			Segment[] segments = this.segments;
+			Segment segment = segments[indexOf(key, segments.length)];
+
+			segment.lock.lock();
+			if (! segment.retired) {
+				return segment;
 			}
+			// Segments were re-partitioned meanwhile, retry with new segments
+			segment.lock.unlock();
+		}
+	}
+
+	@Override
+	public void onTrimMemory(int level) {
+		long baseMaxSize = this.baseMaxSize;
+		long newMaxSize;
+
+		// Keep a fraction of base budget by level
+		if (level >= TRIM_MEMORY_COMPLETE) {
+			newMaxSize = 0;
+		}
+		else if (level >= TRIM_MEMORY_MODERATE) {
+			newMaxSize = baseMaxSize >> 3;
+		}
+		else if (level >= TRIM_MEMORY_BACKGROUND) {
+			newMaxSize = baseMaxSize >> 2;
+		}
+		else if (level >= TRIM_MEMORY_UI_HIDDEN) {
+			newMaxSize = baseMaxSize >> 1;
+		}
+		else if (level >= TRIM_MEMORY_RUNNING_CRITICAL) {
+			newMaxSize = baseMaxSize >> 2;
+		}
+		else if (level >= TRIM_MEMORY_RUNNING_LOW) {
+			newMaxSize = baseMaxSize >> 1;
+		}
+		else {
+			newMaxSize = baseMaxSize - (baseMaxSize >> 2);
 		}
 
-		size = curSize < 0 ? 0 : curSize;
+		countTrim(level);
+		shrink(newMaxSize);
+	}
+
+	@Override
+	public void onLowMemory() {
+		synchronized (trimCounts) {
+			trimCounts[TRIM_LEVELS.length]++;
+		}
+		shrink(0);
+	}
+
+	@Override
+	public void onConfigurationChanged(@NonNull Configuration newConfig) {
 	}
 
 	/**
-	 * 期限切れたオブジェクトを全て削除します。
+	 * @param level Trim level, for eg,. `ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW`.
+	 * @return Number of times the system requested to trim memory with given level.
+	 */
+	public long getTrimCount(int level) {
+		synchronized (trimCounts) {
+			for (int index = TRIM_LEVELS.length - 1; index >= 0; --index) {
+				if (TRIM_LEVELS[index] == level) {
+					return trimCounts[index];
+				}
+			}
+			return 0;
+		}
+	}
+
+	/**
+	 * @return Number of times the system notified low memory.
 	 */
-	public synchronized void removeExpiredObjects() {
-		long curSize = size;
+	public long getLowMemoryCount() {
+		synchronized (trimCounts) {
+			return trimCounts[TRIM_LEVELS.length];
+		}
+	}
+
+	private void countTrim(int level) {
+		synchronized (trimCounts) {
+			for (int index = TRIM_LEVELS.length - 1; index >= 0; --index) {
+				if (TRIM_LEVELS[index] == level) {
+					trimCounts[index]++;
+					break;
+				}
+			}
+		}
+	}
+
+	private void shrink(long newMaxSize) {
+		// Only shrink, don't grow by lighter level which comes after heavier level
+		if (newMaxSize < maxSize) {
+			maxSize = newMaxSize < 1 ? 1 : newMaxSize;
+		}
+		lastPressureTime = SystemClock.uptimeMillis();
+
+		// Evict low priority entries first
+		trimToSize(newMaxSize);
+	}
+
+	// Grow budget back step by step when pressure subsides
+	private void recoverFromPressure() {
 		long now = SystemClock.uptimeMillis();
-		Iterator<Map.Entry<String, Snapshot>> it = cache.entrySet().iterator();
+		if (now - lastPressureTime < PRESSURE_RECOVER_INTERVAL_MILLIS) {
+			return;
+		}
+		synchronized (trimCounts) {
+			if (lastPressureTime == 0 || now - lastPressureTime < PRESSURE_RECOVER_INTERVAL_MILLIS) {
+				return;
+			}
+			long baseMaxSize = this.baseMaxSize;
+			long newMaxSize = Math.max(maxSize << 1, baseMaxSize >> 3);
+
+			if (newMaxSize >= baseMaxSize) {
+				maxSize = baseMaxSize;
+				lastPressureTime = 0;
+			}
+			else {
+				maxSize = newMaxSize;
+				lastPressureTime = now;
+			}
+		}
+	}
+
+	// Run sweep periodically while there are entries which have expired time.
+	// Shared timer only dispatches the sweep, which takes segment locks, to io executor
+	private void scheduleSweep() {
+		if (sweepScheduled.compareAndSet(false, true)) {
+			DkSchedulers.delayExecutor().schedule(() -> DkSchedulers.ioExecutor().execute(this::sweep),
+				SWEEP_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	private void sweep() {
+		removeExpiredObjects();
+
+		sweepScheduled.set(false);
+		if (timedNodeCount.get() > 0) {
+			scheduleSweep();
+		}
+	}
+
+	private long segmentBudget() {
+		long budget = maxSize / segments.length;
+		return budget < 1 ? 1 : budget;
+	}
+
+	private static int indexOf(String key, int segmentCount) {
+		int h = key.hashCode();
+		h ^= (h >>> 16);
+		return h & (segmentCount - 1);
+	}
+
+	// Part of the cache which is guarded by own lock.
+	// All below methods must be called while holding the lock.
+	private final class Segment {
+		final ReentrantLock lock = new ReentrantLock();
+
+		// Priority vs bucket, buckets are also linked in ascending order of priority
+		final HashMap<Integer, Bucket> buckets = new HashMap<>();
+		Bucket lowestBucket;
+
+		// LRU list of new entries which are not yet admitted into main space (buckets),
+		// only be used when admission policy is set. It is not linked with priority buckets.
+		Bucket window;
+		long windowSize;
+
+		// Total size of snapshots in this segment, written under lock
+		volatile long size;
+
+		// True when this segment was replaced by re-partition
+		volatile boolean retired;
+
+		// Timing wheel of nodes which have expired time, slot of a node is decided by its expired tick.
+		// All slots of ticks before `wheelTick` were already swept.
+		final Node[] wheel = new Node[WHEEL_SIZE];
+		long wheelTick = SystemClock.uptimeMillis() / WHEEL_TICK_MILLIS;
+
+		void trimToSize(long newSize) {
+			if (newSize < 0) {
+				newSize = 0;
+			}
+
+			// Remove low priority and least-recently-used objects first, then window entries
+			while (size > newSize) {
+				Node node = lowestBucket != null ? lowestBucket.head : window != null ? window.head : null;
+				if (node == null) {
+					break;
+				}
+				evict(node);
+			}
+
+			if (size < 0) {
+				size = 0;
+			}
+		}
+
+		// Move overflow of window into main space while the policy prefers them to main victims
+		void admitFromWindow(DkCacheAdmissionPolicy policy, long budget) {
+			long windowBudget = (long) (budget * policy.windowRatio());
+
+			while (windowSize > windowBudget && window.head != null) {
+				Node candidate = window.head;
+				unlink(candidate);
+
+				if (size <= budget) {
+					linkLast(obtainBucket(candidate.snapshot.priority), candidate);
+					continue;
+				}
+
+				Node victim = lowestBucket == null ? null : lowestBucket.head;
+				boolean admit;
+
+				if (victim == null) {
+					admit = false;
+				}
+				else if (candidate.snapshot.priority != victim.snapshot.priority) {
+					admit = candidate.snapshot.priority > victim.snapshot.priority;
+				}
+				else {
+					admit = policy.admit(candidate.key, victim.key);
+				}
+
+				if (admit) {
+					linkLast(obtainBucket(candidate.snapshot.priority), candidate);
+					trimToSize(budget);
+				}
+				else {
+					evict(candidate);
+				}
+			}
+
+			// Window itself is over budget (large ratio, small budget...), evict its entries first
+			// since they were not admitted, then main entries
+			while (size > budget && window.head != null) {
+				evict(window.head);
+			}
+			if (size > budget) {
+				trimToSize(budget);
+			}
+		}
 
-		while (it.hasNext()) {
-			Map.Entry<String, Snapshot> entry = it.next();
-			Snapshot snapshot = entry.getValue();
+		// Move all window entries into main space
+		void flushWindow() {
+			while (window != null && window.head != null) {
+				Node node = window.head;
+				unlink(node);
+				linkLast(obtainBucket(node.snapshot.priority), node);
+			}
+		}
+
+		// Remove node since memory-limit-up
+		void evict(Node node) {
+			Snapshot snapshot = node.snapshot;
 
-			if (snapshot.expiredTime >= now) {
-				curSize -= snapshot.size;
-				it.remove();
+			unlink(node);
+			unschedule(node);
+			cache.remove(node.key, node);
+			size -= snapshot.size;
 
-				for (Listener listener : listeners) {
-					listener.onRemoved(entry.getKey(), snapshot);
+			for (Listener listener : listeners) {
+				listener.onRemoved(node.key, snapshot);
+			}
+			for (EvictionListener listener : evictionListeners) {
+				listener.onEvicted(node.key, snapshot);
+			}
+		}
+
+		// Sweep slots of elapsed ticks, each slot is visited once per tick.
+		// Nodes which expire at current tick will be swept at next tick (or lazily at get).
+		void advanceWheel(long now) {
+			long currentTick = now / WHEEL_TICK_MILLIS;
+			long fromTick = wheelTick;
+
+			if (currentTick <= fromTick) {
+				return;
+			}
+			if (currentTick - fromTick > WHEEL_SIZE) {
+				fromTick = currentTick - WHEEL_SIZE;
+			}
+
+			for (long tick = fromTick; tick < currentTick; ++tick) {
+				Node node = wheel[(int) (tick & WHEEL_MASK)];
+
+				while (node != null) {
+					Node next = node.wheelNext;
+					// Node of later rounds are kept
+					if (node.snapshot.isExpired(now)) {
+						expire(node);
+					}
+					node = next;
 				}
 			}
+
+			wheelTick = currentTick;
+		}
+
+		// Remove expired node from this segment
+		void expire(Node node) {
+			Snapshot snapshot = node.snapshot;
+
+			unlink(node);
+			unschedule(node);
+			cache.remove(node.key, node);
+			size -= snapshot.size;
+			if (size < 0) {
+				size = 0;
+			}
+
+			for (Listener listener : listeners) {
+				listener.onRemoved(node.key, snapshot);
+			}
+		}
+
+		// Add node into the wheel if it has expired time
+		void schedule(Node node) {
+			long expiredTime = node.snapshot.expiredTime;
+			if (expiredTime <= 0) {
+				return;
+			}
+
+			// Already passed tick will be swept at next advance
+			long tick = Math.max(expiredTime / WHEEL_TICK_MILLIS, wheelTick);
+			int slot = (int) (tick & WHEEL_MASK);
+
+			node.wheelSlot = slot;
+			node.wheelPrev = null;
+			node.wheelNext = wheel[slot];
+			if (node.wheelNext != null) {
+				node.wheelNext.wheelPrev = node;
+			}
+			wheel[slot] = node;
+
+			timedNodeCount.incrementAndGet();
+		}
+
+		// Remove node from the wheel if it was scheduled
+		void unschedule(Node node) {
+			int slot = node.wheelSlot;
+			if (slot < 0) {
+				return;
+			}
+
+			if (node.wheelPrev != null) {
+				node.wheelPrev.wheelNext = node.wheelNext;
+			}
+			else {
+				wheel[slot] = node.wheelNext;
+			}
+			if (node.wheelNext != null) {
+				node.wheelNext.wheelPrev = node.wheelPrev;
+			}
+			node.wheelPrev = node.wheelNext = null;
+			node.wheelSlot = -1;
+
+			timedNodeCount.decrementAndGet();
+		}
+
+		// Obtain bucket of given priority, create and link new bucket if not exist.
+		// Number of distinct priorities is small (0~10), so linear search for position is cheap.
+		Bucket obtainBucket(int priority) {
+			Bucket bucket = buckets.get(priority);
+			if (bucket != null) {
+				return bucket;
+			}
+
+			bucket = new Bucket(this, priority);
+			buckets.put(priority, bucket);
+
+			Bucket lower = null;
+			Bucket higher = lowestBucket;
+			while (higher != null && higher.priority < priority) {
+				lower = higher;
+				higher = higher.higher;
+			}
+
+			bucket.lower = lower;
+			bucket.higher = higher;
+			if (higher != null) {
+				higher.lower = bucket;
+			}
+			if (lower != null) {
+				lower.higher = bucket;
+			}
+			else {
+				lowestBucket = bucket;
+			}
+
+			return bucket;
+		}
+
+		Bucket obtainWindow() {
+			if (window == null) {
+				window = new Bucket(this, 0);
+			}
+			return window;
 		}
 
-		size = curSize < 0 ? 0 : curSize;
+		// Append node as most-recently-used of the bucket
+		void linkLast(Bucket bucket, Node node) {
+			if (bucket == window) {
+				windowSize += node.snapshot.size;
+			}
+			node.bucket = bucket;
+			node.prev = bucket.tail;
+			node.next = null;
+
+			if (bucket.tail != null) {
+				bucket.tail.next = node;
+			}
+			else {
+				bucket.head = node;
+			}
+			bucket.tail = node;
+		}
+
+		// Detach node from its bucket, also drop the bucket (except window) if it becomes empty
+		void unlink(Node node) {
+			Bucket bucket = node.bucket;
+			if (bucket == null) {
+				return;
+			}
+
+			if (node.prev != null) {
+				node.prev.next = node.next;
+			}
+			else {
+				bucket.head = node.next;
+			}
+			if (node.next != null) {
+				node.next.prev = node.prev;
+			}
+			else {
+				bucket.tail = node.prev;
+			}
+			node.prev = node.next = null;
+			node.bucket = null;
+
+			if (bucket == window) {
+				windowSize -= node.snapshot.size;
+			}
+			else if (bucket.head == null) {
+				buckets.remove(bucket.priority);
+
+				if (bucket.lower != null) {
+					bucket.lower.higher = bucket.higher;
+				}
+				else {
+					lowestBucket = bucket.higher;
+				}
+				if (bucket.higher != null) {
+					bucket.higher.lower = bucket.lower;
+				}
+			}
+		}
 	}
 
-	public void register(Listener listener) {
-		if (!listeners.contains(listener)) {
-			listeners.add(listener);
+	// Cache entry, is also element of LRU list (head: least-recently-used, tail: most-recently-used)
+	private static class Node {
+		final String key;
+		volatile Snapshot snapshot;
+		Bucket bucket;
+		Node prev;
+		Node next;
+
+		// Link inside timing wheel slot, slot is -1 if not scheduled
+		int wheelSlot = -1;
+		Node wheelPrev;
+		Node wheelNext;
+
+		Node(String key) {
+			this.key = key;
 		}
 	}
 
-	public void unregister(Listener listener) {
-		listeners.remove(listener);
+	// LRU list of entries which have same priority
+	private static class Bucket {
+		final Segment segment;
+		final int priority;
+		Node head;
+		Node tail;
+		Bucket lower;
+		Bucket higher;
+
+		Bucket(Segment segment, int priority) {
+			this.segment = segment;
+			this.priority = priority;
+		}
 	}
 
 	public static class Snapshot {
@@ -169,7 +1094,7 @@ public class DkMemoryCache {
 		// 基本的に昇順で0から10までの数字で十分だと思います。
 		int priority;
 
-		// SystemClock.uptimeMillis()の時間、デフォルト値は無限値です。
+		// SystemClock.uptimeMillis()の時間、デフォルト値(0以下)は無限値です。
 		// 期限切れたものはキャッシュから削除されます
 		long expiredTime;
 
@@ -200,10 +1125,14 @@ public class DkMemoryCache {
 		}
 
 		public Snapshot setExpiredTime(long duration, TimeUnit timeUnit) {
-			this.expiredTime = SystemClock.uptimeMillis() + timeUnit.toNanos(duration);
+			this.expiredTime = SystemClock.uptimeMillis() + timeUnit.toMillis(duration);
 			return this;
 		}
 
+		boolean isExpired(long uptimeMillis) {
+			return expiredTime > 0 && expiredTime <= uptimeMillis;
+		}
+
 		public Snapshot setSize(long size) {
 			this.size = size;
 			return this;
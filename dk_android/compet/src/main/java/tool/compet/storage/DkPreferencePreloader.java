@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2017-2021 DarkCompet. All rights reserved.
+ */
+
+package tool.compet.storage;
+
+import android.content.Context;
+import android.os.SystemClock;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import tool.compet.core.DkLogcats;
+import tool.compet.core4j.BuildConfig;
+import tool.compet.stream.DkObservable;
+import tool.compet.stream.DkSchedulers;
+
+/**
+ * Registry of preference files which should be loaded at background thread when app starts,
+ * so first access at main thread does not block while Android loads and parses the xml file.
+ * <p>
+ * Files are declared via `DkSingleApp.preloadPreferences()` (or `declare()` before `start()`),
+ * then consumers can wait for a warm store via `whenWarm()` or `observeWarm()`.
+ * Load time of each file is recorded for startup tracing.
+ *
+ * Usage:
+ * <pre>
+ *    DkPreferencePreloader.getIns().observeWarm("settings")
+ *       .scheduleInBackgroundAndObserveOnForeground()
+ *       .doOnNext(prefs -> applySettings(prefs))
+ *       .subscribe();
+ * </pre>
+ */
+public class DkPreferencePreloader {
+	private static DkPreferencePreloader INS;
+
+	private Context appContext;
+
+	// Name vs mode of declared files
+	private final LinkedHashMap<String, Integer> declaredFiles = new LinkedHashMap<>();
+
+	// Name vs load task, and name vs load time (millis)
+	private final ConcurrentHashMap<String, FutureTask<DkSharedPreferences>> loadTasks = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<String, Long> loadTimes = new ConcurrentHashMap<>();
+
+	private long startTime;
+
+	private DkPreferencePreloader() {
+	}
+
+	public static DkPreferencePreloader getIns() {
+		if (INS == null) {
+			synchronized (DkPreferencePreloader.class) {
+				if (INS == null) {
+					INS = new DkPreferencePreloader();
+				}
+			}
+		}
+		return INS;
+	}
+
+	/**
+	 * Declare preference files (private mode) to be preloaded. If already started, they are
+	 * loaded immediately.
+	 */
+	public DkPreferencePreloader declare(String... prefNames) {
+		for (String prefName : prefNames) {
+			declare(prefName, Context.MODE_PRIVATE);
+		}
+		return this;
+	}
+
+	public synchronized DkPreferencePreloader declare(String prefName, int prefMode) {
+		if (! declaredFiles.containsKey(prefName)) {
+			declaredFiles.put(prefName, prefMode);
+
+			if (appContext != null) {
+				submit(prefName, prefMode);
+			}
+		}
+		return this;
+	}
+
+	/**
+	 * Start loading declared files at background threads. Called at `DkSingleApp.onCreate()`.
+	 */
+	public synchronized void start(Context context) {
+		if (appContext != null) {
+			return;
+		}
+		appContext = context.getApplicationContext();
+		startTime = SystemClock.uptimeMillis();
+
+		for (Map.Entry<String, Integer> entry : declaredFiles.entrySet()) {
+			submit(entry.getKey(), entry.getValue());
+		}
+	}
+
+	/**
+	 * @return Future which resolves when the file was loaded into memory. If the file was not
+	 * declared, it is declared (private mode) and loaded now.
+	 */
+	public Future<DkSharedPreferences> whenWarm(String prefName) {
+		FutureTask<DkSharedPreferences> task = loadTasks.get(prefName);
+		if (task != null) {
+			return task;
+		}
+
+		synchronized (this) {
+			if (appContext == null) {
+				throw new RuntimeException("Must call `start()` first");
+			}
+			declare(prefName, Context.MODE_PRIVATE);
+			return loadTasks.get(prefName);
+		}
+	}
+
+	/**
+	 * Emits the store when the file was loaded into memory.
+	 */
+	public DkObservable<DkSharedPreferences> observeWarm(String prefName) {
+		return DkObservable.fromCallable(() -> {
+			try {
+				return whenWarm(prefName).get();
+			}
+			catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				throw cause instanceof Exception ? (Exception) cause : e;
+			}
+		});
+	}
+
+	/**
+	 * @return True if the file was loaded into memory.
+	 */
+	public boolean isWarm(String prefName) {
+		FutureTask<DkSharedPreferences> task = loadTasks.get(prefName);
+		return task != null && task.isDone();
+	}
+
+	/**
+	 * @return Duration (millis) to load the file, or -1 if not yet loaded.
+	 */
+	public long getLoadTimeMillis(String prefName) {
+		Long loadTime = loadTimes.get(prefName);
+		return loadTime == null ? -1 : loadTime;
+	}
+
+	/**
+	 * @return Load time (millis) of all loaded files in declared order.
+	 */
+	public synchronized Map<String, Long> getLoadTimes() {
+		LinkedHashMap<String, Long> result = new LinkedHashMap<>();
+		for (String prefName : declaredFiles.keySet()) {
+			Long loadTime = loadTimes.get(prefName);
+			if (loadTime != null) {
+				result.put(prefName, loadTime);
+			}
+		}
+		return result;
+	}
+
+	// Called inside lock
+	private void submit(String prefName, int prefMode) {
+		FutureTask<DkSharedPreferences> task = new FutureTask<>(() -> {
+			long beginTime = SystemClock.uptimeMillis();
+
+			// Android starts loading at `getSharedPreferences()`, and any read waits until loaded
+			DkSharedPreferences prefs = new DkSharedPreferences(appContext, prefName, prefMode);
+			prefs.exists(prefName);
+
+			long finishTime = SystemClock.uptimeMillis();
+			loadTimes.put(prefName, finishTime - beginTime);
+
+			if (BuildConfig.DEBUG) {
+				DkLogcats.info(this, "Preloaded `%s` in %d ms (%d ms since start)", prefName, finishTime - beginTime, finishTime - startTime);
+			}
+
+			return prefs;
+		});
+
+		loadTasks.put(prefName, task);
+		DkSchedulers.ioExecutor().execute(task);
+	}
+}
@@ -7,8 +7,15 @@ package tool.compet.storage;
 import android.annotation.SuppressLint;
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import tool.compet.json4j.DkJsonConverter;
 import tool.compet.core.DkLogcats;
@@ -18,20 +25,66 @@ import tool.compet.core4j.DkMaths;
  * This works as memory-cache (after first time of retriving data from system file).
  * For back compability, this stores all value as `String` since if we store with
  * other types (int, double...) then we will get an exception when load them with other type.
+ * <p>
+ * Each put/store writes file by itself. To save many values (settings form,...) with one write,
+ * use `beginBatch()`, or enable `setAutoCoalesce()` to merge all puts which are issued in same
+ * frame into one write.
+ * <p>
+ * Decoded values (number, boolean, json object) are cached per key, and are invalidated when
+ * the key is written via this object or is changed in the file (`OnSharedPreferenceChangeListener`).
  */
 @SuppressLint("ApplySharedPref")
 public class DkSharedPreferences {
+	// Marks a key which was deleted in pending writes
+	private static final Object REMOVED = new Object();
+
 	protected final SharedPreferences preferences;
 
+	// Key vs value (String, Set, or REMOVED) which are waiting for next frame to be written
+	private final Object pendingLock = new Object();
+	private LinkedHashMap<String, Object> pendingWrites;
+	private int pendingWriteCount;
+	private boolean flushScheduled;
+	private volatile boolean autoCoalesce;
+	private Handler mainHandler;
+
+	// Number of writes to file, and number of writes which were saved by merging
+	private final AtomicLong flushCount = new AtomicLong();
+	private final AtomicLong savedFlushCount = new AtomicLong();
+
+	// Key vs decoded value (Integer, Long,... or json object), so repeated read does not parse again.
+	// Version is increased at each invalidation, to drop value which was decoded from stale string.
+	private final ConcurrentHashMap<String, Object> decodedValues = new ConcurrentHashMap<>();
+	private final AtomicLong decodedVersion = new AtomicLong();
+
+	// Invalidate decoded values when the file was changed by other (raw editor, other instance...).
+	// Must hold strong reference since listeners are weakly held by SharedPreferences.
+	private final SharedPreferences.OnSharedPreferenceChangeListener changeListener = (prefs, key) -> {
+		if (key == null) {
+			invalidateAllDecoded(); // Cleared (Android R+)
+		}
+		else {
+			invalidateDecoded(key);
+		}
+	};
+
 	public DkSharedPreferences(Context context, String prefName) {
-		this.preferences = context.getSharedPreferences(prefName, Context.MODE_PRIVATE);
+		this(context, prefName, Context.MODE_PRIVATE);
 	}
 
 	public DkSharedPreferences(Context context, String prefName, int prefMode) {
 		this.preferences = context.getSharedPreferences(prefName, prefMode);
+		this.preferences.registerOnSharedPreferenceChangeListener(changeListener);
 	}
 
 	public boolean exists(String key) {
+		if (autoCoalesce) {
+			synchronized (pendingLock) {
+				if (pendingWrites != null && pendingWrites.containsKey(key)) {
+					return pendingWrites.get(key) != REMOVED;
+				}
+			}
+		}
 		return preferences.contains(key);
 	}
 
@@ -40,20 +93,40 @@ public class DkSharedPreferences {
 	//
 
 	public void putInt(String key, int value) {
-		preferences.edit().putString(key, String.valueOf(value)).apply();
+		applyValue(key, String.valueOf(value));
 	}
 
 	public int getInt(String key) {
-		return DkMaths.parseInt(getString(key));
+		Object decoded = decodedValues.get(key);
+		if (decoded instanceof Integer) {
+			return (Integer) decoded;
+		}
+		long version = decodedVersion.get();
+		String value = getString(key);
+		int result = DkMaths.parseInt(value);
+		if (value != null) {
+			cacheDecoded(key, result, version);
+		}
+		return result;
 	}
 
 	public int getInt(String key, int defautValue) {
+		Object decoded = decodedValues.get(key);
+		if (decoded instanceof Integer) {
+			return (Integer) decoded;
+		}
+		long version = decodedVersion.get();
 		String value = getString(key);
-		return value == null ? defautValue : DkMaths.parseInt(value);
+		if (value == null) {
+			return defautValue;
+		}
+		int result = DkMaths.parseInt(value);
+		cacheDecoded(key, result, version);
+		return result;
 	}
 
 	public void storeInt(String key, int value) {
-		preferences.edit().putString(key, String.valueOf(value)).commit();
+		commitValue(key, String.valueOf(value));
 	}
 
 	//
@@ -61,20 +134,40 @@ public class DkSharedPreferences {
 	//
 
 	public void putFloat(String key, float value) {
-		preferences.edit().putString(key, String.valueOf(value)).apply();
+		applyValue(key, String.valueOf(value));
 	}
 
 	public float getFloat(String key) {
-		return DkMaths.parseFloat(getString(key));
+		Object decoded = decodedValues.get(key);
+		if (decoded instanceof Float) {
+			return (Float) decoded;
+		}
+		long version = decodedVersion.get();
+		String value = getString(key);
+		float result = DkMaths.parseFloat(value);
+		if (value != null) {
+			cacheDecoded(key, result, version);
+		}
+		return result;
 	}
 
 	public float getFloat(String key, float defaultValue) {
+		Object decoded = decodedValues.get(key);
+		if (decoded instanceof Float) {
+			return (Float) decoded;
+		}
+		long version = decodedVersion.get();
 		String value = getString(key);
-		return value == null ? defaultValue : DkMaths.parseFloat(value);
+		if (value == null) {
+			return defaultValue;
+		}
+		float result = DkMaths.parseFloat(value);
+		cacheDecoded(key, result, version);
+		return result;
 	}
 
 	public void storeFloat(String key, float value) {
-		preferences.edit().putString(key, String.valueOf(value)).commit();
+		commitValue(key, String.valueOf(value));
 	}
 
 	//
@@ -82,20 +175,40 @@ public class DkSharedPreferences {
 	//
 
 	public void putDouble(String key, double value) {
-		preferences.edit().putString(key, String.valueOf(value)).apply();
+		applyValue(key, String.valueOf(value));
 	}
 
 	public double getDouble(String key) {
-		return DkMaths.parseDouble(getString(key));
+		Object decoded = decodedValues.get(key);
+		if (decoded instanceof Double) {
+			return (Double) decoded;
+		}
+		long version = decodedVersion.get();
+		String value = getString(key);
+		double result = DkMaths.parseDouble(value);
+		if (value != null) {
+			cacheDecoded(key, result, version);
+		}
+		return result;
 	}
 
 	public double getDouble(String key, double defaultValue) {
+		Object decoded = decodedValues.get(key);
+		if (decoded instanceof Double) {
+			return (Double) decoded;
+		}
+		long version = decodedVersion.get();
 		String value = getString(key);
-		return value == null ? defaultValue : DkMaths.parseDouble(value);
+		if (value == null) {
+			return defaultValue;
+		}
+		double result = DkMaths.parseDouble(value);
+		cacheDecoded(key, result, version);
+		return result;
 	}
 
 	public void storeDouble(String key, double value) {
-		preferences.edit().putString(key, String.valueOf(value)).commit();
+		commitValue(key, String.valueOf(value));
 	}
 
 	//
@@ -103,20 +216,40 @@ public class DkSharedPreferences {
 	//
 
 	public void putBoolean(String key, boolean value) {
-		preferences.edit().putString(key, String.valueOf(value)).apply();
+		applyValue(key, String.valueOf(value));
 	}
 
 	public boolean getBoolean(String key) {
-		return DkMaths.parseBoolean(getString(key));
+		Object decoded = decodedValues.get(key);
+		if (decoded instanceof Boolean) {
+			return (Boolean) decoded;
+		}
+		long version = decodedVersion.get();
+		String value = getString(key);
+		boolean result = DkMaths.parseBoolean(value);
+		if (value != null) {
+			cacheDecoded(key, result, version);
+		}
+		return result;
 	}
 
 	public boolean getBoolean(String key, boolean defaultValue) {
+		Object decoded = decodedValues.get(key);
+		if (decoded instanceof Boolean) {
+			return (Boolean) decoded;
+		}
+		long version = decodedVersion.get();
 		String value = getString(key);
-		return value == null ? defaultValue : DkMaths.parseBoolean(value);
+		if (value == null) {
+			return defaultValue;
+		}
+		boolean result = DkMaths.parseBoolean(value);
+		cacheDecoded(key, result, version);
+		return result;
 	}
 
 	public void storeBoolean(String key, boolean value) {
-		preferences.edit().putString(key, String.valueOf(value)).commit();
+		commitValue(key, String.valueOf(value));
 	}
 
 	//
@@ -124,20 +257,40 @@ public class DkSharedPreferences {
 	//
 
 	public void putLong(String key, long value) {
-		preferences.edit().putString(key, String.valueOf(value)).apply();
+		applyValue(key, String.valueOf(value));
 	}
 
 	public long getLong(String key) {
-		return DkMaths.parseLong(getString(key));
+		Object decoded = decodedValues.get(key);
+		if (decoded instanceof Long) {
+			return (Long) decoded;
+		}
+		long version = decodedVersion.get();
+		String value = getString(key);
+		long result = DkMaths.parseLong(value);
+		if (value != null) {
+			cacheDecoded(key, result, version);
+		}
+		return result;
 	}
 
 	public long getLong(String key, long defaultValue) {
+		Object decoded = decodedValues.get(key);
+		if (decoded instanceof Long) {
+			return (Long) decoded;
+		}
+		long version = decodedVersion.get();
 		String value = getString(key);
-		return value == null ? defaultValue : DkMaths.parseLong(value);
+		if (value == null) {
+			return defaultValue;
+		}
+		long result = DkMaths.parseLong(value);
+		cacheDecoded(key, result, version);
+		return result;
 	}
 
 	public void storeLong(String key, long value) {
-		preferences.edit().putString(key, String.valueOf(value)).commit();
+		commitValue(key, String.valueOf(value));
 	}
 
 	//
@@ -145,10 +298,16 @@ public class DkSharedPreferences {
 	//
 
 	public void putString(String key, String value) {
-		preferences.edit().putString(key, value).apply();
+		applyValue(key, value);
 	}
 
 	public String getString(String key) {
+		if (autoCoalesce) {
+			Object value = pendingValue(key);
+			if (value != null) {
+				return value instanceof String ? (String) value : null;
+			}
+		}
 		try {
 			// We perform try/catch to archive back-compability (load other types will cause exception)
 			return preferences.getString(key, null);
@@ -160,6 +319,12 @@ public class DkSharedPreferences {
 	}
 
 	public String getString(String key, String defaultValue) {
+		if (autoCoalesce) {
+			Object value = pendingValue(key);
+			if (value != null) {
+				return value instanceof String ? (String) value : defaultValue;
+			}
+		}
 		try {
 			// We perform try/catch to archive back-compability (load other types will cause exception)
 			return preferences.getString(key, defaultValue);
@@ -171,7 +336,7 @@ public class DkSharedPreferences {
 	}
 
 	public void storeString(String key, String value) {
-		preferences.edit().putString(key, value).commit();
+		commitValue(key, value);
 	}
 
 	//
@@ -179,10 +344,17 @@ public class DkSharedPreferences {
 	//
 
 	public void putStringSet(String key, Set<String> values) {
-		preferences.edit().putStringSet(key, values).apply();
+		applyValue(key, values);
 	}
 
+	@SuppressWarnings("unchecked")
 	public Set<String> getStringSet(String key) {
+		if (autoCoalesce) {
+			Object value = pendingValue(key);
+			if (value != null) {
+				return value instanceof Set ? (Set<String>) value : null;
+			}
+		}
 		try {
 			// We perform try/catch to archive back-compability (load other types will cause exception)
 			return preferences.getStringSet(key, null);
@@ -193,7 +365,14 @@ public class DkSharedPreferences {
 		return null;
 	}
 
+	@SuppressWarnings("unchecked")
 	public Set<String> getStringSet(String key, Set<String> defaultValue) {
+		if (autoCoalesce) {
+			Object value = pendingValue(key);
+			if (value != null) {
+				return value instanceof Set ? (Set<String>) value : defaultValue;
+			}
+		}
 		try {
 			// We perform try/catch to archive back-compability (load other types will cause exception)
 			return preferences.getStringSet(key, defaultValue);
@@ -205,7 +384,7 @@ public class DkSharedPreferences {
 	}
 
 	public void storeStringSet(String key, Set<String> values) {
-		preferences.edit().putStringSet(key, values).commit();
+		commitValue(key, values);
 	}
 
 	//
@@ -216,8 +395,20 @@ public class DkSharedPreferences {
 		putString(key, DkJsonConverter.getIns().obj2json(value));
 	}
 
+	/**
+	 * Decoded object is cached, so caller should not modify returned object.
+	 */
 	public <T> T getJsonObject(String key, Class<T> resClass) {
-		return DkJsonConverter.getIns().json2obj(getString(key), resClass);
+		Object decoded = decodedValues.get(key);
+		if (resClass.isInstance(decoded)) {
+			return resClass.cast(decoded);
+		}
+		long version = decodedVersion.get();
+		T result = DkJsonConverter.getIns().json2obj(getString(key), resClass);
+		if (result != null) {
+			cacheDecoded(key, result, version);
+		}
+		return result;
 	}
 
 	public void storeJsonObject(String key, Object value) {
@@ -233,18 +424,300 @@ public class DkSharedPreferences {
 	}
 
 	public void deleteAsync(String key) {
-		preferences.edit().remove(key).apply();
+		applyValue(key, REMOVED);
 	}
 
 	public void delete(String key) {
-		preferences.edit().remove(key).commit();
+		commitValue(key, REMOVED);
 	}
 
 	public void clearAsync() {
+		discardPendingWrites();
+		invalidateAllDecoded();
 		preferences.edit().clear().apply();
+		flushCount.incrementAndGet();
 	}
 
 	public void clear() {
+		discardPendingWrites();
+		invalidateAllDecoded();
 		preferences.edit().clear().commit();
+		flushCount.incrementAndGet();
+	}
+
+	//
+	// Batch
+	//
+
+	/**
+	 * Start a batch, values which are put into the batch are written with one `apply()` or `commit()`.
+	 *
+	 * Usage:
+	 * <pre>
+	 *    prefs.beginBatch()
+	 *       .putInt("font_size", 14)
+	 *       .putBoolean("dark_mode", true)
+	 *       .apply();
+	 * </pre>
+	 */
+	public Batch beginBatch() {
+		return new Batch();
+	}
+
+	/**
+	 * When enabled, `putX()` and `deleteAsync()` are not written immediately, they are merged and
+	 * written with one `apply()` at next frame. Values are visible to getters of this object
+	 * right after put. `storeX()` writes pending values together with its value synchronously.
+	 * <p>
+	 * Disable this will write pending values immediately.
+	 */
+	public DkSharedPreferences setAutoCoalesce(boolean autoCoalesce) {
+		this.autoCoalesce = autoCoalesce;
+		if (! autoCoalesce) {
+			flush();
+		}
+		return this;
+	}
+
+	/**
+	 * Write pending values (of auto-coalesce mode) asynchronously now, for eg,. at `onPause()`.
+	 */
+	public void flush() {
+		flushPendingWrites(null, 0, false);
+	}
+
+	/**
+	 * @return Number of times this object wrote the file (apply or commit).
+	 */
+	public long getFlushCount() {
+		return flushCount.get();
+	}
+
+	/**
+	 * @return Number of writes which were saved by batch and auto-coalesce (merged into other write).
+	 */
+	public long getSavedFlushCount() {
+		return savedFlushCount.get();
+	}
+
+	// Write a value (String, Set or REMOVED) asynchronously
+	private void applyValue(String key, Object value) {
+		if (value == null) {
+			value = REMOVED;
+		}
+		// Invalidate after new value is visible, otherwise a concurrent reader could cache
+		// old value again between invalidation and write
+		if (autoCoalesce) {
+			synchronized (pendingLock) {
+				if (pendingWrites == null) {
+					pendingWrites = new LinkedHashMap<>();
+				}
+				pendingWrites.put(key, value);
+				++pendingWriteCount;
+
+				if (! flushScheduled) {
+					flushScheduled = true;
+					scheduleFlushAtNextFrame();
+				}
+			}
+			invalidateDecoded(key);
+			return;
+		}
+
+		SharedPreferences.Editor editor = preferences.edit();
+		putToEditor(editor, key, value);
+		editor.apply();
+		invalidateDecoded(key);
+		flushCount.incrementAndGet();
+	}
+
+	// Write a value (String, Set or REMOVED) synchronously, also write pending values together
+	private void commitValue(String key, Object value) {
+		if (value == null) {
+			value = REMOVED;
+		}
+		LinkedHashMap<String, Object> writes = new LinkedHashMap<>();
+		writes.put(key, value);
+		flushPendingWrites(writes, 1, true);
+	}
+
+	// Write pending values and given values (which come after pending values) with one write
+	private boolean flushPendingWrites(Map<String, Object> moreWrites, int moreWriteCount, boolean commit) {
+		SharedPreferences.Editor editor;
+		LinkedHashMap<String, Object> writes;
+		int writeCount;
+
+		synchronized (pendingLock) {
+			writes = pendingWrites;
+			writeCount = pendingWriteCount + moreWriteCount;
+
+			pendingWrites = null;
+			pendingWriteCount = 0;
+			flushScheduled = false;
+
+			if (writeCount == 0) {
+				return true;
+			}
+
+			editor = preferences.edit();
+			if (writes != null) {
+				for (Map.Entry<String, Object> entry : writes.entrySet()) {
+					putToEditor(editor, entry.getKey(), entry.getValue());
+				}
+			}
+			if (moreWrites != null) {
+				for (Map.Entry<String, Object> entry : moreWrites.entrySet()) {
+					putToEditor(editor, entry.getKey(), entry.getValue());
+				}
+			}
+
+			// Async write must be enqueued inside lock to keep order with next flush
+			if (! commit) {
+				editor.apply();
+			}
+		}
+
+		boolean succeeded = ! commit || editor.commit();
+
+		// Written values are visible now (apply and commit update memory first)
+		invalidateDecoded(writes);
+		invalidateDecoded(moreWrites);
+
+		flushCount.incrementAndGet();
+		savedFlushCount.addAndGet(writeCount - 1);
+
+		return succeeded;
+	}
+
+	// Cache decoded value if no invalidation happened since given version was taken
+	private void cacheDecoded(String key, Object value, long version) {
+		decodedValues.put(key, value);
+		if (version != decodedVersion.get()) {
+			decodedValues.remove(key);
+		}
+	}
+
+	private void invalidateDecoded(String key) {
+		decodedVersion.incrementAndGet();
+		decodedValues.remove(key);
+	}
+
+	private void invalidateDecoded(Map<String, Object> writes) {
+		if (writes != null) {
+			for (String key : writes.keySet()) {
+				invalidateDecoded(key);
+			}
+		}
+	}
+
+	private void invalidateAllDecoded() {
+		decodedVersion.incrementAndGet();
+		decodedValues.clear();
+	}
+
+	private void discardPendingWrites() {
+		synchronized (pendingLock) {
+			pendingWrites = null;
+			pendingWriteCount = 0;
+		}
+	}
+
+	private Object pendingValue(String key) {
+		synchronized (pendingLock) {
+			return pendingWrites == null ? null : pendingWrites.get(key);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static void putToEditor(SharedPreferences.Editor editor, String key, Object value) {
+		if (value == REMOVED) {
+			editor.remove(key);
+		}
+		else if (value instanceof Set) {
+			editor.putStringSet(key, (Set<String>) value);
+		}
+		else {
+			editor.putString(key, (String) value);
+		}
+	}
+
+	// Called inside pending lock
+	private void scheduleFlushAtNextFrame() {
+		if (Looper.myLooper() == Looper.getMainLooper()) {
+			Choreographer.getInstance().postFrameCallback(frameTimeNanos -> flush());
+		}
+		else {
+			if (mainHandler == null) {
+				mainHandler = new Handler(Looper.getMainLooper());
+			}
+			mainHandler.post(() -> Choreographer.getInstance().postFrameCallback(frameTimeNanos -> flush()));
+		}
+	}
+
+	/**
+	 * Collects values and writes them with one `apply()` or `commit()`.
+	 * Values are not visible to getters until written.
+	 */
+	public class Batch {
+		private final LinkedHashMap<String, Object> writes = new LinkedHashMap<>();
+		private int writeCount;
+
+		public Batch putInt(String key, int value) {
+			return put(key, String.valueOf(value));
+		}
+
+		public Batch putLong(String key, long value) {
+			return put(key, String.valueOf(value));
+		}
+
+		public Batch putFloat(String key, float value) {
+			return put(key, String.valueOf(value));
+		}
+
+		public Batch putDouble(String key, double value) {
+			return put(key, String.valueOf(value));
+		}
+
+		public Batch putBoolean(String key, boolean value) {
+			return put(key, String.valueOf(value));
+		}
+
+		public Batch putString(String key, String value) {
+			return put(key, value == null ? REMOVED : value);
+		}
+
+		public Batch putStringSet(String key, Set<String> values) {
+			return put(key, values == null ? REMOVED : values);
+		}
+
+		public Batch putJsonObject(String key, Object value) {
+			return put(key, DkJsonConverter.getIns().obj2json(value));
+		}
+
+		public Batch delete(String key) {
+			return put(key, REMOVED);
+		}
+
+		/**
+		 * Write all values (and pending values of auto-coalesce mode) asynchronously.
+		 */
+		public void apply() {
+			flushPendingWrites(writes, writeCount, false);
+		}
+
+		/**
+		 * Write all values (and pending values of auto-coalesce mode) synchronously.
+		 *
+		 * @return True if succeed.
+		 */
+		public boolean commit() {
+			return flushPendingWrites(writes, writeCount, true);
+		}
+
+		private Batch put(String key, Object value) {
+			writes.put(key, value);
+			++writeCount;
+			return this;
+		}
 	}
 }
@@ -0,0 +1,621 @@
+/*
+ * Copyright (c) 2017-2021 DarkCompet. All rights reserved.
+ */
+
+package tool.compet.storage;
+
+import android.os.SystemClock;
+
+import androidx.annotation.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Slab cache for byte payloads (serialized json, protobuf,...), is companion of `DkMemoryCache`.
+ * Payloads are copied into direct `ByteBuffer` slabs, only small handles are kept as objects.
+ * Note that on ART, direct buffers are allocated at non-movable space of Java heap (not native
+ * memory), so they still count against `Runtime.maxMemory()`. The gain is that a few large slabs
+ * are never moved or scanned by GC, instead of many byte arrays which come and go.
+ * <p>
+ * Each slab (1MB) is split into same-size chunks of a size class (64 bytes, then grows 1.25 times).
+ * A payload is stored in smallest chunk which fits it, payload which is larger than a slab owns
+ * a dedicated buffer. When a slab becomes empty, it is returned to free slab pool and can be
+ * re-used by any size class. So budget should be much larger than a slab (tens of MB),
+ * otherwise many size classes can't own any slab and entries are evicted too often.
+ * <p>
+ * Key, priority and expired time have same semantics with `DkMemoryCache.Snapshot`: when
+ * memory-limit-up, entries are evicted from lowest priority, and from least-recently-used inside
+ * same priority. Expired entries are never returned.
+ * <p>
+ * Note that, `get()` returns read-only view of the slab without copying, the view is valid only
+ * until the entry is removed, replaced or evicted. Use `getBytes()` to take a copy.
+ */
+public class DkSlabCache {
+	private static final int SLAB_SIZE = 1 << 20;
+	private static final int MIN_CHUNK_SIZE = 64;
+	private static final float GROWTH_FACTOR = 1.25f;
+
+	// Chunk size of each class in ascending order, last one is SLAB_SIZE
+	private static final int[] CHUNK_SIZES;
+
+	static {
+		List<Integer> chunkSizes = new ArrayList<>();
+		int chunkSize = MIN_CHUNK_SIZE;
+		while (chunkSize < SLAB_SIZE / 2) {
+			chunkSizes.add(chunkSize);
+			// Align to 8 bytes
+			chunkSize = ((int) (chunkSize * GROWTH_FACTOR) + 7) & ~7;
+		}
+		chunkSizes.add(SLAB_SIZE);
+
+		CHUNK_SIZES = new int[chunkSizes.size()];
+		for (int index = CHUNK_SIZES.length - 1; index >= 0; --index) {
+			CHUNK_SIZES[index] = chunkSizes.get(index);
+		}
+	}
+
+	private static DkSlabCache INS;
+
+	private long maxSize;
+
+	// Bytes of all slabs (include free slabs) and dedicated buffers
+	private long allocatedSize;
+
+	// Bytes of payloads, and bytes of chunks which hold them
+	private long size;
+	private long chunkedSize;
+
+	private final HashMap<String, Entry> entries = new HashMap<>();
+
+	// Slabs and entries of each class, and entries which own dedicated buffer
+	private final SizeClass[] sizeClasses;
+	private final SizeClass largeClass = new SizeClass(SLAB_SIZE);
+
+	// Increased at each access, to compare recency of entries in different classes
+	private long accessTick;
+
+	// Empty slabs which can be assigned to any class
+	private final ArrayDeque<Slab> freeSlabs = new ArrayDeque<>();
+
+	// Stats
+	private long hitCount;
+	private long missCount;
+	private long evictionCount;
+
+	private DkSlabCache() {
+		// Direct buffers are counted in Java heap on ART, so take a part of heap limit
+		maxSize = Runtime.getRuntime().maxMemory() >> 3;
+
+		sizeClasses = new SizeClass[CHUNK_SIZES.length];
+		for (int index = sizeClasses.length - 1; index >= 0; --index) {
+			sizeClasses[index] = new SizeClass(CHUNK_SIZES[index]);
+		}
+	}
+
+	public static DkSlabCache getIns() {
+		if (INS == null) {
+			synchronized (DkSlabCache.class) {
+				if (INS == null) {
+					INS = new DkSlabCache();
+				}
+			}
+		}
+		return INS;
+	}
+
+	/**
+	 * Set maximum number of bytes (of direct buffers) which this cache can allocate.
+	 * Since they are in Java heap on ART, this shares same heap limit with other caches.
+	 */
+	public synchronized DkSlabCache setMaxSize(long maxSize) {
+		this.maxSize = maxSize < 0 ? 0 : maxSize;
+		trimAllocation();
+		return this;
+	}
+
+	public synchronized long getMaxSize() {
+		return maxSize;
+	}
+
+	public boolean put(String key, byte[] value) {
+		return put(key, new DkMemoryCache.Snapshot(value, value.length));
+	}
+
+	/**
+	 * Copy target of given snapshot into slab. Target must be `byte[]` or `ByteBuffer`
+	 * (remaining bytes are copied, its position is not changed).
+	 *
+	 * @return False if the payload could not be stored (larger than budget,...).
+	 */
+	public synchronized boolean put(String key, DkMemoryCache.Snapshot snapshot) {
+		if (key == null || snapshot == null) {
+			throw new RuntimeException("Cannot put null-key or null-snapshot");
+		}
+
+		Object target = snapshot.target;
+		ByteBuffer source;
+
+		if (target instanceof byte[]) {
+			source = ByteBuffer.wrap((byte[]) target);
+		}
+		else if (target instanceof ByteBuffer) {
+			source = ((ByteBuffer) target).duplicate();
+		}
+		else {
+			throw new RuntimeException("Only support `byte[]` or `ByteBuffer` target");
+		}
+
+		// Replace old entry
+		Entry oldEntry = entries.get(key);
+		if (oldEntry != null) {
+			release(oldEntry);
+		}
+
+		int length = source.remaining();
+		if (length > maxSize) {
+			return false;
+		}
+
+		Entry entry = allocate(key, length);
+		if (entry == null) {
+			return false;
+		}
+
+		entry.priority = snapshot.priority;
+		entry.expiredTime = snapshot.expiredTime;
+
+		ByteBuffer destination = entry.slab.buffer.duplicate();
+		destination.position(entry.offset);
+		destination.put(source);
+
+		entry.accessTick = ++accessTick;
+		entries.put(key, entry);
+		entry.sizeClass.obtainBucket(entry.priority).put(key, entry);
+		size += length;
+		chunkedSize += entry.slab.chunkSize;
+
+		return true;
+	}
+
+	/**
+	 * Get read-only view of cached payload, the view shares memory with the slab so it becomes
+	 * invalid after the entry is removed, replaced or evicted.
+	 *
+	 * @return Null if not found or expired.
+	 */
+	@Nullable
+	public synchronized ByteBuffer get(String key) {
+		Entry entry = obtainAlive(key);
+		if (entry == null) {
+			return null;
+		}
+
+		ByteBuffer view = entry.slab.buffer.duplicate();
+		view.limit(entry.offset + entry.length);
+		view.position(entry.offset);
+
+		return view.slice().asReadOnlyBuffer();
+	}
+
+	/**
+	 * Get copy of cached payload.
+	 *
+	 * @return Null if not found or expired.
+	 */
+	@Nullable
+	public synchronized byte[] getBytes(String key) {
+		Entry entry = obtainAlive(key);
+		if (entry == null) {
+			return null;
+		}
+
+		byte[] bytes = new byte[entry.length];
+		ByteBuffer view = entry.slab.buffer.duplicate();
+		view.position(entry.offset);
+		view.get(bytes);
+
+		return bytes;
+	}
+
+	public synchronized void remove(String key) {
+		Entry entry = entries.get(key);
+		if (entry != null) {
+			release(entry);
+		}
+	}
+
+	/**
+	 * Evict entries (from lowest priority, least-recently-used) until size of payloads is not
+	 * over given size. Empty slabs are kept for re-use, call `setMaxSize()` to release them.
+	 */
+	public synchronized void trimToSize(long newSize) {
+		while (size > newSize && evictOne(null)) {
+		}
+	}
+
+	/**
+	 * 期限切れたオブジェクトを全て削除します。
+	 */
+	public synchronized void removeExpiredObjects() {
+		long now = SystemClock.uptimeMillis();
+
+		for (Iterator<Entry> it = entries.values().iterator(); it.hasNext(); ) {
+			Entry entry = it.next();
+			if (entry.isExpired(now)) {
+				it.remove();
+				release(entry);
+			}
+		}
+	}
+
+	/**
+	 * Remove all entries and release all slabs.
+	 */
+	public synchronized void clear() {
+		while (! entries.isEmpty()) {
+			release(entries.values().iterator().next());
+		}
+		allocatedSize -= (long) freeSlabs.size() * SLAB_SIZE;
+		freeSlabs.clear();
+	}
+
+	/**
+	 * @return Number of entries in this cache.
+	 */
+	public synchronized int count() {
+		return entries.size();
+	}
+
+	/**
+	 * @return Total bytes of payloads.
+	 */
+	public synchronized long size() {
+		return size;
+	}
+
+	/**
+	 * @return Total bytes of direct buffers which were allocated by this cache.
+	 */
+	public synchronized long getAllocatedSize() {
+		return allocatedSize;
+	}
+
+	/**
+	 * @return Number of slabs which are being used by size classes.
+	 */
+	public synchronized int getSlabCount() {
+		int slabCount = 0;
+		for (SizeClass sizeClass : sizeClasses) {
+			slabCount += sizeClass.slabCount;
+		}
+		return slabCount;
+	}
+
+	/**
+	 * @return Number of empty slabs which are waiting to be re-used.
+	 */
+	public synchronized int getFreeSlabCount() {
+		return freeSlabs.size();
+	}
+
+	/**
+	 * @return Rate (0~1) of wasted bytes inside used chunks (chunk is larger than its payload).
+	 */
+	public synchronized float getInternalFragmentation() {
+		return chunkedSize == 0 ? 0f : 1f - (float) size / chunkedSize;
+	}
+
+	/**
+	 * @return Rate (0~1) of allocated bytes which are not used by any payload
+	 * (free chunks, free slabs and chunk waste).
+	 */
+	public synchronized float getExternalFragmentation() {
+		return allocatedSize == 0 ? 0f : 1f - (float) chunkedSize / allocatedSize;
+	}
+
+	public synchronized long getHitCount() {
+		return hitCount;
+	}
+
+	public synchronized long getMissCount() {
+		return missCount;
+	}
+
+	public synchronized long getEvictionCount() {
+		return evictionCount;
+	}
+
+	// Find entry and mark it as most-recently-used, expired entry is removed
+	private Entry obtainAlive(String key) {
+		Entry entry = entries.get(key);
+
+		if (entry == null) {
+			++missCount;
+			return null;
+		}
+		if (entry.isExpired(SystemClock.uptimeMillis())) {
+			release(entry);
+			++missCount;
+			return null;
+		}
+
+		// Access-order map moves the entry to tail
+		entry.sizeClass.buckets.get(entry.priority).get(key);
+		entry.accessTick = ++accessTick;
+		++hitCount;
+
+		return entry;
+	}
+
+	// Take a chunk for the payload, evict other entries if memory-limit-up
+	private Entry allocate(String key, int length) {
+		// Dedicated buffer for large payload
+		if (length > SLAB_SIZE) {
+			while (allocatedSize + length > maxSize) {
+				if (! freeSlabs.isEmpty()) {
+					freeSlabs.pop();
+					allocatedSize -= SLAB_SIZE;
+				}
+				else if (! evictOne(null)) {
+					return null;
+				}
+			}
+			Slab slab = new Slab(ByteBuffer.allocateDirect(length), length, null);
+			allocatedSize += length;
+
+			return new Entry(key, largeClass, slab, slab.takeChunk(), length);
+		}
+
+		SizeClass sizeClass = sizeClasses[classIndexOf(length)];
+
+		while (true) {
+			Slab slab = sizeClass.availableSlabs.peek();
+
+			if (slab == null) {
+				if (! freeSlabs.isEmpty()) {
+					slab = freeSlabs.pop();
+				}
+				else if (allocatedSize + SLAB_SIZE <= maxSize) {
+					slab = new Slab(ByteBuffer.allocateDirect(SLAB_SIZE), sizeClass.chunkSize, null);
+					allocatedSize += SLAB_SIZE;
+				}
+
+				if (slab != null) {
+					slab.format(sizeClass);
+					sizeClass.availableSlabs.push(slab);
+					++sizeClass.slabCount;
+				}
+				else if (! evictOne(sizeClass)) {
+					return null;
+				}
+				continue;
+			}
+
+			int chunkIndex = slab.takeChunk();
+			if (slab.freeCount == 0) {
+				sizeClass.availableSlabs.pop();
+			}
+
+			return new Entry(key, sizeClass, slab, chunkIndex, length);
+		}
+	}
+
+	// Remove lowest priority and least-recently-used entry. If a class is given, prefer victim of
+	// the class when it has same priority with global victim, so a chunk of the class is freed
+	// without evicting entries of other classes which may not give back any slab.
+	private boolean evictOne(@Nullable SizeClass sizeClass) {
+		Entry victim = null;
+
+		for (SizeClass candidateClass : sizeClasses) {
+			victim = olderVictim(victim, candidateClass.victim());
+		}
+		victim = olderVictim(victim, largeClass.victim());
+
+		if (victim == null) {
+			return false;
+		}
+
+		if (sizeClass != null) {
+			Entry classVictim = sizeClass.victim();
+			if (classVictim != null && classVictim.priority <= victim.priority) {
+				victim = classVictim;
+			}
+		}
+
+		release(victim);
+		++evictionCount;
+
+		return true;
+	}
+
+	private static Entry olderVictim(@Nullable Entry victim, @Nullable Entry other) {
+		if (victim == null) {
+			return other;
+		}
+		if (other == null) {
+			return victim;
+		}
+		if (other.priority != victim.priority) {
+			return other.priority < victim.priority ? other : victim;
+		}
+		return other.accessTick < victim.accessTick ? other : victim;
+	}
+
+	// Remove entry and give its chunk back to the slab
+	private void release(Entry entry) {
+		entries.remove(entry.key, entry);
+
+		entry.sizeClass.removeFromBucket(entry);
+
+		size -= entry.length;
+		chunkedSize -= entry.slab.chunkSize;
+
+		Slab slab = entry.slab;
+		slab.giveChunk(entry.chunkIndex);
+
+		// Dedicated buffer is dropped, GC will free its memory
+		if (slab.sizeClass == null) {
+			allocatedSize -= slab.buffer.capacity();
+			return;
+		}
+
+		SizeClass sizeClass = slab.sizeClass;
+		if (slab.freeCount == slab.chunkCount) {
+			sizeClass.availableSlabs.remove(slab);
+			--sizeClass.slabCount;
+			slab.sizeClass = null;
+			freeSlabs.push(slab);
+		}
+		else if (slab.freeCount == 1) {
+			sizeClass.availableSlabs.push(slab);
+		}
+	}
+
+	// Drop free slabs and evict entries until allocated bytes is not over budget
+	private void trimAllocation() {
+		while (allocatedSize > maxSize) {
+			if (! freeSlabs.isEmpty()) {
+				freeSlabs.pop();
+				allocatedSize -= SLAB_SIZE;
+			}
+			else if (! evictOne(null)) {
+				break;
+			}
+		}
+	}
+
+	// Index of smallest class which can hold given length
+	private static int classIndexOf(int length) {
+		int low = 0;
+		int high = CHUNK_SIZES.length - 1;
+
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (CHUNK_SIZES[mid] < length) {
+				low = mid + 1;
+			}
+			else {
+				high = mid;
+			}
+		}
+
+		return low;
+	}
+
+	// Slabs and entries of a chunk size
+	private static class SizeClass {
+		final int chunkSize;
+		final ArrayDeque<Slab> availableSlabs = new ArrayDeque<>();
+		int slabCount;
+
+		// Priority vs entries in access order (head: least-recently-used)
+		final TreeMap<Integer, LinkedHashMap<String, Entry>> buckets = new TreeMap<>();
+
+		SizeClass(int chunkSize) {
+			this.chunkSize = chunkSize;
+		}
+
+		LinkedHashMap<String, Entry> obtainBucket(int priority) {
+			LinkedHashMap<String, Entry> bucket = buckets.get(priority);
+			if (bucket == null) {
+				bucket = new LinkedHashMap<>(16, 0.75f, true);
+				buckets.put(priority, bucket);
+			}
+			return bucket;
+		}
+
+		void removeFromBucket(Entry entry) {
+			LinkedHashMap<String, Entry> bucket = buckets.get(entry.priority);
+			if (bucket != null && bucket.remove(entry.key, entry) && bucket.isEmpty()) {
+				buckets.remove(entry.priority);
+			}
+		}
+
+		// Lowest priority and least-recently-used entry of this class
+		@Nullable
+		Entry victim() {
+			Map.Entry<Integer, LinkedHashMap<String, Entry>> lowest = buckets.firstEntry();
+			return lowest == null ? null : lowest.getValue().values().iterator().next();
+		}
+	}
+
+	// Direct buffer which is split into same-size chunks
+	private static class Slab {
+		final ByteBuffer buffer;
+		SizeClass sizeClass;
+		int chunkSize;
+		int chunkCount;
+
+		// Stack of free chunk indices
+		int[] freeChunks;
+		int freeCount;
+
+		Slab(ByteBuffer buffer, int chunkSize, SizeClass sizeClass) {
+			this.buffer = buffer;
+			this.sizeClass = sizeClass;
+			split(chunkSize);
+		}
+
+		// Assign this empty slab to given class
+		void format(SizeClass sizeClass) {
+			this.sizeClass = sizeClass;
+			if (chunkSize != sizeClass.chunkSize) {
+				split(sizeClass.chunkSize);
+			}
+		}
+
+		int takeChunk() {
+			return freeChunks[--freeCount];
+		}
+
+		void giveChunk(int chunkIndex) {
+			freeChunks[freeCount++] = chunkIndex;
+		}
+
+		private void split(int chunkSize) {
+			this.chunkSize = chunkSize;
+			this.chunkCount = buffer.capacity() / chunkSize;
+			this.freeChunks = new int[chunkCount];
+			this.freeCount = chunkCount;
+
+			// Take from lower offset first
+			for (int index = 0; index < chunkCount; ++index) {
+				freeChunks[index] = chunkCount - 1 - index;
+			}
+		}
+	}
+
+	// Handle of a payload inside a slab, this is only object which is created per entry
+	private static class Entry {
+		final String key;
+		final SizeClass sizeClass;
+		final Slab slab;
+		final int chunkIndex;
+		final int offset;
+		final int length;
+		int priority;
+		long expiredTime;
+		long accessTick;
+
+		Entry(String key, SizeClass sizeClass, Slab slab, int chunkIndex, int length) {
+			this.key = key;
+			this.sizeClass = sizeClass;
+			this.slab = slab;
+			this.chunkIndex = chunkIndex;
+			this.offset = chunkIndex * slab.chunkSize;
+			this.length = length;
+		}
+
+		boolean isExpired(long uptimeMillis) {
+			return expiredTime > 0 && expiredTime <= uptimeMillis;
+		}
+	}
+}
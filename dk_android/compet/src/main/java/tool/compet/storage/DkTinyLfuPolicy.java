@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2017-2021 DarkCompet. All rights reserved.
+ */
+
+package tool.compet.storage;
+
+/**
+ * Window-TinyLFU admission policy, a candidate is admitted only if it was accessed more frequently
+ * than the victim. So one-off scans (scroll a long feed once,...) can't push out hot entries.
+ * Frequency is estimated by a compact count-min sketch which is aged periodically.
+ * Ref: https://arxiv.org/abs/1512.00727
+ */
+public class DkTinyLfuPolicy implements DkCacheAdmissionPolicy {
+	// Percentage of budget for window space as the paper recommends
+	private static final float DEFAULT_WINDOW_RATIO = 0.01f;
+
+	private final MyCountMinSketch sketch;
+	private final float windowRatio;
+
+	/**
+	 * @param expectedEntryCount Estimated maximum number of entries in the cache.
+	 */
+	public DkTinyLfuPolicy(int expectedEntryCount) {
+		this(expectedEntryCount, DEFAULT_WINDOW_RATIO);
+	}
+
+	/**
+	 * @param expectedEntryCount Estimated maximum number of entries in the cache.
+	 * @param windowRatio Ratio (0~1) of budget for window space, larger is better for recency-biased workload.
+	 */
+	public DkTinyLfuPolicy(int expectedEntryCount, float windowRatio) {
+		this.sketch = new MyCountMinSketch(expectedEntryCount);
+		this.windowRatio = windowRatio < 0 ? 0 : windowRatio > 1 ? 1 : windowRatio;
+	}
+
+	@Override
+	public void record(String key) {
+		sketch.increment(key.hashCode());
+	}
+
+	@Override
+	public boolean admit(String candidateKey, String victimKey) {
+		return sketch.frequency(candidateKey.hashCode()) > sketch.frequency(victimKey.hashCode());
+	}
+
+	@Override
+	public float windowRatio() {
+		return windowRatio;
+	}
+
+	/**
+	 * @return Estimated access frequency (0~15) of given key.
+	 */
+	public int frequency(String key) {
+		return sketch.frequency(key.hashCode());
+	}
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright (c) 2017-2021 DarkCompet. All rights reserved.
+ */
+
+package tool.compet.storage;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+
+import tool.compet.core.DkLogFormats;
+import tool.compet.core4j.DkLogger;
+
+/**
+ * Encodes log records into compact binary format, used by writer thread of `DkAsyncLogWriter`.
+ * Format strings, where-names and level names are interned into a table (each string is written
+ * once per session, then referred by id), args are written as varint, and time is written as
+ * delta from previous record. See `DkBinaryLogDecoder` for the layout.
+ * Args are written by kind of `DkLogFormats.ARG_*`.
+ */
+class MyBinaryLogEncoder {
+	// Formats which are not in table are written as formatted text after table is full
+	private static final int MAX_INTERNED_COUNT = 4096;
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private final OutputStream out;
+	private final byte[] buffer = new byte[8192];
+	private int position;
+	private long writtenBytes;
+
+	private final HashMap<String, Integer> internedIds = new HashMap<>();
+	private final String[] levelNames = new String[16];
+	private long lastTime;
+
+	/**
+	 * @param writeHeader True if the stream is at start of file.
+	 */
+	MyBinaryLogEncoder(OutputStream out, boolean writeHeader, long sessionTime) throws IOException {
+		this.out = out;
+
+		if (writeHeader) {
+			writeBytes(DkBinaryLogDecoder.MAGIC, 0, DkBinaryLogDecoder.MAGIC.length);
+			writeByte(DkBinaryLogDecoder.VERSION);
+		}
+
+		// New session for each opening since we don't know string table of previous session
+		writeByte(DkBinaryLogDecoder.TAG_SESSION);
+		writeFixedLong(sessionTime);
+		lastTime = sessionTime;
+	}
+
+	void write(MyLogRingBuffer.Record record) throws IOException {
+		int levelId = intern(levelName(record.logType), true);
+		boolean formatted = record.where == null && record.argKinds == DkLogFormats.ARG_NONE;
+
+		// Object args are written as String and primitives as long or double, and decoder re-applies
+		// the format to them. That only gives same message for String args and untagged primitives
+		// (for eg,. boxed `false` under `%b` would become `true`, char under `%c` would throw),
+		// so others are formatted here
+		boolean formatHere = ! formatted
+			&& (! isDecodableArg(record.argKinds & 3, record.obj1) || ! isDecodableArg((record.argKinds >> 2) & 3, record.obj2));
+
+		// Fall back to text when the table is full (for eg,. dynamic format strings)
+		int formatId = formatted || formatHere ? -1 : intern(record.message == null ? "" : record.message, false);
+		int whereId = formatted || formatHere || record.where == null ? -1 : intern(DkLogFormats.whereName(record.where), false);
+
+		if (formatted || formatId < 0 || (record.where != null && whereId < 0)) {
+			String message = formatted
+				? record.message
+				: DkLogFormats.format(record.where, record.message, record.argKinds, record.obj1, record.prim1, record.obj2, record.prim2);
+
+			writeByte(DkBinaryLogDecoder.TAG_TEXT);
+			writeVarint(levelId);
+			writeTimeDelta(record.time);
+			writeString(message == null ? "" : message);
+			return;
+		}
+
+		writeByte(DkBinaryLogDecoder.TAG_LOG);
+		writeVarint(levelId);
+		writeTimeDelta(record.time);
+		writeVarint(whereId + 1);
+		writeVarint(formatId);
+		writeByte(record.argKinds);
+		writeArg(record.argKinds & 3, record.obj1, record.prim1);
+		writeArg((record.argKinds >> 2) & 3, record.obj2, record.prim2);
+	}
+
+	long getWrittenBytes() {
+		return writtenBytes + position;
+	}
+
+	void flush() throws IOException {
+		flushBuffer();
+		out.flush();
+	}
+
+	void close() throws IOException {
+		try {
+			flush();
+		}
+		finally {
+			out.close();
+		}
+	}
+
+	private void writeArg(int kind, Object obj, long prim) throws IOException {
+		switch (kind) {
+			case DkLogFormats.ARG_LONG: {
+				writeVarint((prim << 1) ^ (prim >> 63));
+				break;
+			}
+			case DkLogFormats.ARG_DOUBLE: {
+				writeFixedLong(prim);
+				break;
+			}
+			case DkLogFormats.ARG_OBJECT: {
+				writeString(String.valueOf(obj));
+				break;
+			}
+		}
+	}
+
+	// Primitive arg is decodable if it is not tagged as narrower type
+	private static boolean isDecodableArg(int kind, Object obj) {
+		return kind == DkLogFormats.ARG_OBJECT ? obj instanceof String : obj == null;
+	}
+
+	// @param force True to intern even if the table is full (level names are only a few).
+	// @return Id of the string, or -1 if the table is full and the string is not in table
+	private int intern(String value, boolean force) throws IOException {
+		Integer id = internedIds.get(value);
+		if (id != null) {
+			return id;
+		}
+		if (! force && internedIds.size() >= MAX_INTERNED_COUNT) {
+			return -1;
+		}
+
+		int newId = internedIds.size();
+		internedIds.put(value, newId);
+
+		writeByte(DkBinaryLogDecoder.TAG_STRING);
+		writeVarint(newId);
+		writeString(value);
+
+		return newId;
+	}
+
+	private String levelName(int logType) {
+		if (logType >= 0 && logType < levelNames.length) {
+			String name = levelNames[logType];
+			if (name == null) {
+				name = levelNames[logType] = DkLogger.LogType.name(logType).toUpperCase();
+			}
+			return name;
+		}
+		return DkLogger.LogType.name(logType).toUpperCase();
+	}
+
+	private void writeTimeDelta(long time) throws IOException {
+		// Records from many producers may be slightly out of order, so delta can be negative
+		long delta = time - lastTime;
+		lastTime = time;
+		writeVarint((delta << 1) ^ (delta >> 63));
+	}
+
+	private void writeString(String value) throws IOException {
+		byte[] bytes = value.getBytes(UTF_8);
+		writeVarint(bytes.length);
+		writeBytes(bytes, 0, bytes.length);
+	}
+
+	private void writeVarint(long value) throws IOException {
+		ensureSpace(10);
+		while ((value & ~0x7FL) != 0) {
+			buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		buffer[position++] = (byte) value;
+	}
+
+	private void writeFixedLong(long value) throws IOException {
+		ensureSpace(8);
+		for (int shift = 56; shift >= 0; shift -= 8) {
+			buffer[position++] = (byte) (value >>> shift);
+		}
+	}
+
+	private void writeByte(int value) throws IOException {
+		ensureSpace(1);
+		buffer[position++] = (byte) value;
+	}
+
+	private void writeBytes(byte[] bytes, int offset, int length) throws IOException {
+		if (length > buffer.length) {
+			flushBuffer();
+			out.write(bytes, offset, length);
+			writtenBytes += length;
+			return;
+		}
+		ensureSpace(length);
+		System.arraycopy(bytes, offset, buffer, position, length);
+		position += length;
+	}
+
+	private void ensureSpace(int size) throws IOException {
+		if (position + size > buffer.length) {
+			flushBuffer();
+		}
+	}
+
+	private void flushBuffer() throws IOException {
+		if (position > 0) {
+			out.write(buffer, 0, position);
+			writtenBytes += position;
+			position = 0;
+		}
+	}
+}
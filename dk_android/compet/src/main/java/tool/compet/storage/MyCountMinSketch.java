@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2017-2021 DarkCompet. All rights reserved.
+ */
+
+package tool.compet.storage;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Count-min sketch with 4-bit counters (max 15) for frequency estimation.
+ * Each of 4 rows has own hash, estimation is minimum counter of the rows.
+ * After number of increments reaches sample size (10 x width), all counters are halved
+ * so old popularity fades out.
+ * <p>
+ * This is thread-safe, counters are updated by CAS, a concurrent halving may lose some increments.
+ */
+class MyCountMinSketch {
+	private static final int DEPTH = 4;
+	private static final long[] SEEDS = {0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+	private static final long RESET_MASK = 0x7777777777777777L;
+
+	// Each long holds 16 counters, each row has `width` counters
+	private final AtomicLongArray table;
+	private final int widthMask;
+	private final int sampleSize;
+	private final AtomicInteger additions = new AtomicInteger();
+
+	MyCountMinSketch(int expectedEntryCount) {
+		int width = 16;
+		while (width < expectedEntryCount && width < (1 << 26)) {
+			width <<= 1;
+		}
+		this.widthMask = width - 1;
+		this.sampleSize = 10 * width;
+		this.table = new AtomicLongArray(DEPTH * (width >>> 4));
+	}
+
+	void increment(int item) {
+		int hash = spread(item);
+		boolean added = false;
+
+		for (int row = 0; row < DEPTH; ++row) {
+			added |= incrementAt(counterIndex(hash, row), row);
+		}
+
+		if (added && additions.incrementAndGet() >= sampleSize) {
+			reset();
+		}
+	}
+
+	int frequency(int item) {
+		int hash = spread(item);
+		int frequency = Integer.MAX_VALUE;
+
+		for (int row = 0; row < DEPTH; ++row) {
+			int index = counterIndex(hash, row);
+			long word = table.get(wordIndex(index, row));
+			int count = (int) ((word >>> ((index & 15) << 2)) & 0xfL);
+			frequency = Math.min(frequency, count);
+		}
+
+		return frequency;
+	}
+
+	// Increment counter if not reached max value
+	private boolean incrementAt(int index, int row) {
+		int wordIndex = wordIndex(index, row);
+		int shift = (index & 15) << 2;
+		long mask = 0xfL << shift;
+
+		while (true) {
+			long word = table.get(wordIndex);
+			if ((word & mask) == mask) {
+				return false;
+			}
+			if (table.compareAndSet(wordIndex, word, word + (1L << shift))) {
+				return true;
+			}
+		}
+	}
+
+	// Halve all counters
+	private synchronized void reset() {
+		if (additions.get() < sampleSize) {
+			return; // Other thread has reset
+		}
+		for (int index = table.length() - 1; index >= 0; --index) {
+			long word = table.get(index);
+			table.set(index, (word >>> 1) & RESET_MASK);
+		}
+		additions.set(additions.get() >>> 1);
+	}
+
+	private int counterIndex(int hash, int row) {
+		long h = (hash + SEEDS[row]) * SEEDS[row];
+		h += h >>> 32;
+		return (int) h & widthMask;
+	}
+
+	private int wordIndex(int counterIndex, int row) {
+		return row * ((widthMask + 1) >>> 4) + (counterIndex >>> 4);
+	}
+
+	private static int spread(int x) {
+		x = ((x >>> 16) ^ x) * 0x45d9f3b;
+		x = ((x >>> 16) ^ x) * 0x45d9f3b;
+		return (x >>> 16) ^ x;
+	}
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright (c) 2017-2021 DarkCompet. All rights reserved.
+ */
+
+package tool.compet.storage;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+
+/**
+ * An in-flight load of a key at `DkMemoryCache.getOrLoad()`.
+ * All callers which request same key while loading will join this flight and wait for its result.
+ * When the last waiter leaves (interrupted, disposed...) before the load is done, the load is cancelled.
+ */
+class MyLoadingFlight extends FutureTask<DkMemoryCache.Snapshot> {
+	// Guarded by this
+	private int waiterCount = 1;
+	private boolean abandoned;
+
+	MyLoadingFlight(Callable<DkMemoryCache.Snapshot> callable) {
+		super(callable);
+	}
+
+	/**
+	 * @return False if this flight was abandoned, caller should start new flight.
+	 */
+	synchronized boolean join() {
+		if (abandoned) {
+			return false;
+		}
+		++waiterCount;
+		return true;
+	}
+
+	/**
+	 * @return True if caller was the last waiter and the load was cancelled by this call.
+	 */
+	synchronized boolean leave() {
+		if (--waiterCount > 0 || isDone()) {
+			return false;
+		}
+		abandoned = true;
+		return cancel(true);
+	}
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2017-2021 DarkCompet. All rights reserved.
+ */
+
+package tool.compet.storage;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded lock-free ring buffer of log records for many producers and single consumer.
+ * Each slot has a sequence number which tells whether the slot is free to write (seq == pos)
+ * or ready to read (seq == pos + 1), so producers only compete via CAS on tail.
+ * Ref: Dmitry Vyukov's bounded MPMC queue.
+ */
+class MyLogRingBuffer {
+	private final int mask;
+	private final AtomicLongArray sequences;
+	private final int[] logTypes;
+	private final long[] times;
+	private final String[] messages; // message or format
+	private final int[] argKinds;
+	private final Object[] wheres;
+	private final Object[] objArgs1;
+	private final Object[] objArgs2;
+	private final long[] primArgs1;
+	private final long[] primArgs2;
+
+	private final AtomicLong tail = new AtomicLong();
+
+	// Only be accessed by consumer, but read by producers to estimate size
+	private volatile long head;
+
+	MyLogRingBuffer(int capacity) {
+		int size = 2;
+		while (size < capacity) {
+			size <<= 1;
+		}
+		this.mask = size - 1;
+		this.sequences = new AtomicLongArray(size);
+		this.logTypes = new int[size];
+		this.times = new long[size];
+		this.messages = new String[size];
+		this.argKinds = new int[size];
+		this.wheres = new Object[size];
+		this.objArgs1 = new Object[size];
+		this.objArgs2 = new Object[size];
+		this.primArgs1 = new long[size];
+		this.primArgs2 = new long[size];
+
+		for (int index = 0; index < size; ++index) {
+			sequences.set(index, index);
+		}
+	}
+
+	/**
+	 * @return False if the buffer is full.
+	 */
+	boolean offer(int logType, long time, String message) {
+		return offer(logType, time, null, message, 0, null, 0, null, 0);
+	}
+
+	/**
+	 * Offer a record which is not formatted yet, args are packed as `DkLogFormats.ARG_*`.
+	 *
+	 * @return False if the buffer is full.
+	 */
+	boolean offer(int logType, long time, Object where, String format, int argKinds, Object obj1, long prim1, Object obj2, long prim2) {
+		long pos = tail.get();
+
+		while (true) {
+			int index = (int) (pos & mask);
+			long diff = sequences.get(index) - pos;
+
+			if (diff == 0) {
+				if (tail.compareAndSet(pos, pos + 1)) {
+					logTypes[index] = logType;
+					times[index] = time;
+					messages[index] = format;
+					this.argKinds[index] = argKinds;
+					wheres[index] = where;
+					objArgs1[index] = obj1;
+					primArgs1[index] = prim1;
+					objArgs2[index] = obj2;
+					primArgs2[index] = prim2;
+					// Publish the slot to consumer
+					sequences.lazySet(index, pos + 1);
+					return true;
+				}
+				pos = tail.get();
+			}
+			else if (diff < 0) {
+				return false;
+			}
+			else {
+				pos = tail.get();
+			}
+		}
+	}
+
+	/**
+	 * Take next record into given holder, must be called by only consumer thread.
+	 *
+	 * @return False if empty.
+	 */
+	boolean poll(Record record) {
+		long pos = head;
+		int index = (int) (pos & mask);
+
+		if (sequences.get(index) != pos + 1) {
+			return false;
+		}
+
+		record.logType = logTypes[index];
+		record.time = times[index];
+		record.message = messages[index];
+		record.argKinds = argKinds[index];
+		record.where = wheres[index];
+		record.obj1 = objArgs1[index];
+		record.prim1 = primArgs1[index];
+		record.obj2 = objArgs2[index];
+		record.prim2 = primArgs2[index];
+		messages[index] = null;
+		wheres[index] = null;
+		objArgs1[index] = null;
+		objArgs2[index] = null;
+
+		// Free the slot for next round
+		sequences.lazySet(index, pos + mask + 1);
+		head = pos + 1;
+
+		return true;
+	}
+
+	int size() {
+		long size = tail.get() - head;
+		return size < 0 ? 0 : (int) size;
+	}
+
+	int capacity() {
+		return mask + 1;
+	}
+
+	// Reusable holder of a record at consumer side
+	static class Record {
+		int logType;
+		long time;
+		String message; // message or format when `where` or `argKinds` is set
+		int argKinds;
+		Object where;
+		Object obj1;
+		long prim1;
+		Object obj2;
+		long prim2;
+
+		void clear() {
+			message = null;
+			where = null;
+			obj1 = null;
+			obj2 = null;
+		}
+	}
+}
@@ -4,6 +4,7 @@
 
 package tool.compet.stream;
 
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 import tool.compet.core4j.DkCallable;
@@ -87,6 +88,88 @@ public abstract class DkObservable<M> extends tool.compet.stream4j.DkObservable<
 		return this;
 	}
 
+	/**
+	 * Collects items into lists of `count` items, and emits each list to child node.
+	 * Leftover (partial) list is emitted at complete.
+	 */
+	public DkObservable<List<M>> buffer(int count) {
+		return window(count, count);
+	}
+
+	/**
+	 * Collects items into a list, and emits the list (if not empty) at each timespan.
+	 * Useful to render high-frequency items (sensor, location...) in batch.
+	 */
+	public DkObservable<List<M>> buffer(long timespan, TimeUnit unit) {
+		return buffer(timespan, unit, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Collects items into a list, and emits the list when it reaches `maxCount` items,
+	 * or at each timespan, so memory is bounded by `maxCount` items.
+	 */
+	@SuppressWarnings("unchecked")
+	public DkObservable<List<M>> buffer(long timespan, TimeUnit unit, int maxCount) {
+		if (timespan <= 0 || maxCount <= 0) {
+			throw new RuntimeException("Require positive timespan and maxCount");
+		}
+		tail = (DkObservableSource) new MyBufferObservable<>(tail, maxCount, maxCount, unit.toMillis(timespan));
+		return (DkObservable<List<M>>) (DkObservable) this;
+	}
+
+	/**
+	 * Emits lists of `count` items, a new list is started at every `skip` items.
+	 * When `skip < count`, lists are overlapped (sliding window, for eg,. moving average),
+	 * when `skip > count`, items between lists are dropped.
+	 */
+	@SuppressWarnings("unchecked")
+	public DkObservable<List<M>> window(int count, int skip) {
+		if (count <= 0 || skip <= 0) {
+			throw new RuntimeException("Require positive count and skip");
+		}
+		tail = (DkObservableSource) new MyBufferObservable<>(tail, count, skip, 0);
+		return (DkObservable<List<M>>) (DkObservable) this;
+	}
+
+	/**
+	 * Emits latest item at each period (if new item has come), other items are dropped.
+	 */
+	public DkObservable<M> sample(long period, TimeUnit unit) {
+		if (period <= 0) {
+			throw new RuntimeException("Require positive period");
+		}
+		tail = new MySampleObservable<>(tail, unit.toMillis(period));
+		return this;
+	}
+
+	/**
+	 * Emits items on given scheduler, but only keeps latest undelivered item,
+	 * so the scheduler never queues more than one task for this stream.
+	 */
+	public DkObservable<M> onBackpressureLatest(DkScheduler<M> scheduler) {
+		return onBackpressureBuffer(scheduler, 1);
+	}
+
+	/**
+	 * Emits items on given scheduler via a queue of `capacity` items,
+	 * oldest item is dropped when the queue is full.
+	 */
+	public DkObservable<M> onBackpressureBuffer(DkScheduler<M> scheduler, int capacity) {
+		if (capacity <= 0) {
+			throw new RuntimeException("Require positive capacity");
+		}
+		tail = new MyBackpressureObservable<>(tail, scheduler, capacity);
+		return this;
+	}
+
+	/**
+	 * Same with `observeOnForeground()`, but only latest item is delivered to ui thread,
+	 * use it for high-frequency streams which ui cannot render all items.
+	 */
+	public DkObservable<M> observeOnForegroundLatest() {
+		return onBackpressureLatest(DkSchedulers.ui());
+	}
+
 	@Override
 	public DkObservable<M> observeOnForeground() {
 		return observeOn(DkSchedulers.ui(), 0L, TimeUnit.MILLISECONDS, true);
@@ -4,14 +4,63 @@
 
 package tool.compet.stream;
 
+import android.os.Build;
+import android.os.Process;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import tool.compet.stream4j.DkScheduler;
 
+/**
+ * Android-tuned schedulers. Background executors here are shared by the library
+ * (stream, livedata,...), so modules should not spin up their own threads.
+ * <p></p>
+ * Usage:
+ * <pre>
+ *    DkObservable.fromCallable(() -> parse(json))
+ *       .scheduleIn(DkSchedulers.computation(), 0L, TimeUnit.MILLISECONDS, false)
+ *       .observeOnForeground()
+ *       .subscribe();
+ *
+ *    DkSchedulers.ioExecutor().execute(() -> saveToDisk());
+ * </pre>
+ */
 @SuppressWarnings("unchecked")
 public class DkSchedulers extends tool.compet.stream4j.DkSchedulers {
+	// Default budget for running batched ui tasks per frame, about half of a 60fps frame
+	private static final long DEFAULT_UI_FRAME_BUDGET_MILLIS = 8;
+	// Io tasks mostly block, so allow many threads, but still bounded
+	private static final int IO_MAX_THREAD_COUNT = 64;
+	private static final long KEEP_ALIVE_SECONDS = 60;
+	// Below ui thread, but slightly above io threads
+	private static final int COMPUTATION_THREAD_PRIORITY = Process.THREAD_PRIORITY_BACKGROUND + Process.THREAD_PRIORITY_MORE_FAVORABLE;
+	// Same as AsyncTask
+	private static final int IO_THREAD_PRIORITY = Process.THREAD_PRIORITY_BACKGROUND;
+
 	protected static DkScheduler uiScheduler;
+	protected static volatile MyFrameUiScheduler uiBatchedScheduler;
+	private static volatile boolean uiFrameBatching;
+
+	private static volatile ExecutorService computationExecutor;
+	private static volatile ExecutorService ioExecutor;
+	private static volatile ScheduledExecutorService delayExecutor;
+	private static volatile DkScheduler computationScheduler;
+	private static volatile DkScheduler ioScheduler;
 
 	// Android ui thread scheduler
 	public static <T> DkScheduler<T> ui() {
+		if (uiFrameBatching) {
+			return uiBatched();
+		}
 		if (uiScheduler == null) {
 			synchronized (DkSchedulers.class) {
 				if (uiScheduler == null) {
@@ -21,4 +70,155 @@ public class DkSchedulers extends tool.compet.stream4j.DkSchedulers {
 		}
 		return (DkScheduler<T>) uiScheduler;
 	}
+
+	/**
+	 * Android ui thread scheduler which runs tasks in batch once per vsync (frame),
+	 * within a time budget per frame, leftover tasks are run at next frame.
+	 * It is suitable for dense emissions (for eg,. progress, list updates) to ui.
+	 */
+	public static <T> DkScheduler<T> uiBatched() {
+		if (uiBatchedScheduler == null) {
+			synchronized (DkSchedulers.class) {
+				if (uiBatchedScheduler == null) {
+					uiBatchedScheduler = new MyFrameUiScheduler<>(DEFAULT_UI_FRAME_BUDGET_MILLIS);
+				}
+			}
+		}
+		return (DkScheduler<T>) uiBatchedScheduler;
+	}
+
+	/**
+	 * Make `ui()` (and `observeOnForeground()`) use frame-batched scheduler.
+	 */
+	public static void setUiFrameBatching(boolean enabled) {
+		uiFrameBatching = enabled;
+	}
+
+	/**
+	 * Set max duration for running batched ui tasks per frame.
+	 */
+	public static void setUiFrameBudget(long frameBudgetMillis) {
+		((MyFrameUiScheduler) uiBatched()).setFrameBudget(frameBudgetMillis);
+	}
+
+	/**
+	 * Scheduler for CPU-bound tasks (parse, sort, decode...), run on `computationExecutor()`.
+	 */
+	public static <T> DkScheduler<T> computation() {
+		if (computationScheduler == null) {
+			synchronized (DkSchedulers.class) {
+				if (computationScheduler == null) {
+					computationScheduler = new MyExecutorScheduler<>(computationExecutor());
+				}
+			}
+		}
+		return (DkScheduler<T>) computationScheduler;
+	}
+
+	/**
+	 * Scheduler for blocking tasks (disk, network, database...), run on `ioExecutor()`.
+	 * This hides `io()` of stream4j, so `scheduleInBackground...()` also use this.
+	 */
+	public static <T> DkScheduler<T> io() {
+		if (ioScheduler == null) {
+			synchronized (DkSchedulers.class) {
+				if (ioScheduler == null) {
+					ioScheduler = new MyExecutorScheduler<>(ioExecutor());
+				}
+			}
+		}
+		return (DkScheduler<T>) ioScheduler;
+	}
+
+	/**
+	 * Shared pool for CPU-bound tasks, sized to available cores. From Lollipop, this is
+	 * work-stealing `ForkJoinPool`, so forked subtasks are balanced between cores.
+	 */
+	public static ExecutorService computationExecutor() {
+		if (computationExecutor == null) {
+			synchronized (DkSchedulers.class) {
+				if (computationExecutor == null) {
+					int parallelism = Math.max(1, Runtime.getRuntime().availableProcessors());
+
+					if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+						computationExecutor = newForkJoinPool(parallelism);
+					}
+					else {
+						ThreadPoolExecutor executor = new ThreadPoolExecutor(parallelism, parallelism,
+							KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+							new MyPriorityThreadFactory("dk_computation_", COMPUTATION_THREAD_PRIORITY));
+						executor.allowCoreThreadTimeOut(true);
+						computationExecutor = executor;
+					}
+				}
+			}
+		}
+		return computationExecutor;
+	}
+
+	/**
+	 * Shared bounded elastic pool for blocking tasks. It reuses idle threads first, then grows
+	 * up to 64 threads, then queues tasks. Idle threads are reaped after 60 seconds.
+	 */
+	public static ExecutorService ioExecutor() {
+		if (ioExecutor == null) {
+			synchronized (DkSchedulers.class) {
+				if (ioExecutor == null) {
+					ioExecutor = new MyElasticExecutor(IO_MAX_THREAD_COUNT, KEEP_ALIVE_SECONDS,
+						new MyPriorityThreadFactory("dk_io_", IO_THREAD_PRIORITY));
+				}
+			}
+		}
+		return ioExecutor;
+	}
+
+	/**
+	 * Executor which runs tasks on `ioExecutor()`, but at most `maxConcurrency` tasks at a time.
+	 * Tasks are started in submission order, so pass 1 to get a serial executor.
+	 *
+	 * @param maxQueueSize Max number of waiting tasks, when the queue is full, caller runs the
+	 * task itself (back pressure). Pass 0 for unbounded queue.
+	 */
+	public static Executor newLimitedIoExecutor(int maxConcurrency, int maxQueueSize) {
+		return new MyLimitedExecutor(ioExecutor(), maxConcurrency, maxQueueSize);
+	}
+
+	/**
+	 * Shared single-thread timer for delayed and periodic tasks. Tasks run on the timer
+	 * thread, so they must be short, dispatch blocking work to `ioExecutor()`.
+	 */
+	public static ScheduledExecutorService delayExecutor() {
+		if (delayExecutor == null) {
+			synchronized (DkSchedulers.class) {
+				if (delayExecutor == null) {
+					ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1,
+						new MyPriorityThreadFactory("dk_delay_", IO_THREAD_PRIORITY));
+					executor.setKeepAliveTime(KEEP_ALIVE_SECONDS, TimeUnit.SECONDS);
+					executor.allowCoreThreadTimeOut(true);
+					delayExecutor = executor;
+				}
+			}
+		}
+		return delayExecutor;
+	}
+
+	// Separated to avoid loading ForkJoinPool at old devices
+	private static ExecutorService newForkJoinPool(int parallelism) {
+		AtomicInteger threadId = new AtomicInteger();
+
+		ForkJoinPool.ForkJoinWorkerThreadFactory factory = pool -> {
+			ForkJoinWorkerThread thread = new ForkJoinWorkerThread(pool) {
+				@Override
+				protected void onStart() {
+					super.onStart();
+					Process.setThreadPriority(COMPUTATION_THREAD_PRIORITY);
+				}
+			};
+			thread.setName("dk_computation_" + threadId.getAndIncrement());
+			return thread;
+		};
+
+		// Async mode (FIFO) since tasks are event-style, not joined
+		return new ForkJoinPool(parallelism, factory, null, true);
+	}
 }
@@ -0,0 +1,25 @@
+/*
+ * Copyright (c) 2017-2021 DarkCompet. All rights reserved.
+ */
+
+package tool.compet.stream;
+
+import tool.compet.stream4j.DkObservableSource;
+import tool.compet.stream4j.DkObserver;
+import tool.compet.stream4j.DkScheduler;
+
+class MyBackpressureObservable<M> extends DkObservable<M> {
+	private final DkScheduler<M> scheduler;
+	private final int capacity;
+
+	MyBackpressureObservable(DkObservableSource<M> parent, DkScheduler<M> scheduler, int capacity) {
+		super(parent);
+		this.scheduler = scheduler;
+		this.capacity = capacity;
+	}
+
+	@Override
+	public void subscribeActual(DkObserver<M> observer) throws Exception {
+		parent.subscribe(new MyBackpressureObserver<>(observer, scheduler, capacity));
+	}
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2017-2021 DarkCompet. All rights reserved.
+ */
+
+package tool.compet.stream;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import tool.compet.stream4j.DkObserver;
+import tool.compet.stream4j.DkScheduler;
+import tool.compet.stream4j.OwnObserver;
+
+/**
+ * Emits items to child at given scheduler via a bounded queue. When the queue is full,
+ * oldest item is dropped, so with capacity 1, child only receives latest item.
+ * At most one drain task is scheduled at a time (instead of one task per item),
+ * so the scheduler queue does not grow even if upstream is much faster than child.
+ */
+@SuppressWarnings("unchecked")
+class MyBackpressureObserver<M> extends OwnObserver<M> {
+	// Since queue does not accept null
+	private static final Object NULL_ITEM = new Object();
+
+	private final DkScheduler<M> scheduler;
+	private final int capacity;
+	private final ArrayDeque<Object> queue; // Guarded by itself
+	private final AtomicInteger wip = new AtomicInteger();
+	private final Runnable drainCommand = this::drain;
+
+	private volatile boolean completed;
+	private volatile Throwable error;
+	private volatile boolean finalReceived;
+	private volatile boolean terminated;
+	private boolean finalDelivered; // Only be accessed at drain
+
+	MyBackpressureObserver(DkObserver<M> child, DkScheduler<M> scheduler, int capacity) {
+		super(child);
+		this.scheduler = scheduler;
+		this.capacity = capacity;
+		this.queue = new ArrayDeque<>(Math.min(capacity, 16));
+	}
+
+	@Override
+	public void onNext(M item) {
+		if (terminated) {
+			return;
+		}
+		synchronized (queue) {
+			if (queue.size() >= capacity) {
+				queue.poll();
+			}
+			queue.offer(item == null ? NULL_ITEM : item);
+		}
+		scheduleDrain();
+	}
+
+	@Override
+	public void onError(Throwable e) {
+		error = e;
+		scheduleDrain();
+	}
+
+	@Override
+	public void onComplete() {
+		completed = true;
+		scheduleDrain();
+	}
+
+	@Override
+	public void onFinal() {
+		finalReceived = true;
+		scheduleDrain();
+	}
+
+	private void scheduleDrain() {
+		if (wip.getAndIncrement() == 0) {
+			scheduler.scheduleNow(drainCommand, true);
+		}
+	}
+
+	// Called at scheduler thread, only one drain runs at a time
+	private void drain() {
+		int missed = 1;
+
+		while (true) {
+			if (! terminated) {
+				drainItems();
+			}
+			if (! terminated && (completed || error != null || finalReceived)) {
+				boolean isEmpty;
+				synchronized (queue) {
+					isEmpty = queue.isEmpty();
+				}
+				if (isEmpty) {
+					terminated = true;
+					deliverTerminal();
+				}
+			}
+			if (terminated && finalReceived && ! finalDelivered) {
+				finalDelivered = true;
+				child.onFinal();
+			}
+
+			missed = wip.addAndGet(-missed);
+			if (missed == 0) {
+				break;
+			}
+		}
+	}
+
+	private void drainItems() {
+		while (true) {
+			Object item;
+			synchronized (queue) {
+				item = queue.poll();
+			}
+			if (item == null) {
+				return;
+			}
+			try {
+				child.onNext(item == NULL_ITEM ? null : (M) item);
+			}
+			catch (Exception e) {
+				terminated = true;
+				synchronized (queue) {
+					queue.clear();
+				}
+				child.onError(e);
+				return;
+			}
+		}
+	}
+
+	private void deliverTerminal() {
+		if (error != null) {
+			child.onError(error);
+		}
+		else if (completed) {
+			try {
+				child.onComplete();
+			}
+			catch (Exception e) {
+				child.onError(e);
+			}
+		}
+	}
+}
@@ -0,0 +1,30 @@
+/*
+ * Copyright (c) 2017-2021 DarkCompet. All rights reserved.
+ */
+
+package tool.compet.stream;
+
+import java.util.List;
+
+import tool.compet.stream4j.DkObservableSource;
+import tool.compet.stream4j.DkObserver;
+
+class MyBufferObservable<M> extends DkObservable<List<M>> {
+	// Type of parent differs with this node, so we keep it here
+	private final DkObservableSource<M> source;
+	private final int count;
+	private final int skip;
+	private final long timespanMillis;
+
+	MyBufferObservable(DkObservableSource<M> parent, int count, int skip, long timespanMillis) {
+		this.source = parent;
+		this.count = count;
+		this.skip = skip;
+		this.timespanMillis = timespanMillis;
+	}
+
+	@Override
+	public void subscribeActual(DkObserver<List<M>> observer) throws Exception {
+		source.subscribe(new MyBufferObserver<>(observer, count, skip, timespanMillis));
+	}
+}
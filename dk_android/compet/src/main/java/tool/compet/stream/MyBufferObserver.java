@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2017-2021 DarkCompet. All rights reserved.
+ */
+
+package tool.compet.stream;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import tool.compet.stream4j.DkControllable;
+import tool.compet.stream4j.DkObserver;
+
+/**
+ * Collects items into lists, and emits a list when it reaches `count` items, or when
+ * `timespanMillis` elapsed (if set). New list is opened at every `skip` items, so lists
+ * are overlapped (sliding window) when `skip < count`.
+ * Time-based list is emitted at computation thread, empty list is not emitted.
+ */
+class MyBufferObserver<M> implements DkObserver<M> {
+	private final DkObserver<List<M>> child;
+	private final int count;
+	private final int skip;
+
+	// Below are guarded by `this`
+	private final ArrayDeque<List<M>> buffers = new ArrayDeque<>();
+	private long index;
+	private boolean done;
+	private ScheduledFuture<?> timer;
+
+	MyBufferObserver(DkObserver<List<M>> child, int count, int skip, long timespanMillis) {
+		this.child = child;
+		this.count = count;
+		this.skip = skip;
+
+		if (timespanMillis > 0) {
+			// Do not emit at shared timer thread since child maybe slow
+			Runnable flushCommand = this::flushByTime;
+			timer = DkSchedulers.delayExecutor().scheduleAtFixedRate(
+				() -> DkSchedulers.computationExecutor().execute(flushCommand),
+				timespanMillis, timespanMillis, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	@Override
+	public void onSubscribe(DkControllable controllable) throws Exception {
+		child.onSubscribe(controllable);
+	}
+
+	@Override
+	public synchronized void onNext(M item) {
+		if (done) {
+			return;
+		}
+		// Non-overlapped lists are opened on demand, overlapped lists are opened at every `skip` items
+		if (skip == count ? buffers.isEmpty() : index % skip == 0) {
+			buffers.offer(new ArrayList<>(Math.min(count, 16)));
+		}
+		++index;
+
+		for (List<M> buffer : buffers) {
+			buffer.add(item);
+		}
+
+		List<M> head = buffers.peek();
+		if (head != null && head.size() >= count) {
+			buffers.poll();
+			emit(head);
+		}
+	}
+
+	@Override
+	public synchronized void onError(Throwable e) {
+		if (! done) {
+			fail(e);
+		}
+	}
+
+	@Override
+	public synchronized void onComplete() throws Exception {
+		if (done) {
+			return;
+		}
+		done = true;
+		cancelTimer();
+
+		// Emit leftover (partial) lists
+		List<M> buffer;
+		while ((buffer = buffers.poll()) != null) {
+			if (buffer.size() > 0) {
+				try {
+					child.onNext(buffer);
+				}
+				catch (Exception e) {
+					buffers.clear();
+					child.onError(e);
+					return;
+				}
+			}
+		}
+
+		child.onComplete();
+	}
+
+	@Override
+	public synchronized void onFinal() {
+		cancelTimer();
+		child.onFinal();
+	}
+
+	private synchronized void flushByTime() {
+		if (done) {
+			return;
+		}
+		List<M> buffer = buffers.poll();
+		if (buffer != null && buffer.size() > 0) {
+			emit(buffer);
+		}
+	}
+
+	// Must be called inside lock
+	private void emit(List<M> buffer) {
+		try {
+			child.onNext(buffer);
+		}
+		catch (Exception e) {
+			fail(e);
+		}
+	}
+
+	// Must be called inside lock
+	private void fail(Throwable e) {
+		done = true;
+		cancelTimer();
+		buffers.clear();
+		child.onError(e);
+	}
+
+	// Must be called inside lock
+	private void cancelTimer() {
+		if (timer != null) {
+			timer.cancel(false);
+			timer = null;
+		}
+	}
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2017-2021 DarkCompet. All rights reserved.
+ */
+
+package tool.compet.stream;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded lock-free pool for many threads which take and put back objects.
+ * Each slot has a sequence number (same as `MyLogRingBuffer` of storage), so taking and putting
+ * do not allocate and do not suffer ABA problem when an object is taken and put back quickly.
+ * Ref: Dmitry Vyukov's bounded MPMC queue.
+ */
+class MyConcurrentPool<E> {
+	private final int mask;
+	private final AtomicLongArray sequences;
+	private final Object[] items;
+	private final AtomicLong head = new AtomicLong();
+	private final AtomicLong tail = new AtomicLong();
+
+	MyConcurrentPool(int capacity) {
+		int size = 2;
+		while (size < capacity) {
+			size <<= 1;
+		}
+		this.mask = size - 1;
+		this.sequences = new AtomicLongArray(size);
+		this.items = new Object[size];
+
+		for (int index = 0; index < size; ++index) {
+			sequences.set(index, index);
+		}
+	}
+
+	/**
+	 * @return False if the pool is full.
+	 */
+	boolean offer(E item) {
+		long pos = tail.get();
+
+		while (true) {
+			int index = (int) (pos & mask);
+			long diff = sequences.get(index) - pos;
+
+			if (diff == 0) {
+				if (tail.compareAndSet(pos, pos + 1)) {
+					items[index] = item;
+					sequences.lazySet(index, pos + 1);
+					return true;
+				}
+				pos = tail.get();
+			}
+			else if (diff < 0) {
+				return false;
+			}
+			else {
+				pos = tail.get();
+			}
+		}
+	}
+
+	/**
+	 * @return Null if the pool is empty.
+	 */
+	@SuppressWarnings("unchecked")
+	E poll() {
+		long pos = head.get();
+
+		while (true) {
+			int index = (int) (pos & mask);
+			long diff = sequences.get(index) - (pos + 1);
+
+			if (diff == 0) {
+				if (head.compareAndSet(pos, pos + 1)) {
+					E item = (E) items[index];
+					items[index] = null;
+					// Free the slot for next round
+					sequences.lazySet(index, pos + mask + 1);
+					return item;
+				}
+				pos = head.get();
+			}
+			else if (diff < 0) {
+				return null;
+			}
+			else {
+				pos = head.get();
+			}
+		}
+	}
+}
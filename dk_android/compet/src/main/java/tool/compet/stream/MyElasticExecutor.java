@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2017-2021 DarkCompet. All rights reserved.
+ */
+
+package tool.compet.stream;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded elastic pool for blocking (IO) tasks. Different with default `ThreadPoolExecutor`
+ * which only grows after the queue is full, this reuses idle threads first, then grows
+ * new thread up to max thread count, then queues the task. Idle threads are reaped
+ * after keep alive time, so the pool shrinks to zero when the app is idle.
+ */
+class MyElasticExecutor extends ThreadPoolExecutor {
+	// Count of tasks which be submitted but not yet finished
+	private final AtomicInteger submittedCount = new AtomicInteger();
+
+	MyElasticExecutor(int maxThreadCount, long keepAliveSeconds, ThreadFactory threadFactory) {
+		super(0, maxThreadCount, keepAliveSeconds, TimeUnit.SECONDS, new ElasticQueue(), threadFactory);
+		((ElasticQueue) getQueue()).executor = this;
+
+		// Queue up the task when we cannot grow anymore
+		setRejectedExecutionHandler((task, executor) -> {
+			if (executor.isShutdown() || ! ((ElasticQueue) executor.getQueue()).forceOffer(task)) {
+				submittedCount.decrementAndGet();
+				throw new RejectedExecutionException("Executor was shutdown");
+			}
+		});
+	}
+
+	@Override
+	public void execute(Runnable command) {
+		submittedCount.incrementAndGet();
+		super.execute(command);
+	}
+
+	@Override
+	protected void afterExecute(Runnable r, Throwable t) {
+		submittedCount.decrementAndGet();
+	}
+
+	private static class ElasticQueue extends LinkedBlockingQueue<Runnable> {
+		MyElasticExecutor executor;
+
+		// Return false to make executor create new thread
+		@Override
+		public boolean offer(Runnable task) {
+			int poolSize = executor.getPoolSize();
+
+			// There is an idle thread which can take the task
+			if (executor.submittedCount.get() <= poolSize) {
+				return super.offer(task);
+			}
+			// Grow new thread
+			if (poolSize < executor.getMaximumPoolSize()) {
+				return false;
+			}
+			return super.offer(task);
+		}
+
+		boolean forceOffer(Runnable task) {
+			return super.offer(task);
+		}
+	}
+}
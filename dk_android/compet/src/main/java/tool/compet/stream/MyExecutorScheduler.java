@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2017-2021 DarkCompet. All rights reserved.
+ */
+
+package tool.compet.stream;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import tool.compet.core.DkLogcats;
+import tool.compet.stream4j.DkScheduler;
+
+import static tool.compet.BuildConfig.DEBUG;
+
+/**
+ * Scheduler on top of a shared executor (computation, io). Serial tasks are run one by one
+ * in schedule order, but they do not own a thread, they are drained by a pool thread.
+ * Delayed tasks wait at a shared timer thread, then are dispatched to the executor.
+ */
+class MyExecutorScheduler<T> implements DkScheduler<T> {
+	private final Executor executor;
+	private final ConcurrentHashMap<Callable<T>, TaskFuture> pendingTasks = new ConcurrentHashMap<>();
+
+	private final ConcurrentLinkedQueue<Runnable> serialQueue = new ConcurrentLinkedQueue<>();
+	private final AtomicBoolean serialDraining = new AtomicBoolean();
+	private final Runnable serialDrainer = this::drainSerial;
+
+	MyExecutorScheduler(Executor executor) {
+		this.executor = executor;
+	}
+
+	@Override
+	public void scheduleNow(Runnable task) {
+		schedule(task, 0, TimeUnit.MILLISECONDS, false);
+	}
+
+	@Override
+	public void scheduleNow(Runnable task, boolean isSerial) {
+		schedule(task, 0, TimeUnit.MILLISECONDS, isSerial);
+	}
+
+	@Override
+	public void schedule(Runnable task, long delay, TimeUnit unit, boolean isSerial) {
+		Runnable command = () -> {
+			try {
+				task.run();
+			}
+			catch (Exception e) {
+				DkLogcats.error(this, e);
+			}
+		};
+		dispatch(command, delay, unit, isSerial);
+	}
+
+	@Override
+	public void scheduleNow(Callable<T> task) {
+		schedule(task, 0, TimeUnit.MILLISECONDS, false);
+	}
+
+	@Override
+	public void scheduleNow(Callable<T> task, boolean isSerial) {
+		schedule(task, 0, TimeUnit.MILLISECONDS, isSerial);
+	}
+
+	@Override
+	public void schedule(Callable<T> task, long delay, TimeUnit unit, boolean isSerial) {
+		TaskFuture future = new TaskFuture(task);
+		pendingTasks.put(task, future);
+		dispatch(future, delay, unit, isSerial);
+	}
+
+	// Just try to cancel, not serious way to cancel a task.
+	// Queued (or delayed) task is skipped, running task is interrupted if `mayInterruptThread`.
+	@Override
+	public boolean cancel(Callable<T> task, boolean mayInterruptThread) {
+		TaskFuture future = pendingTasks.remove(task);
+		boolean cancelled = future != null && future.cancel(mayInterruptThread);
+
+		if (DEBUG) {
+			DkLogcats.info(this, "Cancelled task %s, result: %b", task.toString(), cancelled);
+		}
+
+		return cancelled;
+	}
+
+	private void dispatch(Runnable command, long delay, TimeUnit unit, boolean isSerial) {
+		if (delay > 0) {
+			DkSchedulers.delayExecutor().schedule(() -> dispatch(command, 0, unit, isSerial), delay, unit);
+		}
+		else if (isSerial) {
+			serialQueue.offer(command);
+			if (serialDraining.compareAndSet(false, true)) {
+				executor.execute(serialDrainer);
+			}
+		}
+		else {
+			executor.execute(command);
+		}
+	}
+
+	private void drainSerial() {
+		Runnable command;
+		while ((command = serialQueue.poll()) != null) {
+			command.run();
+		}
+		serialDraining.set(false);
+
+		// Someone has offered after we polled null but before we reset the flag
+		if (! serialQueue.isEmpty() && serialDraining.compareAndSet(false, true)) {
+			executor.execute(serialDrainer);
+		}
+	}
+
+	private class TaskFuture extends FutureTask<T> {
+		private final Callable<T> task;
+
+		TaskFuture(Callable<T> task) {
+			super(task);
+			this.task = task;
+		}
+
+		@Override
+		protected void done() {
+			pendingTasks.remove(task, this);
+
+			if (! isCancelled()) {
+				try {
+					get();
+				}
+				catch (ExecutionException e) {
+					DkLogcats.error(MyExecutorScheduler.this, e.getCause());
+				}
+				catch (Exception ignore) {
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) 2017-2021 DarkCompet. All rights reserved.
+ */
+
+package tool.compet.stream;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import tool.compet.core.DkLogcats;
+import tool.compet.stream4j.DkScheduler;
+
+import static tool.compet.BuildConfig.DEBUG;
+
+/**
+ * UI scheduler which batches tasks and runs them once per vsync via `Choreographer`,
+ * instead of posting a Looper message per task. Tasks are drained at each frame until
+ * the frame budget is used up, leftover tasks are deferred to next frame, so a burst of
+ * emissions does not starve input and drawing.
+ * <p></p>
+ * Tasks are wrapped into pooled nodes (see `MyTaskNodes`), delayed nodes are posted to handler
+ * as itself, and ready nodes are pushed to a lock-free stack which ui thread takes at once
+ * per frame. So producers and ui thread never wait for each other, and scheduling does not
+ * allocate in steady state.
+ */
+class MyFrameUiScheduler<T> implements DkScheduler<T>, Choreographer.FrameCallback {
+	private final Handler handler;
+	private final AtomicBoolean frameRequested = new AtomicBoolean();
+	private final Runnable requestFrameCommand = () -> Choreographer.getInstance().postFrameCallback(this);
+	private final MyTaskNodes nodes = new MyTaskNodes(() -> new Node());
+
+	// Ready nodes in reverse order of scheduling, taken by ui thread at each frame
+	private final AtomicReference<MyTaskNode> readyStack = new AtomicReference<>();
+
+	// Nodes which were not run at previous frame, only be accessed at ui thread
+	private MyTaskNode leftoverHead;
+	private MyTaskNode leftoverTail;
+
+	// Max duration (nanos) for running tasks at a frame
+	private volatile long frameBudgetNanos;
+
+	MyFrameUiScheduler(long frameBudgetMillis) {
+		handler = new Handler(Looper.getMainLooper());
+		frameBudgetNanos = TimeUnit.MILLISECONDS.toNanos(frameBudgetMillis);
+	}
+
+	void setFrameBudget(long frameBudgetMillis) {
+		frameBudgetNanos = TimeUnit.MILLISECONDS.toNanos(frameBudgetMillis);
+	}
+
+	@Override
+	public void scheduleNow(Runnable task) {
+		schedule(task, 0, TimeUnit.MILLISECONDS, true);
+	}
+
+	@Override
+	public void scheduleNow(Runnable task, boolean isSerial) {
+		schedule(task, 0, TimeUnit.MILLISECONDS, isSerial);
+	}
+
+	@Override
+	public void schedule(Runnable task, long delay, TimeUnit unit, boolean isSerial) {
+		enqueue(nodes.obtain(null, task), unit.toMillis(delay));
+	}
+
+	@Override
+	public void scheduleNow(Callable<T> task) {
+		schedule(task, 0, TimeUnit.MILLISECONDS, true);
+	}
+
+	@Override
+	public void scheduleNow(Callable<T> task, boolean isSerial) {
+		schedule(task, 0, TimeUnit.MILLISECONDS, isSerial);
+	}
+
+	// Tasks always run serially at ui thread, so `isSerial` is not used
+	@Override
+	public void schedule(Callable<T> task, long delay, TimeUnit unit, boolean isSerial) {
+		enqueue(nodes.obtain(task, null), unit.toMillis(delay));
+	}
+
+	// Just try to cancel, not serious way to cancel a task.
+	// Cancelled node is still kept in queue (or handler) and is recycled when it comes.
+	@Override
+	public boolean cancel(Callable<T> task, boolean mayInterruptThread) {
+		boolean cancelled = nodes.cancel(task);
+
+		if (DEBUG) {
+			DkLogcats.info(this, "Cancelled task %s, result: %b", task.toString(), cancelled);
+		}
+
+		return cancelled;
+	}
+
+	@Override
+	public void doFrame(long frameTimeNanos) {
+		// Allow new tasks to request next frame while we are draining
+		frameRequested.set(false);
+
+		// Take all ready nodes, reverse them to scheduled order and append to leftover
+		MyTaskNode node = readyStack.getAndSet(null);
+		MyTaskNode batchHead = null;
+		MyTaskNode batchTail = node;
+		while (node != null) {
+			MyTaskNode next = node.readyNext;
+			node.readyNext = batchHead;
+			batchHead = node;
+			node = next;
+		}
+		if (leftoverHead == null) {
+			leftoverHead = batchHead;
+			leftoverTail = batchTail;
+		}
+		else if (batchHead != null) {
+			leftoverTail.readyNext = batchHead;
+			leftoverTail = batchTail;
+		}
+		if (leftoverHead == null) {
+			return;
+		}
+
+		long deadline = System.nanoTime() + frameBudgetNanos;
+		node = leftoverHead;
+
+		// Run at least one task per frame to make progress even if budget is too small
+		do {
+			// Node is recycled after run, so take next first
+			MyTaskNode next = node.readyNext;
+			nodes.runOrRelease(node);
+			node = next;
+		}
+		while (node != null && System.nanoTime() < deadline);
+
+		leftoverHead = node;
+		if (node == null) {
+			leftoverTail = null;
+		}
+		else {
+			requestFrame();
+		}
+	}
+
+	private void enqueue(MyTaskNode node, long delayMillis) {
+		if (delayMillis > 0) {
+			handler.postDelayed(node, delayMillis);
+		}
+		else {
+			pushReady(node);
+		}
+	}
+
+	private void pushReady(MyTaskNode node) {
+		MyTaskNode head;
+		do {
+			head = readyStack.get();
+			node.readyNext = head;
+		}
+		while (! readyStack.compareAndSet(head, node));
+
+		requestFrame();
+	}
+
+	// Post frame callback once until the frame comes, Choreographer must be accessed at ui thread
+	private void requestFrame() {
+		if (frameRequested.compareAndSet(false, true)) {
+			if (Looper.myLooper() == Looper.getMainLooper()) {
+				requestFrameCommand.run();
+			}
+			else {
+				handler.post(requestFrameCommand);
+			}
+		}
+	}
+
+	private class Node extends MyTaskNode {
+		// Called by handler when delayed time comes, move to ready queue for next frame
+		@Override
+		public void run() {
+			if (MyTaskNodes.isCancelled(this)) {
+				nodes.release(this);
+			}
+			else {
+				pushReady(this);
+			}
+		}
+	}
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2017-2021 DarkCompet. All rights reserved.
+ */
+
+package tool.compet.stream;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+
+import tool.compet.core.DkLogcats;
+
+/**
+ * Runs tasks on a shared executor, but at most `maxConcurrency` tasks at a time, so a module can
+ * bound its parallelism without owning threads. Tasks are started in submission order, so with
+ * concurrency 1 this is a serial executor.
+ */
+class MyLimitedExecutor implements Executor {
+	private final Executor delegate;
+	private final int maxConcurrency;
+	// Max number of waiting tasks, 0 means unbounded
+	private final int maxQueueSize;
+
+	// Guarded by itself
+	private final ArrayDeque<Runnable> queue = new ArrayDeque<>();
+	private int runningCount;
+
+	MyLimitedExecutor(Executor delegate, int maxConcurrency, int maxQueueSize) {
+		this.delegate = delegate;
+		this.maxConcurrency = Math.max(1, maxConcurrency);
+		this.maxQueueSize = Math.max(0, maxQueueSize);
+	}
+
+	@Override
+	public void execute(Runnable task) {
+		boolean callerRuns = false;
+
+		synchronized (queue) {
+			if (runningCount < maxConcurrency) {
+				++runningCount;
+			}
+			else if (maxQueueSize == 0 || queue.size() < maxQueueSize) {
+				queue.offer(task);
+				return;
+			}
+			else {
+				callerRuns = true;
+			}
+		}
+
+		// Queue is full, caller runs the task itself (back pressure)
+		if (callerRuns) {
+			task.run();
+			return;
+		}
+
+		try {
+			delegate.execute(() -> drain(task));
+		}
+		catch (RuntimeException e) {
+			synchronized (queue) {
+				--runningCount;
+			}
+			throw e;
+		}
+	}
+
+	// Run given task, then waiting tasks until the queue is empty
+	private void drain(Runnable task) {
+		while (task != null) {
+			try {
+				task.run();
+			}
+			catch (RuntimeException e) {
+				DkLogcats.error(this, e);
+			}
+
+			synchronized (queue) {
+				task = queue.poll();
+				if (task == null) {
+					--runningCount;
+				}
+			}
+		}
+	}
+}
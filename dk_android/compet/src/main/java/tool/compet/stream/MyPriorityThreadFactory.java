@@ -0,0 +1,38 @@
+/*
+ * Copyright (c) 2017-2021 DarkCompet. All rights reserved.
+ */
+
+package tool.compet.stream;
+
+import android.os.Process;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates daemon threads which set linux (nice) priority via `Process.setThreadPriority()`
+ * at start of the thread, since `Thread.setPriority()` is not respected well by Android.
+ */
+class MyPriorityThreadFactory implements ThreadFactory {
+	private final String namePrefix;
+	private final int priority;
+	private final AtomicInteger threadId = new AtomicInteger();
+
+	/**
+	 * @param priority Linux priority, for eg,. `Process.THREAD_PRIORITY_BACKGROUND`.
+	 */
+	MyPriorityThreadFactory(String namePrefix, int priority) {
+		this.namePrefix = namePrefix;
+		this.priority = priority;
+	}
+
+	@Override
+	public Thread newThread(Runnable runnable) {
+		Thread thread = new Thread(() -> {
+			Process.setThreadPriority(priority);
+			runnable.run();
+		}, namePrefix + threadId.getAndIncrement());
+		thread.setDaemon(true);
+		return thread;
+	}
+}
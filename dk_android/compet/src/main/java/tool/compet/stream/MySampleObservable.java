@@ -0,0 +1,22 @@
+/*
+ * Copyright (c) 2017-2021 DarkCompet. All rights reserved.
+ */
+
+package tool.compet.stream;
+
+import tool.compet.stream4j.DkObservableSource;
+import tool.compet.stream4j.DkObserver;
+
+class MySampleObservable<M> extends DkObservable<M> {
+	private final long periodMillis;
+
+	MySampleObservable(DkObservableSource<M> parent, long periodMillis) {
+		super(parent);
+		this.periodMillis = periodMillis;
+	}
+
+	@Override
+	public void subscribeActual(DkObserver<M> observer) throws Exception {
+		parent.subscribe(new MySampleObserver<>(observer, periodMillis));
+	}
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2017-2021 DarkCompet. All rights reserved.
+ */
+
+package tool.compet.stream;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import tool.compet.stream4j.DkObserver;
+import tool.compet.stream4j.OwnObserver;
+
+/**
+ * Keeps only latest item, and emits it at each period if new item has come.
+ * Items between 2 periods are dropped, latest item is also emitted at complete.
+ * Sampled item is emitted at computation thread.
+ */
+class MySampleObserver<M> extends OwnObserver<M> {
+	// Below are guarded by `this`
+	private M latest;
+	private boolean hasLatest;
+	private boolean done;
+	private ScheduledFuture<?> timer;
+
+	MySampleObserver(DkObserver<M> child, long periodMillis) {
+		super(child);
+
+		// Do not emit at shared timer thread since child maybe slow
+		Runnable emitCommand = this::emitLatest;
+		timer = DkSchedulers.delayExecutor().scheduleAtFixedRate(
+			() -> DkSchedulers.computationExecutor().execute(emitCommand),
+			periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public synchronized void onNext(M item) {
+		if (! done) {
+			latest = item;
+			hasLatest = true;
+		}
+	}
+
+	@Override
+	public synchronized void onError(Throwable e) {
+		if (! done) {
+			fail(e);
+		}
+	}
+
+	@Override
+	public synchronized void onComplete() throws Exception {
+		if (done) {
+			return;
+		}
+		emitLatest();
+
+		if (! done) {
+			done = true;
+			cancelTimer();
+			child.onComplete();
+		}
+	}
+
+	@Override
+	public synchronized void onFinal() {
+		cancelTimer();
+		child.onFinal();
+	}
+
+	private synchronized void emitLatest() {
+		if (done || ! hasLatest) {
+			return;
+		}
+		M item = latest;
+		latest = null;
+		hasLatest = false;
+
+		try {
+			child.onNext(item);
+		}
+		catch (Exception e) {
+			fail(e);
+		}
+	}
+
+	// Must be called inside lock
+	private void fail(Throwable e) {
+		done = true;
+		latest = null;
+		hasLatest = false;
+		cancelTimer();
+		child.onError(e);
+	}
+
+	// Must be called inside lock
+	private void cancelTimer() {
+		if (timer != null) {
+			timer.cancel(false);
+			timer = null;
+		}
+	}
+}
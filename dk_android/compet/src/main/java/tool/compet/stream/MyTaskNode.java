@@ -0,0 +1,30 @@
+/*
+ * Copyright (c) 2017-2021 DarkCompet. All rights reserved.
+ */
+
+package tool.compet.stream;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pooled holder of a task which is scheduled to ui thread, see `MyTaskNodes`.
+ * State is: [generation][consumed][cancel cleared][status: 2 bits]. Generation is increased at
+ * each reuse, so a cancel which read previous task of the node never affects current task.
+ */
+abstract class MyTaskNode implements Runnable {
+	static final long STATUS_MASK = 3L;
+	static final long IDLE = 0L; // In pool
+	static final long WAITING = 1L; // Scheduled, not run yet
+	static final long RUNNING = 2L; // Claimed by ui thread
+	static final long CANCELLED = 3L;
+	static final long CANCEL_CLEARED = 1L << 2; // Canceller released the task
+	static final long CONSUMED = 1L << 3; // Ui thread passed the cancelled node
+	static final int GENERATION_SHIFT = 4;
+
+	final AtomicLong state = new AtomicLong();
+	Callable<?> callable;
+	Runnable runnable;
+	MyTaskNode readyNext; // In ready queue of frame scheduler
+	int registryIndex; // Guarded by registry lock of `MyTaskNodes`
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) 2017-2021 DarkCompet. All rights reserved.
+ */
+
+package tool.compet.stream;
+
+import java.util.concurrent.Callable;
+
+import tool.compet.core.DkLogcats;
+
+import static tool.compet.stream.MyTaskNode.CANCELLED;
+import static tool.compet.stream.MyTaskNode.CANCEL_CLEARED;
+import static tool.compet.stream.MyTaskNode.CONSUMED;
+import static tool.compet.stream.MyTaskNode.GENERATION_SHIFT;
+import static tool.compet.stream.MyTaskNode.RUNNING;
+import static tool.compet.stream.MyTaskNode.STATUS_MASK;
+import static tool.compet.stream.MyTaskNode.WAITING;
+
+/**
+ * Lock-free pool of task nodes for ui schedulers. Producers (any thread) and ui thread
+ * only do CAS on state of a node and on the pool, so they never block each other.
+ * <p>
+ * To cancel, all nodes are kept in a registry which is scanned under its own lock. The registry
+ * is changed only when a node is created (pool is empty) or dropped (pool is full), so cancel
+ * does not block producers and ui thread at steady state.
+ */
+class MyTaskNodes {
+	interface Factory {
+		MyTaskNode newNode();
+	}
+
+	private static final int MAX_POOL_SIZE = 256;
+
+	private final Factory factory;
+	private final MyConcurrentPool<MyTaskNode> pool = new MyConcurrentPool<>(MAX_POOL_SIZE);
+
+	private final Object registryLock = new Object();
+	private MyTaskNode[] registry = new MyTaskNode[MAX_POOL_SIZE];
+	private int registrySize;
+
+	MyTaskNodes(Factory factory) {
+		this.factory = factory;
+	}
+
+	MyTaskNode obtain(Callable<?> callable, Runnable runnable) {
+		MyTaskNode node = pool.poll();
+		if (node == null) {
+			node = factory.newNode();
+			register(node);
+		}
+
+		node.callable = callable;
+		node.runnable = runnable;
+
+		// Publish the task with new generation
+		long generation = (node.state.get() >>> GENERATION_SHIFT) + 1;
+		node.state.set((generation << GENERATION_SHIFT) | WAITING);
+
+		return node;
+	}
+
+	/**
+	 * Called at ui thread when the node comes. Run the task and recycle the node,
+	 * or just release the node if it was cancelled.
+	 */
+	void runOrRelease(MyTaskNode node) {
+		long state = node.state.get();
+
+		if ((state & STATUS_MASK) == WAITING && node.state.compareAndSet(state, (state & ~STATUS_MASK) | RUNNING)) {
+			execute(node);
+			recycle(node);
+		}
+		else {
+			release(node);
+		}
+	}
+
+	static boolean isCancelled(MyTaskNode node) {
+		return (node.state.get() & STATUS_MASK) == CANCELLED;
+	}
+
+	/**
+	 * Called at ui thread when a cancelled node comes. Both canceller and ui thread touch
+	 * the node, so the later one recycles it.
+	 */
+	void release(MyTaskNode node) {
+		while (true) {
+			long state = node.state.get();
+			if ((state & CANCEL_CLEARED) != 0) {
+				recycle(node);
+				return;
+			}
+			if (node.state.compareAndSet(state, state | CONSUMED)) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Cancel all waiting nodes of given task. Cancelled nodes stay in queue (or handler)
+	 * until they come, but their task is released now.
+	 *
+	 * @return True if some node was cancelled.
+	 */
+	boolean cancel(Callable<?> task) {
+		boolean cancelled = false;
+
+		synchronized (registryLock) {
+			// Backward since recycling may remove current node by moving last node to its index
+			for (int index = registrySize - 1; index >= 0; --index) {
+				MyTaskNode node = registry[index];
+				long state = node.state.get();
+
+				if ((state & STATUS_MASK) == WAITING && node.callable == task
+					&& node.state.compareAndSet(state, (state & ~STATUS_MASK) | CANCELLED)) {
+
+					// Release captured objects (observers, activity...) since the node stays queued until it comes
+					node.callable = null;
+					node.runnable = null;
+					cancelled = true;
+
+					while (true) {
+						state = node.state.get();
+						if ((state & CONSUMED) != 0) {
+							recycle(node);
+							break;
+						}
+						if (node.state.compareAndSet(state, state | CANCEL_CLEARED)) {
+							break;
+						}
+					}
+				}
+			}
+		}
+
+		return cancelled;
+	}
+
+	private void execute(MyTaskNode node) {
+		Runnable runnable = node.runnable;
+		Callable<?> callable = node.callable;
+		try {
+			if (runnable != null) {
+				runnable.run();
+			}
+			else if (callable != null) {
+				callable.call();
+			}
+		}
+		catch (Exception e) {
+			DkLogcats.error(this, e);
+		}
+	}
+
+	// Put back to pool with same generation, or drop if the pool is full
+	private void recycle(MyTaskNode node) {
+		node.callable = null;
+		node.runnable = null;
+		node.readyNext = null;
+		node.state.set(node.state.get() & ~((1L << GENERATION_SHIFT) - 1));
+
+		if (! pool.offer(node)) {
+			unregister(node);
+		}
+	}
+
+	private void register(MyTaskNode node) {
+		synchronized (registryLock) {
+			if (registrySize == registry.length) {
+				MyTaskNode[] newRegistry = new MyTaskNode[registrySize << 1];
+				System.arraycopy(registry, 0, newRegistry, 0, registrySize);
+				registry = newRegistry;
+			}
+			node.registryIndex = registrySize;
+			registry[registrySize++] = node;
+		}
+	}
+
+	private void unregister(MyTaskNode node) {
+		synchronized (registryLock) {
+			MyTaskNode last = registry[--registrySize];
+			registry[node.registryIndex] = last;
+			last.registryIndex = node.registryIndex;
+			registry[registrySize] = null;
+		}
+	}
+}
@@ -8,7 +8,6 @@ import android.os.Handler;
 import android.os.Looper;
 
 import java.util.concurrent.Callable;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
 import tool.compet.core.DkLogcats;
@@ -16,13 +15,17 @@ import tool.compet.stream4j.DkScheduler;
 
 import static tool.compet.BuildConfig.DEBUG;
 
+/**
+ * Posts each task to main looper. Tasks are wrapped into pooled nodes which are posted directly
+ * (no wrapper lambda, no map entry), see `MyTaskNodes`. Scheduling, running and cancelling
+ * do not take a lock which is shared with ui thread, and do not allocate in steady state.
+ */
 class MyUiScheduler<T> implements DkScheduler<T> {
 	private final Handler handler;
-	private final ConcurrentHashMap<Callable<T>, Runnable> pendingCommands;
+	private final MyTaskNodes nodes = new MyTaskNodes(() -> new Node());
 
 	MyUiScheduler() {
 		handler = new Handler(Looper.getMainLooper());
-		pendingCommands = new ConcurrentHashMap<>();
 	}
 
 	@Override
@@ -37,10 +40,7 @@ class MyUiScheduler<T> implements DkScheduler<T> {
 
 	@Override
 	public void schedule(Runnable task, long delay, TimeUnit unit, boolean isSerial) {
-		schedule(() -> {
-			task.run();
-			return null;
-		}, delay, unit, isSerial);
+		handler.postDelayed(nodes.obtain(null, task), unit.toMillis(delay));
 	}
 
 	@Override
@@ -55,39 +55,28 @@ class MyUiScheduler<T> implements DkScheduler<T> {
 
 	@Override
 	public void schedule(Callable<T> task, long delay, TimeUnit unit, boolean isSerial) {
-		// Run on IO thread, so must take care about thread-safe
-		Runnable command = () -> {
-			try {
-				task.call();
-			}
-			catch (Exception e) {
-				DkLogcats.error(this, e);
-			}
-			finally {
-				pendingCommands.remove(task);
-			}
-		};
-
-		pendingCommands.put(task, command);
-
-		handler.postDelayed(command, unit.toMillis(delay));
+		handler.postDelayed(nodes.obtain(task, null), unit.toMillis(delay));
 	}
 
-	// Just try to cancel, not serious way to cancel a task
+	// Just try to cancel, not serious way to cancel a task.
+	// The node is only marked as cancelled, it is still posted and is recycled when it comes,
+	// so a node is never reused while looper still holds it.
 	@Override
 	public boolean cancel(Callable<T> task, boolean mayInterruptThread) {
-		Runnable command = pendingCommands.get(task);
+		boolean cancelled = nodes.cancel(task);
 
 		if (DEBUG) {
-			DkLogcats.info(this, "Cancelled task %s, result: %b", task.toString(), command != null);
+			DkLogcats.info(this, "Cancelled task %s, result: %b", task.toString(), cancelled);
 		}
 
-		if (command != null) {
-			handler.removeCallbacks(command);
-			pendingCommands.remove(task);
-			return true;
-		}
+		return cancelled;
+	}
 
-		return false;
+	private class Node extends MyTaskNode {
+		// Called at ui thread
+		@Override
+		public void run() {
+			nodes.runOrRelease(this);
+		}
 	}
 }
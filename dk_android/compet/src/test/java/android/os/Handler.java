@@ -0,0 +1,76 @@
+package android.os;
+
+/**
+ * Test shadow of android Handler (android.jar is only stubs at local unit test).
+ * Posted callbacks are kept in a preallocated array (so posting does not allocate),
+ * and are run in post order by `runPendingCallbacks()`, delay is ignored.
+ */
+public class Handler {
+	private static final int CAPACITY = 1 << 16;
+	private static final Runnable[] pending = new Runnable[CAPACITY];
+	private static int pendingCount;
+
+	public interface Callback {
+		boolean handleMessage(Message msg);
+	}
+
+	public Handler() {
+	}
+
+	public Handler(Looper looper) {
+	}
+
+	public Handler(Looper looper, Callback callback) {
+	}
+
+	public final boolean post(Runnable r) {
+		return postDelayed(r, 0);
+	}
+
+	public final boolean postDelayed(Runnable r, long delayMillis) {
+		synchronized (Handler.class) {
+			if (pendingCount == CAPACITY) {
+				throw new IllegalStateException("Too many pending callbacks, run them first");
+			}
+			pending[pendingCount++] = r;
+		}
+		return true;
+	}
+
+	public final void removeCallbacks(Runnable r) {
+		synchronized (Handler.class) {
+			int count = 0;
+			for (int index = 0; index < pendingCount; ++index) {
+				if (pending[index] != r) {
+					pending[count++] = pending[index];
+				}
+			}
+			for (int index = count; index < pendingCount; ++index) {
+				pending[index] = null;
+			}
+			pendingCount = count;
+		}
+	}
+
+	/**
+	 * Run all pending callbacks (including callbacks which be posted while running) at current thread.
+	 *
+	 * @return Number of run callbacks.
+	 */
+	public static int runPendingCallbacks() {
+		int runCount = 0;
+		while (true) {
+			Runnable r;
+			synchronized (Handler.class) {
+				if (runCount >= pendingCount) {
+					pendingCount = 0;
+					return runCount;
+				}
+				r = pending[runCount];
+				pending[runCount] = null;
+			}
+			r.run();
+			++runCount;
+		}
+	}
+}
@@ -0,0 +1,65 @@
+package android.view;
+
+/**
+ * Test shadow of android Choreographer (android.jar is only stubs at local unit test).
+ * Frame callbacks are kept until `runFrame()` is called.
+ */
+public final class Choreographer {
+	private static final Choreographer instance = new Choreographer();
+	private static final int CAPACITY = 64;
+	private static final FrameCallback[] callbacks = new FrameCallback[CAPACITY];
+	private static final FrameCallback[] frameCallbacks = new FrameCallback[CAPACITY];
+	private static int callbackCount;
+
+	public interface FrameCallback {
+		void doFrame(long frameTimeNanos);
+	}
+
+	public static Choreographer getInstance() {
+		return instance;
+	}
+
+	public void postFrameCallback(FrameCallback callback) {
+		synchronized (Choreographer.class) {
+			callbacks[callbackCount++] = callback;
+		}
+	}
+
+	public void removeFrameCallback(FrameCallback callback) {
+		synchronized (Choreographer.class) {
+			for (int index = 0; index < callbackCount; ++index) {
+				if (callbacks[index] == callback) {
+					callbacks[index] = callbacks[--callbackCount];
+					callbacks[callbackCount] = null;
+					return;
+				}
+			}
+		}
+	}
+
+	public static int pendingFrameCallbackCount() {
+		synchronized (Choreographer.class) {
+			return callbackCount;
+		}
+	}
+
+	/**
+	 * Run callbacks which were posted before this frame, must be called at one thread.
+	 */
+	public static void runFrame() {
+		int count;
+		synchronized (Choreographer.class) {
+			count = callbackCount;
+			System.arraycopy(callbacks, 0, frameCallbacks, 0, count);
+			for (int index = 0; index < count; ++index) {
+				callbacks[index] = null;
+			}
+			callbackCount = 0;
+		}
+		long frameTimeNanos = System.nanoTime();
+		for (int index = 0; index < count; ++index) {
+			frameCallbacks[index].doFrame(frameTimeNanos);
+			frameCallbacks[index] = null;
+		}
+	}
+}
@@ -0,0 +1,72 @@
+package tool.compet.core;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import tool.compet.core4j.DkLogger;
+import tool.compet.storage.DkFileLogger;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Filtered log calls (below min log type) via primitive overloads must not allocate:
+ * no varargs array, no boxing, no formatting.
+ */
+public class DkLogcatsAllocationTest {
+	private static final int CALL_COUNT = 100_000;
+	// Tolerance for measuring itself
+	private static final long MAX_ALLOCATED_BYTES = 256;
+
+	@Test
+	public void filteredLogcatsCalls_doNotAllocate() {
+		DkLogcats.setMinLogType(DkLogger.LogType.TYPE_ERROR);
+		try {
+			Runnable calls = () -> {
+				for (int index = 0; index < CALL_COUNT; ++index) {
+					DkLogcats.debug(this, "value: %d", index);
+					DkLogcats.info(this, "ratio: %f", index / 3.0);
+					DkLogcats.notice(this, "pair: %d, %d", index, index + 1);
+					DkLogcats.warning(this, "name: %s", "dk");
+				}
+			};
+			calls.run(); // Warm up
+
+			long allocated = allocatedBytes(calls);
+			assertTrue("Filtered calls allocated " + allocated + " bytes", allocated <= MAX_ALLOCATED_BYTES);
+		}
+		finally {
+			DkLogcats.setMinLogType(DkLogger.LogType.TYPE_DEBUG);
+		}
+	}
+
+	@Test
+	public void filteredFileLoggerCalls_doNotAllocate() {
+		DkFileLogger logger = new DkFileLogger((logType, message) -> {
+			throw new AssertionError("Filtered log was written: " + message);
+		});
+		logger.setMinLogType(DkLogger.LogType.TYPE_ERROR);
+
+		Runnable calls = () -> {
+			for (int index = 0; index < CALL_COUNT; ++index) {
+				logger.debug(this, "value: %d", index);
+				logger.info(this, "ratio: %f", index / 3.0);
+				logger.notice(this, "pair: %d, %d", index, index + 1);
+				logger.warning(this, "names: %s, %s", "dk", "compet");
+			}
+		};
+		calls.run(); // Warm up
+
+		long allocated = allocatedBytes(calls);
+		assertTrue("Filtered calls allocated " + allocated + " bytes", allocated <= MAX_ALLOCATED_BYTES);
+	}
+
+	private static long allocatedBytes(Runnable task) {
+		com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long threadId = Thread.currentThread().getId();
+
+		long before = bean.getThreadAllocatedBytes(threadId);
+		task.run();
+		return bean.getThreadAllocatedBytes(threadId) - before;
+	}
+}
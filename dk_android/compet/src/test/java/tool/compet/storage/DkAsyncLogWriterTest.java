@@ -0,0 +1,38 @@
+package tool.compet.storage;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+
+import tool.compet.core.DkLogFormats;
+import tool.compet.core4j.DkLogger;
+
+import static org.junit.Assert.assertTrue;
+
+public class DkAsyncLogWriterTest {
+	@Test
+	public void mutableArg_isLoggedAsStateAtEnqueue() throws IOException {
+		File logFile = new File(Files.createTempDirectory("dk_log").toFile(), "app.log");
+		DkAsyncLogWriter writer = new DkAsyncLogWriter(logFile, 64).setDropPolicy(DkAsyncLogWriter.BLOCK);
+
+		// Not started yet, so the writer thread can only see the arg after it was changed
+		ArrayList<String> items = new ArrayList<>();
+		items.add("first");
+		StringBuilder builder = new StringBuilder("before");
+		writer.enqueue(DkLogger.LogType.TYPE_INFO, null, "items: %s, builder: %s", DkLogFormats.ARG_OBJECT_OBJECT, items, 0, builder, 0);
+		writer.enqueue(DkLogger.LogType.TYPE_INFO, null, "flag: %b, count: %d", DkLogFormats.ARG_OBJECT_OBJECT, Boolean.FALSE, 0, 3, 0);
+		items.add("second");
+		builder.append(" after");
+
+		writer.start();
+		writer.stop();
+
+		String content = new String(Files.readAllBytes(logFile.toPath()), Charset.forName("UTF-8"));
+		assertTrue(content, content.contains("items: [first], builder: before"));
+		assertTrue(content, content.contains("flag: false, count: 3"));
+	}
+}
@@ -0,0 +1,76 @@
+package tool.compet.storage;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import tool.compet.core.DkLogFormats;
+import tool.compet.core4j.DkLogger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Decoded message must be same as message which is formatted at device.
+ */
+public class DkBinaryLogDecoderTest {
+	private final ArrayList<MyLogRingBuffer.Record> records = new ArrayList<>();
+
+	@Test
+	public void decodedMessage_isSameAsDeviceFormat() throws IOException {
+		addObjects("Cancelled task %s, result: %b", "task", Boolean.FALSE);
+		addObjects("Boxed int %d, boxed long %x", 42, -1L);
+		addObjects("Boxed float %.2f, boxed double %.3f", 1.5f, Math.PI);
+		addObjects("Char %c, null %s", 'x', null);
+		addObjects("List %s", Arrays.asList(1, 2), null);
+		addObjects("Strings %s and %s", "a", "b");
+		add(DkLogger.LogType.TYPE_INFO, "Where", "Loaded page %d in %d ms", DkLogFormats.ARG_LONG_LONG, null, 3, null, 120);
+		add(DkLogger.LogType.TYPE_INFO, null, "Ratio %.3f", DkLogFormats.ARG_DOUBLE, null, Double.doubleToRawLongBits(0.125), null, 0);
+		add(DkLogger.LogType.TYPE_INFO, null, "Bad %d", DkLogFormats.ARG_OBJECT, "text", 0, null, 0);
+		add(DkLogger.LogType.TYPE_INFO, null, "Char %c", DkLogFormats.ARG_LONG, Character.class, 'x', null, 0);
+		add(DkLogger.LogType.TYPE_INFO, null, "Byte %x, int %x", DkLogFormats.ARG_LONG_LONG, Byte.class, -1, Integer.class, -2);
+		add(DkLogger.LogType.TYPE_INFO, null, "Float %s", DkLogFormats.ARG_DOUBLE, Float.class, Double.doubleToRawLongBits(1.1f), null, 0);
+		add(DkLogger.LogType.TYPE_INFO, null, "Plain message", DkLogFormats.ARG_NONE, null, 0, null, 0);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		MyBinaryLogEncoder encoder = new MyBinaryLogEncoder(out, true, 1000);
+		for (MyLogRingBuffer.Record record : records) {
+			encoder.write(record);
+		}
+		encoder.close();
+
+		DkBinaryLogDecoder decoder = new DkBinaryLogDecoder(new ByteArrayInputStream(out.toByteArray()));
+		DkBinaryLogDecoder.Entry entry = new DkBinaryLogDecoder.Entry();
+
+		for (MyLogRingBuffer.Record record : records) {
+			String expected = DkLogFormats.format(record.where, record.message, record.argKinds, record.obj1, record.prim1, record.obj2, record.prim2);
+			decoder.next(entry);
+			assertEquals(expected, entry.message);
+			assertEquals(record.time, entry.time);
+		}
+		assertFalse(decoder.next(entry));
+		assertFalse(decoder.isTruncated());
+	}
+
+	private void addObjects(String format, Object arg1, Object arg2) {
+		add(DkLogger.LogType.TYPE_DEBUG, this, format, DkLogFormats.ARG_OBJECT_OBJECT, arg1, 0, arg2, 0);
+	}
+
+	private void add(int logType, Object where, String format, int argKinds, Object obj1, long prim1, Object obj2, long prim2) {
+		MyLogRingBuffer.Record record = new MyLogRingBuffer.Record();
+		record.logType = logType;
+		record.time = 1000 + records.size();
+		record.where = where;
+		record.message = format;
+		record.argKinds = argKinds;
+		record.obj1 = obj1;
+		record.prim1 = prim1;
+		record.obj2 = obj2;
+		record.prim2 = prim2;
+		records.add(record);
+	}
+}
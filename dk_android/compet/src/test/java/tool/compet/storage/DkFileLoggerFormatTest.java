@@ -0,0 +1,47 @@
+package tool.compet.storage;
+
+import org.junit.Test;
+
+import java.util.Locale;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Primitive overloads must format args as same as boxed varargs of their own type.
+ */
+public class DkFileLoggerFormatTest {
+	private String lastMessage;
+	private final DkFileLogger logger = new DkFileLogger((logType, message) -> lastMessage = message);
+
+	@Test
+	public void narrowerPrimitives_keepOwnFormatting() {
+		char ch = 'x';
+		byte b = -1;
+		short sh = -2;
+		int i = -3;
+		float f = 1.1f;
+
+		logger.info(null, "%c", ch);
+		assertMessage(String.format(Locale.US, "%c", ch));
+		logger.info(null, "%s", ch);
+		assertMessage(String.format(Locale.US, "%s", ch));
+		logger.info(null, "%x", b);
+		assertMessage(String.format(Locale.US, "%x", b));
+		logger.info(null, "%x", sh);
+		assertMessage(String.format(Locale.US, "%x", sh));
+		logger.info(null, "%x", i);
+		assertMessage(String.format(Locale.US, "%x", i));
+		logger.info(null, "%s", f);
+		assertMessage(String.format(Locale.US, "%s", f));
+		logger.info(null, "%x, %d", i, 7);
+		assertMessage(String.format(Locale.US, "%x, %d", i, 7));
+		logger.info(null, "%x", -4L);
+		assertMessage(String.format(Locale.US, "%x", -4L));
+		logger.info(null, "%s", 0.1);
+		assertMessage(String.format(Locale.US, "%s", 0.1));
+	}
+
+	private void assertMessage(String expected) {
+		assertTrue(lastMessage + " should end with " + expected, lastMessage.endsWith(": " + expected));
+	}
+}
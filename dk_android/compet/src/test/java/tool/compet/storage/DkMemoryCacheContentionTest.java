@@ -0,0 +1,91 @@
+package tool.compet.storage;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Contention benchmark of lock-striped segments against single segment (the implementation
+ * before segments, which is still used when concurrency level is 1).
+ * Each thread runs mixed get (75%) and put (25%) on a shared key space.
+ */
+public class DkMemoryCacheContentionTest {
+	private static final int THREAD_COUNT = 8;
+	private static final int OPS_PER_THREAD = 200_000;
+	private static final int KEY_COUNT = 4096;
+	private static final long ENTRY_SIZE = 100;
+	// Keep half of keys, so puts also evict
+	private static final long MAX_SIZE = KEY_COUNT * ENTRY_SIZE / 2;
+
+	@Test
+	public void segmentedCache_underContention() throws Exception {
+		String[] keys = new String[KEY_COUNT];
+		for (int index = 0; index < KEY_COUNT; ++index) {
+			keys[index] = "key_" + index;
+		}
+
+		// Warm up JIT
+		run(1, keys);
+		run(THREAD_COUNT, keys);
+
+		long singleNanos = run(1, keys);
+		long stripedNanos = run(THREAD_COUNT, keys);
+
+		long totalOps = (long) THREAD_COUNT * OPS_PER_THREAD;
+		System.out.printf("%d threads, %d ops: single segment %.0f ops/ms, %d segments %.0f ops/ms (x%.2f)%n",
+			THREAD_COUNT, totalOps,
+			totalOps * 1e6 / singleNanos,
+			THREAD_COUNT, totalOps * 1e6 / stripedNanos,
+			(double) singleNanos / stripedNanos);
+	}
+
+	private static long run(int concurrencyLevel, String[] keys) throws Exception {
+		DkMemoryCache cache = new DkMemoryCache(MAX_SIZE).setConcurrencyLevel(concurrencyLevel);
+		CountDownLatch startSignal = new CountDownLatch(1);
+		CountDownLatch doneSignal = new CountDownLatch(THREAD_COUNT);
+		Throwable[] errors = new Throwable[THREAD_COUNT];
+
+		for (int threadIndex = 0; threadIndex < THREAD_COUNT; ++threadIndex) {
+			int index = threadIndex;
+			new Thread(() -> {
+				try {
+					ThreadLocalRandom random = ThreadLocalRandom.current();
+					startSignal.await();
+
+					for (int op = 0; op < OPS_PER_THREAD; ++op) {
+						String key = keys[random.nextInt(KEY_COUNT)];
+						if ((op & 3) == 0) {
+							cache.put(key, new DkMemoryCache.Snapshot(key, ENTRY_SIZE));
+						}
+						else {
+							cache.get(key);
+						}
+					}
+				}
+				catch (Throwable e) {
+					errors[index] = e;
+				}
+				finally {
+					doneSignal.countDown();
+				}
+			}).start();
+		}
+
+		long startTime = System.nanoTime();
+		startSignal.countDown();
+		doneSignal.await();
+		long elapsed = System.nanoTime() - startTime;
+
+		for (Throwable error : errors) {
+			if (error != null) {
+				throw new AssertionError(error);
+			}
+		}
+		assertTrue("Cache exceeded its budget: " + cache.size(), cache.size() <= MAX_SIZE);
+
+		return elapsed;
+	}
+}
@@ -0,0 +1,152 @@
+package tool.compet.stream;
+
+import android.view.Choreographer;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import tool.compet.stream4j.DkScheduler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Choreographer is shadowed in test sources, a frame is run by `Choreographer.runFrame()`.
+ */
+public class MyFrameUiSchedulerTest {
+	private static final int TASK_COUNT = 200_000;
+	private static final int TASKS_PER_FRAME = 128;
+	// Tolerance for measuring itself
+	private static final long MAX_ALLOCATED_BYTES = 1024;
+
+	private int runCount;
+	private final Runnable runnable = () -> ++runCount;
+	private final Callable<Object> callable = () -> {
+		++runCount;
+		return null;
+	};
+
+	@Test
+	public void scheduleAndRunPerFrame_doesNotAllocate() {
+		MyFrameUiScheduler<Object> scheduler = new MyFrameUiScheduler<>(1000);
+		scheduleAndRunAll(scheduler); // Warm up and fill the pool
+
+		long allocated = allocatedBytes(() -> scheduleAndRunAll(scheduler));
+
+		assertEquals(2L * TASK_COUNT, runCount);
+		assertTrue("Scheduling allocated " + allocated + " bytes", allocated <= MAX_ALLOCATED_BYTES);
+	}
+
+	@Test
+	public void frameBudget_defersLeftoverTasksToNextFrame() {
+		MyFrameUiScheduler<Object> scheduler = new MyFrameUiScheduler<>(1);
+		Runnable slowTask = () -> {
+			long endTime = System.nanoTime() + 100_000;
+			while (System.nanoTime() < endTime) {
+				// Busy for 0.1 ms
+			}
+			++runCount;
+		};
+		for (int index = 0; index < 100; ++index) {
+			scheduler.scheduleNow(slowTask);
+		}
+
+		int frameCount = 0;
+		while (Choreographer.pendingFrameCallbackCount() > 0) {
+			Choreographer.runFrame();
+			++frameCount;
+		}
+
+		assertEquals(100, runCount);
+		assertTrue("Tasks were run in " + frameCount + " frame", frameCount > 1);
+	}
+
+	@Test
+	public void cancel_skipsPendingTask() {
+		MyFrameUiScheduler<Object> scheduler = new MyFrameUiScheduler<>(8);
+		scheduler.scheduleNow(callable);
+		scheduler.scheduleNow(runnable);
+
+		assertTrue(scheduler.cancel(callable, false));
+		Choreographer.runFrame();
+
+		assertEquals(1, runCount);
+	}
+
+	@Test
+	public void concurrentScheduleAndCancel_runsEachTaskOnce() throws InterruptedException {
+		scheduleAndCancelConcurrently(new MyFrameUiScheduler<>(8), Choreographer::runFrame);
+	}
+
+	private void scheduleAndRunAll(MyFrameUiScheduler<Object> scheduler) {
+		for (int index = 1; index <= TASK_COUNT; ++index) {
+			if ((index & 1) == 0) {
+				scheduler.scheduleNow(runnable);
+			}
+			else {
+				scheduler.scheduleNow(callable);
+			}
+			if (index % TASKS_PER_FRAME == 0) {
+				Choreographer.runFrame();
+			}
+		}
+		Choreographer.runFrame();
+	}
+
+	// Producers schedule distinct tasks and cancel some of them, while this thread runs as ui thread
+	private static void scheduleAndCancelConcurrently(DkScheduler<Object> scheduler, Runnable runUiThreadOnce) throws InterruptedException {
+		int producerCount = 4;
+		int taskCountPerProducer = 10_000;
+		int taskCount = producerCount * taskCountPerProducer;
+		AtomicIntegerArray runCounts = new AtomicIntegerArray(taskCount);
+		AtomicIntegerArray cancelled = new AtomicIntegerArray(taskCount);
+		AtomicInteger finishedProducerCount = new AtomicInteger();
+
+		Thread[] producers = new Thread[producerCount];
+		for (int producerIndex = 0; producerIndex < producerCount; ++producerIndex) {
+			int firstTaskIndex = producerIndex * taskCountPerProducer;
+			producers[producerIndex] = new Thread(() -> {
+				for (int taskIndex = firstTaskIndex; taskIndex < firstTaskIndex + taskCountPerProducer; ++taskIndex) {
+					int index = taskIndex;
+					Callable<Object> task = () -> {
+						runCounts.incrementAndGet(index);
+						return null;
+					};
+					scheduler.scheduleNow(task);
+					if (index % 3 == 0 && scheduler.cancel(task, false)) {
+						cancelled.set(index, 1);
+					}
+				}
+				finishedProducerCount.incrementAndGet();
+			});
+			producers[producerIndex].start();
+		}
+
+		while (finishedProducerCount.get() < producerCount) {
+			runUiThreadOnce.run();
+		}
+		for (Thread producer : producers) {
+			producer.join();
+		}
+		for (int round = 0; round < 1000; ++round) {
+			runUiThreadOnce.run();
+		}
+
+		for (int index = 0; index < taskCount; ++index) {
+			assertEquals("Task " + index, cancelled.get(index) == 1 ? 0 : 1, runCounts.get(index));
+		}
+	}
+
+	private static long allocatedBytes(Runnable task) {
+		com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long threadId = Thread.currentThread().getId();
+
+		long before = bean.getThreadAllocatedBytes(threadId);
+		task.run();
+		return bean.getThreadAllocatedBytes(threadId) - before;
+	}
+}
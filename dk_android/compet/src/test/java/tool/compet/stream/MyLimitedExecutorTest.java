@@ -0,0 +1,106 @@
+package tool.compet.stream;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MyLimitedExecutorTest {
+	private static final int TASK_COUNT = 10_000;
+
+	@Test
+	public void serialExecutor_runsTasksInOrderOneAtATime() throws Exception {
+		ExecutorService pool = Executors.newFixedThreadPool(8);
+		try {
+			MyLimitedExecutor executor = new MyLimitedExecutor(pool, 1, 0);
+			List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+			AtomicInteger running = new AtomicInteger();
+			AtomicInteger maxRunning = new AtomicInteger();
+			CountDownLatch done = new CountDownLatch(TASK_COUNT);
+
+			for (int index = 0; index < TASK_COUNT; ++index) {
+				int value = index;
+				executor.execute(() -> {
+					maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+					order.add(value);
+					running.decrementAndGet();
+					done.countDown();
+				});
+			}
+
+			assertTrue(done.await(10, TimeUnit.SECONDS));
+			assertEquals(1, maxRunning.get());
+			for (int index = 0; index < TASK_COUNT; ++index) {
+				assertEquals(index, (int) order.get(index));
+			}
+		}
+		finally {
+			pool.shutdownNow();
+		}
+	}
+
+	@Test
+	public void limitedExecutor_boundsConcurrency() throws Exception {
+		ExecutorService pool = Executors.newFixedThreadPool(8);
+		try {
+			MyLimitedExecutor executor = new MyLimitedExecutor(pool, 3, 0);
+			AtomicInteger running = new AtomicInteger();
+			AtomicInteger maxRunning = new AtomicInteger();
+			CountDownLatch done = new CountDownLatch(TASK_COUNT);
+
+			for (int index = 0; index < TASK_COUNT; ++index) {
+				executor.execute(() -> {
+					maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+					Thread.yield();
+					running.decrementAndGet();
+					done.countDown();
+				});
+			}
+
+			assertTrue(done.await(10, TimeUnit.SECONDS));
+			assertTrue("Max running: " + maxRunning.get(), maxRunning.get() <= 3);
+		}
+		finally {
+			pool.shutdownNow();
+		}
+	}
+
+	@Test
+	public void fullQueue_runsTaskAtCaller() throws Exception {
+		ExecutorService pool = Executors.newFixedThreadPool(1);
+		try {
+			MyLimitedExecutor executor = new MyLimitedExecutor(pool, 1, 1);
+			CountDownLatch release = new CountDownLatch(1);
+			CountDownLatch done = new CountDownLatch(2);
+			Thread caller = Thread.currentThread();
+			Thread[] ranAt = new Thread[1];
+
+			executor.execute(() -> {
+				try {
+					release.await();
+				}
+				catch (InterruptedException ignore) {
+				}
+				done.countDown();
+			});
+			executor.execute(done::countDown); // Queued
+			executor.execute(() -> ranAt[0] = Thread.currentThread()); // Queue is full
+
+			assertEquals(caller, ranAt[0]);
+			release.countDown();
+			assertTrue(done.await(10, TimeUnit.SECONDS));
+		}
+		finally {
+			pool.shutdownNow();
+		}
+	}
+}
@@ -0,0 +1,236 @@
+package tool.compet.stream;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import tool.compet.stream4j.DkScheduler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Allocation and throughput of pooled ui scheduler, against previous implementation which
+ * allocated a Callable wrapper, a Runnable command and a map entry per task.
+ * Handler is shadowed in test sources, posted tasks are run by `Handler.runPendingCallbacks()`.
+ */
+public class MyUiSchedulerTest {
+	private static final int TASK_COUNT = 200_000;
+	// Run posted tasks often, so nodes come back to pool before it is exhausted
+	private static final int RUN_INTERVAL = 128;
+	// Tolerance for measuring itself
+	private static final long MAX_ALLOCATED_BYTES = 1024;
+
+	private int runCount;
+	private final Runnable runnable = () -> ++runCount;
+	private final Callable<Object> callable = () -> {
+		++runCount;
+		return null;
+	};
+
+	@Test
+	public void scheduleAndRun_doesNotAllocate() {
+		MyUiScheduler<Object> scheduler = new MyUiScheduler<>();
+		scheduleAndRunAll(scheduler); // Warm up and fill the pool
+
+		long allocated = allocatedBytes(() -> scheduleAndRunAll(scheduler));
+
+		assertEquals(2L * TASK_COUNT, runCount);
+		assertTrue("Scheduling allocated " + allocated + " bytes", allocated <= MAX_ALLOCATED_BYTES);
+	}
+
+	@Test
+	public void cancel_skipsPendingTask() {
+		MyUiScheduler<Object> scheduler = new MyUiScheduler<>();
+		scheduler.schedule(callable, 10, TimeUnit.SECONDS, true);
+		scheduler.scheduleNow(runnable);
+
+		assertTrue(scheduler.cancel(callable, false));
+		assertFalse(scheduler.cancel(callable, false));
+
+		Handler.runPendingCallbacks();
+		assertEquals(1, runCount);
+
+		// Cancelled node is recycled, so it can be scheduled again
+		scheduler.scheduleNow(callable);
+		Handler.runPendingCallbacks();
+		assertEquals(2, runCount);
+	}
+
+	@Test
+	public void benchmark_againstPreviousImplementation() {
+		PreviousUiScheduler<Object> previous = new PreviousUiScheduler<>();
+		MyUiScheduler<Object> pooled = new MyUiScheduler<>();
+
+		// Warm up JIT
+		for (int round = 0; round < 3; ++round) {
+			scheduleAndRunAll(previous);
+			scheduleAndRunAll(pooled);
+		}
+
+		long[] previousResult = measure(previous);
+		long[] pooledResult = measure(pooled);
+
+		System.out.println(String.format(Locale.US, "previous: %.1f ns/task, %.1f bytes/task",
+			previousResult[0] / (double) TASK_COUNT, previousResult[1] / (double) TASK_COUNT));
+		System.out.println(String.format(Locale.US, "pooled:   %.1f ns/task, %.1f bytes/task",
+			pooledResult[0] / (double) TASK_COUNT, pooledResult[1] / (double) TASK_COUNT));
+
+		assertTrue(pooledResult[1] < previousResult[1]);
+	}
+
+	@Test
+	public void concurrentScheduleAndCancel_runsEachTaskOnce() throws InterruptedException {
+		scheduleAndCancelConcurrently(new MyUiScheduler<>(), Handler::runPendingCallbacks);
+	}
+
+	// @return [elapsed nanos, allocated bytes]
+	private long[] measure(DkScheduler<Object> scheduler) {
+		long[] elapsed = new long[1];
+		long allocated = allocatedBytes(() -> {
+			long startTime = System.nanoTime();
+			scheduleAndRunAll(scheduler);
+			elapsed[0] = System.nanoTime() - startTime;
+		});
+		return new long[] {elapsed[0], allocated};
+	}
+
+	private void scheduleAndRunAll(DkScheduler<Object> scheduler) {
+		for (int index = 1; index <= TASK_COUNT; ++index) {
+			if ((index & 1) == 0) {
+				scheduler.scheduleNow(runnable);
+			}
+			else {
+				scheduler.scheduleNow(callable);
+			}
+			if (index % RUN_INTERVAL == 0) {
+				Handler.runPendingCallbacks();
+			}
+		}
+		Handler.runPendingCallbacks();
+	}
+
+	// Producers schedule distinct tasks and cancel some of them, while this thread runs as ui thread
+	private static void scheduleAndCancelConcurrently(DkScheduler<Object> scheduler, Runnable runUiThreadOnce) throws InterruptedException {
+		int producerCount = 4;
+		int taskCountPerProducer = 10_000;
+		int taskCount = producerCount * taskCountPerProducer;
+		AtomicIntegerArray runCounts = new AtomicIntegerArray(taskCount);
+		AtomicIntegerArray cancelled = new AtomicIntegerArray(taskCount);
+		AtomicInteger finishedProducerCount = new AtomicInteger();
+
+		Thread[] producers = new Thread[producerCount];
+		for (int producerIndex = 0; producerIndex < producerCount; ++producerIndex) {
+			int firstTaskIndex = producerIndex * taskCountPerProducer;
+			producers[producerIndex] = new Thread(() -> {
+				for (int taskIndex = firstTaskIndex; taskIndex < firstTaskIndex + taskCountPerProducer; ++taskIndex) {
+					int index = taskIndex;
+					Callable<Object> task = () -> {
+						runCounts.incrementAndGet(index);
+						return null;
+					};
+					scheduler.scheduleNow(task);
+					if (index % 3 == 0 && scheduler.cancel(task, false)) {
+						cancelled.set(index, 1);
+					}
+				}
+				finishedProducerCount.incrementAndGet();
+			});
+			producers[producerIndex].start();
+		}
+
+		while (finishedProducerCount.get() < producerCount) {
+			runUiThreadOnce.run();
+		}
+		for (Thread producer : producers) {
+			producer.join();
+		}
+		for (int round = 0; round < 1000; ++round) {
+			runUiThreadOnce.run();
+		}
+
+		for (int index = 0; index < taskCount; ++index) {
+			assertEquals("Task " + index, cancelled.get(index) == 1 ? 0 : 1, runCounts.get(index));
+		}
+	}
+
+	private static long allocatedBytes(Runnable task) {
+		com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long threadId = Thread.currentThread().getId();
+
+		long before = bean.getThreadAllocatedBytes(threadId);
+		task.run();
+		return bean.getThreadAllocatedBytes(threadId) - before;
+	}
+
+	// Same as MyUiScheduler before tasks were pooled
+	private static class PreviousUiScheduler<T> implements DkScheduler<T> {
+		private final Handler handler = new Handler(Looper.getMainLooper());
+		private final ConcurrentHashMap<Callable<T>, Runnable> pendingCommands = new ConcurrentHashMap<>();
+
+		@Override
+		public void scheduleNow(Runnable task) {
+			schedule(task, 0, TimeUnit.MILLISECONDS, true);
+		}
+
+		@Override
+		public void scheduleNow(Runnable task, boolean isSerial) {
+			schedule(task, 0, TimeUnit.MILLISECONDS, isSerial);
+		}
+
+		@Override
+		public void schedule(Runnable task, long delay, TimeUnit unit, boolean isSerial) {
+			schedule(() -> {
+				task.run();
+				return null;
+			}, delay, unit, isSerial);
+		}
+
+		@Override
+		public void scheduleNow(Callable<T> task) {
+			schedule(task, 0, TimeUnit.MILLISECONDS, true);
+		}
+
+		@Override
+		public void scheduleNow(Callable<T> task, boolean isSerial) {
+			schedule(task, 0, TimeUnit.MILLISECONDS, isSerial);
+		}
+
+		@Override
+		public void schedule(Callable<T> task, long delay, TimeUnit unit, boolean isSerial) {
+			Runnable command = () -> {
+				try {
+					task.call();
+				}
+				catch (Exception e) {
+					throw new RuntimeException(e);
+				}
+				finally {
+					pendingCommands.remove(task);
+				}
+			};
+			pendingCommands.put(task, command);
+			handler.postDelayed(command, unit.toMillis(delay));
+		}
+
+		@Override
+		public boolean cancel(Callable<T> task, boolean mayInterruptThread) {
+			Runnable command = pendingCommands.remove(task);
+			if (command != null) {
+				handler.removeCallbacks(command);
+				return true;
+			}
+			return false;
+		}
+	}
+}